@@ -0,0 +1,139 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.AsyncUploader;
+import com.cloudinary.Cloudinary;
+import com.cloudinary.UploadCancelledException;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncUploaderTest extends AndroidTestCase {
+
+	private MockServer server;
+	private Cloudinary cloudinary;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				if ("fail".equals(request.field("public_id"))) {
+					return new MockServer.Response(400, "{\"error\":{\"message\":\"failed\"}}");
+				}
+				return MockServer.Response.ok("{\"public_id\":\"" + request.field("public_id") + "\"}");
+			}
+		});
+		cloudinary = new Cloudinary(server.config().build());
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	public void testConcurrentUploads() throws Exception {
+		server.setLatency(10);
+		final AtomicInteger succeeded = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(200);
+		AsyncUploader.Callback callback = new AsyncUploader.Callback() {
+			@Override
+			public void onSuccess(JSONObject result) {
+				succeeded.incrementAndGet();
+				done.countDown();
+			}
+
+			@Override
+			public void onError(Throwable error) {
+				done.countDown();
+			}
+		};
+		List<Future<JSONObject>> futures = new ArrayList<Future<JSONObject>>();
+		for (int i = 0; i < 200; i++) {
+			futures.add(cloudinary.asyncUploader().upload(new ByteArrayInputStream(new byte[] { 1, 2, 3 }),
+					Cloudinary.asMap("public_id", "async_" + i), callback));
+		}
+		for (int i = 0; i < 200; i++) {
+			assertEquals("async_" + i, futures.get(i).get(10, TimeUnit.SECONDS).getString("public_id"));
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(200, succeeded.get());
+		assertEquals(200, server.requests().size());
+	}
+
+	public void testErrorReachesFutureAndCallback() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		final Throwable[] reported = new Throwable[1];
+		Future<JSONObject> future = cloudinary.asyncUploader().destroy("fail", null, new AsyncUploader.Callback() {
+			@Override
+			public void onSuccess(JSONObject result) {
+				done.countDown();
+			}
+
+			@Override
+			public void onError(Throwable error) {
+				reported[0] = error;
+				done.countDown();
+			}
+		});
+		try {
+			future.get();
+			fail("Expected the call to fail");
+		} catch (ExecutionException e) {
+			assertEquals("failed", e.getCause().getMessage());
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals("failed", reported[0].getMessage());
+	}
+
+	public void testCancellationReachesCallback() throws Exception {
+		server.setLatency(500);
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicInteger succeeded = new AtomicInteger();
+		final Throwable[] reported = new Throwable[1];
+		Future<JSONObject> future = cloudinary.asyncUploader().destroy("slow", null, new AsyncUploader.Callback() {
+			@Override
+			public void onSuccess(JSONObject result) {
+				succeeded.incrementAndGet();
+				done.countDown();
+			}
+
+			@Override
+			public void onError(Throwable error) {
+				reported[0] = error;
+				done.countDown();
+			}
+		});
+		Thread.sleep(100);
+		assertTrue(future.cancel(true));
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(reported[0] instanceof UploadCancelledException);
+		assertEquals(0, succeeded.get());
+	}
+
+	public void testBoundedQueueRejects() throws Exception {
+		server.setLatency(200);
+		ThreadPoolExecutor executor = AsyncUploader.newBoundedExecutor(1, 1, new ThreadPoolExecutor.AbortPolicy());
+		AsyncUploader uploader = cloudinary.asyncUploader(executor);
+		uploader.destroy("first", null);
+		uploader.destroy("second", null);
+		try {
+			uploader.destroy("third", null);
+			fail("Expected the full queue to reject the call");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(2, server.requests().size());
+	}
+}
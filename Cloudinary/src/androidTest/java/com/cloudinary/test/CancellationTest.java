@@ -0,0 +1,232 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.AsyncUploader;
+import com.cloudinary.CancellationToken;
+import com.cloudinary.Cloudinary;
+import com.cloudinary.NioUploadEngine;
+import com.cloudinary.PooledHttpTransport;
+import com.cloudinary.RetryPolicy;
+import com.cloudinary.UploadCancelledException;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CancellationTest extends AndroidTestCase {
+
+	private MockServer server;
+	private volatile MockServer.Response response = MockServer.Response.ok("{\"public_id\":\"sample\"}");
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				return response;
+			}
+		});
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private Cloudinary cloudinary(PooledHttpTransport transport, RetryPolicy retryPolicy) {
+		return new Cloudinary(server.config()
+				.setHttpTransport(transport)
+				.setRetryPolicy(retryPolicy)
+				.build());
+	}
+
+	/*
+	 * Endless source, cancelling the token once the given number of bytes were read
+	 */
+	private static InputStream cancellingStream(final CancellationToken cancellation, final long cancelAfter, final AtomicLong read) {
+		return new InputStream() {
+			@Override
+			public int read() {
+				byte[] b = new byte[1];
+				read(b, 0, 1);
+				return b[0];
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) {
+				if (read.addAndGet(length) >= cancelAfter) {
+					cancellation.cancel();
+				}
+				return length;
+			}
+		};
+	}
+
+	public void testCancelWhileSending() throws Exception {
+		PooledHttpTransport transport = new PooledHttpTransport(1, 1, 30000);
+		CancellationToken cancellation = new CancellationToken();
+		AtomicLong read = new AtomicLong();
+		try {
+			cloudinary(transport, RetryPolicy.NONE).uploader().upload(cancellingStream(cancellation, 1024 * 1024, read),
+					Cloudinary.asMap("cancellation_token", cancellation));
+			fail("Expected the upload to be cancelled");
+		} catch (UploadCancelledException e) {
+			// expected
+		}
+		// The copy stopped at the next buffer
+		assertTrue("read " + read.get(), read.get() < 1024 * 1024 + 64 * 1024);
+		assertEquals(0, server.requests().size());
+
+		// The only pooled connection was released
+		JSONObject result = cloudinary(transport, RetryPolicy.NONE).uploader().upload(new ByteArrayInputStream(new byte[10]), null);
+		assertEquals("sample", result.getString("public_id"));
+	}
+
+	public void testCancelWhileAwaitingResponse() throws Exception {
+		server.setLatency(5000);
+		final CancellationToken cancellation = new CancellationToken();
+		Executors.newSingleThreadScheduledExecutor().schedule(new Runnable() {
+			@Override
+			public void run() {
+				cancellation.cancel();
+			}
+		}, 200, TimeUnit.MILLISECONDS);
+		long start = System.currentTimeMillis();
+		try {
+			cloudinary(new PooledHttpTransport(), RetryPolicy.DEFAULT).uploader().upload(new ByteArrayInputStream(new byte[10]),
+					Cloudinary.asMap("cancellation_token", cancellation, "public_id", "sample"));
+			fail("Expected the upload to be cancelled");
+		} catch (UploadCancelledException e) {
+			// expected
+		}
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(1, server.requests().size());
+	}
+
+	public void testCancelWhileAwaitingRetry() throws Exception {
+		response = new MockServer.Response(503, "{\"error\":{\"message\":\"Unavailable\"}}");
+		RetryPolicy slowRetries = new RetryPolicy.Builder().setMaxRetries(3).setBackoff(10000, 10000, 1).setJitter(0).build();
+		final CancellationToken cancellation = new CancellationToken();
+		Executors.newSingleThreadScheduledExecutor().schedule(new Runnable() {
+			@Override
+			public void run() {
+				cancellation.cancel();
+			}
+		}, 300, TimeUnit.MILLISECONDS);
+		long start = System.currentTimeMillis();
+		try {
+			cloudinary(new PooledHttpTransport(), slowRetries).uploader().upload(new ByteArrayInputStream(new byte[10]),
+					Cloudinary.asMap("cancellation_token", cancellation, "public_id", "sample"));
+			fail("Expected the upload to be cancelled");
+		} catch (UploadCancelledException e) {
+			// expected
+		}
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(1, server.requests().size());
+	}
+
+	public void testCancelledBeforeStart() throws Exception {
+		CancellationToken cancellation = new CancellationToken();
+		cancellation.cancel();
+		try {
+			cloudinary(new PooledHttpTransport(), RetryPolicy.NONE).uploader().upload(new ByteArrayInputStream(new byte[10]),
+					Cloudinary.asMap("cancellation_token", cancellation));
+			fail("Expected the upload to be cancelled");
+		} catch (UploadCancelledException e) {
+			// expected
+		}
+		assertEquals(0, server.connectionCount());
+	}
+
+	public void testCancelLargeUpload() throws Exception {
+		CancellationToken cancellation = new CancellationToken();
+		AtomicLong read = new AtomicLong();
+		try {
+			cloudinary(new PooledHttpTransport(), RetryPolicy.NONE).uploader().uploadLarge(cancellingStream(cancellation, 2500, read),
+					Cloudinary.asMap("cancellation_token", cancellation, "chunk_size", 1000, "chunk_concurrency", 2));
+			fail("Expected the upload to be cancelled");
+		} catch (UploadCancelledException e) {
+			// expected
+		}
+		assertTrue(server.requests().size() <= 2);
+	}
+
+	public void testCancelAsyncFuture() throws Exception {
+		server.setLatency(5000);
+		AsyncUploader async = cloudinary(new PooledHttpTransport(), RetryPolicy.NONE).asyncUploader(Executors.newSingleThreadExecutor());
+		Future<JSONObject> upload = async.upload(new ByteArrayInputStream(new byte[10]), null, null);
+		while (server.requests().isEmpty()) {
+			Thread.sleep(10);
+		}
+		assertTrue(upload.cancel(true));
+
+		// The single executor thread was freed for the next call
+		server.setLatency(0);
+		long start = System.currentTimeMillis();
+		assertEquals("sample", async.upload(new ByteArrayInputStream(new byte[10]), null).get(2, TimeUnit.SECONDS).getString("public_id"));
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		async.getExecutor().shutdown();
+	}
+
+	public void testCancelNioUpload() throws Exception {
+		File file = new File(getContext().getCacheDir(), "cancel.bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[1000]);
+		out.close();
+		server.setLatency(5000);
+		NioUploadEngine engine = new NioUploadEngine(cloudinary(new PooledHttpTransport(), RetryPolicy.NONE), 1);
+		try {
+			Future<JSONObject> upload = engine.upload(file, null);
+			while (server.requests().isEmpty()) {
+				Thread.sleep(10);
+			}
+			assertTrue(upload.cancel(true));
+			assertTrue(upload.isCancelled());
+			try {
+				upload.get();
+				fail("Expected the upload to be cancelled");
+			} catch (CancellationException e) {
+				// expected
+			}
+
+			final CancellationToken cancellation = new CancellationToken();
+			final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+			final CountDownLatch failed = new CountDownLatch(1);
+			Future<JSONObject> second = engine.upload(file, Cloudinary.asMap("cancellation_token", cancellation), new AsyncUploader.Callback() {
+				@Override
+				public void onSuccess(JSONObject result) {
+				}
+
+				@Override
+				public void onError(Throwable e) {
+					error.set(e);
+					failed.countDown();
+				}
+			});
+			while (server.requests().size() < 2) {
+				Thread.sleep(10);
+			}
+			cancellation.cancel();
+			assertTrue(failed.await(2, TimeUnit.SECONDS));
+			assertTrue(error.get() instanceof UploadCancelledException);
+			try {
+				second.get();
+				fail("Expected the upload to fail");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof UploadCancelledException);
+			}
+		} finally {
+			engine.shutdown();
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.ChunkedUploadException;
+import com.cloudinary.Cloudinary;
+import com.cloudinary.RetryPolicy;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ChunkedUploadTest extends AndroidTestCase {
+
+	private MockServer server;
+	private ChunkAssembler assembler;
+	private Cloudinary cloudinary;
+	private byte[] data;
+
+	public void setUp() throws Exception {
+		assembler = new ChunkAssembler();
+		server = new MockServer(assembler);
+		cloudinary = new Cloudinary(server.config().build());
+		data = new byte[10000];
+		new Random(42).nextBytes(data);
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	/**
+	 * Reassembles chunks sent to the upload endpoint, answering the final chunk with the total size
+	 */
+	static class ChunkAssembler implements MockServer.Handler {
+		static final Pattern RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(-?\\d+)");
+		final Map<String, byte[]> uploads = new HashMap<String, byte[]>();
+		final Set<Integer> dropRequests = new HashSet<Integer>();
+		long dropOffset = -1;
+		int count;
+
+		@Override
+		public synchronized MockServer.Response handle(MockServer.Request request) throws Exception {
+			int index = count++;
+			if (request.header("Content-Range") == null) {
+				return MockServer.Response.ok("{\"public_id\":\"plain\",\"bytes\":" + request.file().length + "}");
+			}
+			Matcher range = RANGE.matcher(request.header("Content-Range"));
+			assertTrue(range.matches());
+			long start = Long.parseLong(range.group(1));
+			long end = Long.parseLong(range.group(2));
+			long total = Long.parseLong(range.group(3));
+			if (dropRequests.contains(index) || start == dropOffset) {
+				return MockServer.Response.DROP;
+			}
+			byte[] chunk = request.file();
+			assertEquals(end - start + 1, chunk.length);
+			String id = request.header("X-Unique-Upload-Id");
+			byte[] upload = uploads.get(id);
+			if (upload == null || upload.length < end + 1) {
+				upload = upload == null ? new byte[(int) end + 1] : Arrays.copyOf(upload, (int) end + 1);
+				uploads.put(id, upload);
+			}
+			System.arraycopy(chunk, 0, upload, (int) start, chunk.length);
+			if (total < 0 || end + 1 < total) {
+				return MockServer.Response.ok("{\"done\":false}");
+			}
+			return MockServer.Response.ok("{\"public_id\":\"large\",\"bytes\":" + total + "}");
+		}
+	}
+
+	private File writeTempFile() throws Exception {
+		File file = new File(getContext().getCacheDir(), "chunked.bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+		return file;
+	}
+
+	public void testFileChunks() throws Exception {
+		JSONObject result = cloudinary.uploader().uploadLarge(writeTempFile(), Cloudinary.asMap("chunk_size", 3000));
+		assertEquals(10000, result.getLong("bytes"));
+
+		List<MockServer.Request> requests = server.requests();
+		assertEquals(4, requests.size());
+		String id = requests.get(0).header("X-Unique-Upload-Id");
+		for (MockServer.Request request : requests) {
+			assertEquals(id, request.header("X-Unique-Upload-Id"));
+		}
+		assertEquals("bytes 0-2999/10000", requests.get(0).header("Content-Range"));
+		assertEquals("bytes 9000-9999/10000", requests.get(3).header("Content-Range"));
+		assertTrue(Arrays.equals(data, assembler.uploads.get(id)));
+	}
+
+	public void testStreamChunks() throws Exception {
+		data = Arrays.copyOf(data, 9000);
+		JSONObject result = cloudinary.uploader().uploadLarge(new ByteArrayInputStream(data), Cloudinary.asMap("chunk_size", 3000));
+		assertEquals(9000, result.getLong("bytes"));
+
+		List<MockServer.Request> requests = server.requests();
+		assertEquals(3, requests.size());
+		assertEquals("bytes 3000-5999/-1", requests.get(1).header("Content-Range"));
+		assertEquals("bytes 6000-8999/9000", requests.get(2).header("Content-Range"));
+		assertTrue(Arrays.equals(data, assembler.uploads.get(requests.get(0).header("X-Unique-Upload-Id"))));
+	}
+
+	public void testEmptySources() throws Exception {
+		data = new byte[0];
+		assertEquals("plain", cloudinary.uploader().uploadLarge(writeTempFile(), Cloudinary.asMap("chunk_size", 3000)).getString("public_id"));
+		assertEquals("plain", cloudinary.uploader().uploadLarge(new ByteArrayInputStream(data), null).getString("public_id"));
+		for (MockServer.Request request : server.requests()) {
+			assertNull(request.header("X-Unique-Upload-Id"));
+			assertEquals(0, request.file().length);
+		}
+	}
+
+	public void testFailedChunkIsResent() throws Exception {
+		assembler.dropRequests.add(1);
+		cloudinary.uploader().uploadLarge(writeTempFile(), Cloudinary.asMap("chunk_size", 3000));
+
+		List<MockServer.Request> requests = server.requests();
+		assertEquals(5, requests.size());
+		assertEquals(requests.get(1).header("Content-Range"), requests.get(2).header("Content-Range"));
+		assertTrue(Arrays.equals(data, assembler.uploads.get(requests.get(0).header("X-Unique-Upload-Id"))));
+	}
+
+	public void testChunkRetriesIgnoreBudget() throws Exception {
+		RetryPolicy retryPolicy = new RetryPolicy.Builder().setBackoff(1, 1, 1).setRetryBudget(0, 0).build();
+		cloudinary = new Cloudinary(server.config().setRetryPolicy(retryPolicy).build());
+		// The second and third chunks fail on their reused connection and again on the transport's new one
+		assembler.dropRequests.addAll(Arrays.asList(1, 2, 4, 5));
+		JSONObject result = cloudinary.uploader().uploadLarge(writeTempFile(), Cloudinary.asMap("chunk_size", 3000));
+
+		assertEquals(10000, result.getLong("bytes"));
+		assertEquals(8, server.requests().size());
+		assertTrue(Arrays.equals(data, assembler.uploads.get(server.requests().get(0).header("X-Unique-Upload-Id"))));
+	}
+
+	public void testResume() throws Exception {
+		File file = writeTempFile();
+		assembler.dropOffset = 6000;
+		ChunkedUploadException failure = null;
+		try {
+			cloudinary.uploader().uploadLarge(file, Cloudinary.asMap("chunk_size", 3000, "chunk_retries", 1));
+		} catch (ChunkedUploadException e) {
+			failure = e;
+		}
+		assertNotNull(failure);
+		assertEquals(6000, failure.getOffset());
+		// The first attempt at 6000 went out on a reused connection, the transport sent it once more on a new one
+		assertEquals(5, server.requests().size());
+
+		assembler.dropOffset = -1;
+		JSONObject result = cloudinary.uploader().uploadLarge(file, Cloudinary.asMap("chunk_size", 3000,
+				"unique_upload_id", failure.getUniqueUploadId(), "offset", failure.getOffset()));
+		assertEquals(10000, result.getLong("bytes"));
+		assertEquals(7, server.requests().size());
+		assertEquals("bytes 6000-8999/10000", server.requests().get(5).header("Content-Range"));
+		assertTrue(Arrays.equals(data, assembler.uploads.get(failure.getUniqueUploadId())));
+	}
+
+	public void testParallelChunks() throws Exception {
+		server.setLatency(20);
+		JSONObject result = cloudinary.uploader().uploadLarge(writeTempFile(), Cloudinary.asMap("chunk_size", 1000, "chunk_concurrency", 4));
+		assertEquals(10000, result.getLong("bytes"));
+
+		List<MockServer.Request> requests = server.requests();
+		assertEquals(10, requests.size());
+		assertEquals("bytes 9000-9999/10000", requests.get(9).header("Content-Range"));
+		Set<Integer> connections = new HashSet<Integer>();
+		for (MockServer.Request request : requests) {
+			connections.add(request.connection);
+		}
+		assertTrue(connections.size() > 1);
+		assertTrue(Arrays.equals(data, assembler.uploads.get(requests.get(0).header("X-Unique-Upload-Id"))));
+	}
+
+	public void testParallelResume() throws Exception {
+		File file = writeTempFile();
+		assembler.dropOffset = 4000;
+		ChunkedUploadException failure = null;
+		try {
+			cloudinary.uploader().uploadLarge(file, Cloudinary.asMap("chunk_size", 1000, "chunk_retries", 0, "chunk_concurrency", 3));
+		} catch (ChunkedUploadException e) {
+			failure = e;
+		}
+		assertNotNull(failure);
+		assertEquals(4000, failure.getOffset());
+		for (MockServer.Request request : server.requests()) {
+			assertFalse(request.header("Content-Range").startsWith("bytes 9000-"));
+		}
+
+		assembler.dropOffset = -1;
+		cloudinary.uploader().uploadLarge(file, Cloudinary.asMap("chunk_size", 1000, "chunk_concurrency", 3,
+				"unique_upload_id", failure.getUniqueUploadId(), "offset", failure.getOffset()));
+		assertTrue(Arrays.equals(data, assembler.uploads.get(failure.getUniqueUploadId())));
+	}
+}
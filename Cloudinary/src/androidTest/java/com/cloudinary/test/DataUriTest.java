@@ -0,0 +1,124 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+import android.util.Base64;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.DataUri;
+import com.cloudinary.PooledHttpTransport;
+import com.cloudinary.RetryPolicy;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class DataUriTest extends AndroidTestCase {
+
+	private MockServer server;
+	private Cloudinary cloudinary;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				return MockServer.Response.ok("{\"public_id\":\"sample\"}");
+			}
+		});
+		cloudinary = new Cloudinary(server.config()
+				.setHttpTransport(new PooledHttpTransport())
+				.setRetryPolicy(RetryPolicy.NONE)
+				.build());
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private String uploadedFile() {
+		return server.requests().get(server.requests().size() - 1).field("file");
+	}
+
+	public void testRemoteSources() throws Exception {
+		String[] remote = { "http://cloudinary.com/images/logo.png", "https://cloudinary.com/images/logo.png", "s3://my-bucket/logo.png",
+				"data:image/png;base64,iVBORw0KGgo=", "data:;base64,AAAA", "data:image/png;charset=utf-8;base64,AAAA",
+				"data:image/svg+xml;name=\"a,b;c\";base64,AAAA" };
+		for (String source : remote) {
+			cloudinary.uploader().upload(source, null);
+			assertEquals(source, uploadedFile());
+		}
+	}
+
+	public void testLocalPaths() throws Exception {
+		String[] local = { "/sdcard/logo.png", "data:image/png,plain", "data:image/png;charset=utf-8,plain", "data:image/png;base64,",
+				"ftp://cloudinary.com/logo.png" };
+		for (String source : local) {
+			try {
+				cloudinary.uploader().upload(source, null);
+				fail("Expected " + source + " to be read as a file");
+			} catch (FileNotFoundException e) {
+				// expected
+			}
+		}
+		assertEquals(0, server.requests().size());
+	}
+
+	public void testLargeDataUriString() throws Exception {
+		byte[] data = new byte[3 * 1024 * 1024];
+		new Random(1).nextBytes(data);
+		String source = "data:image/jpeg;base64," + Base64.encodeToString(data, Base64.NO_WRAP);
+		cloudinary.uploader().upload(source, null);
+		assertEquals(source, uploadedFile());
+	}
+
+	public void testEncoding() throws Exception {
+		// RFC 4648 test vectors
+		String[] plain = { "", "f", "fo", "foo", "foob", "fooba", "foobar" };
+		String[] encoded = { "", "Zg==", "Zm8=", "Zm9v", "Zm9vYg==", "Zm9vYmE=", "Zm9vYmFy" };
+		for (int i = 0; i < plain.length; i++) {
+			cloudinary.uploader().upload(DataUri.of("text/plain", plain[i].getBytes("UTF-8")), null);
+			assertEquals("data:text/plain;base64," + encoded[i], uploadedFile());
+		}
+		// Known length, sent with a Content-Length
+		assertNotNull(server.requests().get(0).header("content-length"));
+	}
+
+	public void testLargeSources() throws Exception {
+		// Not a multiple of 3 nor of the buffer sizes
+		byte[] data = new byte[1024 * 1024 + 7];
+		new Random(2).nextBytes(data);
+		String expected = "data:image/png;base64," + Base64.encodeToString(data, Base64.NO_WRAP);
+
+		cloudinary.uploader().upload(DataUri.of("image/png", data), null);
+		assertEquals(expected, uploadedFile());
+
+		File file = new File(getContext().getCacheDir(), "datauri.bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+		cloudinary.uploader().upload(DataUri.of("image/png", file), null);
+		assertEquals(expected, uploadedFile());
+
+		// Reads of odd sizes leave partial groups to carry over
+		cloudinary.uploader().upload(DataUri.of("image/png", new ByteArrayInputStream(data) {
+			@Override
+			public synchronized int read(byte[] buffer, int offset, int length) {
+				return super.read(buffer, offset, Math.min(length, 1000));
+			}
+		}), null);
+		assertEquals(expected, uploadedFile());
+		assertTrue(server.requests().get(2).isChunked());
+		assertTrue(Arrays.equals(data, Base64.decode(uploadedFile().substring(uploadedFile().indexOf(',') + 1), Base64.DEFAULT)));
+	}
+
+	public void testInvalidMimeType() {
+		try {
+			DataUri.of("image/png;charset=utf-8", new byte[1]);
+			fail("Expected an invalid mime type to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.Configuration;
+import com.cloudinary.EagerTransformation;
+import com.cloudinary.Transformation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class FrozenTransformationTest extends AndroidTestCase {
+
+	private static final Transformation THUMBNAIL = new Transformation().width(100).height(101).crop("fill").chain().named("blue", "green")
+			.freeze();
+
+	private Cloudinary cloudinary;
+
+	public void setUp() {
+		cloudinary = new Cloudinary(new Configuration.Builder().setCloudName("test123").build());
+	}
+
+	private static List<Transformation> transformations() {
+		List<Transformation> transformations = new ArrayList<Transformation>();
+		transformations.add(new Transformation());
+		transformations.add(new Transformation().width(100).height(101).crop("crop"));
+		transformations.add(new Transformation().params(Cloudinary.asMap("size", "10x20", "crop", "scale")));
+		transformations.add(new Transformation().width(0.5).angle("auto", "exif").background("#ff0000").flags("a", "b"));
+		transformations.add(new Transformation().width(100).crop("fit").chain().overlay("text:hello").rawTransformation("e_sepia"));
+		List<Map> base = new ArrayList<Map>();
+		base.add(Cloudinary.asMap("width", 10, "size", "30x40"));
+		base.add(Cloudinary.asMap("effect", "grayscale"));
+		transformations.add(new Transformation().param("transformation", base).height(50));
+		return transformations;
+	}
+
+	public void testSameOutput() {
+		List<Transformation> expected = transformations();
+		List<Transformation> frozen = new ArrayList<Transformation>();
+		for (Transformation transformation : transformations()) {
+			frozen.add(transformation.freeze());
+		}
+		for (int i = 0; i < frozen.size(); i++) {
+			Transformation transformation = expected.get(i);
+			assertEquals(transformation.generate(), frozen.get(i).generate());
+			assertEquals(transformation.getHtmlWidth(), frozen.get(i).getHtmlWidth());
+			assertEquals(transformation.getHtmlHeight(), frozen.get(i).getHtmlHeight());
+			assertTrue(frozen.get(i).isFrozen());
+			assertSame(frozen.get(i), frozen.get(i).freeze());
+		}
+		assertEquals("c_fill,h_101,w_100/t_blue.green", THUMBNAIL.generate());
+		// Dimensions of the last step, as when generating
+		assertNull(THUMBNAIL.getHtmlWidth());
+		assertEquals("100", new Transformation().width(100).freeze().getHtmlWidth());
+		assertEquals(cloudinary.url().transformation(new Transformation(THUMBNAIL)).imageTag("test"),
+				cloudinary.url().transformation(THUMBNAIL).imageTag("test"));
+	}
+
+	public void testImmutable() {
+		String[] flags = { "a", "b" };
+		Transformation source = new Transformation().width(10).flags(flags);
+		Transformation frozen = source.freeze();
+		// Neither the source nor the values it was given are shared
+		source.width(20);
+		flags[0] = "c";
+		assertEquals("fl_a.b,w_10", frozen.generate());
+		assertEquals("fl_a.b,w_10", new Transformation(frozen).generate());
+
+		try {
+			frozen.width(30);
+			fail("Expected a frozen transformation to be unchangeable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			frozen.chain();
+			fail("Expected a frozen transformation to be unchangeable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		// Copies can be changed
+		Transformation copy = new Transformation(frozen).height(5);
+		assertFalse(copy.isFrozen());
+		assertEquals("fl_a.b,h_5,w_10", copy.generate());
+		assertEquals("fl_a.b,w_10", frozen.generate());
+	}
+
+	public void testFetchFormat() {
+		String url = cloudinary.url().type("fetch").format("png").transformation(THUMBNAIL).generate("http://example.com/a.jpg");
+		assertEquals("http://res.cloudinary.com/test123/image/fetch/c_fill,h_101,w_100/f_png,t_blue.green/http://example.com/a.jpg", url);
+		assertEquals("c_fill,h_101,w_100/t_blue.green", THUMBNAIL.generate());
+	}
+
+	public void testEager() {
+		EagerTransformation source = new EagerTransformation().format("png");
+		source.width(10);
+		EagerTransformation eager = source.freeze();
+		assertEquals("png", eager.getFormat());
+		try {
+			eager.format("jpg");
+			fail("Expected a frozen transformation to be unchangeable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		List<Transformation> list = new ArrayList<Transformation>();
+		list.add(eager);
+		assertEquals("w_10/png", cloudinary.uploader().buildUploadParams(Cloudinary.asMap("eager", list)).get("eager"));
+	}
+
+	public void testSharedAcrossThreads() throws Exception {
+		final String expected = cloudinary.url().transformation(new Transformation(THUMBNAIL)).imageTag("test");
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						for (int j = 0; j < 2000; j++) {
+							if (!expected.equals(cloudinary.url().transformation(THUMBNAIL).imageTag("test")))
+								return false;
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
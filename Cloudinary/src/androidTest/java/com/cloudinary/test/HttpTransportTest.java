@@ -0,0 +1,229 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.HttpTransport;
+import com.cloudinary.MultipartUtility;
+import com.cloudinary.PooledHttpTransport;
+import com.cloudinary.RetryPolicy;
+import com.cloudinary.UrlConnectionTransport;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpTransportTest extends AndroidTestCase {
+
+	private MockServer server;
+	private final AtomicInteger handled = new AtomicInteger();
+	// Index of the request whose connection is closed instead of answered
+	private volatile int drop = -1;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				if (handled.getAndIncrement() == drop) {
+					return MockServer.Response.DROP;
+				}
+				return MockServer.Response.ok("{\"result\":\"ok\",\"public_id\":\"" + request.field("public_id") + "\"}");
+			}
+		});
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private Cloudinary cloudinary(HttpTransport transport) {
+		return new Cloudinary(server.config()
+				.setHttpTransport(transport)
+				.build());
+	}
+
+	public void testDefaultTransportIsShared() {
+		assertSame(PooledHttpTransport.getDefault(), new Cloudinary("cloudinary://a:b@test123").config.httpTransport);
+	}
+
+	public void testKeepAliveReuse() throws Exception {
+		Cloudinary cloudinary = cloudinary(new PooledHttpTransport());
+		for (int i = 0; i < 5; i++) {
+			JSONObject result = cloudinary.uploader().destroy("sample" + i, null);
+			assertEquals("sample" + i, result.getString("public_id"));
+		}
+		assertEquals(5, server.requests().size());
+		assertEquals(1, server.connectionCount());
+	}
+
+	public void testPerHostLimit() throws Exception {
+		server.setLatency(50);
+		PooledHttpTransport transport = new PooledHttpTransport(2, 2, 30000);
+		Cloudinary cloudinary = cloudinary(transport);
+		List<Future<JSONObject>> results = new ArrayList<Future<JSONObject>>();
+		for (int i = 0; i < 8; i++) {
+			results.add(cloudinary.asyncUploader().destroy("sample" + i, null));
+		}
+		for (int i = 0; i < 8; i++) {
+			assertEquals("sample" + i, results.get(i).get().getString("public_id"));
+		}
+		assertEquals(2, server.connectionCount());
+		assertEquals(2, transport.idleConnectionCount());
+	}
+
+	public void testIdleEviction() throws Exception {
+		PooledHttpTransport transport = new PooledHttpTransport(4, 4, 50);
+		Cloudinary cloudinary = cloudinary(transport);
+		cloudinary.uploader().destroy("sample", null);
+		assertEquals(1, transport.idleConnectionCount());
+		Thread.sleep(120);
+		transport.evictIdle();
+		assertEquals(0, transport.idleConnectionCount());
+		cloudinary.uploader().destroy("sample", null);
+		assertEquals(2, server.connectionCount());
+	}
+
+	public void testConnectionClosedByServerIsReplaced() throws Exception {
+		server.setCloseAfterResponse(true);
+		Cloudinary cloudinary = cloudinary(new PooledHttpTransport());
+		cloudinary.uploader().destroy("sample", null);
+		Thread.sleep(50);
+		cloudinary.uploader().destroy("sample", null);
+		assertEquals(2, server.connectionCount());
+	}
+
+	public void testIdleConnectionClosedOnReuseIsReplaced() throws Exception {
+		Cloudinary cloudinary = new Cloudinary(server.config()
+				.setHttpTransport(new PooledHttpTransport())
+				.setRetryPolicy(RetryPolicy.NONE)
+				.build());
+		cloudinary.uploader().upload(new ByteArrayInputStream(new byte[1000]), Cloudinary.asMap("public_id", "first"));
+		// The kept-alive connection passes the check before reuse, the server closes it as the next upload arrives
+		drop = 1;
+		JSONObject result = cloudinary.uploader().upload(new ByteArrayInputStream(new byte[1000]), Cloudinary.asMap("public_id", "second"));
+		assertEquals("second", result.getString("public_id"));
+		assertEquals(3, server.requests().size());
+		assertTrue(Arrays.equals(server.requests().get(1).body, server.requests().get(2).body));
+		assertEquals(2, server.connectionCount());
+
+		// Requests beyond what is kept to send again fail as before
+		drop = 3;
+		try {
+			cloudinary.uploader().upload(new ByteArrayInputStream(new byte[100000]), Cloudinary.asMap("public_id", "third"));
+			fail("Expected the closed connection to fail the upload");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(4, server.requests().size());
+	}
+
+	public void testUrlConnectionTransport() throws Exception {
+		Cloudinary cloudinary = cloudinary(new UrlConnectionTransport());
+		JSONObject result = cloudinary.uploader().destroy("sample", null);
+		assertEquals("sample", result.getString("public_id"));
+		MockServer.Request request = server.requests().get(0);
+		assertFalse(request.isChunked());
+		assertEquals(String.valueOf(request.body.length), request.header("Content-Length"));
+	}
+
+	public void testProxiedCallsUseUrlConnection() throws Exception {
+		final URI target = URI.create(server.url());
+		final Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(target.getHost(), target.getPort()));
+		ProxySelector system = ProxySelector.getDefault();
+		ProxySelector.setDefault(new ProxySelector() {
+			@Override
+			public List<Proxy> select(URI uri) {
+				return Collections.singletonList(target.getPort() == uri.getPort() ? proxy : Proxy.NO_PROXY);
+			}
+
+			@Override
+			public void connectFailed(URI uri, SocketAddress address, IOException e) {
+			}
+		});
+		try {
+			PooledHttpTransport transport = new PooledHttpTransport();
+			JSONObject result = cloudinary(transport).uploader().destroy("sample", null);
+			assertEquals("sample", result.getString("public_id"));
+			// Requests to a proxy carry the whole url
+			assertEquals(server.url() + "/v1_1/test123/image/destroy", server.requests().get(0).path);
+			assertEquals(0, transport.idleConnectionCount());
+		} finally {
+			ProxySelector.setDefault(system);
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	public void testMultipartUtilityConnection() throws Exception {
+		MultipartUtility multipart = new MultipartUtility(server.url() + "/v1_1/test123/image/destroy", "UTF-8", "boundary");
+		multipart.addFormField("public_id", "sample");
+		HttpURLConnection connection = multipart.execute();
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("sample", server.requests().get(0).field("public_id"));
+		connection.disconnect();
+	}
+
+	public void testFileUpload() throws Exception {
+		byte[] data = new byte[3 * 1024 * 1024 + 17];
+		new Random(42).nextBytes(data);
+		File file = new File(getContext().getCacheDir(), "transport.bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+
+		Cloudinary cloudinary = cloudinary(new PooledHttpTransport());
+		cloudinary.uploader().upload(file, Cloudinary.asMap("public_id", "sample"));
+		cloudinary.uploader().upload(file, Cloudinary.asMap("public_id", "sample"));
+		cloudinary(new UrlConnectionTransport()).uploader().upload(file, Cloudinary.asMap("public_id", "sample"));
+		for (MockServer.Request request : server.requests()) {
+			assertTrue(Arrays.equals(data, request.file()));
+			assertFalse(request.isChunked());
+			assertEquals(String.valueOf(request.body.length), request.header("Content-Length"));
+		}
+		assertEquals(2, server.connectionCount());
+	}
+
+	public void testStreamIsChunked() throws Exception {
+		byte[] data = new byte[100000];
+		new Random(42).nextBytes(data);
+		cloudinary(new PooledHttpTransport()).uploader().upload(new ByteArrayInputStream(data), Cloudinary.asMap("public_id", "sample", "tags", "caf\u00e9"));
+		MockServer.Request request = server.requests().get(0);
+		assertTrue(request.isChunked());
+		assertNull(request.header("Content-Length"));
+		assertTrue(Arrays.equals(data, request.file()));
+
+		cloudinary(new PooledHttpTransport()).uploader().upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "sample", "tags", "caf\u00e9"));
+		request = server.requests().get(1);
+		assertFalse(request.isChunked());
+		assertEquals(String.valueOf(request.body.length), request.header("Content-Length"));
+		assertEquals("caf\u00e9", request.field("tags"));
+	}
+
+	public void testLargeAndUnicodeFields() throws Exception {
+		StringBuilder tags = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			tags.append("t\u00e9g\u20ac\ud83d\ude00,");
+		}
+		cloudinary(new PooledHttpTransport()).uploader().upload("http://cloudinary.com/images/logo.png",
+				Cloudinary.asMap("public_id", "sample", "tags", tags.toString(), "context", "caption=\ud83d"));
+		MockServer.Request request = server.requests().get(0);
+		assertEquals(String.valueOf(request.body.length), request.header("Content-Length"));
+		assertEquals(tags.toString(), request.field("tags"));
+		assertEquals("caption=?", request.field("context"));
+	}
+}
@@ -0,0 +1,320 @@
+package com.cloudinary.test;
+
+import com.cloudinary.Configuration;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+/**
+ * Minimal HTTP/1.1 server standing in for the Cloudinary API in local tests.
+ * Point a configuration's upload prefix at {@link #url()} to use it.
+ */
+public class MockServer {
+	public interface Handler {
+		Response handle(Request request) throws Exception;
+	}
+
+	public static class Request {
+		public final int connection;
+		public final String method;
+		public final String path;
+		public final Map<String, String> headers;
+		public final byte[] body;
+		private Map<String, byte[]> parts;
+
+		Request(int connection, String method, String path, Map<String, String> headers, byte[] body) {
+			this.connection = connection;
+			this.method = method;
+			this.path = path;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		public String header(String name) {
+			return headers.get(name.toLowerCase());
+		}
+
+		public boolean isChunked() {
+			return "chunked".equalsIgnoreCase(header("Transfer-Encoding"));
+		}
+
+		public String action() {
+			return path.substring(path.lastIndexOf('/') + 1);
+		}
+
+		public String field(String name) {
+			byte[] value = parts().get(name);
+			return value == null ? null : utf8(value);
+		}
+
+		public byte[] file() {
+			return parts().get("file");
+		}
+
+		public synchronized Map<String, byte[]> parts() {
+			if (parts == null) {
+				parts = new HashMap<String, byte[]>();
+				String contentType = header("Content-Type");
+				if (contentType != null && contentType.contains("boundary=")) {
+					parseMultipart(contentType.substring(contentType.indexOf("boundary=") + 9));
+				}
+			}
+			return parts;
+		}
+
+		private void parseMultipart(String boundary) {
+			String text = latin1(body);
+			String delimiter = "--" + boundary;
+			int start = text.indexOf(delimiter);
+			while (start >= 0) {
+				start += delimiter.length();
+				if (text.startsWith("--", start)) break;
+				int headersEnd = text.indexOf("\r\n\r\n", start);
+				int end = text.indexOf("\r\n" + delimiter, headersEnd);
+				String partHeaders = text.substring(start, headersEnd);
+				int nameStart = partHeaders.indexOf("name=\"") + 6;
+				String name = partHeaders.substring(nameStart, partHeaders.indexOf('"', nameStart));
+				byte[] value = new byte[end - headersEnd - 4];
+				System.arraycopy(body, headersEnd + 4, value, 0, value.length);
+				parts.put(name, value);
+				start = end + 2;
+				start = text.indexOf(delimiter, start);
+			}
+		}
+	}
+
+	public static class Response {
+		/** Closes the connection without answering, as a dropped network would */
+		public static final Response DROP = new Response(0, null);
+
+		public final int code;
+		public final String body;
+		final boolean truncated;
+
+		public Response(int code, String body) {
+			this(code, body, false);
+		}
+
+		private Response(int code, String body, boolean truncated) {
+			this.code = code;
+			this.body = body;
+			this.truncated = truncated;
+		}
+
+		public static Response ok(String json) {
+			return new Response(200, json);
+		}
+
+		/** Announces the whole body but closes the connection halfway through it */
+		public static Response truncated(String json) {
+			return new Response(200, json, true);
+		}
+	}
+
+	private final ServerSocket serverSocket;
+	private final Handler handler;
+	private final ExecutorService workers = Executors.newCachedThreadPool();
+	private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+	private final AtomicInteger connections = new AtomicInteger();
+	private volatile long latency;
+	private volatile boolean closeAfterResponse;
+	private volatile boolean closed;
+
+	public MockServer(Handler handler) throws IOException {
+		this.handler = handler;
+		this.serverSocket = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				while (!closed) {
+					try {
+						final Socket socket = serverSocket.accept();
+						final int connection = connections.incrementAndGet();
+						workers.execute(new Runnable() {
+							@Override
+							public void run() {
+								serve(socket, connection);
+							}
+						});
+					} catch (IOException e) {
+						// closed
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Upload prefix to configure for requests to reach this server
+	 */
+	public String url() {
+		return "http://127.0.0.1:" + serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Configuration of a test cloud sending its API calls to this server, for tests to add to
+	 */
+	public Configuration.Builder config() {
+		return new Configuration.Builder()
+				.setCloudName("test123")
+				.setApiKey("a")
+				.setApiSecret("b")
+				.setUploadPrefix(url());
+	}
+
+	/**
+	 * Delay every response by the given latency
+	 */
+	public void setLatency(long millis) {
+		this.latency = millis;
+	}
+
+	/**
+	 * Close every connection right after answering, without announcing it, as an idle timeout would
+	 */
+	public void setCloseAfterResponse(boolean closeAfterResponse) {
+		this.closeAfterResponse = closeAfterResponse;
+	}
+
+	public List<Request> requests() {
+		synchronized (requests) {
+			return new ArrayList<Request>(requests);
+		}
+	}
+
+	public int connectionCount() {
+		return connections.get();
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		serverSocket.close();
+		workers.shutdownNow();
+	}
+
+	private void serve(Socket socket, int connection) {
+		try {
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			while (true) {
+				String requestLine = readLine(in);
+				if (requestLine == null) break;
+				String[] requestParts = requestLine.split(" ");
+				Map<String, String> headers = new HashMap<String, String>();
+				String line;
+				while ((line = readLine(in)) != null && line.length() > 0) {
+					int colon = line.indexOf(':');
+					headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+				}
+				byte[] body;
+				if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+					body = readChunked(in);
+				} else {
+					String length = headers.get("content-length");
+					body = readExactly(in, length == null ? 0 : Integer.parseInt(length));
+				}
+				Request request = new Request(connection, requestParts[0], requestParts[1], headers, body);
+				requests.add(request);
+				Response response;
+				try {
+					response = handler.handle(request);
+				} catch (Exception e) {
+					response = new Response(500, "{\"error\":{\"message\":" + JSONObject.quote(e.toString()) + "}}");
+				}
+				if (latency > 0) Thread.sleep(latency);
+				if (response == Response.DROP) break;
+				byte[] responseBody = response.body.getBytes("UTF-8");
+				String head = "HTTP/1.1 " + response.code + " Status\r\n"
+						+ "Content-Type: application/json; charset=utf-8\r\n"
+						+ "Content-Length: " + responseBody.length + "\r\n\r\n";
+				out.write(head.getBytes("ISO-8859-1"));
+				out.write(responseBody, 0, response.truncated ? responseBody.length / 2 : responseBody.length);
+				out.flush();
+				if (response.truncated || closeAfterResponse || "close".equalsIgnoreCase(headers.get("connection"))) break;
+			}
+		} catch (Exception e) {
+			// connection reset or server closed
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				int length = line.length();
+				return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+			}
+			line.append((char) c);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	private static byte[] readChunked(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		while (true) {
+			String sizeLine = readLine(in);
+			int size = Integer.parseInt(sizeLine.split(";")[0].trim(), 16);
+			if (size == 0) {
+				while (readLine(in).length() > 0) {
+					// trailers
+				}
+				return body.toByteArray();
+			}
+			body.write(readExactly(in, size));
+			readLine(in);
+		}
+	}
+
+	private static byte[] readExactly(InputStream in, int length) throws IOException {
+		byte[] data = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int read = in.read(data, offset, length - offset);
+			if (read == -1) throw new EOFException();
+			offset += read;
+		}
+		return data;
+	}
+
+	public static String utf8(byte[] data) {
+		try {
+			return new String(data, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String latin1(byte[] data) {
+		try {
+			return new String(data, "ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
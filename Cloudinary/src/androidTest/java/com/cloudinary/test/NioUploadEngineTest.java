@@ -0,0 +1,198 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.AsyncUploader;
+import com.cloudinary.Cloudinary;
+import com.cloudinary.DeadlineExceededException;
+import com.cloudinary.NioUploadEngine;
+
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class NioUploadEngineTest extends AndroidTestCase {
+
+	private static final String LARGE;
+
+	static {
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 50000; i++) {
+			large.append("value").append(i % 10);
+		}
+		LARGE = large.toString();
+	}
+
+	private MockServer server;
+	private Cloudinary cloudinary;
+	private NioUploadEngine engine;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				if ("error".equals(request.field("public_id"))) {
+					return new MockServer.Response(400, "{\"error\":{\"message\":\"Invalid image\"}}");
+				}
+				if ("unavailable".equals(request.field("public_id"))) {
+					return new MockServer.Response(503, "Service Unavailable");
+				}
+				if ("invalid".equals(request.field("public_id"))) {
+					return MockServer.Response.ok("{\"public_id\":");
+				}
+				if ("truncated".equals(request.field("public_id"))) {
+					return MockServer.Response.truncated("{\"public_id\":\"truncated\",\"context\":\"" + LARGE + "\"}");
+				}
+				if ("large".equals(request.field("public_id"))) {
+					return MockServer.Response.ok("{\"public_id\":\"large\",\"context\":\"" + LARGE + "\"}");
+				}
+				byte[] file = request.file();
+				return MockServer.Response.ok("{\"public_id\":\"" + request.field("public_id") + "\",\"bytes\":" + (file == null ? 0 : file.length) + "}");
+			}
+		});
+		cloudinary = new Cloudinary(server.config().build());
+		engine = new NioUploadEngine(cloudinary, 2);
+	}
+
+	public void tearDown() throws Exception {
+		engine.shutdown();
+		server.close();
+	}
+
+	private File createFile(byte[] data) throws Exception {
+		File file = new File(getContext().getCacheDir(), "nio.bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+		return file;
+	}
+
+	public void testUploadFile() throws Exception {
+		byte[] data = new byte[300000];
+		new Random(42).nextBytes(data);
+		JSONObject result = engine.upload(createFile(data), Cloudinary.asMap("public_id", "sample", "tags", "a,b")).get();
+		assertEquals("sample", result.getString("public_id"));
+		assertEquals(data.length, result.getInt("bytes"));
+
+		MockServer.Request request = server.requests().get(0);
+		assertEquals("/v1_1/test123/image/upload", request.path);
+		assertFalse(request.isChunked());
+		assertTrue(Arrays.equals(data, request.file()));
+		assertEquals("a,b", request.field("tags"));
+		assertNotNull(request.field("signature"));
+	}
+
+	public void testUploadRemoteUrl() throws Exception {
+		engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "remote")).get();
+		assertEquals("http://cloudinary.com/images/logo.png", server.requests().get(0).field("file"));
+	}
+
+	public void testErrors() throws Exception {
+		try {
+			engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "error")).get();
+			fail("Expected an error");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RuntimeException);
+			assertEquals("Invalid image", e.getCause().getMessage());
+		}
+		JSONObject result = engine.upload("http://cloudinary.com/images/logo.png",
+				Cloudinary.asMap("public_id", "error", "return_error", true)).get();
+		assertEquals(400, result.getJSONObject("error").getInt("http_code"));
+		try {
+			engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "unavailable")).get();
+			fail("Expected an error");
+		} catch (ExecutionException e) {
+			assertEquals("Server returned unexpected status code - 503 - Service Unavailable", e.getCause().getMessage());
+		}
+		try {
+			engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "invalid")).get();
+			fail("Expected an error");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage().startsWith("Invalid JSON response from server"));
+		}
+		try {
+			engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "truncated")).get();
+			fail("Expected an error");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof EOFException);
+		}
+
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		engine.upload(new File("/nonexistent"), null, new AsyncUploader.Callback() {
+			@Override
+			public void onSuccess(JSONObject result) {
+				done.countDown();
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				error.set(e);
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(error.get() instanceof java.io.FileNotFoundException);
+	}
+
+	public void testTimeouts() throws Exception {
+		server.setLatency(2000);
+		long start = System.currentTimeMillis();
+		try {
+			engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "slow", "read_timeout", 300)).get(5, TimeUnit.SECONDS);
+			fail("Expected the read to time out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SocketTimeoutException);
+			assertFalse(e.getCause() instanceof DeadlineExceededException);
+		}
+		try {
+			engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "slow", "timeout", 300)).get(5, TimeUnit.SECONDS);
+			fail("Expected the deadline to be exceeded");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DeadlineExceededException);
+		}
+		assertTrue(System.currentTimeMillis() - start < 1500);
+		try {
+			engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("deadline", System.currentTimeMillis() - 1)).get(5, TimeUnit.SECONDS);
+			fail("Expected the deadline to be exceeded");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DeadlineExceededException);
+		}
+	}
+
+	public void testLargeResponse() throws Exception {
+		JSONObject result = engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "large")).get(10, TimeUnit.SECONDS);
+		assertEquals(LARGE, result.getString("context"));
+		try {
+			engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "large", "max_response_size", 100000)).get(10,
+					TimeUnit.SECONDS);
+			fail("Expected the response to exceed its maximum size");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof java.net.ProtocolException);
+		}
+	}
+
+	public void testConcurrentUploads() throws Exception {
+		server.setLatency(50);
+		List<Future<JSONObject>> results = new ArrayList<Future<JSONObject>>();
+		for (int i = 0; i < 100; i++) {
+			results.add(engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "sample" + i)));
+		}
+		for (int i = 0; i < 100; i++) {
+			assertEquals("sample" + i, results.get(i).get(10, TimeUnit.SECONDS).getString("public_id"));
+		}
+		assertEquals(100, server.connectionCount());
+	}
+}
@@ -0,0 +1,127 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.HttpTransport;
+import com.cloudinary.PooledHttpTransport;
+import com.cloudinary.ProgressListener;
+import com.cloudinary.RetryPolicy;
+import com.cloudinary.UrlConnectionTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProgressListenerTest extends AndroidTestCase {
+
+	private MockServer server;
+	private final AtomicInteger failures = new AtomicInteger();
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				if (failures.getAndDecrement() > 0) {
+					return new MockServer.Response(503, "Service Unavailable");
+				}
+				return MockServer.Response.ok("{\"public_id\":\"sample\"}");
+			}
+		});
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private Cloudinary cloudinary(HttpTransport transport) {
+		return new Cloudinary(server.config()
+				.setHttpTransport(transport)
+				.setRetryPolicy(new RetryPolicy.Builder().setBackoff(1, 5, 2).build())
+				.build());
+	}
+
+	private static class Recorder implements ProgressListener {
+		final List<Object> events = new ArrayList<Object>();
+		long lastBytes = -1;
+		long total;
+		int reports;
+
+		@Override
+		public synchronized void onPhase(Phase phase) {
+			events.add(phase);
+		}
+
+		@Override
+		public synchronized void onProgress(long bytesWritten, long totalBytes, double bytesPerSecond, double averageBytesPerSecond) {
+			assertTrue(bytesWritten >= Math.max(0, lastBytes));
+			assertTrue(bytesPerSecond >= 0 && averageBytesPerSecond >= 0);
+			lastBytes = bytesWritten;
+			total = totalBytes;
+			reports++;
+		}
+
+		synchronized List<Object> phases() {
+			return new ArrayList<Object>(events);
+		}
+	}
+
+	private File file(int size) throws Exception {
+		byte[] data = new byte[size];
+		new Random(42).nextBytes(data);
+		File file = new File(getContext().getCacheDir(), "progress.bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+		return file;
+	}
+
+	private void assertPhases(List<Object> phases, int requests) {
+		assertEquals(4 * requests, phases.size());
+		for (int i = 0; i < phases.size(); i++) {
+			assertEquals(ProgressListener.Phase.values()[i % 4], phases.get(i));
+		}
+	}
+
+	public void testPhasesAndTotal() throws Exception {
+		Recorder recorder = new Recorder();
+		cloudinary(new PooledHttpTransport()).uploader().upload(file(100000), Cloudinary.asMap("progress_listener", recorder));
+		assertPhases(recorder.phases(), 1);
+		long contentLength = Long.parseLong(server.requests().get(0).header("Content-Length"));
+		assertEquals(contentLength, recorder.total);
+		assertEquals(contentLength, recorder.lastBytes);
+	}
+
+	public void testStreamOverUrlConnection() throws Exception {
+		Recorder recorder = new Recorder();
+		byte[] data = new byte[300000];
+		cloudinary(new UrlConnectionTransport()).uploader().upload(new ByteArrayInputStream(data), Cloudinary.asMap("progress_listener", recorder));
+		assertPhases(recorder.phases(), 1);
+		assertEquals(-1, recorder.total);
+		assertEquals(server.requests().get(0).body.length, recorder.lastBytes);
+	}
+
+	public void testReportsAreRateLimited() throws Exception {
+		File file = file(4 * 1024 * 1024);
+		Recorder everyWrite = new Recorder();
+		cloudinary(new PooledHttpTransport()).uploader().upload(file, Cloudinary.asMap("progress_listener", everyWrite, "progress_interval", 0));
+		// The file is handed over in slices, each of them reported
+		assertTrue(everyWrite.reports >= 16);
+
+		Recorder limited = new Recorder();
+		cloudinary(new PooledHttpTransport()).uploader().upload(file, Cloudinary.asMap("progress_listener", limited, "progress_interval", 60000));
+		assertEquals(1, limited.reports);
+		assertEquals(everyWrite.lastBytes, limited.lastBytes);
+	}
+
+	public void testRetriesReportEachRequest() throws Exception {
+		failures.set(1);
+		Recorder recorder = new Recorder();
+		cloudinary(new PooledHttpTransport()).uploader().destroy("sample", Cloudinary.asMap("progress_listener", recorder));
+		assertPhases(recorder.phases(), 2);
+	}
+}
@@ -0,0 +1,140 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.Configuration;
+import com.cloudinary.NioUploadEngine;
+import com.cloudinary.RetryPolicy;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.ProtocolException;
+import java.util.concurrent.ExecutionException;
+
+public class ResponseParsingTest extends AndroidTestCase {
+
+	private MockServer server;
+	private volatile MockServer.Response response;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				return response;
+			}
+		});
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private Cloudinary cloudinary(long maxResponseSize) {
+		return new Cloudinary(server.config()
+				.setRetryPolicy(RetryPolicy.NONE)
+				.setMaxResponseSize(maxResponseSize)
+				.build());
+	}
+
+	public void testValues() throws Exception {
+		response = MockServer.Response.ok(" {\"public_id\" : \"sample\", \"width\":1024, \"bytes\":12345678901, \"version\":9223372036854775807,"
+				+ "\"huge\":92233720368547758070, \"ratio\":-1.5e2,"
+				+ "\"placeholder\":false, \"etag\":null, \"tags\":[],\n\"context\":{},"
+				+ "\"colors\":[[\"#FFFFFF\",40.5],[\"#000000\",59.5]], \"faces\":[[1,2,3,4]]} ");
+		JSONObject result = cloudinary(Configuration.DEFAULT_MAX_RESPONSE_SIZE).uploader().destroy("sample", null);
+		assertEquals("sample", result.getString("public_id"));
+		assertEquals(Integer.valueOf(1024), result.get("width"));
+		assertEquals(Long.valueOf(12345678901L), result.get("bytes"));
+		assertEquals(Long.valueOf(Long.MAX_VALUE), result.get("version"));
+		assertEquals(Double.valueOf(92233720368547758070.0), result.get("huge"));
+		assertEquals(-150.0, result.getDouble("ratio"));
+		assertEquals(Boolean.FALSE, result.get("placeholder"));
+		assertTrue(result.isNull("etag"));
+		assertEquals(0, result.getJSONArray("tags").length());
+		assertEquals(0, result.getJSONObject("context").length());
+		JSONArray colors = result.getJSONArray("colors");
+		assertEquals(2, colors.length());
+		assertEquals("#000000", colors.getJSONArray(1).getString(0));
+		assertEquals(4, result.getJSONArray("faces").getJSONArray(0).getInt(3));
+	}
+
+	public void testStrings() throws Exception {
+		String text = "héllo שלום 你好 😀";
+		response = MockServer.Response.ok("{\"raw\":\"" + text + "\",\"escaped\":\"\\\"q\\\"\\\\\\/\\n\\t\\u00e9\\ud83d\\ude00\"}");
+		JSONObject result = cloudinary(Configuration.DEFAULT_MAX_RESPONSE_SIZE).uploader().destroy("sample", null);
+		assertEquals(text, result.getString("raw"));
+		assertEquals("\"q\"\\/\n\té😀", result.getString("escaped"));
+	}
+
+	public void testLargeResponse() throws Exception {
+		StringBuilder json = new StringBuilder("{\"tags\":[");
+		for (int i = 0; i < 20000; i++) {
+			json.append(i == 0 ? "" : ",").append("\"tagé").append(i).append('"');
+		}
+		response = MockServer.Response.ok(json.append("]}").toString());
+		JSONArray tags = cloudinary(Configuration.DEFAULT_MAX_RESPONSE_SIZE).uploader().destroy("sample", null).getJSONArray("tags");
+		assertEquals(20000, tags.length());
+		assertEquals("tagé19999", tags.getString(19999));
+
+		try {
+			cloudinary(100000).uploader().destroy("sample", null);
+			fail("Expected the response to be too large");
+		} catch (ProtocolException e) {
+			assertTrue(e.getMessage().contains("100000"));
+		}
+		try {
+			cloudinary(Configuration.DEFAULT_MAX_RESPONSE_SIZE).uploader().destroy("sample", Cloudinary.asMap("max_response_size", 1000));
+			fail("Expected the response to be too large");
+		} catch (ProtocolException e) {
+			assertTrue(e.getMessage().contains("1000"));
+		}
+	}
+
+	public void testErrors() throws Exception {
+		Cloudinary cloudinary = cloudinary(Configuration.DEFAULT_MAX_RESPONSE_SIZE);
+		response = new MockServer.Response(400, "{\"error\":{\"message\":\"Resource not found\"}}");
+		try {
+			cloudinary.uploader().destroy("sample", null);
+			fail("Expected an error");
+		} catch (RuntimeException e) {
+			assertEquals("Resource not found", e.getMessage());
+		}
+		JSONObject error = cloudinary.uploader().destroy("sample", Cloudinary.asMap("return_error", true)).getJSONObject("error");
+		assertEquals(400, error.getInt("http_code"));
+
+		response = MockServer.Response.ok("{\"public_id\":\"sample\"");
+		try {
+			cloudinary.uploader().destroy("sample", null);
+			fail("Expected an error");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().startsWith("Invalid JSON response from server"));
+		}
+
+		response = new MockServer.Response(404, "Not é found");
+		try {
+			cloudinary.uploader().destroy("sample", null);
+			fail("Expected an error");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().endsWith("404 - Not é found"));
+		}
+	}
+
+	public void testNioEngine() throws Exception {
+		response = MockServer.Response.ok("{\"public_id\":\"sample\",\"tags\":[\"café\"]}");
+		NioUploadEngine engine = new NioUploadEngine(cloudinary(1000), 1);
+		try {
+			JSONObject result = engine.upload("http://cloudinary.com/images/logo.png", null).get();
+			assertEquals("café", result.getJSONArray("tags").getString(0));
+			try {
+				engine.upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("max_response_size", 10)).get();
+				fail("Expected the response to be too large");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof ProtocolException);
+			}
+		} finally {
+			engine.shutdown();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.PooledHttpTransport;
+import com.cloudinary.RetryPolicy;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryTest extends AndroidTestCase {
+
+	private MockServer server;
+	private final AtomicInteger failures = new AtomicInteger();
+	private volatile MockServer.Response failure;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				if (failures.getAndDecrement() > 0) {
+					return failure;
+				}
+				byte[] file = request.file();
+				return MockServer.Response.ok("{\"public_id\":\"" + request.field("public_id") + "\",\"bytes\":" + (file == null ? 0 : file.length) + "}");
+			}
+		});
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private Cloudinary cloudinary(RetryPolicy retryPolicy) {
+		return new Cloudinary(server.config()
+				.setRetryPolicy(retryPolicy)
+				.build());
+	}
+
+	private RetryPolicy.Builder fastRetries() {
+		return new RetryPolicy.Builder().setBackoff(1, 5, 2);
+	}
+
+	private void failNext(int count, MockServer.Response response) {
+		failures.set(count);
+		failure = response;
+	}
+
+	public void testUnavailableIsRetried() throws Exception {
+		failNext(2, new MockServer.Response(503, "Service Unavailable"));
+		JSONObject result = cloudinary(fastRetries().build()).uploader().destroy("sample", null);
+		assertEquals("sample", result.getString("public_id"));
+		assertEquals(3, server.requests().size());
+	}
+
+	public void testRetriesAreLimited() throws Exception {
+		failNext(5, new MockServer.Response(503, "Service Unavailable"));
+		try {
+			cloudinary(fastRetries().setMaxRetries(2).build()).uploader().destroy("sample", null);
+			fail("Expected an error");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("503"));
+		}
+		assertEquals(3, server.requests().size());
+
+		// A request dropped on a reused connection would be sent once more by the transport itself
+		PooledHttpTransport.getDefault().evictAll();
+		failNext(5, MockServer.Response.DROP);
+		try {
+			cloudinary(fastRetries().build()).uploader().destroy("sample", Cloudinary.asMap("max_retries", 0));
+			fail("Expected an error");
+		} catch (IOException e) {
+			// dropped
+		}
+		assertEquals(4, server.requests().size());
+	}
+
+	public void testNonIdempotentCallsAreNotRetried() throws Exception {
+		failNext(1, MockServer.Response.DROP);
+		try {
+			cloudinary(fastRetries().build()).uploader().upload("http://cloudinary.com/images/logo.png", null);
+			fail("Expected an error");
+		} catch (IOException e) {
+			// dropped
+		}
+		assertEquals(1, server.requests().size());
+
+		failNext(1, MockServer.Response.DROP);
+		JSONObject result = cloudinary(fastRetries().build()).uploader().upload("http://cloudinary.com/images/logo.png", Cloudinary.asMap("public_id", "sample"));
+		assertEquals("sample", result.getString("public_id"));
+		assertEquals(3, server.requests().size());
+	}
+
+	public void testStreamIsReplayed() throws Exception {
+		// Larger than the in-memory spool, so the replay comes from a temporary file
+		byte[] data = new byte[1536 * 1024];
+		new Random(42).nextBytes(data);
+		failNext(2, MockServer.Response.DROP);
+		JSONObject result = cloudinary(fastRetries().build()).uploader().upload(new ByteArrayInputStream(data), Cloudinary.asMap("public_id", "sample"));
+		assertEquals(data.length, result.getInt("bytes"));
+		List<MockServer.Request> requests = server.requests();
+		assertEquals(3, requests.size());
+		for (MockServer.Request request : requests) {
+			assertTrue(Arrays.equals(data, request.file()));
+		}
+	}
+
+	public void testRetryBudget() throws Exception {
+		Cloudinary cloudinary = cloudinary(fastRetries().setRetryBudget(0, 1).build());
+		failNext(1, new MockServer.Response(503, "Service Unavailable"));
+		cloudinary.uploader().destroy("sample", null);
+		failNext(1, new MockServer.Response(503, "Service Unavailable"));
+		try {
+			cloudinary.uploader().destroy("sample", null);
+			fail("Expected the budget to be spent");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("503"));
+		}
+		assertEquals(3, server.requests().size());
+	}
+
+	public void testBackoff() {
+		RetryPolicy policy = new RetryPolicy.Builder().setBackoff(100, 1000, 2).setJitter(0.5).build();
+		for (int i = 0; i < 100; i++) {
+			long first = policy.backoffMillis(0);
+			assertTrue(first >= 50 && first <= 100);
+			long third = policy.backoffMillis(2);
+			assertTrue(third >= 200 && third <= 400);
+			long capped = policy.backoffMillis(10);
+			assertTrue(capped >= 500 && capped <= 1000);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.Configuration;
+import com.cloudinary.RequestSigner;
+import com.cloudinary.RetryPolicy;
+import com.cloudinary.SignaturePool;
+import com.cloudinary.SignatureProvider;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SignaturePoolTest extends AndroidTestCase {
+	private static final String SECRET = "server-side-secret";
+
+	private MockServer signingServer;
+	private MockServer uploadServer;
+	private ExecutorService executor;
+	private final AtomicInteger signed = new AtomicInteger();
+
+	public void setUp() throws Exception {
+		// Stands in for the app's backend, signing a server-chosen public ID and timestamp
+		signingServer = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) throws Exception {
+				int count = Integer.parseInt(request.path.substring(request.path.indexOf("count=") + 6));
+				JSONArray signatures = new JSONArray();
+				for (int i = 0; i < count; i++) {
+					Map<String, Object> params = new HashMap<String, Object>();
+					params.put("public_id", "signed_" + signed.incrementAndGet());
+					params.put("timestamp", Long.toString(System.currentTimeMillis() / 1000L));
+					JSONObject signature = new JSONObject(params);
+					signature.put("signature", RequestSigner.sign(params, SECRET));
+					signature.put("api_key", "1234");
+					signatures.put(signature);
+				}
+				return MockServer.Response.ok(new JSONObject().put("signatures", signatures).toString());
+			}
+		});
+		// Checks the signature of every upload as the API would
+		uploadServer = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				Map<String, Object> params = new HashMap<String, Object>();
+				for (String name : request.parts().keySet()) {
+					if (!name.equals("file") && !name.equals("api_key") && !name.equals("signature")) {
+						params.put(name, request.field(name));
+					}
+				}
+				if (!"1234".equals(request.field("api_key")) || !RequestSigner.sign(params, SECRET).equals(request.field("signature"))) {
+					return new MockServer.Response(401, "{\"error\":{\"message\":\"Invalid Signature\"}}");
+				}
+				return MockServer.Response.ok("{\"public_id\":\"" + request.field("public_id") + "\"}");
+			}
+		});
+		executor = Executors.newCachedThreadPool();
+	}
+
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		signingServer.close();
+		uploadServer.close();
+	}
+
+	/*
+	 * Fetches a batch of signatures from the signing server in one request
+	 */
+	private SignatureProvider httpProvider() {
+		return new SignatureProvider() {
+			@Override
+			public List<Map<String, Object>> fetchSignatures(int count) throws IOException {
+				HttpURLConnection connection = (HttpURLConnection) new URL(signingServer.url() + "/sign?count=" + count).openConnection();
+				try {
+					InputStream in = connection.getInputStream();
+					StringBuilder text = new StringBuilder();
+					byte[] buffer = new byte[4096];
+					for (int read; (read = in.read(buffer)) != -1;) {
+						text.append(new String(buffer, 0, read, "UTF-8"));
+					}
+					JSONArray signatures = new JSONObject(text.toString()).getJSONArray("signatures");
+					List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+					for (int i = 0; i < signatures.length(); i++) {
+						JSONObject signature = signatures.getJSONObject(i);
+						Map<String, Object> params = new HashMap<String, Object>();
+						for (Iterator keys = signature.keys(); keys.hasNext();) {
+							String key = (String) keys.next();
+							params.put(key, signature.get(key));
+						}
+						result.add(params);
+					}
+					return result;
+				} catch (org.json.JSONException e) {
+					throw new IOException(e.getMessage());
+				} finally {
+					connection.disconnect();
+				}
+			}
+		};
+	}
+
+	private Cloudinary cloudinary(SignatureProvider provider) {
+		return new Cloudinary(new Configuration.Builder()
+				.setCloudName("test123")
+				.setUploadPrefix(uploadServer.url())
+				.setRetryPolicy(RetryPolicy.NONE)
+				.setSignatureProvider(provider)
+				.build());
+	}
+
+	public void testConcurrentUploadsShareBatches() throws Exception {
+		final Cloudinary cloudinary = cloudinary(new SignaturePool(httpProvider(), 10, SignaturePool.DEFAULT_MAX_AGE_MILLIS, executor));
+		signingServer.setLatency(200);
+		List<Future<JSONObject>> uploads = new ArrayList<Future<JSONObject>>();
+		for (int i = 0; i < 8; i++) {
+			uploads.add(executor.submit(new Callable<JSONObject>() {
+				@Override
+				public JSONObject call() throws Exception {
+					return cloudinary.uploader().upload(new ByteArrayInputStream(new byte[100]), null);
+				}
+			}));
+		}
+		Set<String> publicIds = new HashSet<String>();
+		for (Future<JSONObject> upload : uploads) {
+			publicIds.add(upload.get().getString("public_id"));
+		}
+		assertEquals(8, publicIds.size());
+		assertTrue(publicIds.contains("signed_1"));
+		// The uploads waiting for signatures are served by one or two fetches, not one each
+		assertTrue("signing requests: " + signingServer.requests().size(), signingServer.requests().size() <= 3);
+	}
+
+	public void testPrefetch() throws Exception {
+		SignaturePool pool = new SignaturePool(httpProvider(), 4, SignaturePool.DEFAULT_MAX_AGE_MILLIS, executor);
+		pool.prefetch();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (pool.size() < 4 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(4, pool.size());
+		assertEquals(1, signingServer.requests().size());
+
+		signingServer.setLatency(500);
+		Cloudinary cloudinary = cloudinary(pool);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			cloudinary.uploader().upload(new ByteArrayInputStream(new byte[100]), null);
+		}
+		// Signatures came from the pool, without waiting on the signing server
+		assertTrue(System.currentTimeMillis() - start < 500);
+		assertEquals("signed_1", uploadServer.requests().get(0).field("public_id"));
+		assertEquals("signed_2", uploadServer.requests().get(1).field("public_id"));
+
+		// Down to less than half the batch, a refill was started in the background
+		deadline = System.currentTimeMillis() + 5000;
+		while (pool.size() < 5 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(5, pool.size());
+		assertEquals(2, signingServer.requests().size());
+	}
+
+	public void testExpiry() throws Exception {
+		SignaturePool pool = new SignaturePool(httpProvider(), 3, 100, null);
+		pool.fetchSignatures(1);
+		assertEquals(2, pool.size());
+		Thread.sleep(150);
+		assertEquals(0, pool.size());
+		assertEquals("signed_4", pool.fetchSignatures(1).get(0).get("public_id"));
+		assertEquals(2, signingServer.requests().size());
+	}
+
+	public void testUploadLargeSignsOnce() throws Exception {
+		Cloudinary cloudinary = cloudinary(new SignaturePool(httpProvider(), 1, SignaturePool.DEFAULT_MAX_AGE_MILLIS, null));
+		cloudinary.uploader().uploadLarge(new ByteArrayInputStream(new byte[2500]), Cloudinary.asMap("chunk_size", 1000));
+		assertEquals(3, uploadServer.requests().size());
+		assertEquals(1, signingServer.requests().size());
+		for (MockServer.Request request : uploadServer.requests()) {
+			assertEquals("signed_1", request.field("public_id"));
+		}
+	}
+
+	public void testExplicitSignatureAndSecretTakePrecedence() throws Exception {
+		Cloudinary cloudinary = cloudinary(httpProvider());
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("public_id", "own");
+		params.put("timestamp", "1315060510");
+		cloudinary.uploader().upload(new ByteArrayInputStream(new byte[100]), Cloudinary.asMap("public_id", "own", "timestamp", "1315060510",
+				"signature", RequestSigner.sign(params, SECRET), "api_key", "1234"));
+		cloudinary.uploader().upload(new ByteArrayInputStream(new byte[100]), Cloudinary.asMap("public_id", "own", "api_key", "1234",
+				"api_secret", SECRET));
+		assertEquals(0, signingServer.requests().size());
+		assertEquals("own", uploadServer.requests().get(1).field("public_id"));
+	}
+
+	public void testFailures() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		SignaturePool pool = new SignaturePool(new SignatureProvider() {
+			@Override
+			public List<Map<String, Object>> fetchSignatures(int count) throws IOException {
+				calls.incrementAndGet();
+				throw new IOException("Signing server unreachable");
+			}
+		}, executor);
+		try {
+			cloudinary(pool).uploader().upload(new ByteArrayInputStream(new byte[100]), null);
+			fail("Expected the upload to fail");
+		} catch (IOException e) {
+			assertEquals("Signing server unreachable", e.getMessage());
+		}
+		assertEquals(1, calls.get());
+		assertEquals(0, uploadServer.requests().size());
+	}
+}
@@ -0,0 +1,246 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.ChunkedUploadException;
+import com.cloudinary.Cloudinary;
+import com.cloudinary.Configuration;
+import com.cloudinary.DeadlineExceededException;
+import com.cloudinary.HttpTransport;
+import com.cloudinary.PooledHttpTransport;
+import com.cloudinary.RetryPolicy;
+import com.cloudinary.SignatureProvider;
+import com.cloudinary.UrlConnectionTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TimeoutTest extends AndroidTestCase {
+
+	private MockServer server;
+	private volatile MockServer.Response response = MockServer.Response.ok("{\"public_id\":\"sample\"}");
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				return response;
+			}
+		});
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private Configuration.Builder config(HttpTransport transport, RetryPolicy retryPolicy) {
+		return server.config()
+				.setHttpTransport(transport)
+				.setRetryPolicy(retryPolicy);
+	}
+
+	private Cloudinary cloudinary(HttpTransport transport, RetryPolicy retryPolicy) {
+		return new Cloudinary(config(transport, retryPolicy).build());
+	}
+
+	/*
+	 * Endless source
+	 */
+	private static InputStream endlessStream() {
+		return new InputStream() {
+			@Override
+			public int read() {
+				return 0;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) {
+				return length;
+			}
+		};
+	}
+
+	public void testReadTimeout() throws Exception {
+		server.setLatency(3000);
+		long start = System.currentTimeMillis();
+		try {
+			cloudinary(new PooledHttpTransport(), RetryPolicy.NONE).uploader().upload(new ByteArrayInputStream(new byte[10]),
+					Cloudinary.asMap("read_timeout", 200));
+			fail("Expected the upload to time out");
+		} catch (SocketTimeoutException e) {
+			assertFalse(e instanceof DeadlineExceededException);
+		}
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(1, server.requests().size());
+	}
+
+	public void testReadTimeoutFromConfiguration() throws Exception {
+		server.setLatency(3000);
+		Configuration config = Configuration.from(config(new UrlConnectionTransport(), RetryPolicy.NONE).setReadTimeout(200).build());
+		assertEquals(200, config.readTimeout);
+		assertEquals(Configuration.DEFAULT_CONNECT_TIMEOUT_MILLIS, config.connectTimeout);
+		long start = System.currentTimeMillis();
+		try {
+			new Cloudinary(config).uploader().upload(new ByteArrayInputStream(new byte[10]), null);
+			fail("Expected the upload to time out");
+		} catch (SocketTimeoutException e) {
+			// expected
+		}
+		assertTrue(System.currentTimeMillis() - start < 2000);
+	}
+
+	public void testWriteTimeout() throws Exception {
+		// Accepts connections but never reads from them, so writes block once the socket buffers are full
+		final ServerSocket stalled = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+		stalled.setReceiveBufferSize(4096);
+		final List<Socket> accepted = new ArrayList<Socket>();
+		ExecutorService acceptor = Executors.newSingleThreadExecutor();
+		acceptor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						accepted.add(stalled.accept());
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		});
+		try {
+			Cloudinary cloudinary = new Cloudinary(config(new PooledHttpTransport(), RetryPolicy.NONE).setUploadPrefix("http://127.0.0.1:" + stalled.getLocalPort())
+					.setWriteTimeout(300).build());
+			long start = System.currentTimeMillis();
+			try {
+				cloudinary.uploader().upload(endlessStream(), null);
+				fail("Expected the upload to time out");
+			} catch (SocketTimeoutException e) {
+				assertEquals("Write timed out", e.getMessage());
+			}
+			assertTrue(System.currentTimeMillis() - start < 3000);
+		} finally {
+			stalled.close();
+			for (Socket socket : accepted) {
+				socket.close();
+			}
+			acceptor.shutdownNow();
+		}
+	}
+
+	public void testConnectTimeoutBoundsPoolWait() throws Exception {
+		server.setLatency(2000);
+		final Cloudinary cloudinary = cloudinary(new PooledHttpTransport(1, 1, 30000), RetryPolicy.NONE);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> holding = executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return cloudinary.uploader().upload(new ByteArrayInputStream(new byte[10]), null);
+				}
+			});
+			while (server.requests().isEmpty()) {
+				Thread.sleep(10);
+			}
+			long start = System.currentTimeMillis();
+			try {
+				cloudinary.uploader().upload(new ByteArrayInputStream(new byte[10]), Cloudinary.asMap("connect_timeout", 200));
+				fail("Expected the upload to time out");
+			} catch (SocketTimeoutException e) {
+				// expected
+			}
+			assertTrue(System.currentTimeMillis() - start < 1500);
+			holding.get(5, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testDeadline() throws Exception {
+		server.setLatency(3000);
+		long start = System.currentTimeMillis();
+		try {
+			cloudinary(new PooledHttpTransport(), RetryPolicy.DEFAULT).uploader().upload(new ByteArrayInputStream(new byte[10]),
+					Cloudinary.asMap("timeout", 300, "public_id", "sample"));
+			fail("Expected the upload to exceed its deadline");
+		} catch (DeadlineExceededException e) {
+			// expected
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("elapsed " + elapsed, elapsed >= 300 && elapsed < 1500);
+		// The call was not retried past its deadline
+		assertEquals(1, server.requests().size());
+	}
+
+	public void testDeadlineBoundsRetries() throws Exception {
+		response = new MockServer.Response(503, "{\"error\":{\"message\":\"Unavailable\"}}");
+		RetryPolicy retryPolicy = new RetryPolicy.Builder().setMaxRetries(5).setBackoff(200, 200, 1).setJitter(0).build();
+		Cloudinary cloudinary = new Cloudinary(config(new PooledHttpTransport(), retryPolicy).setCallTimeout(500).build());
+		long start = System.currentTimeMillis();
+		try {
+			cloudinary.uploader().upload(new ByteArrayInputStream(new byte[10]), Cloudinary.asMap("public_id", "sample"));
+			fail("Expected the upload to fail");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("503"));
+		}
+		// Retries whose backoff would have ended past the deadline were given up
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertTrue(server.requests().size() >= 2 && server.requests().size() <= 3);
+	}
+
+	public void testDeadlineCoversSigning() throws Exception {
+		Cloudinary cloudinary = new Cloudinary(config(new PooledHttpTransport(), RetryPolicy.NONE).setApiSecret(null)
+				.setSignatureProvider(new SignatureProvider() {
+					@Override
+					public List<Map<String, Object>> fetchSignatures(int count) throws IOException {
+						try {
+							Thread.sleep(300);
+						} catch (InterruptedException e) {
+							throw new IOException(e.getMessage());
+						}
+						Map<String, Object> signature = new HashMap<String, Object>();
+						signature.put("signature", "abcd");
+						signature.put("timestamp", "1315060510");
+						List<Map<String, Object>> signatures = new ArrayList<Map<String, Object>>();
+						signatures.add(signature);
+						return signatures;
+					}
+				}).build());
+		try {
+			cloudinary.uploader().upload(new ByteArrayInputStream(new byte[10]), Cloudinary.asMap("timeout", 200));
+			fail("Expected the upload to exceed its deadline");
+		} catch (DeadlineExceededException e) {
+			// expected
+		}
+		assertEquals(0, server.connectionCount());
+	}
+
+	public void testDeadlineSpansChunks() throws Exception {
+		server.setLatency(200);
+		long start = System.currentTimeMillis();
+		try {
+			cloudinary(new PooledHttpTransport(), RetryPolicy.DEFAULT).uploader().uploadLarge(new ByteArrayInputStream(new byte[5000]),
+					Cloudinary.asMap("chunk_size", 1000, "timeout", 500));
+			fail("Expected the upload to exceed its deadline");
+		} catch (ChunkedUploadException e) {
+			assertTrue(e.getCause() instanceof DeadlineExceededException);
+			// Resumable from the first chunk not acknowledged
+			assertTrue("offset " + e.getOffset(), e.getOffset() >= 1000 && e.getOffset() <= 2000 && e.getOffset() % 1000 == 0);
+		}
+		assertTrue(System.currentTimeMillis() - start < 1500);
+		assertTrue(server.requests().size() <= 3);
+	}
+}
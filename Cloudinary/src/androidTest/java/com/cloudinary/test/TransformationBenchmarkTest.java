@@ -0,0 +1,87 @@
+package com.cloudinary.test;
+
+import static com.cloudinary.TransformationTemplate.slot;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.Configuration;
+import com.cloudinary.Transformation;
+import com.cloudinary.TransformationTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Transformation and url generation timings, written to the log under the "TransformationBenchmark"
+ * tag. Remove the @Suppress annotation below to run them.
+ */
+@Suppress
+public class TransformationBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = "TransformationBenchmark";
+	private static final int COUNT = 100000;
+
+	private static final TransformationTemplate FEED = TransformationTemplate.compile(new Transformation().width(slot("width"))
+			.height(slot("height")).crop("fill").gravity("face").rawTransformation("dpr_" + slot("dpr")).chain().named("watermark"));
+
+	private Cloudinary cloudinary;
+
+	public void setUp() {
+		cloudinary = new Cloudinary(new Configuration.Builder().setCloudName("test123").build());
+	}
+
+	private static Transformation built(int width, int height, int dpr) {
+		return new Transformation().width(width).height(height).crop("fill").gravity("face").rawTransformation("dpr_" + dpr).chain()
+				.named("watermark");
+	}
+
+	private static Map<String, Object> values(int width, int height, int dpr) {
+		Map<String, Object> values = new HashMap<String, Object>(4);
+		values.put("width", width);
+		values.put("height", height);
+		values.put("dpr", dpr);
+		return values;
+	}
+
+	public void testTemplateAgainstBuilding() {
+		int length = 0;
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < COUNT; i++) {
+				length += built(100 + i % 500, 100 + i % 300, 1 + i % 3).generate().length();
+			}
+			long millis = (System.nanoTime() - start) / 1000000;
+			Log.i(TAG, COUNT + " transformations built and generated: " + millis + "ms");
+
+			start = System.nanoTime();
+			for (int i = 0; i < COUNT; i++) {
+				length += FEED.generate(values(100 + i % 500, 100 + i % 300, 1 + i % 3)).length();
+			}
+			millis = (System.nanoTime() - start) / 1000000;
+			Log.i(TAG, COUNT + " transformations bound from a template: " + millis + "ms");
+		}
+		assertTrue(length > 0);
+	}
+
+	public void testUrls() {
+		int length = 0;
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < COUNT; i++) {
+				length += cloudinary.url().transformation(built(100 + i % 500, 100 + i % 300, 1 + i % 3)).generate("sample" + i).length();
+			}
+			long millis = (System.nanoTime() - start) / 1000000;
+			Log.i(TAG, COUNT + " urls with built transformations: " + millis + "ms");
+
+			start = System.nanoTime();
+			for (int i = 0; i < COUNT; i++) {
+				length += cloudinary.url().transformation(FEED.bind(values(100 + i % 500, 100 + i % 300, 1 + i % 3))).generate("sample" + i).length();
+			}
+			millis = (System.nanoTime() - start) / 1000000;
+			Log.i(TAG, COUNT + " urls with transformations bound from a template: " + millis + "ms");
+		}
+		assertTrue(length > 0);
+	}
+}
@@ -0,0 +1,217 @@
+package com.cloudinary.test;
+
+import static com.cloudinary.TransformationTemplate.slot;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.Configuration;
+import com.cloudinary.Transformation;
+import com.cloudinary.TransformationTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class TransformationTemplateTest extends AndroidTestCase {
+
+	private static final TransformationTemplate FEED = TransformationTemplate.compile(new Transformation().width(slot("width"))
+			.height(slot("height")).crop("fill").rawTransformation("dpr_" + slot("dpr")).chain().overlay("text:" + slot("caption")).y(slot("height")));
+
+	private Cloudinary cloudinary;
+
+	public void setUp() {
+		cloudinary = new Cloudinary(new Configuration.Builder().setCloudName("test123").build());
+	}
+
+	private static Transformation built(Object width, Object height, Object dpr, String caption) {
+		return new Transformation().width(width).height(height).crop("fill").rawTransformation("dpr_" + dpr).chain().overlay("text:" + caption)
+				.y(height);
+	}
+
+	private static Map values(Object width, Object height, Object dpr, String caption) {
+		return Cloudinary.asMap("width", width, "height", height, "dpr", dpr, "caption", caption);
+	}
+
+	public void testSameAsBuilt() {
+		assertEquals(Arrays.asList("caption", "dpr", "height", "width"), FEED.getSlotNames());
+		Random random = new Random(3);
+		for (int i = 0; i < 1000; i++) {
+			Object width = random.nextBoolean() ? random.nextInt(2000) + 1 : random.nextFloat();
+			Object height = random.nextInt(2000) + 1;
+			Object dpr = random.nextBoolean() ? "auto" : 1 + random.nextInt(3);
+			String caption = "caption" + i;
+			String expected = built(width, height, dpr, caption).generate();
+			Map values = Cloudinary.asMap("caption", caption, "dpr", dpr, "height", height, "width", width);
+			assertEquals(expected, FEED.generate(values));
+			Transformation bound = FEED.bind(values);
+			assertTrue(bound.isFrozen());
+			assertEquals(expected, bound.generate());
+		}
+		assertEquals("c_fill,h_20,w_10,dpr_2/l_text:hi,y_20", FEED.generate(values(10, 20, 2, "hi")));
+	}
+
+	public void testHtmlSizes() {
+		TransformationTemplate template = TransformationTemplate.compile(new Transformation().width(slot("w")).height(slot("h")).crop(slot("c")));
+		for (Object[] values : new Object[][] { { 100, 150, "fill" }, { 0.5, 150, "scale" }, { 100, 150, "fit" } }) {
+			Transformation built = new Transformation().width(values[0]).height(values[1]).crop((String) values[2]);
+			built.generate();
+			Transformation bound = template.bind(Cloudinary.asMap("w", values[0], "h", values[1], "c", values[2]));
+			assertEquals(built.getHtmlWidth(), bound.getHtmlWidth());
+			assertEquals(built.getHtmlHeight(), bound.getHtmlHeight());
+			assertEquals(cloudinary.url().transformation(built).imageTag("sample.jpg"),
+					cloudinary.url().transformation(bound).imageTag("sample.jpg"));
+		}
+		// Literal sizes are kept from the template
+		assertEquals("90", TransformationTemplate.compile(new Transformation().width(90).effect(slot("e"))).bind(Cloudinary.asMap("e", "sepia")).getHtmlWidth());
+	}
+
+	public void testCopiesAndFetchFormat() {
+		Transformation bound = FEED.bind(values(10, 20, 2, "hi"));
+		Transformation copy = new Transformation(bound).x(5);
+		assertFalse(copy.isFrozen());
+		assertEquals("c_fill,h_20,w_10,dpr_2/l_text:hi,x_5,y_20", copy.generate());
+		assertEquals("c_fill,h_20,w_10,dpr_2/l_text:hi,y_20", bound.generate());
+
+		String url = cloudinary.url().type("fetch").format("png").transformation(bound).generate("http://example.com/a.jpg");
+		assertEquals(cloudinary.url().type("fetch").format("png").transformation(built(10, 20, 2, "hi")).generate("http://example.com/a.jpg"), url);
+		try {
+			bound.width(30);
+			fail("Expected a bound transformation to be unchangeable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	/*
+	 * Sample values of every parameter, written in different ways where the transformation
+	 * rewrites them
+	 */
+	private static final Object[][] PARAMETERS = {
+			{ "width", 100, 0.5, "200" },
+			{ "height", 100, 0.5, "200" },
+			{ "transformation", "blue", new String[] { "blue", "green" } },
+			{ "crop", "fill", "fit", "limit", "scale" },
+			{ "background", "#ff0000", "red", "rgb:00ff00" },
+			{ "color", "#ff0000", "red", "rgb:00ff00" },
+			{ "effect", "sepia", "grayscale:50" },
+			{ "angle", 12, "auto", new String[] { "auto", "exif" } },
+			{ "border", "3px_solid_black" },
+			{ "x", 5, "10" },
+			{ "y", 5, "10" },
+			{ "radius", 5, "max" },
+			{ "default_image", "avatar.jpg" },
+			{ "gravity", "face", "north_west" },
+			{ "color_space", "srgb" },
+			{ "prefix", "p" },
+			{ "overlay", "text:hello", "badge" },
+			{ "underlay", "background" },
+			{ "fetch_format", "png" },
+			{ "density", 150 },
+			{ "page", 2 },
+			{ "delay", 20 },
+			{ "effect", "blur:300" },
+			{ "quality", 80, "auto" },
+			{ "flags", "progressive", new String[] { "progressive", "strip_profile" } },
+			{ "raw_transformation", "e_blur" } };
+
+	public void testParityForEveryParameter() {
+		for (Object[] parameter : PARAMETERS) {
+			String key = (String) parameter[0];
+			TransformationTemplate template = TransformationTemplate.compile(new Transformation().height(50).param(key, slot("v")));
+			for (int i = 1; i < parameter.length; i++) {
+				assertSameAsBuilt(key, template, Cloudinary.asMap("v", parameter[i]), new Transformation().height(50).param(key, parameter[i]));
+			}
+		}
+
+		// Several slots over steps and base transformations
+		Random random = new Random(9);
+		for (int i = 0; i < 2000; i++) {
+			Transformation template = new Transformation();
+			Transformation built = new Transformation();
+			Map values = new HashMap();
+			for (int step = random.nextInt(3); step >= 0; step--) {
+				Map templateBase = new HashMap();
+				Map builtBase = new HashMap();
+				for (int count = 1 + random.nextInt(4); count > 0; count--) {
+					Object[] parameter = PARAMETERS[random.nextInt(PARAMETERS.length)];
+					String key = (String) parameter[0];
+					Object value = parameter[1 + random.nextInt(parameter.length - 1)];
+					String name = "s" + values.size();
+					values.put(name, value);
+					if (random.nextInt(4) == 0) {
+						templateBase.put(key, slot(name));
+						builtBase.put(key, value);
+					} else {
+						template.param(key, slot(name));
+						built.param(key, value);
+					}
+				}
+				if (!builtBase.isEmpty()) {
+					List<Map> templateBases = new ArrayList<Map>();
+					templateBases.add(templateBase);
+					List<Map> builtBases = new ArrayList<Map>();
+					builtBases.add(builtBase);
+					template.param("transformation", templateBases);
+					built.param("transformation", builtBases);
+				}
+				if (step > 0) {
+					template.chain();
+					built.chain();
+				}
+			}
+			assertSameAsBuilt("case " + i, TransformationTemplate.compile(template), values, built);
+		}
+
+		// Colors with the # outside the slot
+		assertSameAsBuilt("partial color", TransformationTemplate.compile(new Transformation().background("#" + slot("c"))),
+				Cloudinary.asMap("c", "ff0000"), new Transformation().background("#ff0000"));
+	}
+
+	private void assertSameAsBuilt(String message, TransformationTemplate template, Map values, Transformation built) {
+		String expected = built.generate();
+		assertEquals(message, expected, template.generate(values));
+		Transformation bound = template.bind(values);
+		assertEquals(message, expected, bound.generate());
+		assertEquals(message, built.getHtmlWidth(), bound.getHtmlWidth());
+		assertEquals(message, built.getHtmlHeight(), bound.getHtmlHeight());
+		assertEquals(message, expected, new Transformation(bound).generate());
+	}
+
+	public void testInvalidValues() {
+		try {
+			FEED.generate(Cloudinary.asMap("width", 10, "height", 20, "dpr", 2, "caption", null));
+			fail("Expected a value for each slot");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			FEED.bind(values(10, "", 2, "hi"));
+			fail("Expected empty values to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			FEED.generate(Cloudinary.asMap("width", 10, "height", 20, "dpr", 2));
+			fail("Expected a value for each slot");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			slot("a,b");
+			fail("Expected invalid slot names to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			TransformationTemplate.compile(new Transformation().param("size", slot("w") + "x" + slot("h")));
+			fail("Expected slots in size to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.DestroyResult;
+import com.cloudinary.RetryPolicy;
+import com.cloudinary.TagsResult;
+import com.cloudinary.UploadResult;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+public class TypedResultTest extends AndroidTestCase {
+
+	private static final String UPLOAD_RESPONSE = "{\"eager\":[{\"public_id\":\"wrong\",\"url\":\"http://x/\\\"}]\"}],"
+			+ "\"colors\":[[\"#FFFFFF\",40.5]],\"public_id\":\"sample\",\"version\":1412345678,\"signature\":\"abcdef\","
+			+ "\"width\":864,\"height\":576,\"format\":\"jpg\",\"resource_type\":\"image\",\"created_at\":\"2014-10-01T12:00:00Z\","
+			+ "\"bytes\":120253,\"type\":\"upload\",\"etag\":null,\"url\":\"http://res.cloudinary.com/test123/image/upload/v1412345678/sample.jpg\","
+			+ "\"secure_url\":\"https://res.cloudinary.com/test123/image/upload/v1412345678/sample.jpg\",\"original_filename\":\"ünïcode\"}";
+
+	private MockServer server;
+	private volatile MockServer.Response response;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				return response;
+			}
+		});
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private Cloudinary cloudinary() {
+		return new Cloudinary(server.config()
+				.setRetryPolicy(RetryPolicy.NONE)
+				.build());
+	}
+
+	public void testUploadResult() throws Exception {
+		response = MockServer.Response.ok(UPLOAD_RESPONSE);
+		Cloudinary cloudinary = cloudinary();
+		UploadResult result = cloudinary.typedUploader().upload(new ByteArrayInputStream(new byte[10]), null);
+		assertEquals("upload", server.requests().get(0).action());
+		assertEquals(200, result.getHttpCode());
+		assertFalse(result.isError());
+		assertEquals("sample", result.getPublicId());
+		assertEquals(1412345678L, result.getVersion());
+		assertEquals(864, result.getWidth());
+		assertEquals(576, result.getHeight());
+		assertEquals(120253L, result.getBytes());
+		assertEquals("image", result.getResourceType());
+		assertEquals("upload", result.getType());
+		assertNull(result.getEtag());
+		assertEquals("https://res.cloudinary.com/test123/image/upload/v1412345678/sample.jpg", result.getSecureUrl());
+		assertEquals("ünïcode", result.getOriginalFilename());
+
+		JSONObject json = cloudinary.uploader().upload(new ByteArrayInputStream(new byte[10]), null);
+		assertEquals(cloudinary.signedPreloadedImage(json), cloudinary.signedPreloadedImage(result));
+		assertEquals("image/upload/v1412345678/sample.jpg#abcdef", cloudinary.signedPreloadedImage(result));
+
+		JSONObject complete = result.toJSONObject();
+		assertEquals("http://x/\"}]", complete.getJSONArray("eager").getJSONObject(0).getString("url"));
+		assertSame(complete, result.toJSONObject());
+	}
+
+	public void testUploadLarge() throws Exception {
+		response = MockServer.Response.ok(UPLOAD_RESPONSE);
+		UploadResult result = cloudinary().typedUploader().uploadLarge(new ByteArrayInputStream(new byte[2500]), Cloudinary.asMap("chunk_size", 1000));
+		assertEquals(3, server.requests().size());
+		assertEquals("sample", result.getPublicId());
+	}
+
+	public void testDestroyAndTags() throws Exception {
+		response = MockServer.Response.ok("{\"result\":\"not found\"}");
+		DestroyResult destroyed = cloudinary().typedUploader().destroy("sample", null);
+		assertEquals("destroy", server.requests().get(0).action());
+		assertFalse(destroyed.isOk());
+		assertEquals("not found", destroyed.getResult());
+
+		response = MockServer.Response.ok("{\"public_ids\":[\"a\",\"b\"]}");
+		TagsResult tags = cloudinary().typedUploader().addTag("tag", new String[] { "a", "b" }, null);
+		assertEquals("tags", server.requests().get(1).action());
+		assertEquals("add", server.requests().get(1).field("command"));
+		assertEquals(Arrays.asList("a", "b"), tags.getPublicIds());
+	}
+
+	public void testErrors() throws Exception {
+		response = new MockServer.Response(400, "{\"error\":{\"message\":\"Resource not found\"}}");
+		try {
+			cloudinary().typedUploader().explicit("sample", null);
+			fail("Expected an error");
+		} catch (RuntimeException e) {
+			assertEquals("Resource not found", e.getMessage());
+		}
+
+		UploadResult result = cloudinary().typedUploader().explicit("sample", Cloudinary.asMap("return_error", true));
+		assertTrue(result.isError());
+		assertEquals(400, result.getHttpCode());
+		assertEquals("Resource not found", result.getErrorMessage());
+		assertNull(result.getPublicId());
+		assertEquals(400, result.toJSONObject().getJSONObject("error").getInt("http_code"));
+
+		response = MockServer.Response.ok("{\"public_id\":\"sample\",}");
+		try {
+			cloudinary().typedUploader().destroy("sample", null);
+			fail("Expected an error");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().startsWith("Invalid JSON response from server"));
+		}
+
+		response = new MockServer.Response(502, "Bad Gateway");
+		try {
+			cloudinary().typedUploader().destroy("sample", null);
+			fail("Expected an error");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("502 - Bad Gateway"));
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.Suppress;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.NioUploadEngine;
+import com.cloudinary.RequestSigner;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Throughput benchmarks against a local stand-in server. Timings are written to the log under
+ * the "UploadBenchmark" tag. Remove the @Suppress annotation below to run them.
+ */
+@Suppress
+public class UploadBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = "UploadBenchmark";
+
+	private MockServer server;
+	private Cloudinary cloudinary;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				return MockServer.Response.ok("{\"public_id\":\"benchmark\"}");
+			}
+		});
+		cloudinary = new Cloudinary(server.config().build());
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private File createFile(String name, int size) throws Exception {
+		byte[] data = new byte[size];
+		new Random(42).nextBytes(data);
+		File file = new File(getContext().getCacheDir(), name);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+		return file;
+	}
+
+	public void testParallelChunks() throws Exception {
+		File file = createFile("benchmark.bin", 8 * 1024 * 1024);
+		server.setLatency(100);
+		for (int concurrency : new int[] { 1, 2, 4, 8 }) {
+			long start = System.nanoTime();
+			cloudinary.uploader().uploadLarge(file, Cloudinary.asMap("chunk_size", 256 * 1024, "chunk_concurrency", concurrency));
+			long millis = (System.nanoTime() - start) / 1000000;
+			Log.i(TAG, "uploadLarge 8MB in 256KB chunks, 100ms latency, concurrency " + concurrency + ": " + millis + "ms");
+		}
+	}
+
+	public void testNioConcurrentUploads() throws Exception {
+		File file = createFile("small.bin", 4 * 1024);
+		server.setLatency(200);
+		for (int count : new int[] { 1000, 10000 }) {
+			NioUploadEngine engine = new NioUploadEngine(cloudinary, 2);
+			long start = System.nanoTime();
+			List<Future<JSONObject>> results = new ArrayList<Future<JSONObject>>(count);
+			for (int i = 0; i < count; i++) {
+				results.add(engine.upload(file, null));
+			}
+			for (Future<JSONObject> result : results) {
+				result.get();
+			}
+			long millis = (System.nanoTime() - start) / 1000000;
+			engine.shutdown();
+			Log.i(TAG, count + " concurrent 4KB uploads, 200ms latency, NIO engine on 2 threads: " + millis + "ms");
+
+			ExecutorService executor = Executors.newFixedThreadPool(64);
+			start = System.nanoTime();
+			results.clear();
+			for (int i = 0; i < count; i++) {
+				results.add(cloudinary.asyncUploader(executor).upload(file, null));
+			}
+			for (Future<JSONObject> result : results) {
+				result.get();
+			}
+			millis = (System.nanoTime() - start) / 1000000;
+			executor.shutdown();
+			Log.i(TAG, count + " concurrent 4KB uploads, 200ms latency, blocking uploader on 64 threads: " + millis + "ms");
+		}
+	}
+
+	public void testManyParameters() throws Exception {
+		Map<String, Object> options = new HashMap<String, Object>();
+		options.put("public_id", "benchmark");
+		options.put("tags", "a,b,c");
+		options.put("context", "caption=hello|alt=world");
+		options.put("folder", "benchmarks");
+		options.put("format", "jpg");
+		for (String flag : new String[] { "backup", "exif", "faces", "colors", "image_metadata", "use_filename", "eager_async", "invalidate",
+				"discard_original_filename", "overwrite", "phash", "return_delete_token", "similarity_search" }) {
+			options.put(flag, true);
+		}
+		options.put("moderation", "manual");
+		options.put("categorization", "imagga_tagging");
+		options.put("auto_tagging", "0.5");
+		options.put("detection", "adv_face");
+		options.put("notification_url", "http://example.com/notify");
+		options.put("eager_notification_url", "http://example.com/eager");
+		options.put("callback", "http://example.com/callback");
+		for (int i = 0; i < 100; i++) {
+			cloudinary.uploader().upload("http://example.com/image.jpg", options);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			cloudinary.uploader().upload("http://example.com/image.jpg", options);
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		Log.i(TAG, "1000 uploads with 30 parameters: " + millis + "ms");
+	}
+
+	public void testSigning() throws Exception {
+		List<Map<String, Object>> paramSets = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 10000; i++) {
+			Map<String, Object> params = new HashMap<String, Object>();
+			for (int j = 0; j < 30; j++) {
+				params.put("param_" + j, "value " + i + "/" + j);
+			}
+			paramSets.add(params);
+		}
+		for (Map<String, Object> params : paramSets.subList(0, 1000)) {
+			legacySign(params, "secret");
+			cloudinary.apiSignRequest(params, "secret");
+		}
+		RequestSigner.sign(paramSets.subList(0, 1000), "secret");
+		List<String> legacy = new ArrayList<String>();
+		long start = System.nanoTime();
+		for (Map<String, Object> params : paramSets) {
+			legacy.add(legacySign(params, "secret"));
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		Log.i(TAG, "10000 signatures of 30 parameters, before: " + millis + "ms");
+		start = System.nanoTime();
+		for (Map<String, Object> params : paramSets) {
+			cloudinary.apiSignRequest(params, "secret");
+		}
+		millis = (System.nanoTime() - start) / 1000000;
+		Log.i(TAG, "10000 signatures of 30 parameters: " + millis + "ms");
+		start = System.nanoTime();
+		List<String> batch = RequestSigner.sign(paramSets, "secret");
+		millis = (System.nanoTime() - start) / 1000000;
+		Log.i(TAG, "10000 signatures of 30 parameters in one batch: " + millis + "ms");
+		assertEquals(legacy, batch);
+	}
+
+	/**
+	 * Cloudinary#apiSignRequest as it was, before RequestSigner
+	 */
+	@SuppressWarnings("rawtypes")
+	private static String legacySign(Map<String, Object> paramsToSign, String apiSecret) throws NoSuchAlgorithmException {
+		Collection<String> params = new ArrayList<String>();
+		for (Map.Entry<String, Object> param : new TreeMap<String, Object>(paramsToSign).entrySet()) {
+			if (param.getValue() instanceof Collection) {
+				params.add(param.getKey() + "=" + TextUtils.join(",", (Collection) param.getValue()));
+			} else if (param.getValue() instanceof String) {
+				String value = (String) param.getValue();
+				if (!TextUtils.isEmpty(value)) {
+					params.add(param.getKey() + "=" + value);
+				}
+			}
+		}
+		String toSign = TextUtils.join("&", params);
+		byte[] digest = MessageDigest.getInstance("SHA-1").digest((toSign + apiSecret).getBytes());
+		StringBuffer hex = new StringBuffer();
+		for (byte aByte : digest) {
+			hex.append(Integer.toHexString(0x100 | (((int) aByte) & 0xFF)).substring(1));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,253 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.PooledHttpTransport;
+import com.cloudinary.RetryPolicy;
+import com.cloudinary.UploadCache;
+import com.cloudinary.UploadWriter;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UploadCacheTest extends AndroidTestCase {
+
+	private MockServer server;
+	private final AtomicInteger uploads = new AtomicInteger();
+	private final AtomicInteger failures = new AtomicInteger();
+	private File index;
+	private File file;
+	private byte[] data;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				if (failures.getAndDecrement() > 0) {
+					return new MockServer.Response(500, "{\"error\":{\"message\":\"Internal error\"}}");
+				}
+				return MockServer.Response.ok("{\"public_id\":\"sample" + uploads.incrementAndGet() + "\"}");
+			}
+		});
+		index = new File(getContext().getCacheDir(), "uploads.idx");
+		index.delete();
+		data = new byte[200000];
+		new Random(5).nextBytes(data);
+		file = new File(getContext().getCacheDir(), "cached.bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+		index.delete();
+		file.delete();
+	}
+
+	private Cloudinary cloudinary(UploadCache cache) {
+		return new Cloudinary(server.config()
+				.setHttpTransport(new PooledHttpTransport())
+				.setRetryPolicy(RetryPolicy.NONE)
+				.setUploadCache(cache)
+				.build());
+	}
+
+	public void testKnownContentSkipsNetwork() throws Exception {
+		Cloudinary cloudinary = cloudinary(new UploadCache(index));
+		assertEquals("sample1", cloudinary.uploader().upload(file, Cloudinary.asMap("tags", "a")).getString("public_id"));
+		// Same bytes from another source and path, and a later timestamp and signature
+		Thread.sleep(1100);
+		assertEquals("sample1", cloudinary.uploader().upload(ByteBuffer.wrap(data), Cloudinary.asMap("tags", "a")).getString("public_id"));
+		assertEquals("sample1", cloudinary.uploader().upload(file.getPath(), Cloudinary.asMap("tags", "a")).getString("public_id"));
+		assertEquals(1, server.requests().size());
+
+		// Other parameters or content are uploaded
+		assertEquals("sample2", cloudinary.uploader().upload(file, Cloudinary.asMap("tags", "b")).getString("public_id"));
+		data[100]++;
+		assertEquals("sample3", cloudinary.uploader().upload(ByteBuffer.wrap(data), Cloudinary.asMap("tags", "a")).getString("public_id"));
+		assertEquals(3, server.requests().size());
+
+		// Not used unless configured
+		cloudinary(null).uploader().upload(file, Cloudinary.asMap("tags", "a"));
+		assertEquals(4, server.requests().size());
+	}
+
+	public void testResultsCanBeChanged() throws Exception {
+		Cloudinary cloudinary = cloudinary(new UploadCache(index));
+		cloudinary.uploader().upload(file, null).put("public_id", "changed");
+		JSONObject cached = cloudinary.uploader().upload(file, null);
+		cached.put("public_id", "changed");
+		assertEquals("sample1", cloudinary.uploader().upload(file, null).getString("public_id"));
+	}
+
+	public void testPersistence() throws Exception {
+		cloudinary(new UploadCache(index)).uploader().upload(file, null);
+		UploadCache reloaded = new UploadCache(index);
+		assertEquals(1, reloaded.size());
+		assertEquals("sample1", cloudinary(reloaded).uploader().upload(file, null).getString("public_id"));
+		assertEquals(1, server.requests().size());
+
+		reloaded.clear();
+		assertFalse(index.exists());
+		cloudinary(reloaded).uploader().upload(file, null);
+		assertEquals(2, server.requests().size());
+	}
+
+	public void testChangedResourcesDropped() throws Exception {
+		UploadCache cache = new UploadCache(index);
+		Cloudinary cloudinary = cloudinary(cache);
+		cloudinary.uploader().upload(file, Cloudinary.asMap("tags", "a"));
+		cloudinary.uploader().upload(file, Cloudinary.asMap("tags", "b"));
+		cloudinary.uploader().upload(file, Cloudinary.asMap("tags", "c"));
+		assertEquals(3, cache.size());
+
+		cloudinary.uploader().destroy("sample1", null);
+		assertEquals(2, cache.size());
+		assertEquals("sample5", cloudinary.uploader().upload(file, Cloudinary.asMap("tags", "a")).getString("public_id"));
+		cloudinary.uploader().rename("sample2", "renamed", null);
+		cloudinary.typedUploader().explicit("sample3", null);
+		assertEquals(1, cache.size());
+		assertEquals(7, server.requests().size());
+		assertEquals(1, new UploadCache(index).size());
+
+		cache.evict("sample5");
+		assertEquals(0, new UploadCache(index).size());
+	}
+
+	public void testLeastRecentlyUsedDropped() throws Exception {
+		UploadCache cache = new UploadCache(index, 2);
+		Cloudinary cloudinary = cloudinary(cache);
+		for (int i = 0; i < 10; i++) {
+			cloudinary.uploader().upload(ByteBuffer.wrap(data), Cloudinary.asMap("tags", "tag" + i));
+			// Kept in use
+			cloudinary.uploader().upload(ByteBuffer.wrap(data), Cloudinary.asMap("tags", "tag0"));
+		}
+		assertEquals(10, server.requests().size());
+		assertEquals(2, cache.size());
+		// The index was compacted along, and keeps the latest results
+		assertEquals(2, new UploadCache(index, 2).size());
+		assertTrue(index.length() < 1000);
+		cloudinary(new UploadCache(index, 2)).uploader().upload(ByteBuffer.wrap(data), Cloudinary.asMap("tags", "tag9"));
+		assertEquals(10, server.requests().size());
+	}
+
+	public void testErrorsNotCached() throws Exception {
+		Cloudinary cloudinary = cloudinary(new UploadCache(index));
+		failures.set(1);
+		JSONObject error = cloudinary.uploader().upload(file, Cloudinary.asMap("return_error", true));
+		assertTrue(error.has("error"));
+		failures.set(1);
+		try {
+			cloudinary.uploader().upload(file, null);
+			fail("Expected the upload to fail");
+		} catch (RuntimeException e) {
+			assertEquals("Internal error", e.getMessage());
+		}
+		assertEquals("sample1", cloudinary.uploader().upload(file, null).getString("public_id"));
+		assertEquals(3, server.requests().size());
+	}
+
+	public void testTypedUploadsShareTheCache() throws Exception {
+		Cloudinary cloudinary = cloudinary(new UploadCache(index));
+		assertEquals("sample1", cloudinary.typedUploader().upload(file, null).getPublicId());
+		assertEquals("sample1", cloudinary.uploader().upload(ByteBuffer.wrap(data), null).getString("public_id"));
+		assertEquals("sample1", cloudinary.typedUploader().upload(file.getPath(), null).getPublicId());
+		assertEquals(1, server.requests().size());
+
+		failures.set(1);
+		assertTrue(cloudinary.typedUploader().upload(new ByteArrayInputStream(new byte[10]), Cloudinary.asMap("return_error", true)).isError());
+		assertEquals("sample2", cloudinary.typedUploader().upload(new ByteArrayInputStream(new byte[10]), null).getPublicId());
+		assertEquals("sample2", cloudinary.uploader().upload(ByteBuffer.wrap(new byte[10]), null).getString("public_id"));
+		assertEquals(3, server.requests().size());
+	}
+
+	public void testStreamsHashedWhileSent() throws Exception {
+		Cloudinary cloudinary = cloudinary(new UploadCache(index));
+		cloudinary.uploader().upload(new ByteArrayInputStream(data), null);
+		assertEquals("sample1", cloudinary.uploader().upload(file, null).getString("public_id"));
+		assertEquals(1, server.requests().size());
+
+		final byte[] other = new byte[5000];
+		cloudinary.uploader().upload(new UploadWriter() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				out.write(other, 0, 100);
+				out.write(other, 100, other.length - 100);
+			}
+		}, null);
+		assertEquals("sample2", cloudinary.uploader().upload(ByteBuffer.wrap(other), null).getString("public_id"));
+		assertEquals(2, server.requests().size());
+	}
+
+	public void testConcurrentUploadsCoalesced() throws Exception {
+		server.setLatency(300);
+		final Cloudinary cloudinary = cloudinary(new UploadCache(index));
+		ExecutorService executor = Executors.newFixedThreadPool(5);
+		try {
+			List<Future<JSONObject>> results = new ArrayList<Future<JSONObject>>();
+			for (int i = 0; i < 5; i++) {
+				results.add(executor.submit(new Callable<JSONObject>() {
+					@Override
+					public JSONObject call() throws Exception {
+						return cloudinary.uploader().upload(file, null);
+					}
+				}));
+			}
+			for (Future<JSONObject> result : results) {
+				assertEquals("sample1", result.get(5, TimeUnit.SECONDS).getString("public_id"));
+			}
+			assertEquals(1, server.requests().size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testFailedUploadTakenOver() throws Exception {
+		server.setLatency(300);
+		failures.set(1);
+		final Cloudinary cloudinary = cloudinary(new UploadCache(index));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<JSONObject>> results = new ArrayList<Future<JSONObject>>();
+			for (int i = 0; i < 2; i++) {
+				results.add(executor.submit(new Callable<JSONObject>() {
+					@Override
+					public JSONObject call() throws Exception {
+						return cloudinary.uploader().upload(file, null);
+					}
+				}));
+			}
+			int failed = 0;
+			for (Future<JSONObject> result : results) {
+				try {
+					assertEquals("sample1", result.get(5, TimeUnit.SECONDS).getString("public_id"));
+				} catch (ExecutionException e) {
+					failed++;
+				}
+			}
+			// Only the upload in flight failed, the waiting one was sent next
+			assertEquals(1, failed);
+			assertEquals(2, server.requests().size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
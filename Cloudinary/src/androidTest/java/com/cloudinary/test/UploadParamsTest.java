@@ -0,0 +1,135 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.EagerTransformation;
+import com.cloudinary.Transformation;
+import com.cloudinary.UploadParams;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class UploadParamsTest extends AndroidTestCase {
+
+	private MockServer server;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				return MockServer.Response.ok("{\"public_id\":\"" + request.field("public_id") + "\"}");
+			}
+		});
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private Cloudinary cloudinary() {
+		return new Cloudinary(server.config().build());
+	}
+
+	private static Map<String, Object> nonBlank(Map<String, Object> params) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		for (Map.Entry<String, Object> param : params.entrySet()) {
+			if (param.getValue() != null && !"".equals(param.getValue())) {
+				result.put(param.getKey(), param.getValue());
+			}
+		}
+		return result;
+	}
+
+	@SuppressWarnings("rawtypes")
+	public void testBuilderMatchesOptions() {
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Link", "1");
+		Map<String, String> context = new HashMap<String, String>();
+		context.put("caption", "hello");
+		UploadParams params = new UploadParams.Builder()
+				.setFolder("products")
+				.setTags("a", "b")
+				.setAllowedFormats("jpg", "png")
+				.setTransformation(new Transformation().width(100).crop("scale"))
+				.setEager(Arrays.asList(new Transformation().width(50), ((EagerTransformation) new EagerTransformation().height(30)).format("png")))
+				.setHeaders(headers)
+				.setContext(context)
+				.setOverwrite(true)
+				.setUniqueFilename(false)
+				.build();
+
+		Map options = Cloudinary.asMap("folder", "products", "tags", new String[] { "a", "b" }, "allowed_formats", new String[] { "jpg", "png" },
+				"transformation", new Transformation().width(100).crop("scale"),
+				"eager", Arrays.asList(new Transformation().width(50), ((EagerTransformation) new EagerTransformation().height(30)).format("png")),
+				"headers", headers, "context", context, "overwrite", true, "unique_filename", false);
+		assertEquals(nonBlank(cloudinary().uploader().buildUploadParams(options)), params.toMap());
+		assertEquals(params.toMap(), UploadParams.from(options).toMap());
+		assertEquals("c_scale,w_100", params.toMap().get("transformation"));
+		assertEquals("w_50|h_30/png", params.toMap().get("eager"));
+		assertEquals("a,b", params.toMap().get("tags"));
+	}
+
+	public void testPublicIdIsFilledIn() {
+		UploadParams shared = new UploadParams.Builder().setFolder("products").setPublicId("default").build();
+		UploadParams first = shared.withPublicId("first");
+		assertEquals("default", shared.toMap().get("public_id"));
+		assertEquals("first", first.toMap().get("public_id"));
+		assertNull(shared.withPublicId(null).toMap().get("public_id"));
+		assertEquals("products", first.toMap().get("folder"));
+
+		Map<String, Object> map = first.toMap();
+		map.put("signature", "x");
+		assertFalse(first.toMap().containsKey("signature"));
+	}
+
+	public void testValidation() {
+		try {
+			new UploadParams.Builder().setTags("a", "");
+			fail("Expected empty tags to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new UploadParams.Builder().setAutoTagging(1.5f);
+			fail("Expected auto_tagging beyond 1 to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new UploadParams.Builder().setEager(Arrays.asList(new Transformation(), null));
+			fail("Expected null eager transformations to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testUpload() throws Exception {
+		Cloudinary cloudinary = cloudinary();
+		UploadParams params = new UploadParams.Builder().setFolder("products").setTags("catalog").build();
+		for (int i = 0; i < 3; i++) {
+			cloudinary.uploader().upload(new ByteArrayInputStream(new byte[10]), params.withPublicId("item" + i), Cloudinary.asMap("resource_type", "raw"));
+		}
+		for (int i = 0; i < 3; i++) {
+			MockServer.Request request = server.requests().get(i);
+			assertTrue(request.path.contains("/raw/upload"));
+			assertEquals("item" + i, request.field("public_id"));
+			assertEquals("products", request.field("folder"));
+			assertEquals("catalog", request.field("tags"));
+			assertNotNull(request.field("signature"));
+		}
+	}
+	public void testAutoTaggingIsSent() throws Exception {
+		UploadParams params = new UploadParams.Builder().setCategorization("aws_rek_tagging").setAutoTagging(0.6f).build();
+		assertEquals("0.6", params.toMap().get("auto_tagging"));
+		cloudinary().uploader().upload(new ByteArrayInputStream(new byte[10]), params.withPublicId("tagged"), null);
+		cloudinary().uploader().upload(new ByteArrayInputStream(new byte[10]), Cloudinary.asMap("public_id", "tagged", "categorization", "aws_rek_tagging", "auto_tagging", 0.6));
+		assertEquals(2, server.requests().size());
+		for (MockServer.Request request : server.requests()) {
+			assertEquals("aws_rek_tagging", request.field("categorization"));
+			assertEquals("0.6", request.field("auto_tagging"));
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.CancellationToken;
+import com.cloudinary.Cloudinary;
+import com.cloudinary.FileRange;
+import com.cloudinary.HttpTransport;
+import com.cloudinary.PooledHttpTransport;
+import com.cloudinary.ProgressListener;
+import com.cloudinary.RetryPolicy;
+import com.cloudinary.UrlConnectionTransport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UploadSourcesTest extends AndroidTestCase {
+
+	private MockServer server;
+	private final AtomicInteger failures = new AtomicInteger();
+	private byte[] data;
+	private File file;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				if (failures.getAndDecrement() > 0) {
+					return new MockServer.Response(503, "Service Unavailable");
+				}
+				return MockServer.Response.ok("{\"public_id\":\"sample\"}");
+			}
+		});
+		// Not a multiple of the slice and buffer sizes
+		data = new byte[1024 * 1024 + 13];
+		new Random(7).nextBytes(data);
+		file = new File(getContext().getCacheDir(), "sources.bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+		file.delete();
+	}
+
+	private Cloudinary cloudinary(HttpTransport transport) {
+		return new Cloudinary(server.config()
+				.setHttpTransport(transport)
+				.setRetryPolicy(new RetryPolicy.Builder().setBackoff(1, 5, 2).build())
+				.build());
+	}
+
+	private MockServer.Request lastRequest() {
+		return server.requests().get(server.requests().size() - 1);
+	}
+
+	private void assertUploaded(byte[] expected) {
+		MockServer.Request request = lastRequest();
+		assertTrue(Arrays.equals(expected, request.file()));
+		assertNotNull(request.header("Content-Length"));
+		assertFalse(request.isChunked());
+	}
+
+	public void testHeapBuffer() throws Exception {
+		ByteBuffer buffer = ByteBuffer.wrap(data, 100, 5000).slice();
+		buffer.position(10);
+		cloudinary(new PooledHttpTransport()).uploader().upload(buffer, null);
+		assertUploaded(Arrays.copyOfRange(data, 110, 5100));
+		// The buffer itself was left as is
+		assertEquals(10, buffer.position());
+	}
+
+	public void testDirectBuffer() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data).flip();
+		HttpTransport[] transports = { new PooledHttpTransport(), new UrlConnectionTransport() };
+		for (HttpTransport transport : transports) {
+			cloudinary(transport).uploader().upload(buffer, null);
+			assertUploaded(data);
+			assertEquals(0, buffer.position());
+		}
+	}
+
+	public void testDirectBufferThroughDecorators() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data).flip();
+		final AtomicLong written = new AtomicLong();
+		ProgressListener listener = new ProgressListener() {
+			@Override
+			public void onPhase(Phase phase) {
+			}
+
+			@Override
+			public void onProgress(long bytesWritten, long totalBytes, double bytesPerSecond, double averageBytesPerSecond) {
+				written.set(bytesWritten);
+			}
+		};
+		// Retried after a 503, sent again in full
+		failures.set(1);
+		cloudinary(new PooledHttpTransport()).uploader().upload(buffer, Cloudinary.asMap("public_id", "sample", "progress_listener", listener,
+				"cancellation_token", new CancellationToken(), "timeout", 10000));
+		assertEquals(2, server.requests().size());
+		assertTrue(Arrays.equals(data, server.requests().get(0).file()));
+		assertUploaded(data);
+		assertTrue(written.get() > data.length);
+	}
+
+	public void testMappedBuffer() throws Exception {
+		RandomAccessFile container = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer mapped = container.getChannel().map(FileChannel.MapMode.READ_ONLY, 4096, 300000);
+			cloudinary(new PooledHttpTransport()).uploader().upload(mapped, null);
+			assertUploaded(Arrays.copyOfRange(data, 4096, 304096));
+		} finally {
+			container.close();
+		}
+	}
+
+	public void testFileChannel() throws Exception {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			channel.position(1000);
+			cloudinary(new PooledHttpTransport()).uploader().upload(channel, null);
+			assertUploaded(Arrays.copyOfRange(data, 1000, data.length));
+			// Left open at its position
+			assertTrue(channel.isOpen());
+			assertEquals(1000, channel.position());
+		} finally {
+			input.close();
+		}
+	}
+
+	public void testFileRange() throws Exception {
+		cloudinary(new PooledHttpTransport()).uploader().upload(FileRange.of(file, 12345, 400000).withFileName("entry.jpg"), null);
+		assertUploaded(Arrays.copyOfRange(data, 12345, 412345));
+		assertTrue(new String(lastRequest().body, "ISO-8859-1").contains("filename=\"entry.jpg\""));
+
+		cloudinary(new UrlConnectionTransport()).uploader().upload(FileRange.of(file, 0, 10), null);
+		assertUploaded(Arrays.copyOfRange(data, 0, 10));
+	}
+
+	public void testFileRangePastEnd() throws Exception {
+		try {
+			cloudinary(new PooledHttpTransport()).uploader().upload(FileRange.of(file, data.length - 10, 20), null);
+			fail("Expected the upload to fail");
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			FileRange.of(file, -1, 10);
+			fail("Expected a negative offset to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
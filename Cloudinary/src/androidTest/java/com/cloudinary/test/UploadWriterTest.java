@@ -0,0 +1,148 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.HttpTransport;
+import com.cloudinary.PooledHttpTransport;
+import com.cloudinary.ProgressListener;
+import com.cloudinary.RetryPolicy;
+import com.cloudinary.UploadWriter;
+import com.cloudinary.UrlConnectionTransport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class UploadWriterTest extends AndroidTestCase {
+
+	private MockServer server;
+	private volatile MockServer.Response response = MockServer.Response.ok("{\"public_id\":\"sample\"}");
+	private byte[] data;
+
+	public void setUp() throws Exception {
+		server = new MockServer(new MockServer.Handler() {
+			@Override
+			public MockServer.Response handle(MockServer.Request request) {
+				return response;
+			}
+		});
+		data = new byte[1024 * 1024 + 29];
+		new Random(3).nextBytes(data);
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private Cloudinary cloudinary(HttpTransport transport) {
+		return new Cloudinary(server.config()
+				.setHttpTransport(transport)
+				.setRetryPolicy(new RetryPolicy.Builder().setBackoff(1, 5, 2).build())
+				.build());
+	}
+
+	/*
+	 * Writes the data in pieces of varying sizes, single bytes included
+	 */
+	private UploadWriter producer() {
+		return new UploadWriter() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				Random random = new Random(4);
+				int offset = 0;
+				while (offset < data.length) {
+					if (random.nextInt(10) == 0) {
+						out.write(data[offset++]);
+						continue;
+					}
+					int length = Math.min(data.length - offset, random.nextInt(100000));
+					out.write(data, offset, length);
+					offset += length;
+					if (random.nextInt(5) == 0) {
+						out.flush();
+					}
+				}
+				// Ignored, the body goes on
+				out.close();
+			}
+		};
+	}
+
+	public void testProducedUpload() throws Exception {
+		HttpTransport[] transports = { new PooledHttpTransport(), new UrlConnectionTransport() };
+		for (HttpTransport transport : transports) {
+			cloudinary(transport).uploader().upload(producer(), Cloudinary.asMap("public_id", "sample"));
+			MockServer.Request request = server.requests().get(server.requests().size() - 1);
+			assertTrue(Arrays.equals(data, request.file()));
+			assertEquals("sample", request.field("public_id"));
+			assertTrue(request.isChunked());
+		}
+	}
+
+	public void testProgress() throws Exception {
+		final AtomicLong written = new AtomicLong();
+		ProgressListener listener = new ProgressListener() {
+			@Override
+			public void onPhase(Phase phase) {
+			}
+
+			@Override
+			public void onProgress(long bytesWritten, long totalBytes, double bytesPerSecond, double averageBytesPerSecond) {
+				written.set(bytesWritten);
+				assertEquals(-1, totalBytes);
+			}
+		};
+		cloudinary(new PooledHttpTransport()).uploader().upload(producer(), Cloudinary.asMap("progress_listener", listener));
+		assertTrue(written.get() > data.length);
+	}
+
+	public void testNotRetriedOnceWritten() throws Exception {
+		response = new MockServer.Response(503, "Service Unavailable");
+		try {
+			cloudinary(new PooledHttpTransport()).uploader().upload(producer(), Cloudinary.asMap("public_id", "sample"));
+			fail("Expected the upload to fail");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("503"));
+		}
+		assertEquals(1, server.requests().size());
+	}
+
+	public void testProducerFailure() throws Exception {
+		try {
+			cloudinary(new PooledHttpTransport()).uploader().upload(new UploadWriter() {
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					out.write(data, 0, 1000);
+					throw new IOException("Encoder failed");
+				}
+			}, Cloudinary.asMap("public_id", "sample"));
+			fail("Expected the upload to fail");
+		} catch (IOException e) {
+			assertEquals("Encoder failed", e.getMessage());
+		}
+		// The request was abandoned rather than completed
+		assertEquals(0, server.requests().size());
+	}
+
+	public void testStreamUnusableAfterwards() throws Exception {
+		final AtomicReference<OutputStream> leaked = new AtomicReference<OutputStream>();
+		cloudinary(new PooledHttpTransport()).uploader().upload(new UploadWriter() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				leaked.set(out);
+				out.write(data, 0, 10);
+			}
+		}, null);
+		assertTrue(Arrays.equals(Arrays.copyOf(data, 10), server.requests().get(0).file()));
+		try {
+			leaked.get().write(1);
+			fail("Expected the stream to be closed");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.Configuration;
+import com.cloudinary.Transformation;
+import com.cloudinary.Url;
+import com.cloudinary.UrlFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class UrlFactoryTest extends AndroidTestCase {
+
+	private static final String[] SOURCES = { "test", "folder/test", "v123/test", "http://example.com/a b.jpg", "a%20b", "a//b", "\u00e9" };
+	private static final String[] TYPES = { "upload", "fetch", "private" };
+	private static final String[] FORMATS = { null, "jpg", "" };
+	private static final String[] CNAMES = { null, "cdn.example.com", "other.example.com" };
+
+	private static Transformation transformation(Random random) {
+		switch (random.nextInt(3)) {
+		case 0:
+			return null;
+		case 1:
+			return new Transformation().width(100).height(101).crop("fill");
+		default:
+			return new Transformation().width(100).chain().angle(12).freeze();
+		}
+	}
+
+	private static Configuration config(Random random) {
+		return new Configuration.Builder()
+				.setCloudName("test123")
+				.setApiSecret("b")
+				.setSecure(random.nextBoolean())
+				.setPrivateCdn(random.nextBoolean())
+				.setCdnSubdomain(random.nextBoolean())
+				.setShorten(random.nextBoolean())
+				.setCname(CNAMES[random.nextInt(CNAMES.length)])
+				.setSecureDistribution(random.nextBoolean() ? null : "secure.example.com")
+				.build();
+	}
+
+	public void testSameAsUrl() {
+		Random random = new Random(5);
+		for (int i = 0; i < 5000; i++) {
+			Configuration config = config(random);
+			String source = SOURCES[random.nextInt(SOURCES.length)];
+			String type = TYPES[random.nextInt(TYPES.length)];
+			String format = FORMATS[random.nextInt(FORMATS.length)];
+			Transformation transformation = transformation(random);
+			boolean signed = random.nextBoolean();
+			Integer version = random.nextBoolean() ? null : 12;
+			Url url = new Cloudinary(config).url().type(type).format(format).signed(signed).version(version);
+			UrlFactory.Options.Builder options = new UrlFactory.Options.Builder().setType(type).setFormat(format).setSigned(signed)
+					.setVersion(version);
+			if (transformation != null) {
+				url.transformation(transformation);
+				options.setTransformation(transformation);
+			}
+			// Settings of the url overriding those of the configuration
+			if (random.nextBoolean()) {
+				boolean secure = random.nextBoolean();
+				url.secure(secure);
+				options.setSecure(secure);
+			}
+			if (random.nextBoolean()) {
+				boolean cdnSubdomain = random.nextBoolean();
+				url.cdnSubdomain(cdnSubdomain);
+				options.setCdnSubdomain(cdnSubdomain);
+			}
+			if (random.nextBoolean()) {
+				String cname = CNAMES[1 + random.nextInt(CNAMES.length - 1)];
+				url.cname(cname);
+				options.setCname(cname);
+			}
+			assertEquals("case " + i, url.generate(source), new UrlFactory(config).generate(source, options.build()));
+		}
+	}
+
+	public void testDefaults() {
+		Cloudinary cloudinary = new Cloudinary(new Configuration.Builder().setCloudName("test123").build());
+		assertSame(cloudinary.urlFactory(), cloudinary.urlFactory());
+		assertEquals("http://res.cloudinary.com/test123/image/upload/test", cloudinary.urlFactory().generate("test"));
+		assertNull(cloudinary.urlFactory().generate(null));
+		try {
+			new UrlFactory(new Configuration.Builder().build()).generate("test");
+			fail("Expected a cloud name to be required");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testOptionsKeepTheirTransformation() {
+		Cloudinary cloudinary = new Cloudinary(new Configuration.Builder().setCloudName("test123").build());
+		Transformation transformation = new Transformation().width(10);
+		UrlFactory.Options options = new UrlFactory.Options.Builder().setType("fetch").setFormat("png").setTransformation(transformation).build();
+		transformation.height(20);
+		String expected = "http://res.cloudinary.com/test123/image/fetch/f_png,w_10/http://example.com/a.jpg";
+		assertEquals(expected, cloudinary.urlFactory().generate("http://example.com/a.jpg", options));
+		assertEquals(expected, cloudinary.urlFactory().generate("http://example.com/a.jpg", options));
+		assertEquals("h_20,w_10", transformation.generate());
+	}
+
+	public void testConcurrentUse() throws Exception {
+		final UrlFactory factory = new Cloudinary(new Configuration.Builder().setCloudName("test123").setApiSecret("b").setCdnSubdomain(true)
+				.build()).urlFactory();
+		final UrlFactory.Options[] options = {
+				new UrlFactory.Options.Builder().setTransformation(new Transformation().width(100).crop("fill")).setSigned(true).build(),
+				new UrlFactory.Options.Builder().setSecure(true).setCname("cdn.example.com").build(),
+				new UrlFactory.Options.Builder().setCname("other.example.com").setVersion(5).build() };
+		final String[] expected = new String[options.length * 20];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = factory.generate("folder/image" + i / options.length, options[i % options.length]);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int thread = 0; thread < 16; thread++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						for (int j = 0; j < 5000; j++) {
+							int i = j % expected.length;
+							if (!expected[i].equals(factory.generate("folder/image" + i / options.length, options[i % options.length])))
+								return false;
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
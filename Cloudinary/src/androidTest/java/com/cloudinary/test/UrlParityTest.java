@@ -0,0 +1,267 @@
+package com.cloudinary.test;
+
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+import android.util.Base64;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.Configuration;
+import com.cloudinary.SmartUrlEncoder;
+import com.cloudinary.Transformation;
+import com.cloudinary.Url;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Compares the urls generated with those of the regular expression based implementation they
+ * replaced, kept here as it was
+ */
+public class UrlParityTest extends AndroidTestCase {
+
+	private static final String[] SOURCES = { "test", "folder/test", "v123/test", "v/test", "vx1/test", "http://example.com/a b.jpg",
+			"HTTPS://Example.com/x?y=1&z=2", "https:/x", "http:x", "https://a\nb", "http://a\u2028b", "a%20b", "a+b%2Bc", "%E2%82%AC/x",
+			"\u00e9/\u00fc \ud83d\ude00", "\ud800x", "x\udc00", "//leading", "a//b///c", "x:////y", ":/", "", "ftp://x/y", "sample.jpg",
+			"folder/sub/v12", "~!@#$&()=;,'[]{}|\\^`\"<>", "http://res.cloudinary.com/demo/image/upload/v1/x", "s3://bucket/key" };
+
+	private static final String[] TYPES = { "upload", "fetch", "facebook", "asset", "private", "" };
+	private static final String[] RESOURCE_TYPES = { "image", "raw", "video" };
+	private static final String[] FORMATS = { null, "jpg", "" };
+	private static final String[] VERSIONS = { null, "", "123", "v4" };
+	private static final String[] CNAMES = { null, "cdn.example.com", "weird//host/", "" };
+	private static final String[] DISTRIBUTIONS = { null, "", Cloudinary.OLD_AKAMAI_SHARED_CDN, "something.else.com", Cloudinary.SHARED_CDN };
+
+	private static Transformation transformation(int variant) {
+		switch (variant) {
+		case 0:
+			return null;
+		case 1:
+			return new Transformation().width(100).height(101).crop("fill");
+		case 2:
+			return new Transformation().width(100).chain().angle(12).crop("scale").rawTransformation("a_10//b_20");
+		default:
+			return new Transformation().overlay("text:hello//x").x(5).flags("a", "b");
+		}
+	}
+
+	private static Configuration config(Random random) {
+		return new Configuration.Builder()
+				.setCloudName(random.nextInt(8) == 0 ? "cloud/name" : "test123")
+				.setApiKey("a")
+				.setApiSecret("b")
+				.setSecure(random.nextBoolean())
+				.setPrivateCdn(random.nextBoolean())
+				.setCdnSubdomain(random.nextBoolean())
+				.setShorten(random.nextBoolean())
+				.setCname(CNAMES[random.nextInt(CNAMES.length)])
+				.setSecureDistribution(DISTRIBUTIONS[random.nextInt(DISTRIBUTIONS.length)])
+				.build();
+	}
+
+	private static String randomSource(Random random) {
+		String alphabet = "ab/v1:%2B+ .Fh\u00e9\ud83d\ude00\n_-*";
+		StringBuilder source = new StringBuilder();
+		if (random.nextInt(4) == 0) {
+			source.append(random.nextBoolean() ? "http://" : "Https:/");
+		}
+		for (int length = random.nextInt(12); length > 0; length--) {
+			source.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return source.toString();
+	}
+
+	public void testEncoderParity() throws Exception {
+		Random random = new Random(11);
+		for (String source : SOURCES) {
+			assertEquals(legacyEncode(source), SmartUrlEncoder.encode(source));
+		}
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder text = new StringBuilder();
+			for (int length = random.nextInt(10); length > 0; length--) {
+				text.append((char) (random.nextBoolean() ? random.nextInt(128) : random.nextInt(0x10000)));
+			}
+			String source = text.toString();
+			assertEquals(source, legacyEncode(source), SmartUrlEncoder.encode(source));
+		}
+		// Paths needing no encoding are returned as they are
+		String path = "folder/sub:x/a-b_c.d*e";
+		assertSame(path, SmartUrlEncoder.encode(path));
+	}
+
+	public void testUrlParity() throws Exception {
+		Random random = new Random(7);
+		for (int i = 0; i < 30000; i++) {
+			Configuration config = config(random);
+			String source = i < SOURCES.length * 40 ? SOURCES[i % SOURCES.length] : randomSource(random);
+			String type = TYPES[random.nextInt(TYPES.length)];
+			String resourceType = RESOURCE_TYPES[random.nextInt(RESOURCE_TYPES.length)];
+			String format = FORMATS[random.nextInt(FORMATS.length)];
+			String version = VERSIONS[random.nextInt(VERSIONS.length)];
+			int transformation = random.nextInt(4);
+			boolean signed = random.nextInt(3) == 0;
+			boolean fromPublicId = random.nextInt(4) == 0;
+
+			LegacyUrl legacy = new LegacyUrl(config);
+			legacy.type = type;
+			legacy.resourceType = resourceType;
+			legacy.format = format;
+			legacy.version = version;
+			legacy.transformation = transformation(transformation);
+			legacy.signUrl = signed;
+			legacy.publicId = fromPublicId ? source : null;
+
+			Url url = new Cloudinary(config).url().type(type).resourceType(resourceType).format(format).version(version).signed(signed)
+					.publicId(fromPublicId ? source : null);
+			if (transformation != 0) {
+				url.transformation(transformation(transformation));
+			}
+
+			String expected;
+			try {
+				expected = legacy.generate(fromPublicId ? null : source);
+			} catch (IllegalArgumentException e) {
+				try {
+					url.generate(fromPublicId ? null : source);
+					fail("Expected " + e + " for " + source);
+				} catch (IllegalArgumentException f) {
+					// Same invalid escapes
+				}
+				continue;
+			}
+			assertEquals("case " + i + " source " + source, expected, url.generate(fromPublicId ? null : source));
+		}
+	}
+
+	public void testSettingsOfTheUrl() throws Exception {
+		Cloudinary cloudinary = new Cloudinary(new Configuration.Builder().setCloudName("test123").setApiSecret("b").build());
+		Url url = cloudinary.url().secure(true);
+		assertEquals("https://res.cloudinary.com/test123/image/upload/test", url.generate("test"));
+		// Changes after generating apply to the next urls
+		url.cloudName("other").privateCdn(true);
+		assertEquals("https://other-res.cloudinary.com/image/upload/test", url.generate("test"));
+		url.secure(false).cdnSubdomain(true);
+		assertEquals(new LegacyUrl(new Configuration.Builder().setCloudName("other").setPrivateCdn(true).setCdnSubdomain(true).build())
+				.generate("test"), url.generate("test"));
+		// The Cloudinary's configuration is left as is
+		assertEquals("https://res.cloudinary.com/test123/image/upload/test", cloudinary.url().secure(true).generate("test"));
+	}
+
+	public void testRepeatedGeneration() throws Exception {
+		Cloudinary cloudinary = new Cloudinary(new Configuration.Builder().setCloudName("test123").setShorten(true).build());
+		Url url = cloudinary.url().version(12).transformation(new Transformation().width(10));
+		String first = url.generate("folder/test");
+		assertEquals("http://res.cloudinary.com/test123/iu/w_10/v12/folder/test", first);
+		assertEquals(first, url.generate("folder/test"));
+		url = cloudinary.url().type("fetch").format("png");
+		first = url.generate("http://example.com/a.jpg");
+		assertEquals(first, url.generate("http://example.com/a.jpg"));
+	}
+
+	private static String legacyEncode(String input) {
+		try {
+			return URLEncoder.encode(input, "UTF-8").replace("%2F", "/").replace("%3A", ":").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Url#generate as it was, on a single use instance
+	 */
+	private static class LegacyUrl {
+		final Configuration config;
+		String publicId = null;
+		String type = "upload";
+		String resourceType = "image";
+		String format = null;
+		String version = null;
+		Transformation transformation = null;
+		boolean signUrl;
+
+		LegacyUrl(Configuration config) {
+			this.config = config;
+		}
+
+		Transformation transformation() {
+			if (this.transformation == null)
+				this.transformation = new Transformation();
+			return this.transformation;
+		}
+
+		String generate(String source) throws Exception {
+			if (type.equals("fetch") && !TextUtils.isEmpty(format)) {
+				transformation().fetchFormat(format);
+				this.format = null;
+			}
+			String transformationStr = transformation().generate();
+			if (TextUtils.isEmpty(config.cloudName)) {
+				throw new IllegalArgumentException("Must supply cloud_name in tag or in configuration");
+			}
+
+			if (source == null) {
+				if (publicId == null) {
+					return null;
+				}
+				source = publicId;
+			}
+			String original_source = source;
+
+			if (source.toLowerCase(Locale.US).matches("^https?:/.*")) {
+				if ("upload".equals(type) || "asset".equals(type)) {
+					return original_source;
+				}
+				source = legacyEncode(source);
+			} else {
+				source = legacyEncode(URLDecoder.decode(source.replace("+", "%2B"), "UTF-8"));
+				if (format != null) source = source + "." + format;
+			}
+			String prefix;
+			boolean sharedDomain = !config.privateCdn;
+			if (config.secure) {
+				String secureDist = config.secureDistribution;
+				if (TextUtils.isEmpty(secureDist) || Cloudinary.OLD_AKAMAI_SHARED_CDN.equals(secureDist)) {
+					secureDist = config.privateCdn ? config.cloudName + "-res.cloudinary.com" : Cloudinary.SHARED_CDN;
+				}
+				sharedDomain = sharedDomain || Cloudinary.SHARED_CDN.equals(secureDist);
+				prefix = "https://" + secureDist;
+			} else {
+				CRC32 crc32 = new CRC32();
+				crc32.update(source.getBytes());
+				String subdomain = config.cdnSubdomain ? "a" + ((crc32.getValue() % 5 + 5) % 5 + 1) + "." : "";
+				String host = config.cname != null ? config.cname : (config.privateCdn ? config.cloudName + "-" : "") + "res.cloudinary.com";
+				prefix = "http://" + subdomain + host;
+			}
+			if (sharedDomain) prefix = prefix + "/" + config.cloudName;
+
+			if (config.shorten && resourceType.equals("image") && type.equals("upload")) {
+				resourceType = "iu";
+				type = "";
+			}
+
+			if (source.contains("/") && !source.matches("v[0-9]+.*") && !source.matches("https?:/.*") && TextUtils.isEmpty(version)) {
+				version = "1";
+			}
+
+			if (version == null)
+				version = "";
+			else
+				version = "v" + version;
+
+			String rest = TextUtils.join("/", new String[] { transformationStr, version, source });
+			rest = rest.replaceAll("^/+", "").replaceAll("([^:])\\/+", "$1/");
+
+			if (signUrl) {
+				byte[] digest = MessageDigest.getInstance("SHA-1").digest((rest + config.apiSecret).getBytes("UTF-8"));
+				String signature = Base64.encodeToString(digest, Base64.NO_PADDING | Base64.URL_SAFE);
+				rest = "s--" + signature.substring(0, 8) + "--/" + rest;
+			}
+
+			return TextUtils.join("/", new String[] { prefix, resourceType, type, rest }).replaceAll("([^:])\\/+", "$1/");
+		}
+	}
+}
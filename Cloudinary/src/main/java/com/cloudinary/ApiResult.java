@@ -0,0 +1,130 @@
+package com.cloudinary;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Result of an API call, decoded from the response as it is read.
+ *
+ * The response is kept undecoded. Only the positions of the fields a result type knows are
+ * located up front, and each field is decoded the first time it is asked for. The complete
+ * response is available from {@link #toJSONObject()}, decoded on its first call.
+ */
+public abstract class ApiResult {
+	private static final int ERROR = 0;
+
+	private final int httpCode;
+	private final byte[] body;
+	private final int length;
+	private final int[] offsets;
+	private final Object[] values;
+	private final String errorMessage;
+	private JSONObject json;
+
+	/**
+	 * @param names
+	 *            the fields to locate, created with {@link #names(String...)}
+	 * @param returnError
+	 *            whether an error response is returned rather than thrown
+	 */
+	ApiResult(Uploader.Response response, String[] names, boolean returnError) {
+		if (response.body == null) {
+			throw new RuntimeException("Server returned unexpected status code - " + response.code + " - " + response.data);
+		}
+		this.httpCode = response.code;
+		this.body = response.body;
+		this.length = response.length;
+		try {
+			this.offsets = JsonParser.index(body, length, names);
+		} catch (JSONException e) {
+			throw new RuntimeException("Invalid JSON response from server " + e.getMessage());
+		}
+		this.values = new Object[names.length];
+		Object error = get(ERROR);
+		if (error instanceof JSONObject) {
+			String message = ((JSONObject) error).optString("message");
+			if (!returnError) {
+				throw new RuntimeException(message);
+			}
+			this.errorMessage = message;
+		} else {
+			this.errorMessage = null;
+		}
+	}
+
+	/**
+	 * The names of a result type's fields, following the error every result may carry
+	 */
+	static String[] names(String... names) {
+		String[] all = new String[names.length + 1];
+		all[ERROR] = "error";
+		System.arraycopy(names, 0, all, 1, names.length);
+		return all;
+	}
+
+	public int getHttpCode() {
+		return httpCode;
+	}
+
+	/**
+	 * The error message of a failed call, which is only returned with the <code>return_error</code> option
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	public boolean isError() {
+		return errorMessage != null;
+	}
+
+	/**
+	 * The complete response, as returned by the {@link Uploader}'s methods
+	 */
+	public synchronized JSONObject toJSONObject() {
+		if (json == null) {
+			try {
+				json = JsonParser.parseObject(body, length);
+				if (isError()) {
+					json.getJSONObject("error").put("http_code", httpCode);
+				}
+			} catch (JSONException e) {
+				throw new RuntimeException("Invalid JSON response from server " + e.getMessage());
+			}
+		}
+		return json;
+	}
+
+	@Override
+	public String toString() {
+		return toJSONObject().toString();
+	}
+
+	/**
+	 * The decoded value of the field at <code>index</code> of the names, or null if missing or null
+	 */
+	synchronized Object get(int index) {
+		Object value = values[index];
+		if (value == null && offsets[index] >= 0) {
+			try {
+				value = JsonParser.valueAt(body, length, offsets[index]);
+			} catch (JSONException e) {
+				throw new RuntimeException("Invalid JSON response from server " + e.getMessage());
+			}
+			values[index] = value;
+		}
+		return value == JSONObject.NULL ? null : value;
+	}
+
+	String getString(int index) {
+		Object value = get(index);
+		return value == null ? null : value.toString();
+	}
+
+	long getLong(int index) {
+		Object value = get(index);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return value == null ? 0 : Long.parseLong(value.toString());
+	}
+}
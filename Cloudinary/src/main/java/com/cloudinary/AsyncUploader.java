@@ -0,0 +1,327 @@
+package com.cloudinary;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+/**
+ * Runs {@link Uploader} calls on an executor, returning a {@link Future} of the result
+ * and optionally notifying a {@link Callback} on completion.
+ *
+ * Submitting to a full executor is handled by the executor's rejection policy; with the
+ * default {@link ThreadPoolExecutor.AbortPolicy} the call throws
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ */
+@SuppressWarnings("rawtypes")
+public class AsyncUploader {
+	public static final int DEFAULT_THREADS = 4;
+	public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	/**
+	 * Notified on the executor thread once a call completes. A call cancelled through its future
+	 * is reported to {@link #onError(Throwable)} as an {@link UploadCancelledException}, on the
+	 * cancelling thread.
+	 */
+	public interface Callback {
+		void onSuccess(JSONObject result);
+
+		void onError(Throwable error);
+	}
+
+	private final Uploader uploader;
+	private final ExecutorService executor;
+
+	public AsyncUploader(Uploader uploader, ExecutorService executor) {
+		this.uploader = uploader;
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates an executor running at most <code>threads</code> calls at once and queueing at most
+	 * <code>queueCapacity</code> more. Further calls are handed to <code>rejectionPolicy</code>.
+	 */
+	public static ThreadPoolExecutor newBoundedExecutor(int threads, int queueCapacity, RejectedExecutionHandler rejectionPolicy) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "cloudinary-async-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, rejectionPolicy);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public Future<JSONObject> upload(Object file, Map options) {
+		return upload(file, options, null);
+	}
+
+	public Future<JSONObject> unsignedUpload(Object file, String uploadPreset, Map options) {
+		return unsignedUpload(file, uploadPreset, options, null);
+	}
+
+	public Future<JSONObject> uploadLarge(Object file, Map options) {
+		return uploadLarge(file, options, null);
+	}
+
+	public Future<JSONObject> destroy(String publicId, Map options) {
+		return destroy(publicId, options, null);
+	}
+
+	public Future<JSONObject> rename(String fromPublicId, String toPublicId, Map options) {
+		return rename(fromPublicId, toPublicId, options, null);
+	}
+
+	public Future<JSONObject> explicit(String publicId, Map options) {
+		return explicit(publicId, options, null);
+	}
+
+	public Future<JSONObject> generate_sprite(String tag, Map options) {
+		return generate_sprite(tag, options, null);
+	}
+
+	public Future<JSONObject> multi(String tag, Map options) {
+		return multi(tag, options, null);
+	}
+
+	public Future<JSONObject> explode(String publicId, Map options) {
+		return explode(publicId, options, null);
+	}
+
+	public Future<JSONObject> addTag(String tag, String[] publicIds, Map options) {
+		return addTag(tag, publicIds, options, null);
+	}
+
+	public Future<JSONObject> removeTag(String tag, String[] publicIds, Map options) {
+		return removeTag(tag, publicIds, options, null);
+	}
+
+	public Future<JSONObject> replaceTag(String tag, String[] publicIds, Map options) {
+		return replaceTag(tag, publicIds, options, null);
+	}
+
+	public Future<JSONObject> callTagsApi(String tag, String command, String[] publicIds, Map options) {
+		return callTagsApi(tag, command, publicIds, options, null);
+	}
+
+	public Future<JSONObject> text(String text, Map options) {
+		return text(text, options, null);
+	}
+
+	public Future<JSONObject> upload(final Object file, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.upload(file, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> upload(final Object file, final UploadParams params, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.upload(file, params, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> unsignedUpload(final Object file, final String uploadPreset, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.unsignedUpload(file, uploadPreset, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> uploadLarge(final Object file, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.uploadLarge(file, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> destroy(final String publicId, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.destroy(publicId, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> rename(final String fromPublicId, final String toPublicId, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.rename(fromPublicId, toPublicId, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> explicit(final String publicId, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.explicit(publicId, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> generate_sprite(final String tag, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.generate_sprite(tag, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> multi(final String tag, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.multi(tag, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> explode(final String publicId, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.explode(publicId, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> addTag(final String tag, final String[] publicIds, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.addTag(tag, publicIds, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> removeTag(final String tag, final String[] publicIds, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.removeTag(tag, publicIds, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> replaceTag(final String tag, final String[] publicIds, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.replaceTag(tag, publicIds, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> callTagsApi(final String tag, final String command, final String[] publicIds, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.callTagsApi(tag, command, publicIds, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	public Future<JSONObject> text(final String text, Map options, Callback callback) {
+		final Map callOptions = withCancellation(options);
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return uploader.text(text, callOptions);
+			}
+		}, callOptions, callback);
+	}
+
+	/**
+	 * The options with a {@link CancellationToken}, cancelled along with the call's future
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map withCancellation(Map options) {
+		if (options != null && options.get("cancellation_token") != null) {
+			return options;
+		}
+		Map<Object, Object> callOptions = options == null ? new HashMap<Object, Object>() : new HashMap<Object, Object>(options);
+		callOptions.put("cancellation_token", new CancellationToken());
+		return callOptions;
+	}
+
+	private Future<JSONObject> submit(Callable<JSONObject> call, Map options, final Callback callback) {
+		final CancellationToken cancellation = (CancellationToken) options.get("cancellation_token");
+		FutureTask<JSONObject> task = new FutureTask<JSONObject>(call) {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				boolean cancelled = super.cancel(mayInterruptIfRunning);
+				if (cancelled) {
+					cancellation.cancel();
+				}
+				return cancelled;
+			}
+
+			@Override
+			protected void done() {
+				if (callback == null) {
+					return;
+				}
+				if (isCancelled()) {
+					callback.onError(new UploadCancelledException());
+					return;
+				}
+				try {
+					callback.onSuccess(get());
+				} catch (ExecutionException e) {
+					callback.onError(e.getCause());
+				} catch (InterruptedException e) {
+					callback.onError(e);
+				}
+			}
+		};
+		executor.execute(task);
+		return task;
+	}
+}
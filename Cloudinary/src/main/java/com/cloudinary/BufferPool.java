@@ -0,0 +1,105 @@
+package com.cloudinary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles the I/O buffers used to move file contents, so large uploads neither allocate per
+ * file nor churn the garbage collector. Direct buffers serve channel to channel copies, heap
+ * buffers copies into streams, which need a backing array.
+ */
+final class BufferPool {
+	static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_POOLED = 16;
+
+	private static final BufferPool HEAP = new BufferPool(false);
+	private static final BufferPool DIRECT = new BufferPool(true);
+
+	private final boolean direct;
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	private BufferPool(boolean direct) {
+		this.direct = direct;
+	}
+
+	static BufferPool heap() {
+		return HEAP;
+	}
+
+	static BufferPool direct() {
+		return DIRECT;
+	}
+
+	/**
+	 * @return a cleared buffer of {@link #BUFFER_SIZE} bytes, to be handed back with
+	 *         {@link #release(ByteBuffer)} once done
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			return direct ? ByteBuffer.allocateDirect(BUFFER_SIZE) : ByteBuffer.allocate(BUFFER_SIZE);
+		}
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	void release(ByteBuffer buffer) {
+		if (pooled.incrementAndGet() <= MAX_POOLED) {
+			buffers.offer(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of a buffer into a stream, through a pooled heap buffer if it
+	 * has no backing array, advancing its position
+	 */
+	static void copy(ByteBuffer source, OutputStream out) throws IOException {
+		if (source.hasArray()) {
+			out.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+			source.position(source.limit());
+			return;
+		}
+		ByteBuffer buffer = HEAP.acquire();
+		try {
+			while (source.hasRemaining()) {
+				int length = Math.min(source.remaining(), buffer.capacity());
+				source.get(buffer.array(), buffer.arrayOffset(), length);
+				out.write(buffer.array(), buffer.arrayOffset(), length);
+			}
+		} finally {
+			HEAP.release(buffer);
+		}
+	}
+
+	/**
+	 * Copies a region of a file into a stream through a pooled heap buffer
+	 */
+	static void copy(FileChannel file, long position, long count, OutputStream out) throws IOException {
+		ByteBuffer buffer = HEAP.acquire();
+		try {
+			while (count > 0) {
+				buffer.clear();
+				if (count < buffer.capacity()) {
+					buffer.limit((int) count);
+				}
+				int read = file.read(buffer, position);
+				if (read < 0)
+					throw new EOFException("File shrank during upload");
+				out.write(buffer.array(), buffer.arrayOffset(), read);
+				position += read;
+				count -= read;
+			}
+		} finally {
+			HEAP.release(buffer);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * Stops the requests sent over another transport once their {@link CancellationToken} is
+ * cancelled.
+ *
+ * The token is checked before each write to the request body, or per
+ * {@link SlicingFileSink#TRANSFER_SLICE} bytes for files and buffers sent through a
+ * {@link HttpTransport.FileSink}, and aborts the exchange in flight when cancelled so blocked
+ * writes and reads fail at once.
+ */
+class CancellableTransport implements HttpTransport {
+	private final HttpTransport delegate;
+	private final CancellationToken cancellation;
+
+	CancellableTransport(HttpTransport delegate, CancellationToken cancellation) {
+		this.delegate = delegate;
+		this.cancellation = cancellation;
+	}
+
+	@Override
+	public Exchange open(String url, Map<String, String> headers, long contentLength, int connectTimeout, int readTimeout) throws IOException {
+		cancellation.throwIfCancelled();
+		return new CancellableExchange(delegate.open(url, headers, contentLength, connectTimeout, readTimeout));
+	}
+
+	private class CancellableExchange implements Exchange, Runnable {
+		private final Exchange exchange;
+		private OutputStream outputStream;
+
+		CancellableExchange(Exchange exchange) {
+			this.exchange = exchange;
+			cancellation.register(this);
+		}
+
+		/**
+		 * Aborts the exchange on cancellation, from the cancelling thread
+		 */
+		@Override
+		public void run() {
+			exchange.abort();
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			if (outputStream == null) {
+				OutputStream out = exchange.getOutputStream();
+				outputStream = out instanceof FileSink ? new CheckingFileSink(out) : new CheckingStream(out);
+			}
+			return outputStream;
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			cancellation.throwIfCancelled();
+			return exchange.getResponseCode();
+		}
+
+		@Override
+		public InputStream getResponseStream() throws IOException {
+			return exchange.getResponseStream();
+		}
+
+		@Override
+		public void close() {
+			cancellation.unregister(this);
+			exchange.close();
+		}
+
+		@Override
+		public void abort() {
+			cancellation.unregister(this);
+			exchange.abort();
+		}
+	}
+
+	private class CheckingStream extends OutputStream {
+		final OutputStream out;
+
+		CheckingStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			cancellation.throwIfCancelled();
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			cancellation.throwIfCancelled();
+			out.write(buffer, offset, length);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			cancellation.throwIfCancelled();
+			out.close();
+		}
+	}
+
+	private class CheckingFileSink extends CheckingStream implements FileSink {
+		private final SlicingFileSink slices;
+
+		CheckingFileSink(OutputStream out) {
+			super(out);
+			slices = new SlicingFileSink((FileSink) out) {
+				@Override
+				void beforeSlice() throws IOException {
+					cancellation.throwIfCancelled();
+				}
+			};
+		}
+
+		@Override
+		public void transferFrom(FileChannel file, long position, long count) throws IOException {
+			slices.transferFrom(file, position, count);
+		}
+
+		@Override
+		public void transferFrom(ByteBuffer buffer) throws IOException {
+			slices.transferFrom(buffer);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.cloudinary;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cancels the calls it is passed to in the <code>cancellation_token</code> option, e.g. as the
+ * user leaves the screen:
+ *
+ * <pre>
+ * CancellationToken cancellation = new CancellationToken();
+ * cloudinary.uploader().upload(file, Cloudinary.asMap("cancellation_token", cancellation));
+ * // on another thread
+ * cancellation.cancel();
+ * </pre>
+ *
+ * Cancelling stops writing the request body before its next buffer and tears down the
+ * connection, which unblocks a call waiting on the network or to retry. The call then fails
+ * with an {@link UploadCancelledException}, having released its connection and buffers. A
+ * token stays cancelled, calls started with a cancelled token fail right away.
+ */
+public class CancellationToken {
+	private final List<Runnable> aborts = new ArrayList<Runnable>();
+	private volatile boolean cancelled;
+
+	public void cancel() {
+		List<Runnable> running;
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			cancelled = true;
+			running = new ArrayList<Runnable>(aborts);
+			aborts.clear();
+			notifyAll();
+		}
+		for (Runnable abort : running) {
+			abort.run();
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Runs <code>abort</code> on cancellation, right away if already cancelled
+	 */
+	void register(Runnable abort) {
+		synchronized (this) {
+			if (!cancelled) {
+				aborts.add(abort);
+				return;
+			}
+		}
+		abort.run();
+	}
+
+	synchronized void unregister(Runnable abort) {
+		aborts.remove(abort);
+	}
+
+	void throwIfCancelled() throws UploadCancelledException {
+		if (cancelled) {
+			throw new UploadCancelledException();
+		}
+	}
+
+	/**
+	 * Sleeps for <code>millis</code>, failing as soon as cancelled
+	 */
+	synchronized void sleep(long millis) throws InterruptedIOException {
+		long deadline = System.currentTimeMillis() + millis;
+		try {
+			for (long remaining = millis; remaining > 0 && !cancelled; remaining = deadline - System.currentTimeMillis()) {
+				wait(remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry");
+		}
+		throwIfCancelled();
+	}
+}
@@ -0,0 +1,244 @@
+package com.cloudinary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sends the chunks of a single {@link Uploader#uploadLarge(Object, Map)} call.
+ *
+ * Chunks are read sequentially from the source and handed to up to <code>concurrency</code>
+ * connections at once. The final chunk, which completes the upload on the server, is only
+ * sent once every earlier chunk has been acknowledged.
+ */
+@SuppressWarnings("rawtypes")
+class ChunkedUpload {
+	private final Uploader uploader;
+	private final String uniqueUploadId;
+	private final Map<String, Object> params;
+	private final Map options;
+	private final String fileName;
+	private final int concurrency;
+	private final boolean raw;
+	private final ExecutorService executor;
+
+	// One permit and one buffer per chunk in flight
+	private final Semaphore permits;
+	private final List<byte[]> buffers = new ArrayList<byte[]>();
+
+	private long failedOffset = Long.MAX_VALUE;
+	private Throwable failure;
+
+	@SuppressWarnings("unchecked")
+	ChunkedUpload(Uploader uploader, String uniqueUploadId, Map<String, Object> params, Map options, String fileName, int retries, int concurrency, boolean raw) {
+		this.uploader = uploader;
+		this.uniqueUploadId = uniqueUploadId;
+		this.params = params;
+		// Each chunk is retried by the uploader's retry policy, with the number of retries asked for
+		Map<Object, Object> chunkOptions = new HashMap<Object, Object>(options);
+		chunkOptions.put("max_retries", retries);
+		this.options = chunkOptions;
+		this.fileName = fileName;
+		this.concurrency = concurrency;
+		this.raw = raw;
+		this.permits = new Semaphore(concurrency);
+		this.executor = concurrency > 1 ? Executors.newFixedThreadPool(concurrency) : null;
+	}
+
+	/**
+	 * Uploads <code>input</code>, which holds <code>total</code> bytes or -1 if unknown, starting at <code>offset</code>
+	 *
+	 * @return the response to the last chunk
+	 */
+	Uploader.Response upload(InputStream input, long offset, long total, int chunkSize) throws IOException {
+		try {
+			skipFully(input, offset);
+			int bufferSize = total < 0 ? chunkSize : (int) Math.max(1, Math.min(chunkSize, total - offset));
+			int carried = -1;
+			while (true) {
+				byte[] buffer = acquire(bufferSize);
+				int length = 0;
+				if (carried >= 0) {
+					buffer[length++] = (byte) carried;
+				}
+				length += fill(input, buffer, length);
+				boolean last;
+				if (total >= 0) {
+					last = offset + length >= total;
+				} else {
+					// Peek one byte ahead so the last chunk can announce the total size
+					carried = length < buffer.length ? -1 : input.read();
+					last = carried < 0;
+				}
+				long size = total >= 0 ? total : (last ? offset + length : -1);
+				Chunk chunk = new Chunk(fileName, buffer, length, offset, size);
+				offset += length;
+
+				if (last) {
+					// This thread holds the last chunk's permit, wait for all others
+					awaitInFlight(concurrency - 1);
+					checkFailure();
+					try {
+						return send(chunk);
+					} catch (UploadCancelledException e) {
+						throw e;
+					} catch (IOException e) {
+						throw new ChunkedUploadException(uniqueUploadId, chunk.offset, e);
+					} finally {
+						release(buffer);
+					}
+				}
+				if (executor == null) {
+					sendAndRelease(chunk);
+				} else {
+					final Chunk pending = chunk;
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							sendAndRelease(pending);
+						}
+					});
+				}
+				if (hasFailed()) {
+					awaitInFlight(concurrency);
+					checkFailure();
+				}
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	private Uploader.Response send(Chunk chunk) throws IOException {
+		if (chunk.total == 0) {
+			// An empty source has no byte range to send, it goes as a plain upload
+			return uploader.execute("upload", new HashMap<String, Object>(params), options, chunk, null, raw);
+		}
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("X-Unique-Upload-Id", uniqueUploadId);
+		headers.put("Content-Range", "bytes " + chunk.offset + "-" + (chunk.offset + chunk.length - 1) + "/" + chunk.total);
+		return uploader.execute("upload", new HashMap<String, Object>(params), options, chunk, headers, raw);
+	}
+
+	private void sendAndRelease(Chunk chunk) {
+		try {
+			check(send(chunk));
+		} catch (Throwable e) {
+			fail(chunk.offset, e);
+		} finally {
+			release(chunk.data);
+		}
+	}
+
+	/**
+	 * Fails on error responses to chunks before the last, unless errors are to be returned
+	 */
+	private void check(Uploader.Response response) {
+		boolean returnError = Cloudinary.asBoolean(options.get("return_error"), false);
+		if (raw) {
+			new UploadResult(response, returnError);
+		} else {
+			Uploader.parseResponse(response, returnError);
+		}
+	}
+
+	private byte[] acquire(int bufferSize) throws IOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for chunks in flight");
+		}
+		synchronized (buffers) {
+			return buffers.isEmpty() ? new byte[bufferSize] : buffers.remove(buffers.size() - 1);
+		}
+	}
+
+	private void release(byte[] buffer) {
+		synchronized (buffers) {
+			buffers.add(buffer);
+		}
+		permits.release();
+	}
+
+	private void awaitInFlight(int count) throws IOException {
+		try {
+			permits.acquire(count);
+			permits.release(count);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for chunks in flight");
+		}
+	}
+
+	private synchronized void fail(long offset, Throwable e) {
+		if (offset < failedOffset) {
+			failedOffset = offset;
+			failure = e;
+		}
+	}
+
+	private synchronized boolean hasFailed() {
+		return failure != null;
+	}
+
+	private synchronized void checkFailure() throws IOException {
+		if (failure == null) {
+			return;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure instanceof UploadCancelledException) {
+			throw (UploadCancelledException) failure;
+		}
+		throw new ChunkedUploadException(uniqueUploadId, failedOffset, failure);
+	}
+
+	private static int fill(InputStream in, byte[] buffer, int offset) throws IOException {
+		int length = 0;
+		int read;
+		while (offset + length < buffer.length && (read = in.read(buffer, offset + length, buffer.length - offset - length)) != -1) {
+			length += read;
+		}
+		return length;
+	}
+
+	private static void skipFully(InputStream in, long count) throws IOException {
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0) {
+				if (in.read() == -1)
+					throw new EOFException("Offset is past the end of the upload source");
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	static final class Chunk {
+		final String fileName;
+		final byte[] data;
+		final int length;
+		final long offset;
+		final long total;
+
+		Chunk(String fileName, byte[] data, int length, long offset, long total) {
+			this.fileName = fileName;
+			this.data = data;
+			this.length = length;
+			this.offset = offset;
+			this.total = total;
+		}
+	}
+}
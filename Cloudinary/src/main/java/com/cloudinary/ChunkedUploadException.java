@@ -0,0 +1,35 @@
+package com.cloudinary;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link Uploader#uploadLarge(Object, java.util.Map)} when a chunk could not be
+ * delivered. Pass {@link #getUniqueUploadId()} and {@link #getOffset()} back as the
+ * <code>unique_upload_id</code> and <code>offset</code> options to resume the upload.
+ */
+public class ChunkedUploadException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final String uniqueUploadId;
+	private final long offset;
+
+	public ChunkedUploadException(String uniqueUploadId, long offset, Throwable cause) {
+		super("Chunked upload " + uniqueUploadId + " failed at offset " + offset, cause);
+		this.uniqueUploadId = uniqueUploadId;
+		this.offset = offset;
+	}
+
+	/**
+	 * The id shared by all chunks of the interrupted upload
+	 */
+	public String getUniqueUploadId() {
+		return uniqueUploadId;
+	}
+
+	/**
+	 * Number of bytes acknowledged by the server, the next chunk starts here
+	 */
+	public long getOffset() {
+		return offset;
+	}
+}
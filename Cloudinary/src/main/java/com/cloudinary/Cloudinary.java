@@ -4,19 +4,17 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -39,6 +37,8 @@ public class Cloudinary {
 	public final static String USER_AGENT = "cld-android-" + VERSION;
 	
 	public final Configuration config;
+	private AsyncUploader asyncUploader;
+	private UrlFactory urlFactory;
 
     @Deprecated
     public Cloudinary(Map config) {
@@ -73,10 +73,47 @@ public class Cloudinary {
 		return new Url(this);
 	}
 
+	/**
+	 * Url factory shared by this instance, which unlike {@link #url()} may be used by many threads
+	 * at once
+	 */
+	public synchronized UrlFactory urlFactory() {
+		if (urlFactory == null) {
+			urlFactory = new UrlFactory(config);
+		}
+		return urlFactory;
+	}
+
 	public Uploader uploader() {
 		return new Uploader(this);
 	}
 
+	/**
+	 * Uploader returning typed results, decoded as far as they are read
+	 */
+	public TypedUploader typedUploader() {
+		return new TypedUploader(uploader());
+	}
+
+	/**
+	 * Asynchronous uploader shared by this instance, running up to {@link AsyncUploader#DEFAULT_THREADS}
+	 * calls at once and queueing up to {@link AsyncUploader#DEFAULT_QUEUE_CAPACITY} more.
+	 */
+	public synchronized AsyncUploader asyncUploader() {
+		if (asyncUploader == null) {
+			asyncUploader = new AsyncUploader(uploader(), AsyncUploader.newBoundedExecutor(AsyncUploader.DEFAULT_THREADS,
+					AsyncUploader.DEFAULT_QUEUE_CAPACITY, new ThreadPoolExecutor.AbortPolicy()));
+		}
+		return asyncUploader;
+	}
+
+	/**
+	 * Asynchronous uploader running its calls on the given executor
+	 */
+	public AsyncUploader asyncUploader(ExecutorService executor) {
+		return new AsyncUploader(uploader(), executor);
+	}
+
 	public String cloudinaryApiUrl(String action, Map options) {
 		String cloudinary = asString(options.get("upload_prefix"), asString(this.config.uploadPrefix, "https://api.cloudinary.com"));
 		String cloud_name = asString(options.get("cloud_name"), asString(this.config.cloudName));
@@ -91,7 +128,7 @@ public class Cloudinary {
 	public String randomPublicId() {
 		byte[] bytes = new byte[8];
 		RND.nextBytes(bytes);
-		return encodeHexString(bytes);
+		return RequestSigner.hex(bytes);
 	}
 
 	public String signedPreloadedImage(Map result) {
@@ -107,36 +144,13 @@ public class Cloudinary {
 			+ (result.has("format") ? "." + result.get("format") : "") + "#" + result.get("signature");
 	}
 
-	public String apiSignRequest(Map<String, Object> paramsToSign, String apiSecret) {
-		Collection<String> params = new ArrayList<String>();
-		for (Map.Entry<String, Object> param : new TreeMap<String, Object>(paramsToSign).entrySet()) {
-			if (param.getValue() instanceof Collection) {
-				params.add(param.getKey() + "=" + TextUtils.join(",", (Collection) param.getValue()));
-			} else if (param.getValue() instanceof String) {
-				String value = (String) param.getValue();
-				if (!TextUtils.isEmpty(value)) {
-					params.add(param.getKey() + "=" + value);
-				}
-			}
-		}
-		String to_sign = TextUtils.join("&", params);
-		MessageDigest md = null;
-		try {
-			md = MessageDigest.getInstance("SHA-1");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("Unexpected exception", e);
-		}
-		byte[] digest = md.digest((to_sign + apiSecret).getBytes());
-		return encodeHexString(digest);
+	public String signedPreloadedImage(UploadResult result) {
+		return result.getResourceType() + "/upload/v" + result.getVersion() + "/" + result.getPublicId()
+			+ (result.getFormat() != null ? "." + result.getFormat() : "") + "#" + result.getSignature();
 	}
 
-	private String encodeHexString(byte[] bytes) {
-		StringBuffer hex = new StringBuffer();
-		for (byte aByte : bytes) {
-			hex.append(Integer.toHexString(0x100 | (((int) aByte) & 0xFF)).substring(1));
-		}
-
-		return hex.toString();
+	public String apiSignRequest(Map<String, Object> paramsToSign, String apiSecret) {
+		return RequestSigner.sign(paramsToSign, apiSecret);
 	}
 
 	public String privateDownload(String publicId, String format, Map<String, Object> options) throws URISyntaxException {
@@ -233,6 +247,26 @@ public class Cloudinary {
 		}
 	}
 
+	public static Integer asInteger(Object value, Integer defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		} else if (value instanceof Integer) {
+			return (Integer) value;
+		} else {
+			return Integer.parseInt(value.toString());
+		}
+	}
+
+	public static Long asLong(Object value, Long defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		} else if (value instanceof Long) {
+			return (Long) value;
+		} else {
+			return Long.parseLong(value.toString());
+		}
+	}
+
 	public static Float asFloat(Object value) {
 		if (value == null) {
 			return null;
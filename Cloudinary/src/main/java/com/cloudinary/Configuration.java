@@ -12,6 +12,11 @@ import java.util.Map;
 * Configuration object for a {@link Cloudinary} instance
 */
 public class Configuration {
+    public static final long DEFAULT_MAX_RESPONSE_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+    public static final int DEFAULT_WRITE_TIMEOUT_MILLIS = 60000;
+
     public final String cloudName;
     public final String apiKey;
     public final String apiSecret;
@@ -22,8 +27,17 @@ public class Configuration {
     public final boolean privateCdn;
     public final boolean cdnSubdomain;
     public final boolean shorten;
+    public final HttpTransport httpTransport;
+    public final RetryPolicy retryPolicy;
+    public final long maxResponseSize;
+    public final SignatureProvider signatureProvider;
+    public final int connectTimeout;
+    public final int readTimeout;
+    public final int writeTimeout;
+    public final long callTimeout;
+    public final UploadCache uploadCache;
 
-    private Configuration(String cloudName, String apiKey, String apiSecret, String secureDistribution, String cname, String uploadPrefix, boolean secure, boolean privateCdn, boolean cdnSubdomain, boolean shorten) {
+    private Configuration(String cloudName, String apiKey, String apiSecret, String secureDistribution, String cname, String uploadPrefix, boolean secure, boolean privateCdn, boolean cdnSubdomain, boolean shorten, HttpTransport httpTransport, RetryPolicy retryPolicy, long maxResponseSize, SignatureProvider signatureProvider, int connectTimeout, int readTimeout, int writeTimeout, long callTimeout, UploadCache uploadCache) {
         this.cloudName = cloudName;
         this.apiKey = apiKey;
         this.apiSecret = apiSecret;
@@ -34,6 +48,15 @@ public class Configuration {
         this.privateCdn = privateCdn;
         this.cdnSubdomain = cdnSubdomain;
         this.shorten = shorten;
+        this.httpTransport = httpTransport;
+        this.retryPolicy = retryPolicy;
+        this.maxResponseSize = maxResponseSize;
+        this.signatureProvider = signatureProvider;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+        this.callTimeout = callTimeout;
+        this.uploadCache = uploadCache;
     }
 
     /**
@@ -140,11 +163,25 @@ public class Configuration {
         private boolean privateCdn;
         private boolean cdnSubdomain;
         private boolean shorten;
+        private HttpTransport httpTransport;
+        private RetryPolicy retryPolicy;
+        private long maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+        private SignatureProvider signatureProvider;
+        private int connectTimeout = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        private int readTimeout = DEFAULT_READ_TIMEOUT_MILLIS;
+        private int writeTimeout = DEFAULT_WRITE_TIMEOUT_MILLIS;
+        private long callTimeout;
+        private UploadCache uploadCache;
 
         /**
          * Creates a {@link Configuration} with the arguments supplied to this builder
          */
-        public Configuration build() { return new Configuration(cloudName, apiKey, apiSecret, secureDistribution, cname, uploadPrefix, secure, privateCdn, cdnSubdomain, shorten); }
+        public Configuration build() {
+            return new Configuration(cloudName, apiKey, apiSecret, secureDistribution, cname, uploadPrefix, secure, privateCdn, cdnSubdomain, shorten,
+                    httpTransport != null ? httpTransport : PooledHttpTransport.getDefault(),
+                    retryPolicy != null ? retryPolicy : RetryPolicy.DEFAULT, maxResponseSize, signatureProvider,
+                    connectTimeout, readTimeout, writeTimeout, callTimeout, uploadCache);
+        }
 
         /**
          * The unique name of your cloud at Cloudinary
@@ -225,6 +262,93 @@ public class Configuration {
             return this;
         }
 
+        /**
+         * Transport for API calls, defaults to the connection pool shared by all configurations.
+         * Calls to hosts the system proxy settings route through a proxy go over a
+         * {@link UrlConnectionTransport}, which can also be set for all calls.
+         */
+        public Builder setHttpTransport(HttpTransport httpTransport) {
+            this.httpTransport = httpTransport;
+            return this;
+        }
+
+        /**
+         * Policy for retrying failed API calls, defaults to {@link RetryPolicy#DEFAULT}.
+         * Use {@link RetryPolicy#NONE} to report every failure right away.
+         */
+        public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Largest API response read, in bytes, defaults to {@link Configuration#DEFAULT_MAX_RESPONSE_SIZE}.
+         * Calls receiving a larger response fail with a {@link java.net.ProtocolException}.
+         */
+        public Builder setMaxResponseSize(long maxResponseSize) {
+            this.maxResponseSize = maxResponseSize;
+            return this;
+        }
+
+        /**
+         * Source of server-made signatures for calls without an api_secret, usually a {@link SignaturePool}.
+         */
+        public Builder setSignatureProvider(SignatureProvider signatureProvider) {
+            this.signatureProvider = signatureProvider;
+            return this;
+        }
+
+        /**
+         * Longest wait for a connection to be established, in milliseconds, 0 for no limit.
+         * Defaults to {@link Configuration#DEFAULT_CONNECT_TIMEOUT_MILLIS}, may be overridden per call
+         * with the <code>connect_timeout</code> option.
+         */
+        public Builder setConnectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Longest wait for the server to send any response data, in milliseconds, 0 for no limit.
+         * Defaults to {@link Configuration#DEFAULT_READ_TIMEOUT_MILLIS}, may be overridden per call
+         * with the <code>read_timeout</code> option.
+         */
+        public Builder setReadTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * Longest wait for a single write of the request body to go through, in milliseconds, 0 for
+         * no limit. Defaults to {@link Configuration#DEFAULT_WRITE_TIMEOUT_MILLIS}, may be overridden
+         * per call with the <code>write_timeout</code> option.
+         */
+        public Builder setWriteTimeout(int writeTimeout) {
+            this.writeTimeout = writeTimeout;
+            return this;
+        }
+
+        /**
+         * Time allowed for a whole API call, in milliseconds, from signing through retries to
+         * parsing the response, 0 for no limit. Defaults to no limit, may be overridden per call
+         * with the <code>timeout</code> option.
+         */
+        public Builder setCallTimeout(long callTimeout) {
+            this.callTimeout = callTimeout;
+            return this;
+        }
+
+        /**
+         * Results of earlier uploads to return for uploads of the same content and parameters,
+         * may be overridden per call with the <code>upload_cache</code> option. Defaults to none.
+         * Results stay cached when their resource is changed other than by this uploader's destroy,
+         * rename or explicit calls; see {@link UploadCache#evict(String)}.
+         */
+        public Builder setUploadCache(UploadCache uploadCache) {
+            this.uploadCache = uploadCache;
+            return this;
+        }
+
         /**
          * Initialize builder from existing {@link Configuration}
          * @param other
@@ -241,6 +365,15 @@ public class Configuration {
             this.privateCdn = other.privateCdn;
             this.cdnSubdomain = other.cdnSubdomain;
             this.shorten    = other.shorten;
+            this.httpTransport = other.httpTransport;
+            this.retryPolicy = other.retryPolicy;
+            this.maxResponseSize = other.maxResponseSize;
+            this.signatureProvider = other.signatureProvider;
+            this.connectTimeout = other.connectTimeout;
+            this.readTimeout = other.readTimeout;
+            this.writeTimeout = other.writeTimeout;
+            this.callTimeout = other.callTimeout;
+            this.uploadCache = other.uploadCache;
 
             return this;
         }
@@ -0,0 +1,110 @@
+package com.cloudinary;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Upload source sent as a base64 data uri, which is encoded from its bytes as the request is
+ * written instead of being built as one string beforehand:
+ *
+ * <pre>
+ * cloudinary.uploader().upload(DataUri.of("image/jpeg", jpegBytes), options);
+ * </pre>
+ *
+ * Byte arrays and files are sent with a Content-Length and may be retried, streams are read
+ * once and closed after the call.
+ */
+public final class DataUri {
+	private static final String BASE64_MARKER = ";base64,";
+
+	// Longest header looked at for the base64 marker
+	private static final int MAX_HEADER = 256;
+
+	private final String mimeType;
+	private final byte[] data;
+	private final File file;
+	private final InputStream input;
+
+	private DataUri(String mimeType, byte[] data, File file, InputStream input) {
+		if (mimeType == null)
+			mimeType = "";
+		if (mimeType.indexOf(',') >= 0 || mimeType.indexOf(';') >= 0)
+			throw new IllegalArgumentException("Invalid mime type " + mimeType);
+		this.mimeType = mimeType;
+		this.data = data;
+		this.file = file;
+		this.input = input;
+	}
+
+	public static DataUri of(String mimeType, byte[] data) {
+		return new DataUri(mimeType, data, null, null);
+	}
+
+	public static DataUri of(String mimeType, File file) {
+		return new DataUri(mimeType, null, file, null);
+	}
+
+	public static DataUri of(String mimeType, InputStream input) {
+		return new DataUri(mimeType, null, null, input);
+	}
+
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * The text preceding the base64 encoded bytes
+	 */
+	String prefix() {
+		return "data:" + mimeType + BASE64_MARKER;
+	}
+
+	/**
+	 * Index at which the payload of a base64 data uri string starts, or -1 if the string is no
+	 * such uri. Only the header is looked at, whatever the length of the payload, and the mime
+	 * type parameters before the marker may hold commas and semicolons.
+	 */
+	static int payloadStart(String uri) {
+		if (!uri.startsWith("data:"))
+			return -1;
+		// data:[<mime type>][;<parameter>=<value>]*;base64,<payload>
+		int end = Math.min(uri.length(), MAX_HEADER) - BASE64_MARKER.length();
+		for (int i = 5; i <= end; i++) {
+			if (uri.startsWith(BASE64_MARKER, i))
+				return i + BASE64_MARKER.length();
+		}
+		return -1;
+	}
+
+	/**
+	 * Number of bytes to encode, -1 if unknown
+	 */
+	long size() {
+		if (data != null)
+			return data.length;
+		if (file != null)
+			return file.length();
+		return -1;
+	}
+
+	/**
+	 * The bytes to encode, the caller closes the stream
+	 */
+	InputStream open() throws IOException {
+		if (data != null)
+			return new ByteArrayInputStream(data);
+		if (file != null)
+			return new FileInputStream(file);
+		return input;
+	}
+
+	/**
+	 * Whether the bytes can be read more than once
+	 */
+	boolean isReplayable() {
+		return input == null;
+	}
+}
@@ -0,0 +1,20 @@
+package com.cloudinary;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Thrown by calls which ran out of the time allowed by their <code>timeout</code> option or the
+ * {@link Configuration#callTimeout}. Such calls are not retried.
+ */
+public class DeadlineExceededException extends SocketTimeoutException {
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException() {
+		super("Call exceeded its deadline");
+	}
+
+	public DeadlineExceededException(Throwable cause) {
+		this();
+		initCause(cause);
+	}
+}
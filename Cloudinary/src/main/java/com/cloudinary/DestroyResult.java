@@ -0,0 +1,24 @@
+package com.cloudinary;
+
+/**
+ * Result of a destroy call
+ */
+public class DestroyResult extends ApiResult {
+	private static final String[] NAMES = names("result");
+	private static final int RESULT = 1;
+
+	DestroyResult(Uploader.Response response, boolean returnError) {
+		super(response, NAMES, returnError);
+	}
+
+	/**
+	 * "ok", or "not found" if there was no such resource
+	 */
+	public String getResult() {
+		return getString(RESULT);
+	}
+
+	public boolean isOk() {
+		return "ok".equals(getResult());
+	}
+}
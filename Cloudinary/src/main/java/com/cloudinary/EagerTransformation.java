@@ -15,7 +15,18 @@ public class EagerTransformation extends Transformation {
 		super();
 	}
 
+	protected EagerTransformation(EagerTransformation source, boolean freeze) {
+		super(source, freeze);
+		this.format = source.format;
+	}
+
+	@Override
+	public EagerTransformation freeze() {
+		return isFrozen() ? this : new EagerTransformation(this, true);
+	}
+
 	public EagerTransformation format(String format) {
+		checkNotFrozen();
 		this.format = format;
 		return this;
 	}
@@ -0,0 +1,103 @@
+package com.cloudinary;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Upload source made of <code>length</code> bytes of a file starting at <code>offset</code>,
+ * e.g. an image stored within a larger container file:
+ *
+ * <pre>
+ * cloudinary.uploader().upload(FileRange.of(container, entryOffset, entryLength), options);
+ * </pre>
+ *
+ * The bytes are sent straight from the file's channel with a Content-Length, and may be sent
+ * again on retries. Channels passed in are read at absolute positions and left open.
+ */
+public final class FileRange {
+	private final File file;
+	private final FileChannel channel;
+	private final long offset;
+	private final long length;
+	private final String fileName;
+
+	private FileRange(File file, FileChannel channel, long offset, long length, String fileName) {
+		if (offset < 0 || length < 0)
+			throw new IllegalArgumentException("offset and length must not be negative");
+		this.file = file;
+		this.channel = channel;
+		this.offset = offset;
+		this.length = length;
+		this.fileName = fileName;
+	}
+
+	public static FileRange of(File file, long offset, long length) {
+		return new FileRange(file, null, offset, length, "file");
+	}
+
+	public static FileRange of(FileChannel channel, long offset, long length) {
+		return new FileRange(null, channel, offset, length, "file");
+	}
+
+	/**
+	 * The bytes of the channel from its current position to its end
+	 */
+	public static FileRange of(FileChannel channel) throws IOException {
+		long position = channel.position();
+		return of(channel, position, Math.max(0, channel.size() - position));
+	}
+
+	/**
+	 * Same range sent under the given file name, rather than "file"
+	 */
+	public FileRange withFileName(String fileName) {
+		return new FileRange(file, channel, offset, length, fileName);
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Writes the range to the request as a file part
+	 */
+	void writeTo(MultipartUtility multipart, String fieldName) throws IOException {
+		if (channel != null) {
+			multipart.addFilePart(fieldName, channel, offset, length, fileName);
+			return;
+		}
+		FileInputStream input = new FileInputStream(file);
+		try {
+			multipart.addFilePart(fieldName, input.getChannel(), offset, length, fileName);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Digests the bytes of the range
+	 */
+	void update(MessageDigest digest) throws IOException {
+		if (channel != null) {
+			UploadCache.update(digest, channel, offset, length);
+			return;
+		}
+		FileInputStream input = new FileInputStream(file);
+		try {
+			UploadCache.update(digest, input.getChannel(), offset, length);
+		} finally {
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * Sends the HTTP POST requests of the {@link Uploader}.
+ *
+ * Set on a {@link Configuration} with {@link Configuration.Builder#setHttpTransport(HttpTransport)},
+ * the default is the shared {@link PooledHttpTransport#getDefault()}.
+ */
+public interface HttpTransport {
+	/**
+	 * Starts a POST request
+	 *
+	 * @param url
+	 *            request url
+	 * @param headers
+	 *            request headers
+	 * @param contentLength
+	 *            exact length of the body, or -1 to send it in chunked transfer mode
+	 * @param connectTimeout
+	 *            longest wait for a connection, in milliseconds, 0 for no limit
+	 * @param readTimeout
+	 *            longest wait for any response data, in milliseconds, 0 for no limit
+	 * @return the exchange to write the body to and read the response from
+	 * @throws java.net.SocketTimeoutException
+	 *             when the connection or a read timed out
+	 * @throws IOException
+	 */
+	Exchange open(String url, Map<String, String> headers, long contentLength, int connectTimeout, int readTimeout) throws IOException;
+
+	/**
+	 * A single request/response exchange. Exactly one of {@link #close()} or {@link #abort()}
+	 * must be called once done with it.
+	 */
+	interface Exchange {
+		/**
+		 * Stream to write the request body to
+		 */
+		OutputStream getOutputStream() throws IOException;
+
+		/**
+		 * Completes the request body and waits for the response status
+		 */
+		int getResponseCode() throws IOException;
+
+		/**
+		 * Response body, for error statuses as well
+		 */
+		InputStream getResponseStream() throws IOException;
+
+		/**
+		 * Releases the exchange after the response was read, keeping the connection for reuse when possible
+		 */
+		void close();
+
+		/**
+		 * Tears the connection down, may be called from another thread to unblock the one using the exchange
+		 */
+		void abort();
+	}
+
+	/**
+	 * Implemented by request body streams able to send file contents straight from a
+	 * {@link FileChannel}, e.g. with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+	 * and direct buffers straight to the connection, instead of copying them through the Java heap
+	 */
+	interface FileSink {
+		/**
+		 * Writes <code>count</code> bytes of the file starting at <code>position</code> to the request body
+		 */
+		void transferFrom(FileChannel file, long position, long count) throws IOException;
+
+		/**
+		 * Writes the remaining bytes of the buffer to the request body, advancing its position
+		 */
+		void transferFrom(ByteBuffer buffer) throws IOException;
+	}
+}
@@ -0,0 +1,486 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Parses a UTF-8 JSON document straight from a stream into {@link JSONObject}s and
+ * {@link JSONArray}s, reading through a pooled buffer instead of first copying the document
+ * into a String. Numbers become Integers, Longs or Doubles, as with {@link JSONObject#JSONObject(String)}.
+ *
+ * At most <code>maxBytes</code> are read, larger documents fail with a {@link ProtocolException}.
+ *
+ * Documents already held in an array can also be indexed, locating chosen top level values
+ * without decoding anything else, so they can be decoded one at a time when needed.
+ */
+final class JsonParser {
+	private static final int MAX_DEPTH = 256;
+
+	private final InputStream in;
+	private final long maxBytes;
+	private ByteBuffer pooled;
+	private byte[] buffer;
+	private int position;
+	private int limit;
+	private long consumed;
+
+	// Reused for the characters of every string and number
+	private char[] chars = new char[64];
+	private int length;
+
+	private JsonParser(InputStream in, long maxBytes) {
+		this.in = in;
+		this.maxBytes = maxBytes;
+	}
+
+	private JsonParser(byte[] data, int offset, int end) {
+		this.in = null;
+		this.maxBytes = end;
+		this.buffer = data;
+		this.position = offset;
+		this.limit = end;
+		this.consumed = end;
+	}
+
+	/**
+	 * Parses a document holding a single object, reading <code>in</code> to its end
+	 */
+	static JSONObject parseObject(InputStream in, long maxBytes) throws IOException, JSONException {
+		JsonParser parser = new JsonParser(in, maxBytes);
+		parser.pooled = BufferPool.heap().acquire();
+		parser.buffer = parser.pooled.array();
+		parser.position = parser.limit = parser.pooled.arrayOffset();
+		try {
+			if (parser.skipWhitespace() != '{')
+				throw parser.syntaxError("Expected an object");
+			JSONObject result = (JSONObject) parser.value(0);
+			if (parser.skipWhitespace() != -1)
+				throw parser.syntaxError("Unexpected data after the object");
+			return result;
+		} finally {
+			BufferPool.heap().release(parser.pooled);
+		}
+	}
+
+	/**
+	 * Parses a document holding a single object from the first <code>length</code> bytes of <code>data</code>
+	 */
+	static JSONObject parseObject(byte[] data, int length) throws JSONException {
+		return parseObject(data, 0, length);
+	}
+
+	/**
+	 * Parses a document holding a single object from the bytes of <code>data</code> between
+	 * <code>offset</code> and <code>end</code>, in place
+	 */
+	static JSONObject parseObject(byte[] data, int offset, int end) throws JSONException {
+		JsonParser parser = new JsonParser(data, offset, end);
+		try {
+			if (parser.skipWhitespace() != '{')
+				throw parser.syntaxError("Expected an object");
+			JSONObject result = (JSONObject) parser.value(0);
+			if (parser.skipWhitespace() != -1)
+				throw parser.syntaxError("Unexpected data after the object");
+			return result;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Locates the values of the given names in the top level object of a document, skipping
+	 * over all other values without decoding them
+	 *
+	 * @return the offset of each name's value in <code>data</code>, or -1 for names missing
+	 */
+	static int[] index(byte[] data, int length, String[] names) throws JSONException {
+		int[] offsets = new int[names.length];
+		Arrays.fill(offsets, -1);
+		JsonParser parser = new JsonParser(data, 0, length);
+		try {
+			if (parser.skipWhitespace() != '{')
+				throw parser.syntaxError("Expected an object");
+			parser.position++;
+			if (parser.skipWhitespace() == '}')
+				return offsets;
+			while (true) {
+				if (parser.skipWhitespace() != '"')
+					throw parser.syntaxError("Expected a name");
+				parser.position++;
+				parser.string(false);
+				if (parser.skipWhitespace() != ':')
+					throw parser.syntaxError("Expected ':'");
+				parser.position++;
+				int offset = parser.skipWhitespace() < 0 ? -1 : parser.position;
+				int name = parser.nameIndex(names);
+				if (name >= 0 && offsets[name] < 0) {
+					offsets[name] = offset;
+				}
+				parser.skipValue();
+				int c = parser.skipWhitespace();
+				parser.position++;
+				if (c == '}')
+					return offsets;
+				if (c != ',')
+					throw parser.syntaxError("Expected ',' or '}'");
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Decodes the value at an offset returned by {@link #index(byte[], int, String[])}
+	 */
+	static Object valueAt(byte[] data, int length, int offset) throws JSONException {
+		try {
+			return new JsonParser(data, offset, length).value(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Object value(int depth) throws IOException, JSONException {
+		int c = skipWhitespace();
+		switch (c) {
+		case '{':
+			position++;
+			return object(depth + 1);
+		case '[':
+			position++;
+			return array(depth + 1);
+		case '"':
+			position++;
+			return string(true);
+		case 't':
+			literal("true");
+			return Boolean.TRUE;
+		case 'f':
+			literal("false");
+			return Boolean.FALSE;
+		case 'n':
+			literal("null");
+			return JSONObject.NULL;
+		case -1:
+			throw syntaxError("Unexpected end of document");
+		default:
+			if (c == '-' || (c >= '0' && c <= '9'))
+				return number();
+			throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private JSONObject object(int depth) throws IOException, JSONException {
+		checkDepth(depth);
+		JSONObject object = new JSONObject();
+		if (skipWhitespace() == '}') {
+			position++;
+			return object;
+		}
+		while (true) {
+			if (skipWhitespace() != '"')
+				throw syntaxError("Expected a name");
+			position++;
+			String name = string(true);
+			if (skipWhitespace() != ':')
+				throw syntaxError("Expected ':' after " + name);
+			position++;
+			object.put(name, value(depth));
+			int c = skipWhitespace();
+			position++;
+			if (c == '}')
+				return object;
+			if (c != ',')
+				throw syntaxError("Expected ',' or '}'");
+		}
+	}
+
+	private JSONArray array(int depth) throws IOException, JSONException {
+		checkDepth(depth);
+		JSONArray array = new JSONArray();
+		if (skipWhitespace() == ']') {
+			position++;
+			return array;
+		}
+		while (true) {
+			array.put(value(depth));
+			int c = skipWhitespace();
+			position++;
+			if (c == ']')
+				return array;
+			if (c != ',')
+				throw syntaxError("Expected ',' or ']'");
+		}
+	}
+
+	/**
+	 * Reads the rest of a string, after its opening quote
+	 */
+	private String string(boolean create) throws IOException, JSONException {
+		length = 0;
+		while (true) {
+			if (position == limit && !fill())
+				throw syntaxError("Unterminated string");
+			int b = buffer[position++];
+			if (b == '"') {
+				return create ? new String(chars, 0, length) : null;
+			} else if (b == '\\') {
+				escape();
+			} else if (b >= 0) {
+				append((char) b);
+			} else {
+				multibyte(b);
+			}
+		}
+	}
+
+	private void escape() throws IOException, JSONException {
+		int c = read();
+		switch (c) {
+		case '"':
+		case '\\':
+		case '/':
+			append((char) c);
+			break;
+		case 'b':
+			append('\b');
+			break;
+		case 'f':
+			append('\f');
+			break;
+		case 'n':
+			append('\n');
+			break;
+		case 'r':
+			append('\r');
+			break;
+		case 't':
+			append('\t');
+			break;
+		case 'u':
+			int code = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(read(), 16);
+				if (digit < 0)
+					throw syntaxError("Invalid unicode escape");
+				code = (code << 4) | digit;
+			}
+			append((char) code);
+			break;
+		default:
+			throw syntaxError("Invalid escape");
+		}
+	}
+
+	/**
+	 * Decodes a UTF-8 sequence starting with <code>lead</code>, malformed sequences become U+FFFD
+	 */
+	private void multibyte(int lead) throws IOException, JSONException {
+		int count;
+		int codePoint;
+		if ((lead & 0xe0) == 0xc0) {
+			count = 1;
+			codePoint = lead & 0x1f;
+		} else if ((lead & 0xf0) == 0xe0) {
+			count = 2;
+			codePoint = lead & 0x0f;
+		} else if ((lead & 0xf8) == 0xf0) {
+			count = 3;
+			codePoint = lead & 0x07;
+		} else {
+			append('\uFFFD');
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			if (position == limit && !fill())
+				throw syntaxError("Unterminated string");
+			int b = buffer[position];
+			if ((b & 0xc0) != 0x80) {
+				// Not a continuation byte, leave it to be read as a character of its own
+				append('\uFFFD');
+				return;
+			}
+			position++;
+			codePoint = (codePoint << 6) | (b & 0x3f);
+		}
+		if (codePoint < (count == 1 ? 0x80 : count == 2 ? 0x800 : 0x10000) || codePoint > Character.MAX_CODE_POINT
+				|| (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+			append('\uFFFD');
+		} else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			codePoint -= Character.MIN_SUPPLEMENTARY_CODE_POINT;
+			append((char) (Character.MIN_HIGH_SURROGATE + (codePoint >>> 10)));
+			append((char) (Character.MIN_LOW_SURROGATE + (codePoint & 0x3ff)));
+		} else {
+			append((char) codePoint);
+		}
+	}
+
+	private Number number() throws IOException, JSONException {
+		length = 0;
+		boolean integral = true;
+		while (true) {
+			if (position == limit && !fill())
+				break;
+			int c = buffer[position];
+			if ((c >= '0' && c <= '9') || c == '-') {
+				append((char) c);
+			} else if (c == '.' || c == 'e' || c == 'E' || c == '+') {
+				append((char) c);
+				integral = false;
+			} else {
+				break;
+			}
+			position++;
+		}
+		String text = new String(chars, 0, length);
+		if (integral) {
+			try {
+				long value = Long.parseLong(text);
+				if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+					return Integer.valueOf((int) value);
+				return Long.valueOf(value);
+			} catch (NumberFormatException e) {
+				// Beyond a long, read as a Double below
+			}
+		}
+		try {
+			return Double.valueOf(text);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Invalid number " + text);
+		}
+	}
+
+	/**
+	 * Skips a value without decoding it
+	 */
+	private void skipValue() throws IOException, JSONException {
+		int depth = 0;
+		do {
+			int c = skipWhitespace();
+			if (c == '"') {
+				position++;
+				skipString();
+			} else if (c == '{' || c == '[') {
+				position++;
+				checkDepth(++depth);
+			} else if (c == '}' || c == ']') {
+				if (depth == 0)
+					throw syntaxError("Unexpected character '" + (char) c + "'");
+				position++;
+				depth--;
+			} else if (c == ',' || c == ':') {
+				if (depth == 0)
+					throw syntaxError("Unexpected character '" + (char) c + "'");
+				position++;
+			} else if (c == -1) {
+				throw syntaxError("Unexpected end of document");
+			} else {
+				// A number or literal, up to the next delimiter
+				while (position < limit || fill()) {
+					c = buffer[position];
+					if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t')
+						break;
+					position++;
+				}
+			}
+		} while (depth > 0);
+	}
+
+	private void skipString() throws IOException, JSONException {
+		while (true) {
+			if (position == limit && !fill())
+				throw syntaxError("Unterminated string");
+			int b = buffer[position++];
+			if (b == '"')
+				return;
+			if (b == '\\') {
+				read();
+			}
+		}
+	}
+
+	/**
+	 * Index of the name just read by {@link #string(boolean)} in <code>names</code>, or -1
+	 */
+	private int nameIndex(String[] names) {
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			if (name.length() != length)
+				continue;
+			int j = 0;
+			while (j < length && name.charAt(j) == chars[j]) {
+				j++;
+			}
+			if (j == length)
+				return i;
+		}
+		return -1;
+	}
+
+	private void literal(String expected) throws IOException, JSONException {
+		for (int i = 0; i < expected.length(); i++) {
+			if (read() != expected.charAt(i))
+				throw syntaxError("Expected " + expected);
+		}
+	}
+
+	private void append(char c) {
+		if (length == chars.length) {
+			char[] grown = new char[chars.length * 2];
+			System.arraycopy(chars, 0, grown, 0, length);
+			chars = grown;
+		}
+		chars[length++] = c;
+	}
+
+	/**
+	 * Skips whitespace and returns the next character without consuming it, or -1 at the end
+	 */
+	private int skipWhitespace() throws IOException {
+		while (true) {
+			if (position == limit && !fill())
+				return -1;
+			int c = buffer[position];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+				return c;
+			position++;
+		}
+	}
+
+	private int read() throws IOException {
+		if (position == limit && !fill())
+			return -1;
+		return buffer[position++];
+	}
+
+	private boolean fill() throws IOException {
+		if (in == null)
+			return false;
+		int start = pooled.arrayOffset();
+		int read = in.read(buffer, start, pooled.capacity());
+		if (read <= 0)
+			return false;
+		consumed += read;
+		if (consumed > maxBytes)
+			throw new ProtocolException("Response exceeds the maximum size of " + maxBytes + " bytes");
+		position = start;
+		limit = start + read;
+		return true;
+	}
+
+	private void checkDepth(int depth) throws JSONException {
+		if (depth > MAX_DEPTH)
+			throw syntaxError("Nested too deeply");
+	}
+
+	private JSONException syntaxError(String message) {
+		return new JSONException(message + " at byte " + (consumed - (limit - position)));
+	}
+}
@@ -0,0 +1,331 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes multipart/form-data bodies into a pooled buffer, which is written out only when
+ * full, before file contents and when the body is complete. The constant parts of the part
+ * headers are encoded once, text is encoded straight into the buffer.
+ *
+ * The charset must be ASCII compatible, such as UTF-8.
+ */
+final class MultipartEncoder {
+	private static final byte[] CRLF = ascii("\r\n");
+	private static final byte[] DISPOSITION = ascii("Content-Disposition: form-data; name=\"");
+	private static final byte[] FILENAME = ascii("\"; filename=\"");
+	private static final byte[] QUOTE_CRLF = ascii("\"\r\n");
+	private static final byte[] CONTENT_TYPE = ascii("Content-Type: ");
+	private static final byte[] BINARY = ascii("Content-Transfer-Encoding: binary\r\n\r\n");
+	private static final byte[] TEXT_UTF8 = ascii("Content-Type: text/plain; charset=UTF-8\r\n\r\n");
+	private static final byte[] BASE64 = ascii("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+
+	private final OutputStream out;
+	private final String charset;
+	private final boolean utf8;
+	private final byte[] boundaryLine;
+	private final byte[] closing;
+	private final byte[] textType;
+
+	private ByteBuffer pooled;
+	private byte[] buffer;
+	private int position;
+
+	MultipartEncoder(OutputStream out, String boundary, String charset) throws UnsupportedEncodingException {
+		this.out = out;
+		this.charset = charset;
+		this.utf8 = "UTF-8".equalsIgnoreCase(charset);
+		this.boundaryLine = ("--" + boundary + "\r\n").getBytes(charset);
+		this.closing = ("--" + boundary + "--\r\n").getBytes(charset);
+		this.textType = utf8 ? TEXT_UTF8 : ("Content-Type: text/plain; charset=" + charset + "\r\n\r\n").getBytes(charset);
+		this.pooled = BufferPool.heap().acquire();
+		this.buffer = pooled.array();
+		this.position = pooled.arrayOffset();
+	}
+
+	void field(String name, String value) throws IOException {
+		write(boundaryLine);
+		write(DISPOSITION);
+		writeText(name);
+		write(QUOTE_CRLF);
+		write(textType);
+		writeText(value);
+		write(CRLF);
+	}
+
+	/**
+	 * Appends a form field made of a text prefix followed by the base64 encoding of a stream,
+	 * e.g. a data uri, encoding the stream straight into the buffer
+	 */
+	void base64Field(String name, String prefix, InputStream input) throws IOException {
+		write(boundaryLine);
+		write(DISPOSITION);
+		writeText(name);
+		write(QUOTE_CRLF);
+		write(textType);
+		writeText(prefix);
+		writeBase64(input);
+		write(CRLF);
+	}
+
+	/**
+	 * Starts a file part, its contents must follow and be ended with {@link #endFilePart()}
+	 */
+	void filePartHeader(String fieldName, String fileName) throws IOException {
+		write(boundaryLine);
+		write(DISPOSITION);
+		writeText(fieldName);
+		write(FILENAME);
+		writeText(fileName);
+		write(QUOTE_CRLF);
+		write(CONTENT_TYPE);
+		writeText(String.valueOf(URLConnection.guessContentTypeFromName(fileName)));
+		write(CRLF);
+		write(BINARY);
+	}
+
+	void endFilePart() throws IOException {
+		write(CRLF);
+	}
+
+	/**
+	 * Appends the contents of a stream, reading straight into the buffer
+	 */
+	void write(InputStream input) throws IOException {
+		int end = pooled.arrayOffset() + pooled.capacity();
+		while (true) {
+			if (position == end) {
+				flush();
+			}
+			int read = input.read(buffer, position, end - position);
+			if (read < 0)
+				return;
+			position += read;
+		}
+	}
+
+	void write(int b) throws IOException {
+		if (remaining() == 0) {
+			flush();
+		}
+		buffer[position++] = (byte) b;
+	}
+
+	void write(byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	void write(byte[] data, int offset, int length) throws IOException {
+		if (length > remaining()) {
+			flush();
+			if (length > remaining()) {
+				out.write(data, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(data, offset, buffer, position, length);
+		position += length;
+	}
+
+	private void writeBase64(InputStream input) throws IOException {
+		ByteBuffer pooledInput = BufferPool.heap().acquire();
+		try {
+			byte[] in = pooledInput.array();
+			int start = pooledInput.arrayOffset();
+			int capacity = pooledInput.capacity();
+			// Bytes short of a whole 3 byte group are carried over to the next read
+			int carried = 0;
+			int read;
+			while ((read = input.read(in, start + carried, capacity - carried)) != -1) {
+				int available = carried + read;
+				int whole = available - available % 3;
+				encodeBase64(in, start, whole);
+				carried = available - whole;
+				for (int i = 0; i < carried; i++) {
+					in[start + i] = in[start + whole + i];
+				}
+			}
+			if (carried > 0) {
+				if (remaining() < 4) {
+					flush();
+				}
+				int b0 = in[start] & 0xff;
+				int b1 = carried > 1 ? in[start + 1] & 0xff : 0;
+				buffer[position++] = BASE64[b0 >> 2];
+				buffer[position++] = BASE64[((b0 & 0x03) << 4) | (b1 >> 4)];
+				buffer[position++] = carried > 1 ? BASE64[(b1 & 0x0f) << 2] : (byte) '=';
+				buffer[position++] = '=';
+			}
+		} finally {
+			BufferPool.heap().release(pooledInput);
+		}
+	}
+
+	/**
+	 * Encodes <code>length</code> bytes, a multiple of 3, into the buffer
+	 */
+	private void encodeBase64(byte[] in, int offset, int length) throws IOException {
+		int end = offset + length;
+		while (offset < end) {
+			if (remaining() < 4) {
+				flush();
+			}
+			int groups = Math.min((end - offset) / 3, remaining() / 4);
+			byte[] out = buffer;
+			int p = position;
+			for (int i = 0; i < groups; i++) {
+				int bits = (in[offset] & 0xff) << 16 | (in[offset + 1] & 0xff) << 8 | (in[offset + 2] & 0xff);
+				offset += 3;
+				out[p++] = BASE64[bits >>> 18];
+				out[p++] = BASE64[(bits >>> 12) & 0x3f];
+				out[p++] = BASE64[(bits >>> 6) & 0x3f];
+				out[p++] = BASE64[bits & 0x3f];
+			}
+			position = p;
+		}
+	}
+
+	/**
+	 * Writes out the buffered bytes, e.g. before file contents are sent to the stream directly
+	 */
+	void flush() throws IOException {
+		int start = pooled.arrayOffset();
+		if (position > start) {
+			out.write(buffer, start, position - start);
+			position = start;
+		}
+	}
+
+	/**
+	 * Appends the closing boundary and writes out the rest of the body, the stream is left open
+	 */
+	void finish() throws IOException {
+		write(closing);
+		flush();
+		release();
+	}
+
+	/**
+	 * Hands the buffer back to the pool, for bodies which are abandoned
+	 */
+	void release() {
+		if (pooled != null) {
+			BufferPool.heap().release(pooled);
+			pooled = null;
+			buffer = null;
+		}
+	}
+
+	private int remaining() {
+		return pooled.arrayOffset() + pooled.capacity() - position;
+	}
+
+	private void writeText(String text) throws IOException {
+		if (!utf8) {
+			write(text.getBytes(charset));
+			return;
+		}
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			if (remaining() < 4) {
+				flush();
+			}
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				buffer[position++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[position++] = (byte) (0xc0 | (c >> 6));
+				buffer[position++] = (byte) (0x80 | (c & 0x3f));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, text.charAt(++i));
+					buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+					buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+					buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+					buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+				} else {
+					// Unpaired surrogates are replaced, as String.getBytes does
+					buffer[position++] = '?';
+				}
+			} else {
+				buffer[position++] = (byte) (0xe0 | (c >> 12));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[position++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	/**
+	 * Encoded length of a form field part
+	 */
+	static long fieldLength(String boundary, String charset, String name, String value) throws UnsupportedEncodingException {
+		return boundaryLineLength(boundary) + DISPOSITION.length + textLength(name, charset) + QUOTE_CRLF.length
+				+ ("UTF-8".equalsIgnoreCase(charset) ? TEXT_UTF8.length : ("Content-Type: text/plain; charset=" + charset + "\r\n\r\n").length())
+				+ textLength(value, charset) + CRLF.length;
+	}
+
+	/**
+	 * Encoded length of a {@link #base64Field(String, String, InputStream)} encoding <code>size</code> bytes
+	 */
+	static long base64FieldLength(String boundary, String charset, String name, String prefix, long size) throws UnsupportedEncodingException {
+		return fieldLength(boundary, charset, name, prefix) + (size + 2) / 3 * 4;
+	}
+
+	/**
+	 * Encoded length of a file part holding <code>size</code> bytes
+	 */
+	static long filePartLength(String boundary, String charset, String fieldName, String fileName, long size) throws UnsupportedEncodingException {
+		return boundaryLineLength(boundary) + DISPOSITION.length + textLength(fieldName, charset) + FILENAME.length + textLength(fileName, charset)
+				+ QUOTE_CRLF.length + CONTENT_TYPE.length + textLength(String.valueOf(URLConnection.guessContentTypeFromName(fileName)), charset)
+				+ CRLF.length + BINARY.length + size + CRLF.length;
+	}
+
+	/**
+	 * Encoded length of the closing boundary
+	 */
+	static long closingLength(String boundary) {
+		return boundary.length() + 6;
+	}
+
+	private static long boundaryLineLength(String boundary) {
+		return boundary.length() + 4;
+	}
+
+	private static long textLength(String text, String charset) throws UnsupportedEncodingException {
+		if (!"UTF-8".equalsIgnoreCase(charset)) {
+			return text.getBytes(charset).length;
+		}
+		long bytes = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				bytes += 1;
+			} else if (c < 0x800) {
+				bytes += 2;
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+					bytes += 4;
+					i++;
+				} else {
+					bytes += 1;
+				}
+			} else {
+				bytes += 3;
+			}
+		}
+		return bytes;
+	}
+
+	private static byte[] ascii(String text) {
+		byte[] bytes = new byte[text.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) text.charAt(i);
+		}
+		return bytes;
+	}
+}
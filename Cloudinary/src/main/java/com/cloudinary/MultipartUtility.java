@@ -5,11 +5,11 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This utility class provides an abstraction layer for sending multipart HTTP
@@ -19,34 +19,71 @@ import java.net.URLConnection;
  * @author Cloudinary
  */
 public class MultipartUtility {
-    private final String boundary;
-    private static final String LINE_FEED = "\r\n";
-    private HttpURLConnection httpConn;
-    private String charset;
+    private final HttpTransport.Exchange exchange;
     private OutputStream outputStream;
-    private PrintWriter writer;
+    private MultipartEncoder encoder;
+    // Failure writing a form field, reported by the next method allowed to throw
+    private IOException error;
 
     /**
      * This constructor initializes a new HTTP POST request with content type is
-     * set to multipart/form-data
+     * set to multipart/form-data, sent over an {@link HttpURLConnection}
      * 
      * @param requestURL
      * @param charset
      * @throws IOException
      */
     public MultipartUtility(String requestURL, String charset, String boundary) throws IOException {
-        this.charset = charset;
-        this.boundary = boundary;
+        this(new UrlConnectionTransport(), requestURL, charset, boundary, null);
+    }
 
-        URL url = new URL(requestURL);
-        httpConn = (HttpURLConnection) url.openConnection();
-        httpConn.setDoOutput(true); // indicates POST method
-        httpConn.setDoInput(true);
-        httpConn.setChunkedStreamingMode(0); // Chunked transfer mode to prevent local buffering
-        httpConn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-        httpConn.setRequestProperty("User-Agent", Cloudinary.USER_AGENT);
-        outputStream = httpConn.getOutputStream();
-        writer = new PrintWriter(new OutputStreamWriter(outputStream, charset), true);
+    /**
+     * Same as {@link #MultipartUtility(String, String, String)} sent over the given
+     * transport, with additional request headers, e.g. Content-Range for chunked uploads
+     *
+     * @param transport
+     * @param requestURL
+     * @param charset
+     * @param boundary
+     * @param headers
+     *            extra request headers, may be null
+     * @throws IOException
+     */
+    public MultipartUtility(HttpTransport transport, String requestURL, String charset, String boundary, Map<String, String> headers) throws IOException {
+        this(transport, requestURL, charset, boundary, headers, -1);
+    }
+
+    /**
+     * Same as {@link #MultipartUtility(HttpTransport, String, String, String, Map)} for a body
+     * of known length, which is sent with a Content-Length rather than in chunked transfer mode
+     *
+     * @param contentLength
+     *            exact length of the body, or -1 if unknown
+     * @throws IOException
+     */
+    public MultipartUtility(HttpTransport transport, String requestURL, String charset, String boundary, Map<String, String> headers, long contentLength) throws IOException {
+        this(transport, requestURL, charset, boundary, headers, contentLength, Configuration.DEFAULT_CONNECT_TIMEOUT_MILLIS, Configuration.DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Same as {@link #MultipartUtility(HttpTransport, String, String, String, Map, long)} with
+     * the given connect and read timeouts in milliseconds, 0 for no limit
+     *
+     * @param connectTimeout
+     * @param readTimeout
+     * @throws IOException
+     */
+    public MultipartUtility(HttpTransport transport, String requestURL, String charset, String boundary, Map<String, String> headers, long contentLength,
+            int connectTimeout, int readTimeout) throws IOException {
+        Map<String, String> requestHeaders = new LinkedHashMap<String, String>();
+        requestHeaders.put("Content-Type", "multipart/form-data; boundary=" + boundary);
+        requestHeaders.put("User-Agent", Cloudinary.USER_AGENT);
+        if (headers != null) {
+            requestHeaders.putAll(headers);
+        }
+        exchange = transport.open(requestURL, requestHeaders, contentLength, connectTimeout, readTimeout); // Chunked transfer mode when the length is unknown, to prevent local buffering
+        outputStream = exchange.getOutputStream();
+        encoder = new MultipartEncoder(outputStream, boundary, charset);
     }
 
     /**
@@ -58,12 +95,33 @@ public class MultipartUtility {
      *            field value
      */
     public void addFormField(String name, String value) {
-        writer.append("--" + boundary).append(LINE_FEED);
-        writer.append("Content-Disposition: form-data; name=\"" + name + "\"").append(LINE_FEED);
-        writer.append("Content-Type: text/plain; charset=" + charset).append(LINE_FEED);
-        writer.append(LINE_FEED);
-        writer.append(value).append(LINE_FEED);
-        writer.flush();
+        if (error != null) {
+            return;
+        }
+        try {
+            encoder.field(name, value);
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Adds a form field holding a data uri, base64 encoding its bytes straight into the request body
+     *
+     * @param name
+     *            field name
+     * @param value
+     *            data uri, whose stream is closed once written
+     * @throws IOException
+     */
+    public void addFormField(String name, DataUri value) throws IOException {
+        checkError();
+        InputStream inputStream = value.open();
+        try {
+            encoder.base64Field(name, value.prefix(), inputStream);
+        } finally {
+            inputStream.close();
+        }
     }
 
     /**
@@ -76,29 +134,87 @@ public class MultipartUtility {
      * @throws IOException
      */
     public void addFilePart(String fieldName, File uploadFile) throws IOException {
-        String fileName = uploadFile.getName();
+        checkError();
         FileInputStream inputStream = new FileInputStream(uploadFile);
-        addFilePart(fieldName, inputStream, fileName);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            addFilePart(fieldName, channel, 0, channel.size(), uploadFile.getName());
+        } finally {
+            inputStream.close();
+        }
     }
 
-    public void addFilePart(String fieldName, InputStream inputStream, String fileName) throws IOException {
-        writer.append("--" + boundary).append(LINE_FEED);
-        writer.append("Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + fileName + "\"").append(LINE_FEED);
-        writer.append("Content-Type: " + URLConnection.guessContentTypeFromName(fileName)).append(LINE_FEED);
-        writer.append("Content-Transfer-Encoding: binary").append(LINE_FEED);
-        writer.append(LINE_FEED);
-        writer.flush();
+    /**
+     * Adds a upload file section holding <code>count</code> bytes of a file starting at
+     * <code>position</code>, sent straight from the channel when the transport allows. The
+     * channel's own position is left as is.
+     *
+     * @throws IOException
+     */
+    public void addFilePart(String fieldName, FileChannel channel, long position, long count, String fileName) throws IOException {
+        checkError();
+        encoder.filePartHeader(fieldName, fileName);
+        encoder.flush();
+
+        if (outputStream instanceof HttpTransport.FileSink) {
+            ((HttpTransport.FileSink) outputStream).transferFrom(channel, position, count);
+        } else {
+            BufferPool.copy(channel, position, count, outputStream);
+        }
+        encoder.endFilePart();
+    }
+
+    /**
+     * Adds a upload file section holding the remaining bytes of a buffer, advancing its
+     * position. Direct buffers, such as memory mapped files, are sent straight to the
+     * connection when the transport allows.
+     *
+     * @throws IOException
+     */
+    public void addFilePart(String fieldName, ByteBuffer buffer, String fileName) throws IOException {
+        checkError();
+        encoder.filePartHeader(fieldName, fileName);
+        if (buffer.hasArray()) {
+            encoder.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            encoder.flush();
+            if (outputStream instanceof HttpTransport.FileSink) {
+                ((HttpTransport.FileSink) outputStream).transferFrom(buffer);
+            } else {
+                BufferPool.copy(buffer, outputStream);
+            }
+        }
+        encoder.endFilePart();
+    }
 
-        byte[] buffer = new byte[4096];
-        int bytesRead = -1;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
+    public void addFilePart(String fieldName, InputStream inputStream, String fileName) throws IOException {
+        checkError();
+        try {
+            encoder.filePartHeader(fieldName, fileName);
+            encoder.write(inputStream);
+        } finally {
+            inputStream.close();
         }
-        outputStream.flush();
-        inputStream.close();
+        encoder.endFilePart();
+    }
 
-        writer.append(LINE_FEED);
-        writer.flush();
+    /**
+     * Adds a upload file section written by the given writer, whose bytes are sent as they are
+     * produced
+     *
+     * @throws IOException
+     */
+    public void addFilePart(String fieldName, UploadWriter writer, String fileName) throws IOException {
+        checkError();
+        encoder.filePartHeader(fieldName, fileName);
+        PartOutputStream part = new PartOutputStream();
+        try {
+            writer.writeTo(part);
+        } finally {
+            part.closed = true;
+        }
+        encoder.endFilePart();
     }
 
     public void addFilePart(String fieldName, InputStream inputStream) throws IOException {
@@ -106,16 +222,100 @@ public class MultipartUtility {
     }
 
     /**
-     * Completes the request and receives response from the server.
+     * Adds a upload file section holding <code>length</code> bytes of <code>data</code>
+     * starting at <code>offset</code>
      * 
-     * @return a list of Strings as response in case the server returned status
-     *         OK, otherwise an exception is thrown.
      * @throws IOException
      */
+    public void addFilePart(String fieldName, byte[] data, int offset, int length, String fileName) throws IOException {
+        checkError();
+        encoder.filePartHeader(fieldName, fileName);
+        encoder.write(data, offset, length);
+        encoder.endFilePart();
+    }
+
+    /**
+     * Completes the request body.
+     * 
+     * @return the connection to read the server's response from
+     * @throws IOException
+     * @throws UnsupportedOperationException
+     *             if the request isn't sent over a {@link UrlConnectionTransport}
+     * @deprecated use {@link #finish()}, which works with every transport
+     */
+    @Deprecated
     public HttpURLConnection execute() throws IOException {
-        writer.append("--" + boundary + "--").append(LINE_FEED);
-        writer.close();
+        if (!(exchange instanceof UrlConnectionTransport.UrlConnectionExchange)) {
+            throw new UnsupportedOperationException("Only requests sent over a UrlConnectionTransport have an HttpURLConnection, use finish()");
+        }
+        finish();
+        return ((UrlConnectionTransport.UrlConnectionExchange) exchange).getConnection();
+    }
+
+    /**
+     * Completes the request body.
+     * 
+     * @return the exchange to read the server's response from, the caller must
+     *         close it once done
+     * @throws IOException
+     */
+    public HttpTransport.Exchange finish() throws IOException {
+        checkError();
+        encoder.finish();
+        outputStream.close();
 
-        return httpConn;
+        return exchange;
+    }
+
+    /**
+     * Abandons the request, tearing down its connection
+     */
+    public void abort() {
+        encoder.release();
+        exchange.abort();
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * The file part as handed to an {@link UploadWriter}, which can't close the request body
+     * nor write to it once the part is over
+     */
+    private class PartOutputStream extends OutputStream {
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            checkOpen();
+            encoder.write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            checkOpen();
+            encoder.write(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            checkOpen();
+            encoder.flush();
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() {
+            // The body goes on after the part
+        }
+
+        private void checkOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
     }
 }
@@ -0,0 +1,864 @@
+package com.cloudinary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import org.json.JSONObject;
+
+/**
+ * Runs API calls over non-blocking sockets, multiplexing any number of concurrent requests
+ * on a few selector threads instead of blocking a thread per request.
+ *
+ * Requests and responses follow {@link Uploader#callApi(String, Map, Map, Object)}: same signing,
+ * multipart body and result or error handling. Sources may be a File, a local file path or a
+ * remote url / data uri String; InputStreams would block the selector threads and are rejected.
+ * Each request goes over its own connection with a Content-Length and Connection: close.
+ *
+ * The <code>connect_timeout</code>, <code>read_timeout</code> and <code>write_timeout</code>
+ * options and the deadline of the call, see {@link Uploader#execute}, are checked by the selector
+ * threads every {@link #TICK_MILLIS} milliseconds. A connection waiting longer than its timeout
+ * fails with a {@link SocketTimeoutException}, a call past its deadline with a
+ * {@link DeadlineExceededException}.
+ *
+ * Callbacks run on the selector threads and must not block. Cancelling a returned future, or
+ * the call's <code>cancellation_token</code>, closes its connection on the selector thread.
+ */
+@SuppressWarnings("rawtypes")
+public class NioUploadEngine {
+	// How often the selector threads check the timeouts of their transfers
+	static final long TICK_MILLIS = 100;
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final Cloudinary cloudinary;
+	private final Uploader uploader;
+	private final EventLoop[] loops;
+	private final AtomicInteger next = new AtomicInteger();
+
+	public NioUploadEngine(Cloudinary cloudinary, int threads) throws IOException {
+		this.cloudinary = cloudinary;
+		this.uploader = cloudinary.uploader();
+		this.loops = new EventLoop[threads];
+		for (int i = 0; i < threads; i++) {
+			loops[i] = new EventLoop("cloudinary-nio-" + (i + 1));
+		}
+	}
+
+	public Future<JSONObject> upload(Object file, Map options) {
+		return upload(file, options, null);
+	}
+
+	public Future<JSONObject> upload(Object file, Map options, AsyncUploader.Callback callback) {
+		if (options == null) options = Collections.emptyMap();
+		return callApi("upload", uploader.buildUploadParams(options), options, file, callback);
+	}
+
+	/**
+	 * Uploads with precompiled parameters, see {@link Uploader#upload(Object, UploadParams, Map)}
+	 */
+	public Future<JSONObject> upload(Object file, UploadParams params, Map options, AsyncUploader.Callback callback) {
+		return callApi("upload", params.toMap(), options, file, callback);
+	}
+
+	public Future<JSONObject> callApi(String action, Map<String, Object> params, Map options, Object file, AsyncUploader.Callback callback) {
+		if (options == null) options = Collections.emptyMap();
+		Result result = new Result(callback);
+		Transfer transfer = null;
+		boolean submitted = false;
+		try {
+			CancellationToken cancellation = (CancellationToken) options.get("cancellation_token");
+			if (cancellation != null) {
+				cancellation.throwIfCancelled();
+			}
+			long deadline = uploader.deadline(options);
+			if (deadline != 0) {
+				TimeoutTransport.remaining(deadline);
+			}
+			uploader.signRequest(params, options);
+			if (deadline != 0) {
+				// Signing may have waited on the signature provider
+				TimeoutTransport.remaining(deadline);
+			}
+			transfer = new Transfer(result, Cloudinary.asBoolean(options.get("return_error"), false),
+					Cloudinary.asLong(options.get("max_response_size"), cloudinary.config.maxResponseSize), deadline,
+					Cloudinary.asInteger(options.get("connect_timeout"), cloudinary.config.connectTimeout),
+					Cloudinary.asInteger(options.get("read_timeout"), cloudinary.config.readTimeout),
+					Cloudinary.asInteger(options.get("write_timeout"), cloudinary.config.writeTimeout));
+			transfer.prepare(new URL(cloudinary.cloudinaryApiUrl(action, options)), cloudinary.randomPublicId(), params, Uploader.resolveSource(file));
+			EventLoop loop = loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+			loop.submit(transfer);
+			submitted = true;
+			result.abortWith(loop, transfer, cancellation);
+		} catch (Throwable e) {
+			if (transfer != null && !submitted) {
+				// The file channel of a transfer the loop never got
+				transfer.close();
+			}
+			result.fail(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Stops the selector threads, failing all requests in flight
+	 */
+	public void shutdown() {
+		for (EventLoop loop : loops) {
+			loop.shutdown();
+		}
+	}
+
+	private static class EventLoop implements Runnable {
+		private final Selector selector;
+		private final Queue<Transfer> pending = new ConcurrentLinkedQueue<Transfer>();
+		private final Queue<Transfer> cancelled = new ConcurrentLinkedQueue<Transfer>();
+		// Shared by all transfers of this loop for plain reads
+		private final ByteBuffer scratch = ByteBuffer.allocateDirect(64 * 1024);
+		private volatile boolean running = true;
+		private long lastCheck;
+
+		EventLoop(String name) throws IOException {
+			selector = Selector.open();
+			Thread thread = new Thread(this, name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void submit(Transfer transfer) throws IOException {
+			if (!running)
+				throw new IOException("NioUploadEngine was shut down");
+			pending.add(transfer);
+			selector.wakeup();
+		}
+
+		/**
+		 * Fails the transfer with an {@link UploadCancelledException} on the selector thread
+		 */
+		void cancel(Transfer transfer) {
+			cancelled.add(transfer);
+			selector.wakeup();
+		}
+
+		void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					if (selector.keys().isEmpty()) {
+						selector.select();
+					} else {
+						selector.select(TICK_MILLIS);
+					}
+					Transfer transfer;
+					while ((transfer = pending.poll()) != null) {
+						transfer.start(selector);
+					}
+					while ((transfer = cancelled.poll()) != null) {
+						transfer.fail(new UploadCancelledException());
+					}
+					for (Iterator<SelectionKey> iterator = selector.selectedKeys().iterator(); iterator.hasNext();) {
+						SelectionKey key = iterator.next();
+						iterator.remove();
+						((Transfer) key.attachment()).pump(scratch);
+					}
+					long now = System.currentTimeMillis();
+					if (now - lastCheck >= TICK_MILLIS) {
+						lastCheck = now;
+						for (SelectionKey key : selector.keys()) {
+							if (key.isValid()) {
+								((Transfer) key.attachment()).checkTimeouts(now);
+							}
+						}
+					}
+				}
+			} catch (IOException e) {
+				// Selector failure, fall through to fail everything in flight
+			} catch (ClosedSelectorException e) {
+				// ditto
+			} finally {
+				IOException shutdown = new IOException("NioUploadEngine was shut down");
+				Transfer transfer;
+				while ((transfer = pending.poll()) != null) {
+					transfer.fail(shutdown);
+				}
+				for (SelectionKey key : selector.keys()) {
+					((Transfer) key.attachment()).fail(shutdown);
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * A single request on its own connection, driven by its event loop
+	 */
+	private static class Transfer {
+		private final Result result;
+		private final boolean returnError;
+		private final long maxResponseSize;
+		// In System#currentTimeMillis() terms, 0 for none
+		private final long deadline;
+		// In milliseconds, 0 for no limit
+		private final int connectTimeout;
+		private final int readTimeout;
+		private final int writeTimeout;
+		// When the connection was opened or last moved data
+		private long lastProgress;
+
+		private String host;
+		private InetSocketAddress address;
+		private SSLEngine engine;
+		private boolean verified;
+
+		private ByteBuffer head;
+		private FileChannel file;
+		private long filePosition;
+		private long fileRemaining;
+		private ByteBuffer tail;
+
+		private SocketChannel channel;
+		private SelectionKey key;
+		private boolean connecting;
+		private boolean blockedOnWrite;
+		private boolean sent;
+		private boolean eof;
+
+		// TLS buffers: plaintext to encrypt (pooled), encrypted to send, encrypted received, decrypted received
+		private ByteBuffer appOut;
+		private ByteBuffer netOut;
+		private ByteBuffer netIn;
+		private ByteBuffer appIn;
+
+		// The response as received, headers included
+		private byte[] response = new byte[1024];
+		private int responseLength;
+		// Offset of the body once the headers are in, -1 before, and where the search for their end resumes
+		private int headerEnd = -1;
+		private int headerScan = 3;
+		private int code;
+		private long contentLength = -1;
+		private boolean chunked;
+
+		Transfer(Result result, boolean returnError, long maxResponseSize, long deadline, int connectTimeout, int readTimeout, int writeTimeout) {
+			this.result = result;
+			this.returnError = returnError;
+			this.maxResponseSize = maxResponseSize;
+			this.deadline = deadline;
+			this.connectTimeout = connectTimeout;
+			this.readTimeout = readTimeout;
+			this.writeTimeout = writeTimeout;
+		}
+
+		void prepare(URL url, String boundary, Map<String, Object> params, Object source) throws IOException {
+			boolean secure = "https".equals(url.getProtocol());
+			if (!secure && !"http".equals(url.getProtocol()))
+				throw new ProtocolException("Unsupported protocol " + url.getProtocol());
+			host = url.getHost();
+			int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+			address = new InetSocketAddress(host, port);
+			if (address.isUnresolved())
+				throw new UnknownHostException(host);
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			MultipartEncoder encoder = new MultipartEncoder(body, boundary, "UTF-8");
+			File upload = null;
+			byte[] bodyHead;
+			try {
+				for (String[] field : Uploader.formFields(params)) {
+					encoder.field(field[0], field[1]);
+				}
+				if (source instanceof File) {
+					upload = (File) source;
+					encoder.filePartHeader("file", upload.getName());
+				} else if (source instanceof String) {
+					encoder.field("file", (String) source);
+				} else if (source != null) {
+					throw new IllegalArgumentException("NioUploadEngine supports File and String sources only");
+				}
+				encoder.flush();
+				bodyHead = body.toByteArray();
+				body.reset();
+				if (upload != null) {
+					encoder.endFilePart();
+				}
+				encoder.finish();
+			} finally {
+				encoder.release();
+			}
+			byte[] bodyTail = body.toByteArray();
+			if (upload != null) {
+				file = new FileInputStream(upload).getChannel();
+				fileRemaining = file.size();
+			}
+			long contentLength = bodyHead.length + fileRemaining + bodyTail.length;
+
+			String requestHead = "POST " + url.getFile() + " HTTP/1.1\r\n"
+					+ "Host: " + (port == url.getDefaultPort() ? host : host + ":" + port) + "\r\n"
+					+ "Content-Type: multipart/form-data; boundary=" + boundary + "\r\n"
+					+ "User-Agent: " + Cloudinary.USER_AGENT + "\r\n"
+					+ "Content-Length: " + contentLength + "\r\n"
+					+ "Connection: close\r\n\r\n";
+			byte[] requestHeadBytes = requestHead.getBytes("ISO-8859-1");
+			head = ByteBuffer.allocate(requestHeadBytes.length + bodyHead.length);
+			head.put(requestHeadBytes).put(bodyHead).flip();
+			tail = ByteBuffer.wrap(bodyTail);
+
+			if (secure) {
+				try {
+					engine = SSLContext.getDefault().createSSLEngine(host, port);
+				} catch (java.security.NoSuchAlgorithmException e) {
+					throw new SSLException(e);
+				}
+				engine.setUseClientMode(true);
+			}
+		}
+
+		void start(Selector selector) {
+			try {
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				boolean connected = channel.connect(address);
+				connecting = !connected;
+				lastProgress = System.currentTimeMillis();
+				key = channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, this);
+				if (connected) {
+					connected();
+				}
+			} catch (Throwable e) {
+				fail(e);
+			}
+		}
+
+		void pump(ByteBuffer scratch) {
+			// Selected for data to read, room to write or the end of the connection
+			lastProgress = System.currentTimeMillis();
+			try {
+				if (key.isConnectable()) {
+					if (!channel.finishConnect())
+						return;
+					connecting = false;
+					connected();
+				}
+				blockedOnWrite = false;
+				if (!sent) {
+					sent = engine == null ? sendPlain() : sendSecure();
+				}
+				if (sent || engine != null) {
+					if (engine == null) {
+						receivePlain(scratch);
+					} else {
+						receiveSecure();
+					}
+				}
+				if (eof || (sent && isResponseComplete())) {
+					complete();
+				} else {
+					key.interestOps(SelectionKey.OP_READ | (blockedOnWrite ? SelectionKey.OP_WRITE : 0));
+				}
+			} catch (Throwable e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Fails the transfer if it is past its deadline, or has waited longer than the timeout of
+		 * what it waits for: connecting, room to write the request or the response
+		 */
+		void checkTimeouts(long now) {
+			if (deadline != 0 && now >= deadline) {
+				fail(new DeadlineExceededException());
+				return;
+			}
+			int timeout;
+			String message;
+			if (connecting) {
+				timeout = connectTimeout;
+				message = "Connect timed out";
+			} else if (!sent && blockedOnWrite) {
+				timeout = writeTimeout;
+				message = "Write timed out";
+			} else {
+				timeout = readTimeout;
+				message = "Read timed out";
+			}
+			if (timeout > 0 && now - lastProgress >= timeout) {
+				fail(new SocketTimeoutException(message));
+			}
+		}
+
+		private void connected() throws IOException {
+			if (engine != null) {
+				int packetSize = engine.getSession().getPacketBufferSize();
+				int appSize = engine.getSession().getApplicationBufferSize();
+				appOut = BufferPool.direct().acquire();
+				appOut.flip();
+				netOut = ByteBuffer.allocate(packetSize);
+				netOut.flip();
+				netIn = ByteBuffer.allocate(packetSize);
+				appIn = ByteBuffer.allocate(appSize);
+				engine.beginHandshake();
+			}
+		}
+
+		private boolean sendPlain() throws IOException {
+			if (!write(head))
+				return false;
+			while (fileRemaining > 0) {
+				long written = file.transferTo(filePosition, fileRemaining, channel);
+				if (written <= 0) {
+					blockedOnWrite = true;
+					return false;
+				}
+				filePosition += written;
+				fileRemaining -= written;
+			}
+			return write(tail);
+		}
+
+		private boolean write(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (channel.write(buffer) == 0) {
+					blockedOnWrite = true;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void receivePlain(ByteBuffer scratch) throws IOException {
+			while (true) {
+				scratch.clear();
+				int read = channel.read(scratch);
+				if (read < 0) {
+					eof = true;
+					return;
+				} else if (read == 0) {
+					return;
+				}
+				scratch.flip();
+				received(scratch);
+			}
+		}
+
+		private boolean sendSecure() throws IOException {
+			while (true) {
+				if (!write(netOut) || !handshake())
+					return false;
+				if (!appOut.hasRemaining()) {
+					appOut.clear();
+					fillPlaintext(appOut);
+					appOut.flip();
+					if (!appOut.hasRemaining())
+						return true;
+				}
+				netOut.clear();
+				SSLEngineResult wrapped = engine.wrap(appOut, netOut);
+				netOut.flip();
+				if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED)
+					throw new SSLException("Connection closed during request");
+			}
+		}
+
+		private void fillPlaintext(ByteBuffer buffer) throws IOException {
+			transfer(head, buffer);
+			while (fileRemaining > 0 && buffer.hasRemaining()) {
+				int limit = buffer.limit();
+				if (buffer.remaining() > fileRemaining) {
+					buffer.limit(buffer.position() + (int) fileRemaining);
+				}
+				int read = file.read(buffer, filePosition);
+				buffer.limit(limit);
+				if (read < 0)
+					throw new EOFException("File shrank during upload");
+				filePosition += read;
+				fileRemaining -= read;
+			}
+			if (fileRemaining == 0) {
+				transfer(tail, buffer);
+			}
+		}
+
+		private static void transfer(ByteBuffer from, ByteBuffer to) {
+			int count = Math.min(from.remaining(), to.remaining());
+			int limit = from.limit();
+			from.limit(from.position() + count);
+			to.put(from);
+			from.limit(limit);
+		}
+
+		/**
+		 * Advances the TLS handshake as far as possible, returning true once it is done
+		 */
+		private boolean handshake() throws IOException {
+			while (true) {
+				if (!write(netOut))
+					return false;
+				switch (engine.getHandshakeStatus()) {
+				case NEED_TASK:
+					Runnable task;
+					while ((task = engine.getDelegatedTask()) != null) {
+						task.run();
+					}
+					break;
+				case NEED_WRAP:
+					netOut.clear();
+					SSLEngineResult wrapped = engine.wrap(EMPTY, netOut);
+					netOut.flip();
+					if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED)
+						throw new SSLException("Connection closed during handshake");
+					break;
+				case NEED_UNWRAP:
+					if (!unwrap())
+						return false;
+					break;
+				default:
+					if (!verified) {
+						if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, engine.getSession()))
+							throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+						verified = true;
+					}
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Decrypts received data into appIn, returning false when more data must arrive first
+		 */
+		private boolean unwrap() throws IOException {
+			netIn.flip();
+			SSLEngineResult unwrapped = engine.unwrap(netIn, appIn);
+			netIn.compact();
+			switch (unwrapped.getStatus()) {
+			case BUFFER_UNDERFLOW:
+				if (!netIn.hasRemaining()) {
+					ByteBuffer larger = ByteBuffer.allocate(netIn.capacity() * 2);
+					netIn.flip();
+					netIn = larger.put(netIn);
+				}
+				int read = channel.read(netIn);
+				if (read < 0) {
+					eof = true;
+					return false;
+				}
+				return read > 0;
+			case BUFFER_OVERFLOW:
+				ByteBuffer larger = ByteBuffer.allocate(appIn.capacity() * 2);
+				appIn.flip();
+				appIn = larger.put(appIn);
+				return true;
+			case CLOSED:
+				eof = true;
+				return false;
+			default:
+				return true;
+			}
+		}
+
+		private void receiveSecure() throws IOException {
+			while (!eof) {
+				if (!handshake())
+					break;
+				if (!unwrap())
+					break;
+				drainAppIn();
+			}
+			drainAppIn();
+		}
+
+		private void drainAppIn() throws IOException {
+			appIn.flip();
+			received(appIn);
+			appIn.clear();
+		}
+
+		/**
+		 * Appends received bytes to the response, reading its headers once they are all in
+		 */
+		private void received(ByteBuffer data) throws IOException {
+			int count = data.remaining();
+			if (responseLength + count > response.length) {
+				response = Arrays.copyOf(response, Math.max(response.length * 2, responseLength + count));
+			}
+			data.get(response, responseLength, count);
+			responseLength += count;
+			if (headerEnd < 0) {
+				for (int i = headerScan; i < responseLength; i++) {
+					if (response[i] == '\n' && response[i - 1] == '\r' && response[i - 2] == '\n' && response[i - 3] == '\r') {
+						headerEnd = i + 1;
+						break;
+					}
+				}
+				if (headerEnd < 0) {
+					headerScan = Math.max(3, responseLength);
+					if (responseLength > maxResponseSize)
+						throw new ProtocolException("Response exceeds the maximum size of " + maxResponseSize + " bytes");
+					return;
+				}
+				readHeaders();
+			}
+			if (responseLength - headerEnd > maxResponseSize)
+				throw new ProtocolException("Response exceeds the maximum size of " + maxResponseSize + " bytes");
+		}
+
+		private void readHeaders() throws IOException {
+			String headers = latin1(response, 0, headerEnd);
+			if (headers.length() < 12 || !headers.startsWith("HTTP/"))
+				throw new ProtocolException("Unexpected status line: " + headers);
+			code = Integer.parseInt(headers.substring(9, 12));
+			headers = headers.toLowerCase();
+			int length = headers.indexOf("\ncontent-length:");
+			if (length >= 0) {
+				int end = headers.indexOf('\r', length + 1);
+				contentLength = Long.parseLong(headers.substring(length + 16, end < 0 ? headers.length() : end).trim());
+			}
+			chunked = headers.contains("\ntransfer-encoding: chunked");
+		}
+
+		private boolean isResponseComplete() {
+			// Chunked or delimited by the end of the connection, wait for the server to close it
+			return headerEnd >= 0 && contentLength >= 0 && responseLength - headerEnd >= contentLength;
+		}
+
+		private void complete() {
+			close();
+			try {
+				if (headerEnd < 0)
+					throw new EOFException("Connection closed before the response headers");
+				if (contentLength >= 0 && responseLength - headerEnd < contentLength)
+					throw new EOFException("Connection closed after " + (responseLength - headerEnd) + " of " + contentLength + " response bytes");
+				int end = contentLength >= 0 ? (int) (headerEnd + contentLength) : responseLength;
+				if (chunked) {
+					end = dechunk(response, headerEnd, end);
+				}
+				result.succeed(Uploader.parseResponse(Uploader.readResponse(code, response, headerEnd, end), returnError));
+			} catch (Throwable e) {
+				result.fail(e);
+			}
+		}
+
+		void fail(Throwable e) {
+			close();
+			result.fail(e);
+		}
+
+		private void close() {
+			if (key != null) {
+				key.cancel();
+			}
+			if (appOut != null) {
+				BufferPool.direct().release(appOut);
+				appOut = null;
+			}
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+			} catch (IOException e) {
+				// ignore
+			}
+			try {
+				if (file != null) {
+					file.close();
+				}
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+
+		/**
+		 * Joins the chunks between <code>start</code> and <code>end</code> in place, returning
+		 * the end of the joined body
+		 */
+		private static int dechunk(byte[] data, int start, int end) throws IOException {
+			int position = start;
+			int out = start;
+			while (true) {
+				int lineEnd = indexOf(data, position, end);
+				if (lineEnd < 0)
+					throw new EOFException("Truncated chunked response");
+				String size = latin1(data, position, lineEnd - position);
+				int extension = size.indexOf(';');
+				int length = Integer.parseInt((extension >= 0 ? size.substring(0, extension) : size).trim(), 16);
+				if (length == 0)
+					return out;
+				position = lineEnd + 2;
+				if (position + length > end)
+					throw new EOFException("Truncated chunked response");
+				System.arraycopy(data, position, data, out, length);
+				out += length;
+				position += length + 2;
+			}
+		}
+
+		private static int indexOf(byte[] data, int from, int end) {
+			for (int i = from; i + 1 < end; i++) {
+				if (data[i] == '\r' && data[i + 1] == '\n')
+					return i;
+			}
+			return -1;
+		}
+
+		private static String latin1(byte[] data, int offset, int length) {
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char) (data[offset + i] & 0xff);
+			}
+			return new String(chars);
+		}
+	}
+
+	private static class Result implements Future<JSONObject> {
+		private static final int CANCELLED = 3;
+
+		private final AsyncUploader.Callback callback;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicInteger state = new AtomicInteger();
+		private JSONObject value;
+		private Throwable error;
+		private volatile Runnable abort;
+		private volatile CancellationToken cancellation;
+
+		Result(AsyncUploader.Callback callback) {
+			this.callback = callback;
+		}
+
+		/**
+		 * Has cancelling this result or the token stop the submitted transfer
+		 */
+		void abortWith(final EventLoop loop, final Transfer transfer, CancellationToken cancellation) {
+			Runnable abort = new Runnable() {
+				@Override
+				public void run() {
+					loop.cancel(transfer);
+				}
+			};
+			this.abort = abort;
+			if (cancellation != null) {
+				this.cancellation = cancellation;
+				cancellation.register(abort);
+			}
+			if (isDone()) {
+				released();
+				if (state.get() == CANCELLED) {
+					abort.run();
+				}
+			}
+		}
+
+		void succeed(JSONObject value) {
+			if (state.compareAndSet(0, 1)) {
+				this.value = value;
+				done.countDown();
+				released();
+				if (callback != null)
+					callback.onSuccess(value);
+			}
+		}
+
+		void fail(Throwable error) {
+			if (state.compareAndSet(0, 2)) {
+				this.error = error;
+				done.countDown();
+				released();
+				if (callback != null)
+					callback.onError(error);
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!state.compareAndSet(0, CANCELLED)) {
+				return false;
+			}
+			done.countDown();
+			released();
+			Runnable abort = this.abort;
+			if (abort != null) {
+				abort.run();
+			}
+			return true;
+		}
+
+		private void released() {
+			CancellationToken cancellation = this.cancellation;
+			Runnable abort = this.abort;
+			if (cancellation != null && abort != null) {
+				cancellation.unregister(abort);
+			}
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public JSONObject get() throws InterruptedException, ExecutionException {
+			done.await();
+			return report();
+		}
+
+		@Override
+		public JSONObject get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit))
+				throw new TimeoutException();
+			return report();
+		}
+
+		private JSONObject report() throws ExecutionException {
+			if (state.get() == CANCELLED)
+				throw new CancellationException();
+			if (error != null)
+				throw new ExecutionException(error);
+			return value;
+		}
+	}
+}
@@ -0,0 +1,894 @@
+package com.cloudinary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link HttpTransport} speaking HTTP/1.1 over its own pool of keep-alive connections, so
+ * consecutive API calls skip the TCP and TLS handshakes.
+ *
+ * At most <code>maxConnectionsPerHost</code> connections per host are in use at once, further
+ * requests wait for one to be released. Up to <code>maxIdlePerHost</code> released connections
+ * are kept per host and reused for <code>keepAliveMillis</code>, after which they are closed.
+ *
+ * The connect timeout of a request bounds both the wait for a free connection and establishing
+ * a new one, TLS handshake included.
+ *
+ * A reused connection the server closed while it was idle can pass the check made before reuse
+ * and only fail once the request is sent, before any of the response arrived. Requests of up to
+ * {@link #REPLAY_LIMIT} bytes are then sent once more over a new connection, as the server can't
+ * have processed them.
+ *
+ * Requests the default {@link ProxySelector} routes through a proxy, e.g. one set in the
+ * device's network settings, are sent over a {@link UrlConnectionTransport} instead.
+ */
+public class PooledHttpTransport implements HttpTransport {
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+	public static final int DEFAULT_MAX_IDLE_PER_HOST = 5;
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+	// Most bytes of a request kept to send it again when the reused connection it went out on was closed
+	static final int REPLAY_LIMIT = 64 * 1024;
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private static PooledHttpTransport defaultTransport;
+
+	private final int maxConnectionsPerHost;
+	private final int maxIdlePerHost;
+	private final long keepAliveMillis;
+	private final Map<String, Route> routes = new HashMap<String, Route>();
+	// For requests going through a proxy
+	private final HttpTransport proxied = new UrlConnectionTransport();
+
+	public PooledHttpTransport() {
+		this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_IDLE_PER_HOST, DEFAULT_KEEP_ALIVE_MILLIS);
+	}
+
+	public PooledHttpTransport(int maxConnectionsPerHost, int maxIdlePerHost, long keepAliveMillis) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.maxIdlePerHost = maxIdlePerHost;
+		this.keepAliveMillis = keepAliveMillis;
+	}
+
+	/**
+	 * The transport shared by all configurations which don't set their own
+	 */
+	public static synchronized PooledHttpTransport getDefault() {
+		if (defaultTransport == null) {
+			defaultTransport = new PooledHttpTransport();
+		}
+		return defaultTransport;
+	}
+
+	@Override
+	public Exchange open(String url, Map<String, String> headers, long contentLength, int connectTimeout, int readTimeout) throws IOException {
+		URL parsed = new URL(url);
+		if (isProxied(parsed)) {
+			return proxied.open(url, headers, contentLength, connectTimeout, readTimeout);
+		}
+		Route route = route(parsed);
+		Connection connection = route.acquire(connectTimeout);
+		// Connections are stamped when released, so only reused ones have been used before
+		Replay replay = connection.lastUsed != 0 ? new Replay(connection.out) : null;
+		boolean success = false;
+		try {
+			connection.socket.setSoTimeout(readTimeout);
+			StringBuilder head = new StringBuilder();
+			head.append("POST ").append(parsed.getFile().length() == 0 ? "/" : parsed.getFile()).append(" HTTP/1.1\r\n");
+			head.append("Host: ").append(route.hostHeader).append("\r\n");
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+			}
+			if (contentLength < 0) {
+				head.append("Transfer-Encoding: chunked\r\n");
+			} else {
+				head.append("Content-Length: ").append(contentLength).append("\r\n");
+			}
+			head.append("\r\n");
+			(replay != null ? replay : connection.out).write(head.toString().getBytes("ISO-8859-1"));
+			success = true;
+			return new PooledExchange(route, connection, contentLength, replay, connectTimeout, readTimeout);
+		} finally {
+			if (!success) {
+				route.release(connection, false);
+			}
+		}
+	}
+
+	/**
+	 * Whether the system proxy settings send requests to the url through a proxy, checked on
+	 * each request as they change with the network
+	 */
+	private static boolean isProxied(URL url) {
+		ProxySelector selector = ProxySelector.getDefault();
+		if (selector == null)
+			return false;
+		try {
+			List<Proxy> proxies = selector.select(url.toURI());
+			return proxies != null && !proxies.isEmpty() && proxies.get(0).type() != Proxy.Type.DIRECT;
+		} catch (URISyntaxException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Closes idle connections which outlived the keep-alive period
+	 */
+	public void evictIdle() {
+		for (Route route : routes()) {
+			route.evict(false);
+		}
+	}
+
+	/**
+	 * Closes all idle connections
+	 */
+	public void evictAll() {
+		for (Route route : routes()) {
+			route.evict(true);
+		}
+	}
+
+	public int idleConnectionCount() {
+		int count = 0;
+		for (Route route : routes()) {
+			count += route.idleCount();
+		}
+		return count;
+	}
+
+	private synchronized List<Route> routes() {
+		return new ArrayList<Route>(routes.values());
+	}
+
+	private synchronized Route route(URL url) throws IOException {
+		boolean secure = "https".equals(url.getProtocol());
+		if (!secure && !"http".equals(url.getProtocol()))
+			throw new ProtocolException("Unsupported protocol " + url.getProtocol());
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		String key = url.getProtocol() + "://" + url.getHost() + ":" + port;
+		Route route = routes.get(key);
+		if (route == null) {
+			route = new Route(url.getHost(), port, secure);
+			routes.put(key, route);
+		}
+		return route;
+	}
+
+	/**
+	 * Connections to a single scheme, host and port
+	 */
+	private class Route {
+		final String host;
+		final int port;
+		final boolean secure;
+		final String hostHeader;
+		final Semaphore permits = new Semaphore(maxConnectionsPerHost, true);
+		// Most recently released first
+		final LinkedList<Connection> idle = new LinkedList<Connection>();
+
+		Route(String host, int port, boolean secure) {
+			this.host = host;
+			this.port = port;
+			this.secure = secure;
+			this.hostHeader = port == (secure ? 443 : 80) ? host : host + ":" + port;
+		}
+
+		Connection acquire(int connectTimeout) throws IOException {
+			try {
+				if (connectTimeout <= 0) {
+					permits.acquire();
+				} else if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+					throw new SocketTimeoutException("Timed out waiting for a connection to " + host);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a connection to " + host);
+			}
+			try {
+				Connection connection;
+				while ((connection = pollIdle()) != null) {
+					if (connection.isHealthy()) {
+						return connection;
+					}
+					connection.close();
+				}
+				return connect(connectTimeout);
+			} catch (IOException e) {
+				permits.release();
+				throw e;
+			} catch (RuntimeException e) {
+				permits.release();
+				throw e;
+			}
+		}
+
+		void release(Connection connection, boolean reusable) {
+			boolean keep = false;
+			if (reusable) {
+				synchronized (this) {
+					if (idle.size() < maxIdlePerHost) {
+						connection.lastUsed = System.currentTimeMillis();
+						idle.addFirst(connection);
+						keep = true;
+					}
+				}
+			}
+			if (!keep) {
+				connection.close();
+			}
+			permits.release();
+			evict(false);
+		}
+
+		private synchronized Connection pollIdle() {
+			return idle.poll();
+		}
+
+		synchronized int idleCount() {
+			return idle.size();
+		}
+
+		void evict(boolean all) {
+			List<Connection> evicted = new ArrayList<Connection>();
+			long expiry = System.currentTimeMillis() - keepAliveMillis;
+			synchronized (this) {
+				for (Iterator<Connection> iterator = idle.iterator(); iterator.hasNext();) {
+					Connection connection = iterator.next();
+					if (all || connection.lastUsed < expiry) {
+						iterator.remove();
+						evicted.add(connection);
+					}
+				}
+			}
+			for (Connection connection : evicted) {
+				connection.close();
+			}
+		}
+
+		private Connection connect(int connectTimeout) throws IOException {
+			InetSocketAddress address = new InetSocketAddress(host, port);
+			if (!secure) {
+				// Plain connections are channel based so file contents can be transferred without copying
+				SocketChannel channel = SocketChannel.open();
+				try {
+					channel.socket().connect(address, connectTimeout);
+					channel.socket().setTcpNoDelay(true);
+					return new Connection(channel.socket(), channel);
+				} catch (IOException e) {
+					channel.close();
+					throw e;
+				}
+			}
+			Socket socket = SocketFactory.getDefault().createSocket();
+			try {
+				socket.connect(address, connectTimeout);
+				socket.setTcpNoDelay(true);
+				// Bounds the handshake as well
+				socket.setSoTimeout(connectTimeout);
+				SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+				socket = sslSocket;
+				sslSocket.startHandshake();
+				if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+					throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+				}
+				return new Connection(socket, null);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+	}
+
+	private static class Connection {
+		final Socket socket;
+		// Null for TLS connections
+		final SocketChannel channel;
+		final InputStream in;
+		final OutputStream out;
+		long lastUsed;
+
+		Connection(Socket socket, SocketChannel channel) throws IOException {
+			this.socket = socket;
+			this.channel = channel;
+			this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+			this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+		}
+
+		/**
+		 * An idle connection is healthy unless the server closed it meanwhile
+		 */
+		boolean isHealthy() {
+			if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+				return false;
+			}
+			if (channel != null) {
+				return isChannelHealthy();
+			}
+			try {
+				int timeout = socket.getSoTimeout();
+				try {
+					socket.setSoTimeout(1);
+					in.mark(1);
+					if (in.read() == -1) {
+						return false;
+					}
+					in.reset();
+					return true;
+				} finally {
+					socket.setSoTimeout(timeout);
+				}
+			} catch (SocketTimeoutException e) {
+				return true;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		private boolean isChannelHealthy() {
+			try {
+				channel.configureBlocking(false);
+				try {
+					// Nothing may arrive on an idle connection but the server closing it
+					return channel.read(ByteBuffer.allocate(1)) == 0;
+				} finally {
+					channel.configureBlocking(true);
+				}
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private static class PooledExchange implements Exchange {
+		private final Route route;
+		private Connection connection;
+		private final OutputStream body;
+		private Replay replay;
+		private final int connectTimeout;
+		private final int readTimeout;
+		private boolean bodyFinished;
+		private boolean released;
+		private int code = -1;
+		private boolean keepAlive;
+		private ResponseStream responseStream;
+
+		PooledExchange(Route route, Connection connection, long contentLength, Replay replay, int connectTimeout, int readTimeout) {
+			this.route = route;
+			this.connection = connection;
+			this.body = contentLength < 0 ? new ChunkedOutputStream(connection, replay) : new FixedLengthOutputStream(connection, replay, contentLength);
+			this.replay = replay;
+			this.connectTimeout = connectTimeout;
+			this.readTimeout = readTimeout;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return body;
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			if (code != -1) {
+				return code;
+			}
+			if (!bodyFinished) {
+				body.close();
+				bodyFinished = true;
+			}
+			awaitResponse();
+			String statusLine;
+			do {
+				statusLine = readLine(connection.in);
+				if (statusLine.length() < 12 || !statusLine.startsWith("HTTP/"))
+					throw new ProtocolException("Unexpected status line: " + statusLine);
+				code = Integer.parseInt(statusLine.substring(9, 12));
+				if (code / 100 == 1) {
+					// Skip informational responses and their headers
+					while (readLine(connection.in).length() > 0) {
+					}
+				}
+			} while (code / 100 == 1);
+
+			long contentLength = -1;
+			boolean chunked = false;
+			keepAlive = !statusLine.startsWith("HTTP/1.0");
+			String line;
+			while ((line = readLine(connection.in)).length() > 0) {
+				int colon = line.indexOf(':');
+				if (colon <= 0)
+					continue;
+				String name = line.substring(0, colon).trim();
+				String value = line.substring(colon + 1).trim();
+				if (name.equalsIgnoreCase("Content-Length")) {
+					contentLength = Long.parseLong(value);
+				} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+					chunked = value.equalsIgnoreCase("chunked");
+				} else if (name.equalsIgnoreCase("Connection")) {
+					keepAlive = value.equalsIgnoreCase("keep-alive") || (keepAlive && !value.equalsIgnoreCase("close"));
+				}
+			}
+			if (chunked) {
+				responseStream = new ChunkedInputStream(connection.in);
+			} else if (contentLength >= 0) {
+				responseStream = new FixedLengthInputStream(connection.in, contentLength);
+			} else {
+				// Body delimited by the end of the connection
+				keepAlive = false;
+				responseStream = new FixedLengthInputStream(connection.in, Long.MAX_VALUE);
+			}
+			return code;
+		}
+
+		/**
+		 * Waits for the response to start. Should a reused connection fail before any of it
+		 * arrived, the request is sent once more over a new connection.
+		 */
+		private void awaitResponse() throws IOException {
+			Replay replay = this.replay;
+			this.replay = null;
+			IOException failure;
+			try {
+				connection.in.mark(1);
+				if (connection.in.read() != -1) {
+					connection.in.reset();
+					return;
+				}
+				failure = new EOFException("Connection closed by server");
+			} catch (SocketTimeoutException e) {
+				throw e;
+			} catch (IOException e) {
+				failure = e;
+			}
+			if (replay == null || !replay.isComplete())
+				throw failure;
+			synchronized (this) {
+				if (released) {
+					// Failed by an abort, not by the server
+					throw failure;
+				}
+			}
+			Connection fresh = route.connect(connectTimeout);
+			Connection stale;
+			synchronized (this) {
+				if (released) {
+					// Aborted meanwhile
+					fresh.close();
+					throw failure;
+				}
+				stale = connection;
+				connection = fresh;
+			}
+			stale.close();
+			// From here an abort closes the new connection
+			try {
+				fresh.socket.setSoTimeout(readTimeout);
+				replay.writeTo(fresh.out);
+				fresh.out.flush();
+			} catch (IOException e) {
+				fresh.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public InputStream getResponseStream() throws IOException {
+			getResponseCode();
+			return responseStream;
+		}
+
+		@Override
+		public void close() {
+			release(keepAlive && responseStream != null && responseStream.isComplete());
+		}
+
+		@Override
+		public void abort() {
+			release(false);
+		}
+
+		private synchronized void release(boolean reusable) {
+			if (!released) {
+				released = true;
+				route.release(connection, reusable);
+			}
+		}
+	}
+
+	static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c == -1)
+				throw new EOFException("Connection closed by server");
+			if (c != '\r')
+				line.append((char) c);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Sends file contents with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+	 * over plain connections, through a pooled buffer over TLS ones
+	 */
+	private static void transfer(Connection connection, Replay replay, FileChannel file, long position, long count) throws IOException {
+		if (replay != null) {
+			replay.record(file, position, count);
+		}
+		if (connection.channel == null) {
+			BufferPool.copy(file, position, count, connection.out);
+			return;
+		}
+		connection.out.flush();
+		while (count > 0) {
+			long sent = file.transferTo(position, count, connection.channel);
+			if (sent <= 0) {
+				if (position >= file.size())
+					throw new EOFException("File shrank during upload");
+				// Some platforms can't transfer to sockets, copy the rest instead
+				BufferPool.copy(file, position, count, connection.out);
+				return;
+			}
+			position += sent;
+			count -= sent;
+		}
+	}
+
+	/**
+	 * Sends direct buffers with a channel write over plain connections, others through the stream
+	 */
+	private static void transfer(Connection connection, Replay replay, ByteBuffer buffer) throws IOException {
+		if (replay != null) {
+			replay.record(buffer);
+		}
+		if (connection.channel == null || !buffer.isDirect()) {
+			BufferPool.copy(buffer, connection.out);
+			return;
+		}
+		connection.out.flush();
+		while (buffer.hasRemaining()) {
+			connection.channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Writes through to a reused connection, keeping what is written up to {@link #REPLAY_LIMIT}
+	 * bytes so it can be sent again over a new connection
+	 */
+	private static class Replay extends OutputStream {
+		private final OutputStream out;
+		private byte[] data = new byte[1024];
+		private int length;
+		private boolean overflowed;
+
+		Replay(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int count) throws IOException {
+			out.write(buffer, offset, count);
+			if (reserve(count)) {
+				System.arraycopy(buffer, offset, data, length, count);
+				length += count;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		void record(FileChannel file, long position, long count) throws IOException {
+			if (!reserve(count))
+				return;
+			ByteBuffer target = ByteBuffer.wrap(data, length, (int) count);
+			while (target.hasRemaining()) {
+				if (file.read(target, position + target.position() - length) < 0)
+					throw new EOFException("File shrank during upload");
+			}
+			length += count;
+		}
+
+		void record(ByteBuffer buffer) {
+			int count = buffer.remaining();
+			if (reserve(count)) {
+				buffer.duplicate().get(data, length, count);
+				length += count;
+			}
+		}
+
+		/**
+		 * Makes room for <code>count</code> more bytes, false once the request outgrew the limit
+		 */
+		private boolean reserve(long count) {
+			if (overflowed)
+				return false;
+			if (length + count > REPLAY_LIMIT) {
+				overflowed = true;
+				data = null;
+				return false;
+			}
+			if (length + count > data.length) {
+				data = Arrays.copyOf(data, (int) Math.min(REPLAY_LIMIT, Math.max(length + count, data.length * 2L)));
+			}
+			return true;
+		}
+
+		boolean isComplete() {
+			return !overflowed;
+		}
+
+		void writeTo(OutputStream out) throws IOException {
+			out.write(data, 0, length);
+		}
+	}
+
+	private static class ChunkedOutputStream extends OutputStream implements FileSink {
+		private final Connection connection;
+		// Null unless the connection is reused
+		private final Replay replay;
+		private final OutputStream out;
+		private boolean closed;
+
+		ChunkedOutputStream(Connection connection, Replay replay) {
+			this.connection = connection;
+			this.replay = replay;
+			this.out = replay != null ? replay : connection.out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			if (closed)
+				throw new IOException("Request body already complete");
+			if (length == 0)
+				return;
+			out.write(Integer.toHexString(length).getBytes("ISO-8859-1"));
+			out.write(CRLF);
+			out.write(buffer, offset, length);
+			out.write(CRLF);
+		}
+
+		@Override
+		public void transferFrom(FileChannel file, long position, long count) throws IOException {
+			if (closed)
+				throw new IOException("Request body already complete");
+			if (count == 0)
+				return;
+			out.write(Long.toHexString(count).getBytes("ISO-8859-1"));
+			out.write(CRLF);
+			transfer(connection, replay, file, position, count);
+			out.write(CRLF);
+		}
+
+		@Override
+		public void transferFrom(ByteBuffer buffer) throws IOException {
+			if (closed)
+				throw new IOException("Request body already complete");
+			if (!buffer.hasRemaining())
+				return;
+			out.write(Integer.toHexString(buffer.remaining()).getBytes("ISO-8859-1"));
+			out.write(CRLF);
+			transfer(connection, replay, buffer);
+			out.write(CRLF);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				out.write(new byte[] { '0', '\r', '\n', '\r', '\n' });
+				out.flush();
+			}
+		}
+	}
+
+	private static class FixedLengthOutputStream extends OutputStream implements FileSink {
+		private final Connection connection;
+		// Null unless the connection is reused
+		private final Replay replay;
+		private final OutputStream out;
+		private long remaining;
+		private boolean closed;
+
+		FixedLengthOutputStream(Connection connection, Replay replay, long length) {
+			this.connection = connection;
+			this.replay = replay;
+			this.out = replay != null ? replay : connection.out;
+			this.remaining = length;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			if (closed)
+				throw new IOException("Request body already complete");
+			if (length > remaining)
+				throw new ProtocolException("Request body exceeds its Content-Length");
+			out.write(buffer, offset, length);
+			remaining -= length;
+		}
+
+		@Override
+		public void transferFrom(FileChannel file, long position, long count) throws IOException {
+			if (closed)
+				throw new IOException("Request body already complete");
+			if (count > remaining)
+				throw new ProtocolException("Request body exceeds its Content-Length");
+			transfer(connection, replay, file, position, count);
+			remaining -= count;
+		}
+
+		@Override
+		public void transferFrom(ByteBuffer buffer) throws IOException {
+			if (closed)
+				throw new IOException("Request body already complete");
+			int count = buffer.remaining();
+			if (count > remaining)
+				throw new ProtocolException("Request body exceeds its Content-Length");
+			transfer(connection, replay, buffer);
+			remaining -= count;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				if (remaining != 0)
+					throw new ProtocolException("Request body is " + remaining + " bytes shorter than its Content-Length");
+				out.flush();
+			}
+		}
+	}
+
+	private static abstract class ResponseStream extends InputStream {
+		abstract boolean isComplete();
+	}
+
+	private static class FixedLengthInputStream extends ResponseStream {
+		private final InputStream in;
+		private long remaining;
+
+		FixedLengthInputStream(InputStream in, long length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining == 0)
+				return -1;
+			int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+			if (read == -1) {
+				if (remaining != Long.MAX_VALUE)
+					throw new EOFException("Response body truncated");
+				remaining = 0;
+				return -1;
+			}
+			if (remaining != Long.MAX_VALUE)
+				remaining -= read;
+			return read;
+		}
+
+		@Override
+		boolean isComplete() {
+			return remaining == 0;
+		}
+	}
+
+	private static class ChunkedInputStream extends ResponseStream {
+		private final InputStream in;
+		private long chunkRemaining;
+		private boolean complete;
+
+		ChunkedInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (complete)
+				return -1;
+			if (chunkRemaining == 0) {
+				String size = readLine(in);
+				int extension = size.indexOf(';');
+				chunkRemaining = Long.parseLong((extension >= 0 ? size.substring(0, extension) : size).trim(), 16);
+				if (chunkRemaining == 0) {
+					// Skip trailers
+					while (readLine(in).length() > 0) {
+					}
+					complete = true;
+					return -1;
+				}
+			}
+			int read = in.read(buffer, offset, (int) Math.min(length, chunkRemaining));
+			if (read == -1)
+				throw new EOFException("Response body truncated");
+			chunkRemaining -= read;
+			if (chunkRemaining == 0) {
+				readLine(in);
+			}
+			return read;
+		}
+
+		@Override
+		boolean isComplete() {
+			return complete;
+		}
+	}
+}
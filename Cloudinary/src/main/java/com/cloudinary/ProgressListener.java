@@ -0,0 +1,43 @@
+package com.cloudinary;
+
+/**
+ * Observes the requests of an {@link Uploader} call, passed in the <code>progress_listener</code>
+ * option.
+ *
+ * Every request runs through the phases in order, calls made of several requests, such as
+ * retried calls and {@link Uploader#uploadLarge(Object, java.util.Map)}, report each one from
+ * {@link Phase#CONNECTING} on. Progress is reported at most once per
+ * <code>progress_interval</code> milliseconds (default {@link #DEFAULT_INTERVAL_MILLIS}) while
+ * sending, and once more when the body is complete.
+ *
+ * Listeners are called on the thread sending the request, which is held up until they return,
+ * and from several threads at once for concurrent chunks of a large upload.
+ */
+public interface ProgressListener {
+	long DEFAULT_INTERVAL_MILLIS = 100;
+
+	enum Phase {
+		/** Opening or reusing a connection */
+		CONNECTING,
+		/** Writing the request body */
+		SENDING,
+		/** The body is sent, waiting for the server */
+		AWAITING_RESPONSE,
+		/** Reading and parsing the response */
+		PARSING
+	}
+
+	void onPhase(Phase phase);
+
+	/**
+	 * @param bytesWritten
+	 *            bytes of the request body written so far
+	 * @param totalBytes
+	 *            length of the request body, or -1 if unknown
+	 * @param bytesPerSecond
+	 *            throughput since the previous report
+	 * @param averageBytesPerSecond
+	 *            throughput since the body was started
+	 */
+	void onProgress(long bytesWritten, long totalBytes, double bytesPerSecond, double averageBytesPerSecond);
+}
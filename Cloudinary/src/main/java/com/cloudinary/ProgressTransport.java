@@ -0,0 +1,176 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * Reports the phases and body progress of the requests sent over another transport to a
+ * {@link ProgressListener}.
+ *
+ * Written bytes are counted on every write, the clock is only read once {@link #CLOCK_BYTES} more
+ * bytes are written, or per {@link SlicingFileSink#TRANSFER_SLICE} bytes for files and buffers
+ * sent through a {@link HttpTransport.FileSink}, and progress is reported when it finds the
+ * previous report at least the interval old.
+ */
+class ProgressTransport implements HttpTransport {
+	// Bytes written between reads of the clock, so small writes such as form fields don't each read it
+	static final long CLOCK_BYTES = 8 * 1024;
+
+	private final HttpTransport delegate;
+	private final ProgressListener listener;
+	private final long intervalNanos;
+
+	ProgressTransport(HttpTransport delegate, ProgressListener listener, long intervalMillis) {
+		this.delegate = delegate;
+		this.listener = listener;
+		this.intervalNanos = intervalMillis * 1000000L;
+	}
+
+	@Override
+	public Exchange open(String url, Map<String, String> headers, long contentLength, int connectTimeout, int readTimeout) throws IOException {
+		listener.onPhase(ProgressListener.Phase.CONNECTING);
+		return new ProgressExchange(delegate.open(url, headers, contentLength, connectTimeout, readTimeout), contentLength);
+	}
+
+	private class ProgressExchange implements Exchange {
+		private final Exchange exchange;
+		private final long total;
+		private OutputStream outputStream;
+		private boolean sent;
+
+		private long start;
+		private long written;
+		// Written bytes at which to read the clock next
+		private long nextClock = CLOCK_BYTES;
+		private long lastReport;
+		private long lastReportBytes;
+
+		ProgressExchange(Exchange exchange, long total) {
+			this.exchange = exchange;
+			this.total = total;
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			if (outputStream == null) {
+				OutputStream out = exchange.getOutputStream();
+				outputStream = out instanceof FileSink ? new CountingFileSink(out) : new CountingStream(out);
+				listener.onPhase(ProgressListener.Phase.SENDING);
+				start = System.nanoTime();
+				lastReport = start;
+			}
+			return outputStream;
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			bodySent();
+			int code = exchange.getResponseCode();
+			listener.onPhase(ProgressListener.Phase.PARSING);
+			return code;
+		}
+
+		@Override
+		public InputStream getResponseStream() throws IOException {
+			return exchange.getResponseStream();
+		}
+
+		@Override
+		public void close() {
+			exchange.close();
+		}
+
+		@Override
+		public void abort() {
+			exchange.abort();
+		}
+
+		private void bodySent() {
+			if (sent)
+				return;
+			sent = true;
+			if (outputStream != null) {
+				report(System.nanoTime());
+			}
+			listener.onPhase(ProgressListener.Phase.AWAITING_RESPONSE);
+		}
+
+		private void written(long count) {
+			written += count;
+			if (written < nextClock)
+				return;
+			nextClock = written + CLOCK_BYTES;
+			long now = System.nanoTime();
+			if (now - lastReport >= intervalNanos) {
+				report(now);
+			}
+		}
+
+		private void report(long now) {
+			double elapsed = Math.max(1, now - lastReport) / 1e9;
+			double totalElapsed = Math.max(1, now - start) / 1e9;
+			listener.onProgress(written, total, (written - lastReportBytes) / elapsed, written / totalElapsed);
+			lastReport = now;
+			lastReportBytes = written;
+		}
+
+		private class CountingStream extends OutputStream {
+			final OutputStream out;
+
+			CountingStream(OutputStream out) {
+				this.out = out;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				written(1);
+			}
+
+			@Override
+			public void write(byte[] buffer, int offset, int length) throws IOException {
+				out.write(buffer, offset, length);
+				written(length);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				out.flush();
+			}
+
+			@Override
+			public void close() throws IOException {
+				out.close();
+				bodySent();
+			}
+		}
+
+		private class CountingFileSink extends CountingStream implements FileSink {
+			private final SlicingFileSink slices;
+
+			CountingFileSink(OutputStream out) {
+				super(out);
+				slices = new SlicingFileSink((FileSink) out) {
+					@Override
+					void afterSlice(long length) {
+						written(length);
+					}
+				};
+			}
+
+			@Override
+			public void transferFrom(FileChannel file, long position, long count) throws IOException {
+				slices.transferFrom(file, position, count);
+			}
+
+			@Override
+			public void transferFrom(ByteBuffer buffer) throws IOException {
+				slices.transferFrom(buffer);
+			}
+		}
+	}
+}
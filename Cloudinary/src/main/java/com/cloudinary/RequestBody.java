@@ -0,0 +1,377 @@
+package com.cloudinary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The "file" part of an API call, written once per attempt.
+ *
+ * Files, file ranges, channels, buffers, strings, byte arrays and data uris of known length are
+ * simply written again, {@link UploadWriter}s produce the file only once. InputStreams are
+ * spooled as they are sent, in memory up to {@link #MEMORY_SPOOL_LIMIT} bytes and to a temporary
+ * file beyond, so a retry replays what was read so far and continues with the rest of the stream.
+ */
+abstract class RequestBody {
+	static final int MEMORY_SPOOL_LIMIT = 1024 * 1024;
+
+	/**
+	 * @param source
+	 *            a source as returned by {@link Uploader#resolveSource(Object)}
+	 * @param replayable
+	 *            whether InputStreams should be spooled so they can be written again
+	 */
+	static RequestBody of(Object source, boolean replayable) throws IOException {
+		if (source == null) {
+			return new Empty();
+		} else if (source instanceof File) {
+			return new FilePart((File) source);
+		} else if (source instanceof FileRange) {
+			return new RangePart((FileRange) source);
+		} else if (source instanceof FileChannel) {
+			return new RangePart(FileRange.of((FileChannel) source));
+		} else if (source instanceof ByteBuffer) {
+			return new BufferPart((ByteBuffer) source);
+		} else if (source instanceof String) {
+			return new FieldPart((String) source);
+		} else if (source instanceof DataUri) {
+			return new DataUriPart((DataUri) source);
+		} else if (source instanceof UploadWriter) {
+			return new WriterPart((UploadWriter) source);
+		} else if (source instanceof InputStream) {
+			return replayable ? new SpooledStreamPart((InputStream) source) : new StreamPart((InputStream) source);
+		} else if (source instanceof ChunkedUpload.Chunk) {
+			ChunkedUpload.Chunk chunk = (ChunkedUpload.Chunk) source;
+			return new BytesPart(chunk.data, chunk.length, chunk.fileName);
+		}
+		throw new IllegalArgumentException("Unsupported upload source " + source.getClass().getName());
+	}
+
+	abstract void writeTo(MultipartUtility multipart) throws IOException;
+
+	/**
+	 * Exact number of bytes {@link #writeTo(MultipartUtility)} adds to the body, or -1 if unknown
+	 */
+	abstract long length(String boundary, String charset) throws IOException;
+
+	/**
+	 * Whether {@link #writeTo(MultipartUtility)} may be called again
+	 */
+	boolean isReplayable() {
+		return true;
+	}
+
+	/**
+	 * Releases the source and any spooled data once the call is over
+	 */
+	void release() {
+	}
+
+	private static class Empty extends RequestBody {
+		@Override
+		void writeTo(MultipartUtility multipart) {
+		}
+
+		@Override
+		long length(String boundary, String charset) {
+			return 0;
+		}
+	}
+
+	private static class FilePart extends RequestBody {
+		private final File file;
+
+		FilePart(File file) {
+			this.file = file;
+		}
+
+		@Override
+		void writeTo(MultipartUtility multipart) throws IOException {
+			multipart.addFilePart("file", file);
+		}
+
+		@Override
+		long length(String boundary, String charset) throws IOException {
+			return MultipartEncoder.filePartLength(boundary, charset, "file", file.getName(), file.length());
+		}
+	}
+
+	private static class RangePart extends RequestBody {
+		private final FileRange range;
+
+		RangePart(FileRange range) {
+			this.range = range;
+		}
+
+		@Override
+		void writeTo(MultipartUtility multipart) throws IOException {
+			range.writeTo(multipart, "file");
+		}
+
+		@Override
+		long length(String boundary, String charset) throws IOException {
+			return MultipartEncoder.filePartLength(boundary, charset, "file", range.getFileName(), range.getLength());
+		}
+	}
+
+	/**
+	 * The remaining bytes of a buffer, written from a duplicate so the buffer itself is left as is
+	 */
+	private static class BufferPart extends RequestBody {
+		private final ByteBuffer buffer;
+
+		BufferPart(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		void writeTo(MultipartUtility multipart) throws IOException {
+			multipart.addFilePart("file", buffer.duplicate(), "file");
+		}
+
+		@Override
+		long length(String boundary, String charset) throws IOException {
+			return MultipartEncoder.filePartLength(boundary, charset, "file", "file", buffer.remaining());
+		}
+	}
+
+	private static class FieldPart extends RequestBody {
+		private final String value;
+
+		FieldPart(String value) {
+			this.value = value;
+		}
+
+		@Override
+		void writeTo(MultipartUtility multipart) {
+			multipart.addFormField("file", value);
+		}
+
+		@Override
+		long length(String boundary, String charset) throws IOException {
+			return MultipartEncoder.fieldLength(boundary, charset, "file", value);
+		}
+	}
+
+	private static class DataUriPart extends RequestBody {
+		private final DataUri dataUri;
+		private boolean written;
+
+		DataUriPart(DataUri dataUri) {
+			this.dataUri = dataUri;
+		}
+
+		@Override
+		void writeTo(MultipartUtility multipart) throws IOException {
+			written = true;
+			multipart.addFormField("file", dataUri);
+		}
+
+		@Override
+		long length(String boundary, String charset) throws IOException {
+			long size = dataUri.size();
+			return size < 0 ? -1 : MultipartEncoder.base64FieldLength(boundary, charset, "file", dataUri.prefix(), size);
+		}
+
+		@Override
+		boolean isReplayable() {
+			return dataUri.isReplayable() || !written;
+		}
+	}
+
+	private static class BytesPart extends RequestBody {
+		private final byte[] data;
+		private final int length;
+		private final String fileName;
+
+		BytesPart(byte[] data, int length, String fileName) {
+			this.data = data;
+			this.length = length;
+			this.fileName = fileName;
+		}
+
+		@Override
+		void writeTo(MultipartUtility multipart) throws IOException {
+			multipart.addFilePart("file", data, 0, length, fileName);
+		}
+
+		@Override
+		long length(String boundary, String charset) throws IOException {
+			return MultipartEncoder.filePartLength(boundary, charset, "file", fileName, length);
+		}
+	}
+
+	/**
+	 * A stream sent as is, which can't be written again once reading started
+	 */
+	private static class StreamPart extends RequestBody {
+		private final InputStream input;
+		private boolean written;
+
+		StreamPart(InputStream input) {
+			this.input = input;
+		}
+
+		@Override
+		void writeTo(MultipartUtility multipart) throws IOException {
+			written = true;
+			multipart.addFilePart("file", input);
+		}
+
+		@Override
+		long length(String boundary, String charset) {
+			return -1;
+		}
+
+		@Override
+		boolean isReplayable() {
+			return !written;
+		}
+
+		@Override
+		void release() {
+			close(input);
+		}
+	}
+
+	/**
+	 * A file produced as it is sent, which can't be written again once the writer was called
+	 */
+	private static class WriterPart extends RequestBody {
+		private final UploadWriter writer;
+		private boolean written;
+
+		WriterPart(UploadWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		void writeTo(MultipartUtility multipart) throws IOException {
+			written = true;
+			multipart.addFilePart("file", writer, "file");
+		}
+
+		@Override
+		long length(String boundary, String charset) {
+			return -1;
+		}
+
+		@Override
+		boolean isReplayable() {
+			return !written;
+		}
+	}
+
+	private static class SpooledStreamPart extends RequestBody {
+		private final InputStream input;
+		private final Spool memory = new Spool();
+		private File spoolFile;
+		private OutputStream spool = memory;
+		private long spooled;
+
+		SpooledStreamPart(InputStream input) {
+			this.input = input;
+		}
+
+		@Override
+		void writeTo(MultipartUtility multipart) throws IOException {
+			multipart.addFilePart("file", new Replay());
+		}
+
+		@Override
+		long length(String boundary, String charset) {
+			return -1;
+		}
+
+		@Override
+		void release() {
+			close(input);
+			if (spoolFile != null) {
+				close(spool);
+				spoolFile.delete();
+			}
+		}
+
+		private void append(byte[] buffer, int offset, int length) throws IOException {
+			if (spoolFile == null && spooled + length > MEMORY_SPOOL_LIMIT) {
+				spoolFile = File.createTempFile("cloudinary", ".spool");
+				spool = new FileOutputStream(spoolFile);
+				memory.writeTo(spool);
+			}
+			spool.write(buffer, offset, length);
+			spooled += length;
+		}
+
+		private InputStream openSpooled() throws IOException {
+			if (spoolFile == null) {
+				return new ByteArrayInputStream(memory.buffer(), 0, (int) spooled);
+			}
+			spool.flush();
+			return new FileInputStream(spoolFile);
+		}
+
+		/**
+		 * Replays the data spooled by earlier attempts, then reads on from the source, spooling it
+		 */
+		private class Replay extends InputStream {
+			private final long replayLength = spooled;
+			private InputStream replay;
+			private long replayed;
+
+			@Override
+			public int read() throws IOException {
+				byte[] single = new byte[1];
+				return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				if (replayed < replayLength) {
+					if (replay == null) {
+						replay = openSpooled();
+					}
+					int read = replay.read(buffer, offset, (int) Math.min(length, replayLength - replayed));
+					if (read > 0) {
+						replayed += read;
+						return read;
+					}
+				}
+				int read = input.read(buffer, offset, length);
+				if (read > 0) {
+					append(buffer, offset, read);
+				}
+				return read;
+			}
+
+			@Override
+			public void close() throws IOException {
+				// The source stays open for further attempts until the body is released
+				if (replay != null) {
+					replay.close();
+				}
+			}
+		}
+	}
+
+	private static class Spool extends ByteArrayOutputStream {
+		byte[] buffer() {
+			return buf;
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package com.cloudinary;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs API requests, as {@link Cloudinary#apiSignRequest(Map, String)} does.
+ *
+ * Each thread keeps its own SHA-1 digest and buffers. The sorted parameters are encoded
+ * straight into the buffer and digested without building the string to sign, and the
+ * signature is written out in hex from a lookup table. Signing many parameter sets with
+ * {@link #sign(List, String)} also encodes the secret only once.
+ */
+@SuppressWarnings("rawtypes")
+public final class RequestSigner {
+	private static final int DIGEST_LENGTH = 20;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final Comparator<Map.Entry<String, Object>> KEY_ORDER = new Comparator<Map.Entry<String, Object>>() {
+		@Override
+		public int compare(Map.Entry<String, Object> lhs, Map.Entry<String, Object> rhs) {
+			return lhs.getKey().compareTo(rhs.getKey());
+		}
+	};
+
+	private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	private RequestSigner() {
+	}
+
+	/**
+	 * The hex SHA-1 signature of the params, joining the non-empty strings and the collections
+	 * in key order, followed by the secret
+	 */
+	public static String sign(Map<String, Object> params, String apiSecret) {
+		State state = STATE.get();
+		return state.sign(params, state.secret(apiSecret));
+	}
+
+	/**
+	 * The signatures of a batch of parameter sets, in order
+	 */
+	public static List<String> sign(List<? extends Map<String, Object>> paramSets, String apiSecret) {
+		State state = STATE.get();
+		byte[] secret = state.secret(apiSecret);
+		List<String> signatures = new ArrayList<String>(paramSets.size());
+		for (Map<String, Object> params : paramSets) {
+			signatures.add(state.sign(params, secret));
+		}
+		return signatures;
+	}
+
+	/**
+	 * The SHA-1 digest of the text followed by the secret
+	 */
+	static byte[] digest(String text, String secret) {
+		State state = STATE.get();
+		state.length = 0;
+		state.append(text);
+		state.append(secret);
+		MessageDigest digest = state.digest;
+		digest.update(state.buffer, 0, state.length);
+		return digest.digest();
+	}
+
+	static String hex(byte[] bytes) {
+		return hex(bytes, bytes.length, new char[bytes.length * 2]);
+	}
+
+	private static String hex(byte[] bytes, int length, char[] chars) {
+		for (int i = 0; i < length; i++) {
+			int b = bytes[i] & 0xFF;
+			chars[i * 2] = HEX[b >>> 4];
+			chars[i * 2 + 1] = HEX[b & 0x0F];
+		}
+		return new String(chars, 0, length * 2);
+	}
+
+	private static final class State {
+		final MessageDigest digest;
+		final byte[] hash = new byte[DIGEST_LENGTH];
+		final char[] hex = new char[DIGEST_LENGTH * 2];
+		byte[] buffer = new byte[512];
+		int length;
+		Map.Entry[] entries = new Map.Entry[16];
+		String secretSource;
+		byte[] secret;
+
+		State() {
+			try {
+				digest = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("Unexpected exception", e);
+			}
+		}
+
+		byte[] secret(String apiSecret) {
+			if (!apiSecret.equals(secretSource)) {
+				length = 0;
+				append(apiSecret);
+				secret = Arrays.copyOf(buffer, length);
+				secretSource = apiSecret;
+			}
+			return secret;
+		}
+
+		@SuppressWarnings("unchecked")
+		String sign(Map<String, Object> params, byte[] secret) {
+			int count = 0;
+			for (Map.Entry<String, Object> param : params.entrySet()) {
+				Object value = param.getValue();
+				if (value instanceof Collection || (value instanceof String && ((String) value).length() > 0)) {
+					if (count == entries.length) {
+						entries = Arrays.copyOf(entries, count * 2);
+					}
+					entries[count++] = param;
+				}
+			}
+			Arrays.sort(entries, 0, count, (Comparator) KEY_ORDER);
+
+			length = 0;
+			for (int i = 0; i < count; i++) {
+				if (i > 0) {
+					append('&');
+				}
+				append((String) entries[i].getKey());
+				append('=');
+				Object value = entries[i].getValue();
+				if (value instanceof Collection) {
+					for (Iterator iterator = ((Collection) value).iterator(); iterator.hasNext();) {
+						append(String.valueOf(iterator.next()));
+						if (iterator.hasNext()) {
+							append(',');
+						}
+					}
+				} else {
+					append((String) value);
+				}
+				entries[i] = null;
+			}
+			digest.update(buffer, 0, length);
+			digest.update(secret);
+			try {
+				digest.digest(hash, 0, DIGEST_LENGTH);
+			} catch (DigestException e) {
+				throw new RuntimeException("Unexpected exception", e);
+			}
+			return hex(hash, DIGEST_LENGTH, hex);
+		}
+
+		private void append(char c) {
+			ensure(1);
+			buffer[length++] = (byte) c;
+		}
+
+		/**
+		 * Appends the UTF-8 encoding of the text, replacing unpaired surrogates with '?' as
+		 * {@link String#getBytes()} does
+		 */
+		private void append(String text) {
+			int n = text.length();
+			ensure(n);
+			byte[] buffer = this.buffer;
+			int length = this.length;
+			int i = 0;
+			for (char c; i < n && (c = text.charAt(i)) < 0x80; i++) {
+				buffer[length++] = (byte) c;
+			}
+			this.length = length;
+			if (i < n) {
+				appendNonAscii(text, i);
+			}
+		}
+
+		private void appendNonAscii(String text, int i) {
+			int n = text.length();
+			for (; i < n; i++) {
+				char c = text.charAt(i);
+				if (c < 0x80) {
+					buffer[length++] = (byte) c;
+					continue;
+				}
+				ensure(4 + n - i);
+				if (c < 0x800) {
+					buffer[length++] = (byte) (0xC0 | (c >> 6));
+					buffer[length++] = (byte) (0x80 | (c & 0x3F));
+				} else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+					buffer[length++] = (byte) (0xE0 | (c >> 12));
+					buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					buffer[length++] = (byte) (0x80 | (c & 0x3F));
+				} else if (c <= Character.MAX_HIGH_SURROGATE && i + 1 < n && text.charAt(i + 1) >= Character.MIN_LOW_SURROGATE
+						&& text.charAt(i + 1) <= Character.MAX_LOW_SURROGATE) {
+					int codePoint = 0x10000 + ((c - Character.MIN_HIGH_SURROGATE) << 10) + (text.charAt(++i) - Character.MIN_LOW_SURROGATE);
+					buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+					buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else {
+					buffer[length++] = '?';
+				}
+			}
+		}
+
+		private void ensure(int more) {
+			if (length + more > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+			}
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package com.cloudinary;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Decides whether and when a failed API call is sent again.
+ *
+ * Calls are retried on I/O errors and on 502, 503 and 504 responses, waiting an exponentially
+ * growing, jittered delay between attempts. A call that may have reached the server is only
+ * retried if sending it twice is harmless, see {@link #isIdempotent(String, Map, Map)}; a call
+ * that failed to connect is always retried. Retries are drawn from a budget refilled by each
+ * call, so an outage doesn't multiply the load on the servers. The chunks of a large upload are
+ * the exception: each is resent up to its own <code>chunk_retries</code> without drawing from the
+ * budget, so a long upload isn't failed by retries spent elsewhere.
+ *
+ * Retries share the deadline of their call, no retry is started which would have to wait past it.
+ *
+ * Set on a {@link Configuration} with {@link Configuration.Builder#setRetryPolicy(RetryPolicy)},
+ * or per call with the <code>max_retries</code> option.
+ */
+public class RetryPolicy {
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 250;
+	public static final long DEFAULT_MAX_BACKOFF_MILLIS = 8000;
+	public static final double DEFAULT_BACKOFF_MULTIPLIER = 2;
+	public static final double DEFAULT_JITTER = 0.5;
+	public static final double DEFAULT_RETRY_RATIO = 0.2;
+	public static final int DEFAULT_MIN_RETRIES = 10;
+
+	/**
+	 * Actions which can be repeated without side effects beyond those of a single call
+	 */
+	public static final Set<String> DEFAULT_IDEMPOTENT_ACTIONS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			"destroy", "explicit", "tags", "sprite", "multi", "explode", "text")));
+
+	public static final RetryPolicy DEFAULT = new Builder().build();
+	public static final RetryPolicy NONE = new Builder().setMaxRetries(0).build();
+
+	private static final Random random = new Random();
+
+	private final int maxRetries;
+	private final long initialBackoffMillis;
+	private final long maxBackoffMillis;
+	private final double backoffMultiplier;
+	private final double jitter;
+	private final Set<String> idempotentActions;
+	private final Budget budget;
+	private final boolean budgeted;
+
+	private RetryPolicy(Builder builder, Budget budget, boolean budgeted) {
+		this.maxRetries = builder.maxRetries;
+		this.initialBackoffMillis = builder.initialBackoffMillis;
+		this.maxBackoffMillis = builder.maxBackoffMillis;
+		this.backoffMultiplier = builder.backoffMultiplier;
+		this.jitter = builder.jitter;
+		this.idempotentActions = builder.idempotentActions;
+		this.budget = budget;
+		this.budgeted = budgeted;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Same policy with a different number of retries, sharing this policy's budget
+	 */
+	public RetryPolicy withMaxRetries(int maxRetries) {
+		if (maxRetries == this.maxRetries)
+			return this;
+		return new RetryPolicy(new Builder().from(this).setMaxRetries(maxRetries), budget, budgeted);
+	}
+
+	/**
+	 * Same policy taking its retries regardless of the budget, its calls still refilling it
+	 */
+	RetryPolicy withoutBudget() {
+		if (!budgeted)
+			return this;
+		return new RetryPolicy(new Builder().from(this), budget, false);
+	}
+
+	/**
+	 * Whether sending the call more than once is harmless: one of the idempotent actions, a
+	 * chunk of a large upload or an upload to an explicit public ID, which overwrites the first.
+	 */
+	public boolean isIdempotent(String action, Map<String, Object> params, Map<String, String> headers) {
+		if (idempotentActions.contains(action))
+			return true;
+		if ("upload".equals(action)) {
+			return params.get("public_id") != null || (headers != null && headers.containsKey("X-Unique-Upload-Id"));
+		}
+		return false;
+	}
+
+	/**
+	 * Whether a call which failed with the given error is worth sending again
+	 *
+	 * @param idempotent
+	 *            whether the call is idempotent
+	 */
+	public boolean isRetryable(IOException error, boolean idempotent) {
+		if (error instanceof ConnectException)
+			return true;
+		if (!idempotent)
+			return false;
+		if (error instanceof SocketTimeoutException)
+			return true;
+		return !(error instanceof InterruptedIOException || error instanceof FileNotFoundException || error instanceof UnknownHostException
+				|| error instanceof ProtocolException || error instanceof SSLHandshakeException || error instanceof SSLPeerUnverifiedException);
+	}
+
+	/**
+	 * Whether a call answered with the given status is worth sending again
+	 */
+	public boolean isRetryable(int statusCode, boolean idempotent) {
+		return idempotent && (statusCode == 502 || statusCode == 503 || statusCode == 504);
+	}
+
+	/**
+	 * Delay before the given retry, counting from 0
+	 */
+	public long backoffMillis(int retry) {
+		double backoff = Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(backoffMultiplier, retry));
+		double randomized;
+		synchronized (random) {
+			randomized = backoff * (1 - jitter * random.nextDouble());
+		}
+		return (long) randomized;
+	}
+
+	/**
+	 * Counts a call towards the retry budget
+	 */
+	void recordCall() {
+		budget.deposit();
+	}
+
+	/**
+	 * Takes the given retry, counting from 0, from the budget and waits for its backoff
+	 *
+	 * @return false if the retry may not be taken
+	 */
+	boolean awaitRetry(int retry) throws InterruptedIOException {
+		return awaitRetry(retry, null);
+	}
+
+	/**
+	 * Same as {@link #awaitRetry(int)}, failing with an {@link UploadCancelledException} as soon
+	 * as the call's token is cancelled
+	 */
+	boolean awaitRetry(int retry, CancellationToken cancellation) throws InterruptedIOException {
+		return awaitRetry(retry, cancellation, 0);
+	}
+
+	/**
+	 * Same as {@link #awaitRetry(int, CancellationToken)}, giving up the retry if its backoff
+	 * would end past the call's deadline
+	 *
+	 * @param deadline
+	 *            in {@link System#currentTimeMillis()} terms, 0 for none
+	 */
+	boolean awaitRetry(int retry, CancellationToken cancellation, long deadline) throws InterruptedIOException {
+		if (retry >= maxRetries)
+			return false;
+		long backoff = backoffMillis(retry);
+		if ((deadline != 0 && System.currentTimeMillis() + backoff >= deadline) || (budgeted && !budget.withdraw()))
+			return false;
+		if (cancellation != null) {
+			cancellation.sleep(backoff);
+			return true;
+		}
+		try {
+			Thread.sleep(backoff);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry");
+		}
+		return true;
+	}
+
+	/**
+	 * Token bucket allowing <code>minRetries</code> retries at once, refilled by
+	 * <code>retryRatio</code> retries per call
+	 */
+	private static class Budget {
+		private final double retryRatio;
+		private final double capacity;
+		private double balance;
+
+		Budget(double retryRatio, int minRetries) {
+			this.retryRatio = retryRatio;
+			this.capacity = minRetries;
+			this.balance = minRetries;
+		}
+
+		synchronized void deposit() {
+			balance = Math.min(capacity, balance + retryRatio);
+		}
+
+		synchronized boolean withdraw() {
+			if (balance < 1)
+				return false;
+			balance -= 1;
+			return true;
+		}
+	}
+
+	/**
+	 * Build a new {@link RetryPolicy}
+	 */
+	public static class Builder {
+		private int maxRetries = DEFAULT_MAX_RETRIES;
+		private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+		private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+		private double backoffMultiplier = DEFAULT_BACKOFF_MULTIPLIER;
+		private double jitter = DEFAULT_JITTER;
+		private double retryRatio = DEFAULT_RETRY_RATIO;
+		private int minRetries = DEFAULT_MIN_RETRIES;
+		private Set<String> idempotentActions = DEFAULT_IDEMPOTENT_ACTIONS;
+
+		public RetryPolicy build() {
+			return new RetryPolicy(this, new Budget(retryRatio, minRetries), true);
+		}
+
+		/**
+		 * Retries after the first attempt, 0 disables retrying
+		 */
+		public Builder setMaxRetries(int maxRetries) {
+			this.maxRetries = maxRetries;
+			return this;
+		}
+
+		/**
+		 * Delay before the first retry, multiplied by the backoff multiplier for each further retry
+		 * up to the maximal backoff
+		 */
+		public Builder setBackoff(long initialBackoffMillis, long maxBackoffMillis, double backoffMultiplier) {
+			this.initialBackoffMillis = initialBackoffMillis;
+			this.maxBackoffMillis = maxBackoffMillis;
+			this.backoffMultiplier = backoffMultiplier;
+			return this;
+		}
+
+		/**
+		 * Fraction between 0 and 1 by which each delay is randomly shortened, so clients which
+		 * failed together don't retry together
+		 */
+		public Builder setJitter(double jitter) {
+			this.jitter = jitter;
+			return this;
+		}
+
+		/**
+		 * Retries allowed per call on average, beyond a reserve of <code>minRetries</code>
+		 */
+		public Builder setRetryBudget(double retryRatio, int minRetries) {
+			this.retryRatio = retryRatio;
+			this.minRetries = minRetries;
+			return this;
+		}
+
+		/**
+		 * Actions retried even if they may have reached the server
+		 */
+		public Builder setIdempotentActions(Collection<String> idempotentActions) {
+			this.idempotentActions = Collections.unmodifiableSet(new HashSet<String>(idempotentActions));
+			return this;
+		}
+
+		/**
+		 * Initialize builder from an existing {@link RetryPolicy}, the budget is not copied
+		 */
+		public Builder from(RetryPolicy other) {
+			this.maxRetries = other.maxRetries;
+			this.initialBackoffMillis = other.initialBackoffMillis;
+			this.maxBackoffMillis = other.maxBackoffMillis;
+			this.backoffMultiplier = other.backoffMultiplier;
+			this.jitter = other.jitter;
+			this.retryRatio = other.budget.retryRatio;
+			this.minRetries = (int) other.budget.capacity;
+			this.idempotentActions = other.idempotentActions;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps signatures from another {@link SignatureProvider} ready ahead of the uploads needing them.
+ *
+ * Signatures are fetched in batches and handed out one by one. Calls finding the pool empty
+ * wait for a single fetch covering all of them rather than fetching each their own, and once
+ * the pool runs low it is refilled on the executor, taking the round trip to the server off
+ * the uploads' path. Signatures older than the maximal age are dropped unused, well before
+ * the timestamps they were made with are too old to be accepted.
+ */
+public class SignaturePool implements SignatureProvider {
+	public static final int DEFAULT_BATCH_SIZE = 10;
+	public static final long DEFAULT_MAX_AGE_MILLIS = 30 * 60 * 1000;
+
+	private final SignatureProvider provider;
+	private final int batchSize;
+	private final long maxAgeMillis;
+	private final Executor executor;
+	private final LinkedList<Signature> signatures = new LinkedList<Signature>();
+	private boolean fetching;
+	private int demand;
+	private int fetches;
+	private IOException failure;
+
+	/**
+	 * A pool fetching {@link #DEFAULT_BATCH_SIZE} signatures at a time, kept for up to
+	 * {@link #DEFAULT_MAX_AGE_MILLIS}
+	 */
+	public SignaturePool(SignatureProvider provider, Executor executor) {
+		this(provider, DEFAULT_BATCH_SIZE, DEFAULT_MAX_AGE_MILLIS, executor);
+	}
+
+	/**
+	 * @param batchSize
+	 *            number of signatures to fetch at a time, the pool being refilled when less
+	 *            than half of it remains
+	 * @param executor
+	 *            runs the refills, or null to only fetch when the pool is empty
+	 */
+	public SignaturePool(SignatureProvider provider, int batchSize, long maxAgeMillis, Executor executor) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batchSize must be positive");
+		if (maxAgeMillis <= 0)
+			throw new IllegalArgumentException("maxAgeMillis must be positive");
+		this.provider = provider;
+		this.batchSize = batchSize;
+		this.maxAgeMillis = maxAgeMillis;
+		this.executor = executor;
+	}
+
+	/**
+	 * Starts filling the pool on the executor, e.g. as the user opens the upload screen
+	 */
+	public void prefetch() {
+		synchronized (this) {
+			expire();
+			if (fetching || signatures.size() >= batchSize || executor == null) {
+				return;
+			}
+			fetching = true;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						fetch(batchSize);
+					} catch (IOException e) {
+						// The next call finding the pool empty fetches again
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				failure = null;
+				fetching = false;
+				fetches++;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * The number of unexpired signatures ready
+	 */
+	public synchronized int size() {
+		expire();
+		return signatures.size();
+	}
+
+	/**
+	 * Takes <code>count</code> signatures from the pool, waiting for a fetch if it holds too few
+	 */
+	@Override
+	public List<Map<String, Object>> fetchSignatures(int count) throws IOException {
+		if (count <= 0)
+			throw new IllegalArgumentException("count must be positive");
+		List<Map<String, Object>> taken = new ArrayList<Map<String, Object>>(count);
+		boolean low;
+		while (true) {
+			int wanted;
+			synchronized (this) {
+				expire();
+				if (signatures.size() >= count) {
+					for (int i = 0; i < count; i++) {
+						taken.add(signatures.removeFirst().params);
+					}
+					low = signatures.size() < (batchSize + 1) / 2;
+					break;
+				}
+				if (fetching) {
+					awaitFetch(count);
+					continue;
+				}
+				fetching = true;
+				wanted = Math.max(batchSize, demand + count);
+			}
+			fetch(wanted);
+		}
+		if (low) {
+			prefetch();
+		}
+		return taken;
+	}
+
+	/*
+	 * Waits for the running fetch, failing if it failed and left too few signatures
+	 */
+	private void awaitFetch(int count) throws IOException {
+		int fetch = fetches;
+		demand += count;
+		try {
+			while (fetches == fetch) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for signatures");
+		} finally {
+			demand -= count;
+		}
+		expire();
+		if (failure != null && signatures.size() < count) {
+			throw new IOException("Fetching signatures failed", failure);
+		}
+	}
+
+	private void fetch(int count) throws IOException {
+		List<Map<String, Object>> fetched = null;
+		IOException error = null;
+		try {
+			fetched = provider.fetchSignatures(count);
+			if (fetched == null || fetched.isEmpty()) {
+				error = new IOException("Signature provider returned no signatures");
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = new IOException("Signature provider failed", e);
+		}
+		synchronized (this) {
+			if (error == null) {
+				long now = System.currentTimeMillis();
+				for (Map<String, Object> params : fetched) {
+					signatures.add(new Signature(params, now));
+				}
+			}
+			failure = error;
+			fetching = false;
+			fetches++;
+			notifyAll();
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private void expire() {
+		long oldest = System.currentTimeMillis() - maxAgeMillis;
+		while (!signatures.isEmpty() && signatures.getFirst().fetchedAt < oldest) {
+			signatures.removeFirst();
+		}
+	}
+
+	private static class Signature {
+		final Map<String, Object> params;
+		final long fetchedAt;
+
+		Signature(Map<String, Object> params, long fetchedAt) {
+			this.params = params;
+			this.fetchedAt = fetchedAt;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Source of signatures made on the app's server, for clients which do not hold the api_secret.
+ *
+ * Set on a {@link Configuration} with {@link Configuration.Builder#setSignatureProvider(SignatureProvider)},
+ * or passed to a single call in the <code>signature_provider</code> option. It is asked for a
+ * signature by calls which are neither unsigned, nor given a <code>signature</code> and
+ * <code>timestamp</code>, nor able to sign with an api_secret.
+ */
+public interface SignatureProvider {
+	/**
+	 * Fetches signed parameters for up to <code>count</code> uploads, at least one, in a
+	 * single request to the server.
+	 *
+	 * Each holds the <code>signature</code>, the <code>timestamp</code> it was made at and the
+	 * parameters the server chose and signed along, such as the <code>public_id</code>, and
+	 * may hold the <code>api_key</code>. Any other parameters the upload sends must have been
+	 * signed as well.
+	 */
+	List<Map<String, Object>> fetchSignatures(int count) throws IOException;
+}
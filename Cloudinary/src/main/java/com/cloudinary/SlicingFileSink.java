@@ -0,0 +1,76 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Hands files and buffers on to another {@link HttpTransport.FileSink} in slices of
+ * {@link #TRANSFER_SLICE} bytes, so the transports wrapping a request body can act between
+ * slices without giving up zero-copy transfers.
+ */
+abstract class SlicingFileSink implements HttpTransport.FileSink {
+	static final long TRANSFER_SLICE = 4 * BufferPool.BUFFER_SIZE;
+
+	private final HttpTransport.FileSink sink;
+
+	SlicingFileSink(HttpTransport.FileSink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Called before each slice is handed on
+	 */
+	void beforeSlice() throws IOException {
+	}
+
+	/**
+	 * Called once a slice of <code>length</code> bytes was handed on
+	 */
+	void afterSlice(long length) {
+	}
+
+	/**
+	 * Called when handing a slice on failed, returns the exception to throw
+	 */
+	IOException sliceFailed(IOException e) {
+		return e;
+	}
+
+	@Override
+	public void transferFrom(FileChannel file, long position, long count) throws IOException {
+		while (count > 0) {
+			long slice = Math.min(count, TRANSFER_SLICE);
+			beforeSlice();
+			try {
+				sink.transferFrom(file, position, slice);
+			} catch (IOException e) {
+				throw sliceFailed(e);
+			}
+			afterSlice(slice);
+			position += slice;
+			count -= slice;
+		}
+	}
+
+	@Override
+	public void transferFrom(ByteBuffer buffer) throws IOException {
+		int limit = buffer.limit();
+		try {
+			while (buffer.hasRemaining()) {
+				buffer.limit((int) Math.min(limit, buffer.position() + TRANSFER_SLICE));
+				int slice = buffer.remaining();
+				beforeSlice();
+				try {
+					sink.transferFrom(buffer);
+				} catch (IOException e) {
+					throw sliceFailed(e);
+				}
+				afterSlice(slice);
+				buffer.limit(limit);
+			}
+		} finally {
+			buffer.limit(limit);
+		}
+	}
+}
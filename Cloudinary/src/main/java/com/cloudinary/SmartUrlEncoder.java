@@ -1,14 +1,59 @@
 package com.cloudinary;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-
+/**
+ * Encodes url paths as {@link java.net.URLEncoder} does in UTF-8, but leaving slashes and colons
+ * as they are and encoding spaces as %20, in one pass which returns paths needing no encoding
+ * as they are.
+ */
 public class SmartUrlEncoder {
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
 	public static String encode(String input)  {
-		try {
-			return URLEncoder.encode(input, "UTF-8").replace("%2F", "/").replace("%3A", ":").replace("+", "%20");
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(e);
-		}			
+		int length = input.length();
+		int i = 0;
+		while (i < length && isSafe(input.charAt(i))) {
+			i++;
+		}
+		if (i == length) {
+			return input;
+		}
+		StringBuilder out = new StringBuilder(length + 16);
+		out.append(input, 0, i);
+		for (; i < length; i++) {
+			char c = input.charAt(i);
+			if (isSafe(c)) {
+				out.append(c);
+			} else if (c == ' ') {
+				out.append("%20");
+			} else if (c < 0x80) {
+				escape(out, c);
+			} else if (c < 0x800) {
+				escape(out, 0xC0 | (c >> 6));
+				escape(out, 0x80 | (c & 0x3F));
+			} else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+				escape(out, 0xE0 | (c >> 12));
+				escape(out, 0x80 | ((c >> 6) & 0x3F));
+				escape(out, 0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(input.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, input.charAt(++i));
+				escape(out, 0xF0 | (codePoint >> 18));
+				escape(out, 0x80 | ((codePoint >> 12) & 0x3F));
+				escape(out, 0x80 | ((codePoint >> 6) & 0x3F));
+				escape(out, 0x80 | (codePoint & 0x3F));
+			} else {
+				// Unpaired surrogate, encoded as '?' as String#getBytes does
+				escape(out, '?');
+			}
+		}
+		return out.toString();
+	}
+
+	private static boolean isSafe(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '*' || c == '/'
+				|| c == ':';
+	}
+
+	private static void escape(StringBuilder out, int b) {
+		out.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
 	}
 }
@@ -0,0 +1,35 @@
+package com.cloudinary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+
+/**
+ * Result of a call adding, removing or replacing a tag
+ */
+public class TagsResult extends ApiResult {
+	private static final String[] NAMES = names("public_ids");
+	private static final int PUBLIC_IDS = 1;
+
+	TagsResult(Uploader.Response response, boolean returnError) {
+		super(response, NAMES, returnError);
+	}
+
+	/**
+	 * The public IDs of the resources the tag was changed on
+	 */
+	public List<String> getPublicIds() {
+		Object value = get(PUBLIC_IDS);
+		if (!(value instanceof JSONArray)) {
+			return Collections.emptyList();
+		}
+		JSONArray array = (JSONArray) value;
+		List<String> publicIds = new ArrayList<String>(array.length());
+		for (int i = 0; i < array.length(); i++) {
+			publicIds.add(array.optString(i));
+		}
+		return publicIds;
+	}
+}
@@ -0,0 +1,301 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounds the requests sent over another transport by a write timeout and by the deadline of
+ * their call.
+ *
+ * A write to the request body, or a slice of {@link SlicingFileSink#TRANSFER_SLICE} bytes for
+ * files and buffers sent through a {@link HttpTransport.FileSink}, which doesn't go through within
+ * the write timeout aborts the exchange and fails with a {@link SocketTimeoutException}. Reaching
+ * the deadline aborts the exchange wherever it stands, and the connect and read timeouts are
+ * shortened to the time left. A single daemon thread watches all exchanges.
+ */
+class TimeoutTransport implements HttpTransport {
+	private static final int WRITE_TIMED_OUT = 1;
+	private static final int DEADLINE_EXCEEDED = 2;
+
+	private static ScheduledThreadPoolExecutor watchdog;
+
+	private final HttpTransport delegate;
+	private final int writeTimeout;
+	private final long deadline;
+
+	/**
+	 * @param writeTimeout
+	 *            in milliseconds, 0 for no limit
+	 * @param deadline
+	 *            in {@link System#currentTimeMillis()} terms, 0 for none
+	 */
+	TimeoutTransport(HttpTransport delegate, int writeTimeout, long deadline) {
+		this.delegate = delegate;
+		this.writeTimeout = writeTimeout;
+		this.deadline = deadline;
+	}
+
+	private static synchronized ScheduledThreadPoolExecutor watchdog() {
+		if (watchdog == null) {
+			watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "cloudinary-timeouts");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return watchdog;
+	}
+
+	/**
+	 * Milliseconds left before the deadline, failing once it has passed
+	 */
+	static long remaining(long deadline) throws DeadlineExceededException {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0)
+			throw new DeadlineExceededException();
+		return remaining;
+	}
+
+	/**
+	 * The timeout, or the time left if shorter
+	 */
+	private static int bound(int timeout, long remaining) {
+		return timeout > 0 && timeout <= remaining ? timeout : (int) Math.min(remaining, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public Exchange open(String url, Map<String, String> headers, long contentLength, int connectTimeout, int readTimeout) throws IOException {
+		if (deadline != 0) {
+			long remaining = remaining(deadline);
+			connectTimeout = bound(connectTimeout, remaining);
+			readTimeout = bound(readTimeout, remaining);
+		}
+		return new TimeoutExchange(delegate.open(url, headers, contentLength, connectTimeout, readTimeout));
+	}
+
+	private class TimeoutExchange implements Exchange {
+		private final Exchange exchange;
+		private final ScheduledFuture<?> expiry;
+		private final AtomicBoolean watching = new AtomicBoolean();
+		private OutputStream outputStream;
+		// Start of the write in progress, 0 between writes
+		private volatile long writeStarted;
+		private volatile ScheduledFuture<?> writeCheck;
+		private volatile int fired;
+		private volatile boolean released;
+
+		private final Runnable checkWrite = new Runnable() {
+			@Override
+			public void run() {
+				if (released)
+					return;
+				long started = writeStarted;
+				if (started != 0) {
+					long left = started + writeTimeout - System.currentTimeMillis();
+					if (left <= 0) {
+						fire(WRITE_TIMED_OUT);
+					} else {
+						writeCheck = watchdog().schedule(this, left, TimeUnit.MILLISECONDS);
+					}
+					return;
+				}
+				// Idle until the next write starts watching again
+				watching.set(false);
+				if (writeStarted != 0 && watching.compareAndSet(false, true)) {
+					writeCheck = watchdog().schedule(this, writeTimeout, TimeUnit.MILLISECONDS);
+				}
+			}
+		};
+
+		TimeoutExchange(Exchange exchange) {
+			this.exchange = exchange;
+			if (deadline == 0) {
+				expiry = null;
+			} else {
+				expiry = watchdog().schedule(new Runnable() {
+					@Override
+					public void run() {
+						fire(DEADLINE_EXCEEDED);
+					}
+				}, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private void fire(int reason) {
+			if (!released) {
+				fired = reason;
+				exchange.abort();
+			}
+		}
+
+		void beginWrite() {
+			if (writeTimeout <= 0)
+				return;
+			writeStarted = System.currentTimeMillis();
+			if (watching.compareAndSet(false, true)) {
+				writeCheck = watchdog().schedule(checkWrite, writeTimeout, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		void endWrite() {
+			writeStarted = 0;
+		}
+
+		/**
+		 * The failure of a write, telling apart the aborts of the watchdog
+		 */
+		IOException writeFailure(IOException e) {
+			if (fired == DEADLINE_EXCEEDED && !(e instanceof DeadlineExceededException)) {
+				return new DeadlineExceededException(e);
+			} else if (fired == WRITE_TIMED_OUT && !(e instanceof SocketTimeoutException)) {
+				SocketTimeoutException timeout = new SocketTimeoutException("Write timed out");
+				timeout.initCause(e);
+				return timeout;
+			}
+			return e;
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			if (outputStream == null) {
+				OutputStream out = exchange.getOutputStream();
+				outputStream = out instanceof FileSink ? new WatchedFileSink(this, out) : new WatchedStream(this, out);
+			}
+			return outputStream;
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			return exchange.getResponseCode();
+		}
+
+		@Override
+		public InputStream getResponseStream() throws IOException {
+			return exchange.getResponseStream();
+		}
+
+		@Override
+		public void close() {
+			release();
+			exchange.close();
+		}
+
+		@Override
+		public void abort() {
+			release();
+			exchange.abort();
+		}
+
+		private void release() {
+			released = true;
+			cancel(expiry);
+			cancel(writeCheck);
+		}
+
+		private void cancel(ScheduledFuture<?> task) {
+			if (task != null && task.cancel(false)) {
+				// Not left in the queue until it would have run
+				watchdog().remove((Runnable) task);
+			}
+		}
+	}
+
+	private static class WatchedStream extends OutputStream {
+		final TimeoutExchange exchange;
+		final OutputStream out;
+
+		WatchedStream(TimeoutExchange exchange, OutputStream out) {
+			this.exchange = exchange;
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			exchange.beginWrite();
+			try {
+				out.write(buffer, offset, length);
+			} catch (IOException e) {
+				throw exchange.writeFailure(e);
+			} finally {
+				exchange.endWrite();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			exchange.beginWrite();
+			try {
+				out.flush();
+			} catch (IOException e) {
+				throw exchange.writeFailure(e);
+			} finally {
+				exchange.endWrite();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			exchange.beginWrite();
+			try {
+				out.close();
+			} catch (IOException e) {
+				throw exchange.writeFailure(e);
+			} finally {
+				exchange.endWrite();
+			}
+		}
+	}
+
+	private static class WatchedFileSink extends WatchedStream implements FileSink {
+		private final SlicingFileSink slices;
+
+		WatchedFileSink(final TimeoutExchange exchange, OutputStream out) {
+			super(exchange, out);
+			slices = new SlicingFileSink((FileSink) out) {
+				@Override
+				void beforeSlice() {
+					exchange.beginWrite();
+				}
+
+				@Override
+				void afterSlice(long length) {
+					exchange.endWrite();
+				}
+
+				@Override
+				IOException sliceFailed(IOException e) {
+					exchange.endWrite();
+					return exchange.writeFailure(e);
+				}
+			};
+		}
+
+		@Override
+		public void transferFrom(FileChannel file, long position, long count) throws IOException {
+			slices.transferFrom(file, position, count);
+		}
+
+		@Override
+		public void transferFrom(ByteBuffer buffer) throws IOException {
+			slices.transferFrom(buffer);
+		}
+	}
+}
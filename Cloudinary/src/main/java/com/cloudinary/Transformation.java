@@ -1,6 +1,8 @@
 package com.cloudinary;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,17 +13,29 @@ import android.text.TextUtils;
 
 @SuppressWarnings({"rawtypes","unchecked"})
 public class Transformation {
+	private static final String[] SIMPLE_PARAMS = new String[] {
+		"x", "x", "y", "y", "r", "radius", "d", "default_image", "g", "gravity", "cs", "color_space",
+		"p", "prefix", "l", "overlay", "u", "underlay", "f", "fetch_format", "dn", "density",
+		"pg", "page", "dl", "delay", "e", "effect", "bo", "border", "q", "quality"
+	};
+
 	protected Map transformation;
 	protected List<Map> transformations;
 	protected String htmlWidth;
 	protected String htmlHeight;	
+	// The output of a frozen transformation, null for others
+	private final Compiled compiled;
 
+	/**
+	 * A copy of the transformation, which may be changed even if the original is frozen
+	 */
 	public Transformation(Transformation transformation) {		
-		this(dup(transformation.transformations));
+		this(transformation, false);
 	}
 	
 	// Warning: options will destructively updated!
 	public Transformation(List<Map> transformations) {
+		this.compiled = null;
 		this.transformations = transformations;
 		if (transformations.isEmpty()) {
 			chain();
@@ -31,10 +45,34 @@ public class Transformation {
 	}
 	
 	public Transformation() {
+		this.compiled = null;
 		this.transformations = new ArrayList<Map>();
 		chain();
 	}
 
+	/**
+	 * A copy of <code>source</code>, frozen for {@link #freeze()} or changeable
+	 */
+	protected Transformation(Transformation source, boolean freeze) {
+		List<Map> steps = dup(source.steps());
+		if (freeze) {
+			Transformation scratch = new Transformation(steps);
+			this.compiled = new Compiled(scratch.generate(), scratch.htmlWidth, scratch.htmlHeight);
+			steps = (List<Map>) freeze(steps);
+		} else {
+			this.compiled = null;
+		}
+		this.transformations = steps;
+		this.transformation = steps.get(steps.size() - 1);
+	}
+
+	/**
+	 * A transformation bound from a template, without steps of its own until copied
+	 */
+	Transformation(TransformationTemplate template, String[] values, String generated) {
+		this.compiled = new Compiled(generated, template, values);
+	}
+
 	public Transformation width(Object value) { return param("width", value); }
 	public Transformation height(Object value) { return param("height", value); }
 	public Transformation named(String...value) { return param("transformation", value); }
@@ -66,6 +104,7 @@ public class Transformation {
 	
 	// Warning: options will destructively updated!
 	public Transformation params(Map transformation) {
+		checkNotFrozen();
 		this.transformation = transformation;
 		transformations.add(transformation);
 		return this;
@@ -76,11 +115,39 @@ public class Transformation {
 	}
 	
 	public Transformation param(String key, Object value) {
+		checkNotFrozen();
 		transformation.put(key, value);
 		return this;
 	}
 
+	/**
+	 * An immutable copy of this transformation, whose string and html dimensions are generated
+	 * once. It is safe to share between threads, e.g. as a constant:
+	 *
+	 * <pre>
+	 * static final Transformation THUMBNAIL = new Transformation().width(100).height(100).crop("fill").freeze();
+	 * </pre>
+	 *
+	 * Changing it throws an UnsupportedOperationException, a changeable copy is made with
+	 * {@link #Transformation(Transformation)}.
+	 */
+	public Transformation freeze() {
+		return isFrozen() ? this : new Transformation(this, true);
+	}
+
+	public boolean isFrozen() {
+		return compiled != null;
+	}
+
+	protected void checkNotFrozen() {
+		if (compiled != null)
+			throw new UnsupportedOperationException("Frozen transformations can't be changed, copy them first");
+	}
+
 	public String generate() {
+		if (compiled != null) {
+			return compiled.generated;
+		}
 		return generate(transformations);
 	}
 
@@ -108,10 +175,11 @@ public class Transformation {
 		String angle = TextUtils.join(".", Cloudinary.asArray(options.get("angle")));
 		
 		boolean no_html_sizes = has_layer || !TextUtils.isEmpty(angle) || "fit".equals(crop) || "limit".equals(crop);
-		if (width != null && (Float.parseFloat(width) < 1 || no_html_sizes)) {
+		// Template slots are sized once bound
+		if (width != null && (TransformationTemplate.isSlot(width) || Float.parseFloat(width) < 1 || no_html_sizes)) {
 			this.htmlWidth = null;
 		}
-		if (height != null && (Float.parseFloat(height) < 1 || no_html_sizes)) {
+		if (height != null && (TransformationTemplate.isSlot(height) || Float.parseFloat(height) < 1 || no_html_sizes)) {
 			this.htmlHeight = null;
 		}
 
@@ -164,11 +232,7 @@ public class Transformation {
 		params.put("co", color);
 		params.put("a", angle);
 		params.put("fl", flags);
-		String[] simple_params = new String[]{
-			"x", "x", "y", "y", "r", "radius", "d", "default_image", "g", "gravity", "cs", "color_space",
-			"p", "prefix", "l", "overlay", "u", "underlay", "f", "fetch_format", "dn", "density",
-			"pg", "page", "dl", "delay", "e", "effect", "bo", "border", "q", "quality"
-		};
+		String[] simple_params = SIMPLE_PARAMS;
 		for (int i = 0; i < simple_params.length; i+=2) {
 			params.put(simple_params[i], Cloudinary.asString(options.get(simple_params[i+1])));
 		}
@@ -189,18 +253,96 @@ public class Transformation {
 	}
 
 	public String getHtmlWidth() {
-		return htmlWidth;
+		return compiled != null ? compiled.htmlSize()[0] : htmlWidth;
 	}
 
 	public String getHtmlHeight() {
-		return htmlHeight;
+		return compiled != null ? compiled.htmlSize()[1] : htmlHeight;
 	}
 
+	private List<Map> steps() {
+		return compiled != null && compiled.template != null ? compiled.template.steps(compiled.values) : transformations;
+	}
+
+	/**
+	 * Copies the steps, along with the maps and lists within them
+	 */
 	private static List<Map> dup(List<Map> transformations) {
 		List<Map> result = new ArrayList<Map>(); 
 		for (Map params : transformations) {
-			result.add(new HashMap(params));
+			result.add((Map) dupValue(params));
 		}
 		return result;
 	}
+
+	private static Object dupValue(Object value) {
+		if (value instanceof Map) {
+			Map copy = new HashMap();
+			for (Map.Entry entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(entry.getKey(), dupValue(entry.getValue()));
+			}
+			return copy;
+		} else if (value instanceof List) {
+			List copy = new ArrayList();
+			for (Object item : (List) value) {
+				copy.add(dupValue(item));
+			}
+			return copy;
+		}
+		return value;
+	}
+
+	/**
+	 * Wraps copied maps and lists to be read only, arrays becoming lists
+	 */
+	private static Object freeze(Object value) {
+		if (value instanceof Map) {
+			Map map = (Map) value;
+			for (Map.Entry entry : ((Map<?, ?>) map).entrySet()) {
+				entry.setValue(freeze(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(map);
+		} else if (value instanceof List) {
+			List list = (List) value;
+			for (int i = 0; i < list.size(); i++) {
+				list.set(i, freeze(list.get(i)));
+			}
+			return Collections.unmodifiableList(list);
+		} else if (value instanceof Object[]) {
+			return freeze(new ArrayList(Arrays.asList((Object[]) value)));
+		}
+		return value;
+	}
+
+	private static final class Compiled {
+		final String generated;
+		// The template and slot values of a bound transformation, null for others
+		final TransformationTemplate template;
+		final String[] values;
+		// Width and height, generated on first use once bound
+		private volatile String[] htmlSize;
+
+		Compiled(String generated, String htmlWidth, String htmlHeight) {
+			this.generated = generated;
+			this.template = null;
+			this.values = null;
+			this.htmlSize = new String[] { htmlWidth, htmlHeight };
+		}
+
+		Compiled(String generated, TransformationTemplate template, String[] values) {
+			this.generated = generated;
+			this.template = template;
+			this.values = values;
+		}
+
+		String[] htmlSize() {
+			String[] size = htmlSize;
+			if (size == null) {
+				Transformation scratch = new Transformation(template.steps(values));
+				scratch.generate();
+				htmlSize = size = new String[] { scratch.htmlWidth, scratch.htmlHeight };
+			}
+			return size;
+		}
+	}
 }
@@ -0,0 +1,290 @@
+package com.cloudinary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.text.TextUtils;
+
+/**
+ * A transformation with named slots for the values which change from one use to the next, e.g.
+ * the width and height of the images of a feed. It is generated once into its literal text and
+ * the positions of its slots, so each use only joins the text with the values:
+ *
+ * <pre>
+ * static final TransformationTemplate THUMBNAIL = TransformationTemplate.compile(new Transformation()
+ *         .width(TransformationTemplate.slot("width")).height(TransformationTemplate.slot("height")).crop("fill"));
+ *
+ * cloudinary.url().transformation(THUMBNAIL.bind(Cloudinary.asMap("width", width, "height", height))).generate("sample.jpg");
+ * </pre>
+ *
+ * A slot stands for a whole value or a part of one, e.g.
+ * <code>rawTransformation("dpr_" + slot("dpr"))</code>. Values are given by slot name as they
+ * would be to the transformation, colors starting with # and lists of angles, flags or named
+ * transformations being written as the transformation writes them. They can't be empty, which
+ * would leave the parameter out, and slots can't be used in <code>size</code>, which is split
+ * into the width and height. Templates are immutable and safe to share between threads.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public final class TransformationTemplate {
+	// Delimits slot names within values and the generated text
+	private static final char MARK = '\u0000';
+	// Separates a slot name from the way its values are written for the parameter holding it
+	private static final char KIND = ':';
+	private static final char PLAIN = 0;
+	// At the start of a color, # being written rgb:
+	private static final char COLOR = 'c';
+	// The whole value or an item of a list joined with dots
+	private static final char LIST = 'l';
+
+	// Frozen, with the slot markers as values
+	private final Transformation transformation;
+	// Sorted slot names
+	private final String[] names;
+	// The slot markers found in the text, with the index of their name and their kind
+	private final String[] keys;
+	private final int[] keyNames;
+	private final char[] keyKinds;
+	// Literal text before, between and after the slots
+	private final String[] segments;
+	// For each slot, the index of its key
+	private final int[] slots;
+	private final int literalLength;
+
+	private TransformationTemplate(Transformation transformation) {
+		this.transformation = transformation;
+		String text = transformation.generate();
+		List<String> keys = new ArrayList<String>();
+		List<String> segments = new ArrayList<String>();
+		List<Integer> slots = new ArrayList<Integer>();
+		int start = 0;
+		for (int open = text.indexOf(MARK); open >= 0; open = text.indexOf(MARK, start)) {
+			int close = text.indexOf(MARK, open + 1);
+			if (close < 0)
+				throw new IllegalArgumentException("Malformed slot in transformation " + text);
+			segments.add(text.substring(start, open));
+			String key = text.substring(open + 1, close);
+			int index = keys.indexOf(key);
+			if (index < 0) {
+				index = keys.size();
+				keys.add(key);
+			}
+			slots.add(index);
+			start = close + 1;
+		}
+		segments.add(text.substring(start));
+
+		this.keys = keys.toArray(new String[keys.size()]);
+		this.keyNames = new int[this.keys.length];
+		this.keyKinds = new char[this.keys.length];
+		List<String> names = new ArrayList<String>();
+		for (String key : this.keys) {
+			String name = name(key);
+			if (!names.contains(name)) {
+				names.add(name);
+			}
+		}
+		this.names = names.toArray(new String[names.size()]);
+		Arrays.sort(this.names);
+		for (int i = 0; i < this.keys.length; i++) {
+			int kind = this.keys[i].indexOf(KIND);
+			this.keyNames[i] = Arrays.binarySearch(this.names, name(this.keys[i]));
+			this.keyKinds[i] = kind >= 0 ? this.keys[i].charAt(kind + 1) : PLAIN;
+		}
+		this.segments = segments.toArray(new String[segments.size()]);
+		this.slots = new int[slots.size()];
+		for (int i = 0; i < this.slots.length; i++) {
+			this.slots[i] = slots.get(i);
+		}
+		int literalLength = 0;
+		for (String segment : this.segments) {
+			literalLength += segment.length();
+		}
+		this.literalLength = literalLength;
+	}
+
+	/**
+	 * Generates the transformation once, its values made with {@link #slot(String)} being left
+	 * to bind
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a slot is used in <code>size</code>
+	 */
+	public static TransformationTemplate compile(Transformation transformation) {
+		Transformation copy = new Transformation(transformation);
+		for (Map step : copy.transformations) {
+			tag(step);
+		}
+		return new TransformationTemplate(copy.freeze());
+	}
+
+	/**
+	 * The value standing for the named slot in a transformation to compile
+	 *
+	 * @param name
+	 *            letters, digits and underscores
+	 */
+	public static String slot(String name) {
+		if (TextUtils.isEmpty(name))
+			throw new IllegalArgumentException("Slot names can't be empty");
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_'))
+				throw new IllegalArgumentException("Invalid slot name " + name);
+		}
+		return MARK + name + MARK;
+	}
+
+	static boolean isSlot(String value) {
+		return value.indexOf(MARK) >= 0;
+	}
+
+	/**
+	 * The names of the slots, sorted
+	 */
+	public List<String> getSlotNames() {
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	/**
+	 * The transformation string with the values of the slots by name
+	 */
+	public String generate(Map<String, ?> values) {
+		return join(strings(values));
+	}
+
+	/**
+	 * A frozen transformation with the values of the slots by name, generated as
+	 * {@link #generate(Map)} does, its steps and html dimensions being made only if needed
+	 */
+	public Transformation bind(Map<String, ?> values) {
+		String[] strings = strings(values);
+		return new Transformation(this, strings, join(strings));
+	}
+
+	/**
+	 * The value of each key, written for the parameter holding it
+	 */
+	private String[] strings(Map<String, ?> values) {
+		String[] strings = new String[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			String name = names[keyNames[i]];
+			String string = string(keyKinds[i], values.get(name));
+			if (TextUtils.isEmpty(string))
+				throw new IllegalArgumentException("Missing value for slot " + name);
+			strings[i] = string;
+		}
+		return strings;
+	}
+
+	/**
+	 * Writes a value as {@link Transformation#generate(Map)} does for its kind of slot
+	 */
+	private static String string(char kind, Object value) {
+		if (kind == LIST)
+			return TextUtils.join(".", Cloudinary.asArray(value));
+		String string = Cloudinary.asString(value);
+		if (kind == COLOR && string != null && string.startsWith("#"))
+			return "rgb:" + string.substring(1);
+		return string;
+	}
+
+	private String join(String[] values) {
+		int length = literalLength;
+		for (int slot : slots) {
+			length += values[slot].length();
+		}
+		StringBuilder text = new StringBuilder(length);
+		text.append(segments[0]);
+		for (int i = 0; i < slots.length; i++) {
+			text.append(values[slots[i]]).append(segments[i + 1]);
+		}
+		return text.toString();
+	}
+
+	private static String name(String key) {
+		int kind = key.indexOf(KIND);
+		return kind >= 0 ? key.substring(0, kind) : key;
+	}
+
+	/**
+	 * Marks the slots of parameters whose values are rewritten as generated with the way to
+	 * write their values, e.g. background and color values starting with #
+	 */
+	private static void tag(Map step) {
+		for (Map.Entry entry : ((Map<?, ?>) step).entrySet()) {
+			Object key = entry.getKey();
+			Object value = entry.getValue();
+			if ("size".equals(key)) {
+				if (value instanceof String && isSlot((String) value))
+					throw new IllegalArgumentException("Slots can't be used in size, use width and height instead");
+			} else if ("background".equals(key) || "color".equals(key)) {
+				if (value instanceof String) {
+					entry.setValue(tag((String) value, COLOR));
+				}
+			} else if (value != null && ("angle".equals(key) || "flags".equals(key) || "transformation".equals(key))) {
+				// A copy, arrays being shared with the caller
+				List items = new ArrayList(Cloudinary.asArray(value));
+				for (int i = 0; i < items.size(); i++) {
+					Object item = items.get(i);
+					if (item instanceof String) {
+						items.set(i, tag((String) item, LIST));
+					} else if (item instanceof Map) {
+						tag((Map) item);
+					}
+				}
+				entry.setValue(items);
+			}
+		}
+	}
+
+	/**
+	 * The value with its leading slot, or for lists only slot, tagged with the kind
+	 */
+	private static String tag(String value, char kind) {
+		int close = value.indexOf(MARK, 1);
+		if (value.length() == 0 || value.charAt(0) != MARK || close < 0 || (kind == LIST && close != value.length() - 1))
+			return value;
+		return value.substring(0, close) + KIND + kind + value.substring(close);
+	}
+
+	/**
+	 * Changeable copies of the template's steps with the values in the slots
+	 */
+	List<Map> steps(String[] values) {
+		return (List<Map>) substitute(transformation.transformations, values);
+	}
+
+	private Object substitute(Object value, String[] values) {
+		if (value instanceof Map) {
+			Map copy = new HashMap();
+			for (Map.Entry entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(entry.getKey(), substitute(entry.getValue(), values));
+			}
+			return copy;
+		} else if (value instanceof List) {
+			List copy = new ArrayList();
+			for (Object item : (List) value) {
+				copy.add(substitute(item, values));
+			}
+			return copy;
+		} else if (value instanceof String && isSlot((String) value)) {
+			// Values are written as generated, which writing them again leaves as they are
+			String text = (String) value;
+			StringBuilder result = new StringBuilder();
+			int start = 0;
+			for (int open = text.indexOf(MARK); open >= 0; open = text.indexOf(MARK, start)) {
+				int close = text.indexOf(MARK, open + 1);
+				int index = Arrays.asList(keys).indexOf(text.substring(open + 1, close));
+				// Slots of parameters left out of the string have no value
+				result.append(text, start, open).append(index >= 0 ? values[index] : "");
+				start = close + 1;
+			}
+			return result.append(text, start, text.length()).toString();
+		}
+		return value;
+	}
+}
@@ -0,0 +1,85 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The {@link Uploader}'s calls returning typed results instead of {@link org.json.JSONObject}s.
+ *
+ * Responses are read without being decoded, only the fields a result type offers are located,
+ * and each is decoded when first read. Calls which read a few fields of every result, e.g. the
+ * public ID and version of each upload, so skip building the complete response tree.
+ *
+ * Uploads go through the {@link UploadCache} as the Uploader's do, successful responses being
+ * decoded once to be cached.
+ */
+@SuppressWarnings("rawtypes")
+public class TypedUploader {
+	private final Uploader uploader;
+
+	public TypedUploader(Uploader uploader) {
+		this.uploader = uploader;
+	}
+
+	public UploadResult upload(Object file, Map options) throws IOException {
+		if (options == null) options = Collections.emptyMap();
+		return new UploadResult(uploader.executeUpload(file, uploader.buildUploadParams(options), options, true), returnError(options));
+	}
+
+	/**
+	 * @see Uploader#upload(Object, UploadParams, Map)
+	 */
+	public UploadResult upload(Object file, UploadParams params, Map options) throws IOException {
+		if (options == null) options = Collections.emptyMap();
+		return new UploadResult(uploader.executeUpload(file, params.toMap(), options, true), returnError(options));
+	}
+
+	public UploadResult unsignedUpload(Object file, String uploadPreset, Map options) throws IOException {
+		return upload(file, Uploader.unsignedOptions(uploadPreset, options));
+	}
+
+	/**
+	 * @see Uploader#uploadLarge(Object, Map)
+	 */
+	public UploadResult uploadLarge(Object file, Map options) throws IOException {
+		if (options == null) options = Collections.emptyMap();
+		return new UploadResult(uploader.uploadLarge(file, options, true), returnError(options));
+	}
+
+	public UploadResult explicit(String publicId, Map options) throws IOException {
+		if (options == null) options = Collections.emptyMap();
+		return new UploadResult(uploader.execute("explicit", uploader.buildExplicitParams(publicId, options), options, null, null, true), returnError(options));
+	}
+
+	public DestroyResult destroy(String publicId, Map options) throws IOException {
+		if (options == null) options = Collections.emptyMap();
+		return new DestroyResult(uploader.execute("destroy", uploader.buildDestroyParams(publicId, options), options, null, null, true), returnError(options));
+	}
+
+	// options may include 'exclusive' (boolean) which causes clearing this tag
+	// from all other resources
+	public TagsResult addTag(String tag, String[] publicIds, Map options) throws IOException {
+		if (options == null) options = Collections.emptyMap();
+		boolean exclusive = Cloudinary.asBoolean(options.get("exclusive"), false);
+		return callTagsApi(tag, exclusive ? "set_exclusive" : "add", publicIds, options);
+	}
+
+	public TagsResult removeTag(String tag, String[] publicIds, Map options) throws IOException {
+		return callTagsApi(tag, "remove", publicIds, options);
+	}
+
+	public TagsResult replaceTag(String tag, String[] publicIds, Map options) throws IOException {
+		return callTagsApi(tag, "replace", publicIds, options);
+	}
+
+	public TagsResult callTagsApi(String tag, String command, String[] publicIds, Map options) throws IOException {
+		if (options == null) options = Collections.emptyMap();
+		return new TagsResult(uploader.execute("tags", uploader.buildTagsParams(tag, command, publicIds, options), options, null, null, true),
+				returnError(options));
+	}
+
+	private static boolean returnError(Map options) {
+		return Cloudinary.asBoolean(options.get("return_error"), false);
+	}
+}
@@ -0,0 +1,392 @@
+package com.cloudinary;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers the results of uploads by a hash of their content and parameters, so uploading the
+ * same bytes again with the same parameters returns the earlier result without going to the
+ * network. Opt in with {@link Configuration.Builder#setUploadCache(UploadCache)}, or for a single
+ * call with the <code>upload_cache</code> option.
+ *
+ * Files, file ranges, channels and buffers are hashed before the upload, and concurrent uploads
+ * of the same content wait for the one in flight rather than sending it again. Streams and
+ * {@link UploadWriter}s are hashed as they are sent, so their result serves later uploads of
+ * the same content. Only successful results are kept, up to <code>maxEntries</code> of them,
+ * the least recently used being dropped first.
+ *
+ * A cached result is returned as long as it is kept, even once the resource it describes has
+ * changed. The uploader's destroy, rename and explicit calls through the same cache drop the
+ * results of their public IDs; changes made any other way, e.g. from a server or the console,
+ * call for {@link #evict(String)} or {@link #clear()}.
+ *
+ * The index is kept in a file, loaded on first use and appended to as results come in, so once
+ * reloaded the results are dropped in the order they came in. Failing to read or write it only
+ * costs the cached results, never the upload.
+ */
+public class UploadCache {
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private final File file;
+	private final int maxEntries;
+	private final LinkedHashMap<String, String> results = new LinkedHashMap<String, String>(16, 0.75f, true);
+	private final Map<String, Flight> flights = new HashMap<String, Flight>();
+	private boolean loaded;
+	// Lines in the index file, compacted once well above the entries they hold
+	private int lines;
+
+	/**
+	 * A cache of up to {@link #DEFAULT_MAX_ENTRIES} results
+	 */
+	public UploadCache(File file) {
+		this(file, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param file
+	 *            index of the results, e.g. in the app's files directory, created as needed
+	 */
+	public UploadCache(File file, int maxEntries) {
+		if (maxEntries <= 0)
+			throw new IllegalArgumentException("maxEntries must be positive");
+		this.file = file;
+		this.maxEntries = maxEntries;
+	}
+
+	public synchronized int size() {
+		load();
+		return results.size();
+	}
+
+	/**
+	 * Forgets all results, so the next uploads of any content are sent
+	 */
+	public synchronized void clear() {
+		results.clear();
+		loaded = true;
+		lines = 0;
+		file.delete();
+	}
+
+	/**
+	 * Forgets the results of uploads to the public ID, so uploading their content again is sent
+	 */
+	public synchronized void evict(String publicId) {
+		load();
+		// Results are kept as JSONObject.toString() writes them
+		String field = "\"public_id\":" + JSONObject.quote(publicId);
+		for (Iterator<Map.Entry<String, String>> iterator = results.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<String, String> result = iterator.next();
+			if (result.getValue().contains(field)) {
+				iterator.remove();
+				append(result.getKey(), "");
+			}
+		}
+	}
+
+	/**
+	 * The result cached for the key, a copy the caller may change, or null
+	 */
+	synchronized JSONObject get(String key) {
+		load();
+		String result = results.get(key);
+		return result != null ? parse(result) : null;
+	}
+
+	synchronized void put(String key, JSONObject result) {
+		load();
+		String json = result.toString();
+		results.put(key, json);
+		trim();
+		if (lines >= 2 * maxEntries) {
+			compact();
+		} else {
+			append(key, json);
+		}
+	}
+
+	/**
+	 * Registers the caller as uploading the content of the key, returning null, or returns the
+	 * upload of the same content already in flight
+	 */
+	synchronized Flight join(String key) {
+		Flight flight = flights.get(key);
+		if (flight != null)
+			return flight;
+		flights.put(key, new Flight());
+		return null;
+	}
+
+	/**
+	 * Ends the caller's upload of the content of the key, with the result to cache or null,
+	 * waking the uploads waiting for it, which look the key up again when given null
+	 */
+	void complete(String key, JSONObject result) {
+		Flight flight;
+		synchronized (this) {
+			if (result != null) {
+				put(key, result);
+			}
+			flight = flights.remove(key);
+		}
+		flight.finish(result != null ? result.toString() : null);
+	}
+
+	/**
+	 * The key of an upload to the api url with the params, skipping those which change from one
+	 * call to the next such as the signature
+	 */
+	static String key(String apiUrl, Map<String, Object> params, byte[] contentDigest) {
+		MessageDigest digest = sha256();
+		StringBuilder text = new StringBuilder(apiUrl);
+		for (Map.Entry<String, Object> param : new TreeMap<String, Object>(params).entrySet()) {
+			String name = param.getKey();
+			Object value = param.getValue();
+			if (value == null || name.equals("timestamp") || name.equals("signature") || name.equals("api_key"))
+				continue;
+			text.append('\n').append(name).append('=');
+			if (value instanceof Collection) {
+				for (Object item : (Collection<?>) value) {
+					text.append(Cloudinary.asString(item)).append(',');
+				}
+			} else {
+				text.append(Cloudinary.asString(value));
+			}
+		}
+		try {
+			digest.update(text.toString().getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		digest.update(contentDigest);
+		return RequestSigner.hex(digest.digest());
+	}
+
+	/**
+	 * The SHA-256 digest of a source's content, or null for sources which can only be hashed
+	 * while they are sent
+	 */
+	static byte[] contentDigest(Object source) throws IOException {
+		MessageDigest digest = sha256();
+		if (source instanceof File) {
+			FileInputStream input = new FileInputStream((File) source);
+			try {
+				FileChannel channel = input.getChannel();
+				update(digest, channel, 0, channel.size());
+			} finally {
+				input.close();
+			}
+		} else if (source instanceof FileRange) {
+			((FileRange) source).update(digest);
+		} else if (source instanceof FileChannel) {
+			FileRange.of((FileChannel) source).update(digest);
+		} else if (source instanceof ByteBuffer) {
+			digest.update(((ByteBuffer) source).duplicate());
+		} else {
+			return null;
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Digests a region of a file through a pooled heap buffer, leaving the channel's position as is
+	 */
+	static void update(MessageDigest digest, FileChannel channel, long position, long count) throws IOException {
+		ByteBuffer buffer = BufferPool.heap().acquire();
+		try {
+			while (count > 0) {
+				buffer.clear();
+				if (count < buffer.capacity()) {
+					buffer.limit((int) count);
+				}
+				int read = channel.read(buffer, position);
+				if (read < 0)
+					throw new EOFException("File shorter than the range to upload");
+				digest.update(buffer.array(), buffer.arrayOffset(), read);
+				position += read;
+				count -= read;
+			}
+		} finally {
+			BufferPool.heap().release(buffer);
+		}
+	}
+
+	static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Unexpected exception", e);
+		}
+	}
+
+	private static JSONObject parse(String json) {
+		try {
+			return new JSONObject(json);
+		} catch (JSONException e) {
+			throw new RuntimeException("Invalid JSON in upload cache " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Index file of "key\tresult" lines, later lines overriding earlier ones and empty results
+	 * dropping the key
+	 */
+
+	private void load() {
+		if (loaded)
+			return;
+		loaded = true;
+		if (!file.exists())
+			return;
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					lines++;
+					int tab = line.indexOf('\t');
+					if (tab == line.length() - 1) {
+						results.remove(line.substring(0, tab));
+					} else if (tab > 0) {
+						results.put(line.substring(0, tab), line.substring(tab + 1));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// Start over with what could be read
+		}
+		trim();
+	}
+
+	private void trim() {
+		Iterator<String> eldest = results.keySet().iterator();
+		while (results.size() > maxEntries) {
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	private void append(String key, String json) {
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+			try {
+				writeLine(writer, key, json);
+			} finally {
+				writer.close();
+			}
+			lines++;
+		} catch (IOException e) {
+			// Kept in memory only
+		}
+	}
+
+	/**
+	 * Rewrites the index with the current results only, replacing the file once complete
+	 */
+	private void compact() {
+		File compacted = new File(file.getPath() + ".tmp");
+		try {
+			OutputStream out = new FileOutputStream(compacted);
+			Writer writer = new OutputStreamWriter(out, "UTF-8");
+			try {
+				for (Map.Entry<String, String> result : results.entrySet()) {
+					writeLine(writer, result.getKey(), result.getValue());
+				}
+			} finally {
+				writer.close();
+			}
+			if (compacted.renameTo(file)) {
+				lines = results.size();
+			}
+		} catch (IOException e) {
+			compacted.delete();
+		}
+	}
+
+	private static void writeLine(Writer writer, String key, String json) throws IOException {
+		// JSONObject.toString escapes line breaks within strings
+		writer.write(key);
+		writer.write('\t');
+		writer.write(json);
+		writer.write('\n');
+	}
+
+	/**
+	 * An upload in flight, which other uploads of the same content wait for
+	 */
+	static class Flight {
+		private boolean done;
+		private String result;
+
+		synchronized void finish(String result) {
+			this.result = result;
+			done = true;
+			notifyAll();
+		}
+
+		/**
+		 * Waits for the upload to end, up to the deadline if any
+		 *
+		 * @return a copy of its successful result, or null if it failed
+		 */
+		JSONObject await(long deadline, CancellationToken cancellation) throws IOException {
+			Runnable wake = new Runnable() {
+				@Override
+				public void run() {
+					synchronized (Flight.this) {
+						Flight.this.notifyAll();
+					}
+				}
+			};
+			if (cancellation != null) {
+				cancellation.register(wake);
+			}
+			try {
+				synchronized (this) {
+					while (!done) {
+						if (cancellation != null) {
+							cancellation.throwIfCancelled();
+						}
+						long wait = deadline != 0 ? TimeoutTransport.remaining(deadline) : 0;
+						try {
+							wait(wait);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException("Interrupted waiting for an upload of the same content");
+						}
+					}
+					return result != null ? parse(result) : null;
+				}
+			} finally {
+				if (cancellation != null) {
+					cancellation.unregister(wake);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.cloudinary;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown by calls stopped through their {@link CancellationToken}
+ */
+public class UploadCancelledException extends InterruptedIOException {
+	private static final long serialVersionUID = 1L;
+
+	public UploadCancelledException() {
+		super("Call was cancelled");
+	}
+
+	public UploadCancelledException(Throwable cause) {
+		this();
+		initCause(cause);
+	}
+}
@@ -0,0 +1,288 @@
+package com.cloudinary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, precompiled upload parameters.
+ *
+ * The options given to the {@link Builder} are validated and turned into request parameters
+ * once by {@link Builder#build()}, generating the eager and transformation strings and joining
+ * the tags, headers and context, as {@link Uploader#buildUploadParams(Map)} does for every call.
+ * Uploads of many files with the same options share one instance, filling in only the public
+ * ID of each file with {@link #withPublicId(String)}:
+ *
+ * <pre>
+ * UploadParams params = new UploadParams.Builder().setFolder("products").setTags("catalog").build();
+ * for (File file : files) {
+ *     uploader.upload(file, params.withPublicId(idOf(file)), null);
+ * }
+ * </pre>
+ */
+@SuppressWarnings("rawtypes")
+public final class UploadParams {
+	private final Map<String, Object> params;
+	private final String publicId;
+
+	private UploadParams(Map<String, Object> params, String publicId) {
+		this.params = params;
+		this.publicId = publicId;
+	}
+
+	/**
+	 * Compiles raw upload options, as taken by {@link Uploader#upload(Object, Map)}
+	 */
+	public static UploadParams from(Map options) {
+		return new Builder().from(options).build();
+	}
+
+	/**
+	 * Same parameters, uploading to the given public ID
+	 */
+	public UploadParams withPublicId(String publicId) {
+		return new UploadParams(params, publicId);
+	}
+
+	public String getPublicId() {
+		return publicId;
+	}
+
+	/**
+	 * The request parameters, in a map of its own to which the signature may be added
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new HashMap<String, Object>((params.size() + 4) * 4 / 3 + 1);
+		map.putAll(params);
+		if (publicId != null) {
+			map.put("public_id", publicId);
+		}
+		return map;
+	}
+
+	/**
+	 * Build a new {@link UploadParams}
+	 */
+	public static class Builder {
+		private final Map<String, Object> options = new LinkedHashMap<String, Object>();
+
+		/**
+		 * Validates the options and compiles them into request parameters
+		 */
+		public UploadParams build() {
+			Map<String, Object> compiled = Uploader.uploadParams(options);
+			Map<String, Object> params = new HashMap<String, Object>();
+			for (Map.Entry<String, Object> param : compiled.entrySet()) {
+				Object value = param.getValue();
+				if (value != null && !"".equals(value)) {
+					params.put(param.getKey(), value);
+				}
+			}
+			String publicId = (String) params.remove("public_id");
+			return new UploadParams(Collections.unmodifiableMap(params), publicId);
+		}
+
+		/**
+		 * Initialize builder from raw upload options
+		 */
+		public Builder from(Map options) {
+			if (options != null) {
+				for (Object option : options.entrySet()) {
+					Map.Entry entry = (Map.Entry) option;
+					this.options.put(String.valueOf(entry.getKey()), entry.getValue());
+				}
+			}
+			return this;
+		}
+
+		public Builder setPublicId(String publicId) {
+			return set("public_id", publicId);
+		}
+
+		public Builder setFolder(String folder) {
+			return set("folder", folder);
+		}
+
+		public Builder setFormat(String format) {
+			return set("format", format);
+		}
+
+		/**
+		 * Delivery type, e.g. "upload", "private" or "authenticated"
+		 */
+		public Builder setType(String type) {
+			return set("type", type);
+		}
+
+		public Builder setUploadPreset(String uploadPreset) {
+			return set("upload_preset", uploadPreset);
+		}
+
+		public Builder setCallback(String callback) {
+			return set("callback", callback);
+		}
+
+		public Builder setNotificationUrl(String notificationUrl) {
+			return set("notification_url", notificationUrl);
+		}
+
+		public Builder setEagerNotificationUrl(String eagerNotificationUrl) {
+			return set("eager_notification_url", eagerNotificationUrl);
+		}
+
+		public Builder setProxy(String proxy) {
+			return set("proxy", proxy);
+		}
+
+		public Builder setModeration(String moderation) {
+			return set("moderation", moderation);
+		}
+
+		public Builder setAllowedFormats(String... allowedFormats) {
+			return set("allowed_formats", nonEmpty("allowed_formats", allowedFormats));
+		}
+
+		public Builder setTags(String... tags) {
+			return set("tags", nonEmpty("tags", tags));
+		}
+
+		/**
+		 * Incoming transformation, applied to the uploaded file before it is stored
+		 */
+		public Builder setTransformation(Transformation transformation) {
+			return set("transformation", transformation);
+		}
+
+		/**
+		 * Derived versions generated right away
+		 */
+		public Builder setEager(List<? extends Transformation> eager) {
+			if (eager == null) {
+				return set("eager", null);
+			}
+			for (Transformation transformation : eager) {
+				if (transformation == null)
+					throw new IllegalArgumentException("eager must not hold null transformations");
+			}
+			return set("eager", new ArrayList<Transformation>(eager));
+		}
+
+		/**
+		 * HTTP headers to send with the uploaded file when delivered
+		 */
+		public Builder setHeaders(Map<String, String> headers) {
+			return set("headers", headers == null ? null : new LinkedHashMap<String, String>(headers));
+		}
+
+		/**
+		 * Key-value pairs of contextual metadata
+		 */
+		public Builder setContext(Map<String, String> context) {
+			return set("context", context == null ? null : new LinkedHashMap<String, String>(context));
+		}
+
+		public Builder setFaceCoordinates(Coordinates faceCoordinates) {
+			return set("face_coordinates", faceCoordinates == null ? null : faceCoordinates.toString());
+		}
+
+		public Builder setOcr(String ocr) {
+			return set("ocr", ocr);
+		}
+
+		public Builder setRawConvert(String rawConvert) {
+			return set("raw_convert", rawConvert);
+		}
+
+		public Builder setCategorization(String categorization) {
+			return set("categorization", categorization);
+		}
+
+		public Builder setDetection(String detection) {
+			return set("detection", detection);
+		}
+
+		public Builder setSimilaritySearch(String similaritySearch) {
+			return set("similarity_search", similaritySearch);
+		}
+
+		/**
+		 * Minimal confidence, between 0 and 1, for tags assigned by the categorization add-ons
+		 */
+		public Builder setAutoTagging(float autoTagging) {
+			if (autoTagging < 0 || autoTagging > 1)
+				throw new IllegalArgumentException("auto_tagging must be between 0 and 1");
+			return set("auto_tagging", autoTagging);
+		}
+
+		public Builder setBackup(boolean backup) {
+			return set("backup", backup);
+		}
+
+		public Builder setExif(boolean exif) {
+			return set("exif", exif);
+		}
+
+		public Builder setFaces(boolean faces) {
+			return set("faces", faces);
+		}
+
+		public Builder setColors(boolean colors) {
+			return set("colors", colors);
+		}
+
+		public Builder setImageMetadata(boolean imageMetadata) {
+			return set("image_metadata", imageMetadata);
+		}
+
+		public Builder setUseFilename(boolean useFilename) {
+			return set("use_filename", useFilename);
+		}
+
+		public Builder setUniqueFilename(boolean uniqueFilename) {
+			return set("unique_filename", uniqueFilename);
+		}
+
+		public Builder setEagerAsync(boolean eagerAsync) {
+			return set("eager_async", eagerAsync);
+		}
+
+		public Builder setInvalidate(boolean invalidate) {
+			return set("invalidate", invalidate);
+		}
+
+		public Builder setDiscardOriginalFilename(boolean discardOriginalFilename) {
+			return set("discard_original_filename", discardOriginalFilename);
+		}
+
+		public Builder setOverwrite(boolean overwrite) {
+			return set("overwrite", overwrite);
+		}
+
+		public Builder setPhash(boolean phash) {
+			return set("phash", phash);
+		}
+
+		private Builder set(String name, Object value) {
+			if (value == null) {
+				options.remove(name);
+			} else {
+				options.put(name, value);
+			}
+			return this;
+		}
+
+		private static List<String> nonEmpty(String name, String[] values) {
+			if (values == null)
+				return null;
+			for (String value : values) {
+				if (value == null || value.length() == 0)
+					throw new IllegalArgumentException(name + " must not hold empty values");
+			}
+			return Arrays.asList(values.clone());
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.cloudinary;
+
+/**
+ * Result of an upload or explicit call
+ */
+public class UploadResult extends ApiResult {
+	private static final String[] NAMES = names("public_id", "version", "signature", "width", "height", "format", "resource_type",
+			"created_at", "bytes", "type", "etag", "url", "secure_url", "original_filename");
+	private static final int PUBLIC_ID = 1;
+	private static final int VERSION = 2;
+	private static final int SIGNATURE = 3;
+	private static final int WIDTH = 4;
+	private static final int HEIGHT = 5;
+	private static final int FORMAT = 6;
+	private static final int RESOURCE_TYPE = 7;
+	private static final int CREATED_AT = 8;
+	private static final int BYTES = 9;
+	private static final int TYPE = 10;
+	private static final int ETAG = 11;
+	private static final int URL = 12;
+	private static final int SECURE_URL = 13;
+	private static final int ORIGINAL_FILENAME = 14;
+
+	UploadResult(Uploader.Response response, boolean returnError) {
+		super(response, NAMES, returnError);
+	}
+
+	public String getPublicId() {
+		return getString(PUBLIC_ID);
+	}
+
+	public long getVersion() {
+		return getLong(VERSION);
+	}
+
+	public String getSignature() {
+		return getString(SIGNATURE);
+	}
+
+	public int getWidth() {
+		return (int) getLong(WIDTH);
+	}
+
+	public int getHeight() {
+		return (int) getLong(HEIGHT);
+	}
+
+	public String getFormat() {
+		return getString(FORMAT);
+	}
+
+	public String getResourceType() {
+		return getString(RESOURCE_TYPE);
+	}
+
+	public String getCreatedAt() {
+		return getString(CREATED_AT);
+	}
+
+	public long getBytes() {
+		return getLong(BYTES);
+	}
+
+	public String getType() {
+		return getString(TYPE);
+	}
+
+	public String getEtag() {
+		return getString(ETAG);
+	}
+
+	public String getUrl() {
+		return getString(URL);
+	}
+
+	public String getSecureUrl() {
+		return getString(SECURE_URL);
+	}
+
+	public String getOriginalFilename() {
+		return getString(ORIGINAL_FILENAME);
+	}
+}
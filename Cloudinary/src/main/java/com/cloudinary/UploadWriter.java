@@ -0,0 +1,29 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Upload source producing the file as it is sent, such as the output of an encoder, instead of
+ * writing it to a temporary file first:
+ *
+ * <pre>
+ * cloudinary.uploader().upload(new UploadWriter() {
+ *     public void writeTo(OutputStream out) throws IOException {
+ *         encoder.encode(frames, out);
+ *     }
+ * }, options);
+ * </pre>
+ *
+ * The bytes go straight into the request body, sent in chunked transfer mode, and writes block
+ * while the connection can't take more. The body is complete once {@link #writeTo(OutputStream)}
+ * returns; an exception thrown from it abandons the request. The file is produced once, so the
+ * call is not retried after writing started.
+ */
+public interface UploadWriter {
+	/**
+	 * Writes the file to the request, on the thread making the call. The stream must not be used
+	 * once this returns, closing it is not needed.
+	 */
+	void writeTo(OutputStream out) throws IOException;
+}
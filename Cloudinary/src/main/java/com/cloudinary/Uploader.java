@@ -2,9 +2,14 @@ package com.cloudinary;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -28,6 +33,10 @@ public class Uploader {
 	static final String[] BOOLEAN_UPLOAD_OPTIONS = new String[] {"backup", "exif", "faces", "colors", "image_metadata", "use_filename", "unique_filename", "eager_async", "invalidate", "discard_original_filename", "overwrite", "phash"};
 
 	public Map<String, Object> buildUploadParams(Map options) {
+		return uploadParams(options);
+	}
+
+	static Map<String, Object> uploadParams(Map options) {
         if (options == null) options = Collections.emptyMap();
 		Map<String, Object> params = new HashMap<String, Object>();
 		params.put("public_id", (String) options.get("public_id"));
@@ -47,7 +56,7 @@ public class Uploader {
 		params.put("moderation", options.get("moderation"));
 		params.put("upload_preset", (String) options.get("upload_preset"));
 		if (options.get("signature") == null) {
-			params.put("eager", buildEager((List<Transformation>) options.get("eager")));
+			params.put("eager", eager((List<Transformation>) options.get("eager")));
 			Object transformation = options.get("transformation");
 			if (transformation != null) {
 				if (transformation instanceof Transformation) {
@@ -77,24 +86,258 @@ public class Uploader {
 	public JSONObject upload(Object file, Map options) throws IOException {
         if (options == null) options = Collections.emptyMap();
 		Map<String, Object> params = buildUploadParams(options);
-		return callApi("upload", params, options, file);
+		return upload(file, params, options);
+	}
+
+	/**
+	 * Uploads with precompiled parameters, which may be shared by any number of uploads. The
+	 * options may hold call options such as <code>resource_type</code> or <code>return_error</code>,
+	 * upload parameters in them are ignored.
+	 */
+	public JSONObject upload(Object file, UploadParams params, Map options) throws IOException {
+        if (options == null) options = Collections.emptyMap();
+		return upload(file, params.toMap(), options);
+	}
+
+	private JSONObject upload(Object file, Map<String, Object> params, Map options) throws IOException {
+		return parseResponse(executeUpload(file, params, options, false), Cloudinary.asBoolean(options.get("return_error"), false));
+	}
+
+	/**
+	 * Uploads through the {@link UploadCache} of the options or configuration, if any. Content
+	 * which can be hashed beforehand is looked up in the cache, and waits for an upload of the
+	 * same content in flight rather than being sent along. Streamed content is hashed as it is
+	 * sent, for later uploads.
+	 *
+	 * @param raw
+	 *            whether to keep the JSON response undecoded, for an {@link ApiResult}
+	 */
+	Response executeUpload(Object file, Map<String, Object> params, Map options, boolean raw) throws IOException {
+		UploadCache cache = uploadCache(options);
+		Object source = resolveSource(file);
+		if (cache == null || source == null) {
+			return execute("upload", params, options, source, null, raw);
+		}
+		// Signing adds to the params
+		Map<String, Object> keyParams = new HashMap<String, Object>(params);
+		String apiUrl = cloudinary.cloudinaryApiUrl("upload", options);
+
+		if (source instanceof InputStream || source instanceof UploadWriter) {
+			MessageDigest digest = UploadCache.sha256();
+			Response response = execute("upload", params, options, digesting(source, digest), null, raw);
+			JSONObject result = successful(response);
+			if (result != null) {
+				cache.put(UploadCache.key(apiUrl, keyParams, digest.digest()), result);
+			}
+			return response;
+		}
+		byte[] contentDigest = UploadCache.contentDigest(source);
+		if (contentDigest == null) {
+			return execute("upload", params, options, source, null, raw);
+		}
+		String key = UploadCache.key(apiUrl, keyParams, contentDigest);
+		long deadline = deadline(options);
+		if (deadline != 0) {
+			// Waiting counts towards the deadline of the call
+			options = new HashMap(options);
+			options.put("deadline", deadline);
+		}
+		CancellationToken cancellation = (CancellationToken) options.get("cancellation_token");
+		while (true) {
+			JSONObject cached = cache.get(key);
+			if (cached != null) {
+				return cachedResponse(cached, raw);
+			}
+			UploadCache.Flight flight = cache.join(key);
+			if (flight == null) {
+				break;
+			}
+			// Waits for the upload in flight, taking over if it fails
+			JSONObject result = flight.await(deadline, cancellation);
+			if (result != null) {
+				return cachedResponse(result, raw);
+			}
+		}
+		JSONObject result = null;
+		try {
+			// Cached by an upload which completed since the lookup
+			JSONObject cached = cache.get(key);
+			if (cached != null) {
+				return cachedResponse(cached, raw);
+			}
+			Response response = execute("upload", params, options, source, null, raw);
+			result = successful(response);
+			return response;
+		} finally {
+			cache.complete(key, result);
+		}
+	}
+
+	private UploadCache uploadCache(Map options) {
+		UploadCache cache = (UploadCache) options.get("upload_cache");
+		return cache != null ? cache : cloudinary.config.uploadCache;
+	}
+
+	/**
+	 * Drops the cached uploads of the resources a destroy, rename or explicit call changes
+	 */
+	private void evictCached(String action, Map<String, Object> params, Map options) {
+		if (!action.equals("destroy") && !action.equals("rename") && !action.equals("explicit"))
+			return;
+		UploadCache cache = uploadCache(options);
+		if (cache == null)
+			return;
+		for (String name : new String[] { "public_id", "from_public_id", "to_public_id" }) {
+			Object publicId = params.get(name);
+			if (publicId instanceof String) {
+				cache.evict((String) publicId);
+			}
+		}
+	}
+
+	/**
+	 * The result of a successful upload to cache, decoding undecoded responses, or null
+	 */
+	private static JSONObject successful(Response response) {
+		if (response.code != 200) {
+			return null;
+		}
+		JSONObject result = response.result;
+		if (result == null && response.body != null) {
+			try {
+				result = JsonParser.parseObject(response.body, response.length);
+			} catch (JSONException e) {
+				return null;
+			}
+		}
+		return result != null && !result.has("error") ? result : null;
+	}
+
+	private static Response cachedResponse(JSONObject result, boolean raw) throws IOException {
+		if (!raw) {
+			return new Response(200, result, null);
+		}
+		byte[] body = result.toString().getBytes("UTF-8");
+		return new Response(200, body, body.length);
+	}
+
+	/**
+	 * The stream or writer, digesting the bytes it sends
+	 */
+	private static Object digesting(Object source, final MessageDigest digest) {
+		if (source instanceof InputStream) {
+			return new DigestInputStream((InputStream) source, digest);
+		}
+		final UploadWriter writer = (UploadWriter) source;
+		return new UploadWriter() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				writer.writeTo(new DigestOutputStream(out, digest));
+			}
+		};
+	}
+
+	public static final int DEFAULT_CHUNK_SIZE = 5 * 1024 * 1024;
+	static final int DEFAULT_CHUNK_RETRIES = 3;
+
+	/**
+	 * Uploads a File (or file path) or InputStream in chunks of <code>chunk_size</code> bytes
+	 * (default 5MB). Every chunk is sent as its own request carrying a Content-Range header and
+	 * the X-Unique-Upload-Id shared by the whole upload; the response of the last chunk is returned.
+	 * Empty sources, which have no byte range, are sent as a plain upload.
+	 *
+	 * A chunk failing with an IOException is resent up to <code>chunk_retries</code> times (default 3),
+	 * whatever is left of the retry policy's budget.
+	 * After that a {@link ChunkedUploadException} tells how far the upload got. Passing its
+	 * <code>unique_upload_id</code> and <code>offset</code> back in the options resumes the upload
+	 * from that offset. When resuming from an InputStream pass the stream from its beginning, the
+	 * acknowledged bytes are skipped.
+	 *
+	 * Setting <code>chunk_concurrency</code> above 1 sends that many chunks at once over separate
+	 * connections, holding one chunk_size buffer per connection. The last chunk is still sent
+	 * alone, after all earlier chunks were acknowledged.
+	 *
+	 * A <code>timeout</code> covers the whole upload, all chunks and their retries included. A
+	 * chunk cut short by it fails the upload with a resumable {@link ChunkedUploadException}.
+	 */
+	public JSONObject uploadLarge(Object file, Map options) throws IOException {
+		if (options == null) options = Collections.emptyMap();
+		return parseResponse(uploadLarge(file, options, false), Cloudinary.asBoolean(options.get("return_error"), false));
+	}
+
+	/**
+	 * Sends the chunks of {@link #uploadLarge(Object, Map)}
+	 *
+	 * @return the response to the last chunk
+	 */
+	Response uploadLarge(Object file, Map options, boolean raw) throws IOException {
+		int chunkSize = Cloudinary.asInteger(options.get("chunk_size"), DEFAULT_CHUNK_SIZE);
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunk_size must be positive");
+		int retries = Cloudinary.asInteger(options.get("chunk_retries"), DEFAULT_CHUNK_RETRIES);
+		int concurrency = Cloudinary.asInteger(options.get("chunk_concurrency"), 1);
+		if (concurrency <= 0)
+			throw new IllegalArgumentException("chunk_concurrency must be positive");
+		String uniqueUploadId = Cloudinary.asString(options.get("unique_upload_id"), cloudinary.randomPublicId());
+		long offset = Cloudinary.asLong(options.get("offset"), 0L);
+		long deadline = deadline(options);
+		if (deadline != 0) {
+			// All chunks share the deadline of the whole upload
+			options = new HashMap(options);
+			options.put("deadline", deadline);
+		}
+		Map<String, Object> params = buildUploadParams(options);
+		// All chunks carry the same signature
+		options = provideSignature(params, options);
+
+		if (file instanceof String) {
+			file = new File((String) file);
+		}
+		InputStream input;
+		String fileName = "file";
+		long total = -1;
+		if (file instanceof File) {
+			input = new FileInputStream((File) file);
+			fileName = ((File) file).getName();
+			total = ((File) file).length();
+		} else if (file instanceof InputStream) {
+			input = (InputStream) file;
+		} else {
+			throw new IllegalArgumentException("uploadLarge supports File and InputStream sources only");
+		}
+
+		try {
+			return new ChunkedUpload(this, uniqueUploadId, params, options, fileName, retries, concurrency, raw).upload(input, offset, total, chunkSize);
+		} finally {
+			if (file instanceof File) {
+				input.close();
+			}
+		}
 	}
 
 	public JSONObject unsignedUpload(Object file, String uploadPreset, Map options) throws IOException {        
+		return upload(file, unsignedOptions(uploadPreset, options));
+	}
+
+	static Map unsignedOptions(String uploadPreset, Map options) {
 		if (options == null) options = Collections.emptyMap();
 		options = new HashMap(options);
 		options.put("upload_preset", uploadPreset);
 		options.put("unsigned", true);
-		return upload(file, options);
+		return options;
 	}
 
 	public JSONObject destroy(String publicId, Map options) throws IOException {
         if (options == null) options = Collections.emptyMap();
+		return callApi("destroy", buildDestroyParams(publicId, options), options, null);
+	}
+
+	Map<String, Object> buildDestroyParams(String publicId, Map options) {
 		Map<String, Object> params = new HashMap<String, Object>();
 		params.put("type", (String) options.get("type"));
 		params.put("public_id", publicId);
 		params.put("invalidate", Cloudinary.asBoolean(options.get("invalidate"), false).toString());			
-		return callApi("destroy", params, options, null);
+		return params;
 	}
 
 	public JSONObject rename(String fromPublicId, String toPublicId, Map options) throws IOException {
@@ -109,6 +352,10 @@ public class Uploader {
 
 	public JSONObject explicit(String publicId, Map options) throws IOException {
         if (options == null) options = Collections.emptyMap();
+		return callApi("explicit", buildExplicitParams(publicId, options), options, null);
+	}
+
+	Map<String, Object> buildExplicitParams(String publicId, Map options) {
 		Map<String, Object> params = new HashMap<String, Object>();
 		params.put("public_id", publicId);
 		params.put("callback", (String) options.get("callback"));
@@ -116,7 +363,7 @@ public class Uploader {
 		params.put("eager", buildEager((List<Transformation>) options.get("eager")));
 		params.put("headers", Util.buildCustomHeaders(options.get("headers")));
 		params.put("tags", TextUtils.join(",", Cloudinary.asArray(options.get("tags"))));
-		return callApi("explicit", params, options, null);
+		return params;
 	}
 
 	public JSONObject generate_sprite(String tag, Map options) throws IOException {
@@ -196,12 +443,16 @@ public class Uploader {
 
 	public JSONObject callTagsApi(String tag, String command, String[] publicIds, Map options) throws IOException {
         if (options == null) options = Collections.emptyMap();
+		return callApi("tags", buildTagsParams(tag, command, publicIds, options), options, null);
+	}
+
+	Map<String, Object> buildTagsParams(String tag, String command, String[] publicIds, Map options) {
 		Map<String, Object> params = new HashMap<String, Object>();
 		params.put("tag", tag);
 		params.put("command", command);
 		params.put("type", (String) options.get("type"));
 		params.put("public_ids", Arrays.asList(publicIds));
-		return callApi("tags", params, options, null);
+		return params;
 	}
 
 	private final static String[] TEXT_PARAMS = { "public_id", "font_family", "font_size", "font_color", "text_align", "font_weight",
@@ -218,8 +469,182 @@ public class Uploader {
 	}
 
 	public JSONObject callApi(String action, Map<String, Object> params, Map options, Object file) throws IOException {
+		return callApi(action, params, options, file, null);
+	}
+
+	public JSONObject callApi(String action, Map<String, Object> params, Map options, Object file, Map<String, String> headers) throws IOException {
         if (options == null) options = Collections.emptyMap();
-		boolean returnError = Cloudinary.asBoolean(options.get("return_error"), false);
+		return parseResponse(execute(action, params, options, file, headers, false), Cloudinary.asBoolean(options.get("return_error"), false));
+	}
+
+	/**
+	 * Sends a call, retrying it as far as the retry policy allows.
+	 *
+	 * The <code>connect_timeout</code>, <code>read_timeout</code> and <code>write_timeout</code>
+	 * options override those of the configuration for a single call. A deadline, given in the
+	 * <code>deadline</code> option or <code>timeout</code> milliseconds from now, bounds signing,
+	 * every attempt and the waits between them, after which the call fails with a
+	 * {@link DeadlineExceededException}.
+	 *
+	 * @param raw
+	 *            whether to keep the JSON response undecoded, for an {@link ApiResult}
+	 */
+	Response execute(String action, Map<String, Object> params, Map options, Object file, Map<String, String> headers, boolean raw) throws IOException {
+		CancellationToken cancellation = (CancellationToken) options.get("cancellation_token");
+		if (cancellation != null) {
+			cancellation.throwIfCancelled();
+		}
+		long deadline = deadline(options);
+		if (deadline != 0) {
+			TimeoutTransport.remaining(deadline);
+		}
+		evictCached(action, params, options);
+		signRequest(params, options);
+		if (deadline != 0) {
+			// Signing may have waited on the signature provider
+			TimeoutTransport.remaining(deadline);
+		}
+
+		String apiUrl = cloudinary.cloudinaryApiUrl(action, options);
+		RetryPolicy retryPolicy = cloudinary.config.retryPolicy;
+		if (options.get("max_retries") != null) {
+			retryPolicy = retryPolicy.withMaxRetries(Cloudinary.asInteger(options.get("max_retries"), 0));
+		}
+		if (headers != null && headers.containsKey("X-Unique-Upload-Id")) {
+			// Chunks are bounded by chunk_retries alone, an exhausted budget would fail the whole upload
+			retryPolicy = retryPolicy.withoutBudget();
+		}
+		boolean idempotent = retryPolicy.isIdempotent(action, params, headers);
+		List<String[]> fields = formFields(params);
+		RequestBody body = RequestBody.of(resolveSource(file), idempotent && retryPolicy.getMaxRetries() > 0);
+		long maxResponseSize = Cloudinary.asLong(options.get("max_response_size"), cloudinary.config.maxResponseSize);
+		int connectTimeout = Cloudinary.asInteger(options.get("connect_timeout"), cloudinary.config.connectTimeout);
+		int readTimeout = Cloudinary.asInteger(options.get("read_timeout"), cloudinary.config.readTimeout);
+		int writeTimeout = Cloudinary.asInteger(options.get("write_timeout"), cloudinary.config.writeTimeout);
+		HttpTransport transport = cloudinary.config.httpTransport;
+		if (writeTimeout > 0 || deadline != 0) {
+			transport = new TimeoutTransport(transport, writeTimeout, deadline);
+		}
+		ProgressListener progressListener = (ProgressListener) options.get("progress_listener");
+		if (progressListener != null) {
+			long interval = Cloudinary.asLong(options.get("progress_interval"), ProgressListener.DEFAULT_INTERVAL_MILLIS);
+			transport = new ProgressTransport(transport, progressListener, interval);
+		}
+		if (cancellation != null) {
+			transport = new CancellableTransport(transport, cancellation);
+		}
+		retryPolicy.recordCall();
+		try {
+			for (int retry = 0;; retry++) {
+				try {
+					Response response = send(transport, apiUrl, fields, body, headers, connectTimeout, readTimeout, maxResponseSize, raw);
+					if (!retryPolicy.isRetryable(response.code, idempotent) || !body.isReplayable() || !retryPolicy.awaitRetry(retry, cancellation, deadline)) {
+						return response;
+					}
+				} catch (IOException e) {
+					if (cancellation != null && cancellation.isCancelled()) {
+						// Whatever failed once the connection was torn down
+						throw e instanceof UploadCancelledException ? e : new UploadCancelledException(e);
+					}
+					if (deadline != 0 && System.currentTimeMillis() >= deadline) {
+						// Whatever failed once the deadline tore the connection down or shortened the timeouts
+						throw e instanceof DeadlineExceededException ? e : new DeadlineExceededException(e);
+					}
+					if (!retryPolicy.isRetryable(e, idempotent) || !body.isReplayable() || !retryPolicy.awaitRetry(retry, cancellation, deadline)) {
+						throw e;
+					}
+				}
+			}
+		} finally {
+			body.release();
+		}
+	}
+
+	private Response send(HttpTransport transport, String apiUrl, List<String[]> fields, RequestBody body, Map<String, String> headers, int connectTimeout,
+			int readTimeout, long maxResponseSize, boolean raw) throws IOException {
+		String boundary = cloudinary.randomPublicId();
+		MultipartUtility multipart = new MultipartUtility(transport, apiUrl, "UTF-8", boundary, headers,
+				contentLength(boundary, fields, body), connectTimeout, readTimeout);
+		HttpTransport.Exchange exchange = null;
+		Response response = null;
+		try {
+			for (String[] field : fields) {
+				multipart.addFormField(field[0], field[1]);
+			}
+			body.writeTo(multipart);
+			exchange = multipart.finish();
+			int code = exchange.getResponseCode();
+			response = readResponse(code, exchange.getResponseStream(), maxResponseSize, raw);
+		} finally {
+			if (response != null) {
+				exchange.close();
+			} else {
+				multipart.abort();
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * The deadline of a call in {@link System#currentTimeMillis()} terms, from its
+	 * <code>deadline</code> or <code>timeout</code> option, 0 for none
+	 */
+	long deadline(Map options) {
+		long deadline = Cloudinary.asLong(options.get("deadline"), 0L);
+		if (deadline != 0) {
+			return deadline;
+		}
+		long timeout = Cloudinary.asLong(options.get("timeout"), cloudinary.config.callTimeout);
+		return timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+	}
+
+	/**
+	 * Length of the multipart body, or -1 if unknown so it must be sent in chunked mode
+	 */
+	private static long contentLength(String boundary, List<String[]> fields, RequestBody body) throws IOException {
+		long length = body.length(boundary, "UTF-8");
+		if (length < 0)
+			return -1;
+		for (String[] field : fields) {
+			length += MultipartEncoder.fieldLength(boundary, "UTF-8", field[0], field[1]);
+		}
+		return length + MultipartEncoder.closingLength(boundary);
+	}
+
+	/**
+	 * A response status with its parsed JSON, its undecoded JSON or, for statuses which don't
+	 * carry JSON, its text
+	 */
+	static class Response {
+		final int code;
+		final JSONObject result;
+		final byte[] body;
+		final int length;
+		final String data;
+
+		Response(int code, JSONObject result, String data) {
+			this(code, result, null, 0, data);
+		}
+
+		Response(int code, byte[] body, int length) {
+			this(code, null, body, length, null);
+		}
+
+		private Response(int code, JSONObject result, byte[] body, int length, String data) {
+			this.code = code;
+			this.result = result;
+			this.body = body;
+			this.length = length;
+			this.data = data;
+		}
+	}
+
+
+	/**
+	 * Adds the timestamp, signature and api_key to the request params, unless the upload is unsigned
+	 */
+	void signRequest(Map<String, Object> params, Map options) throws IOException {
+		options = provideSignature(params, options);
 		String apiKey = Cloudinary.asString(options.get("api_key"), this.cloudinary.config.apiKey);
 		boolean unsigned = Boolean.TRUE.equals(options.get("unsigned"));
 		if (!unsigned && apiKey == null)
@@ -239,61 +664,136 @@ public class Uploader {
 			params.put("signature", this.cloudinary.apiSignRequest(params, apiSecret));
 			params.put("api_key", apiKey);
 	    }
+	}
 
-		String apiUrl = cloudinary.cloudinaryApiUrl(action, options);
-		MultipartUtility multipart = new MultipartUtility(apiUrl, "UTF-8", cloudinary.randomPublicId());
+	/**
+	 * The options with a signature from the signature provider, when the call is not unsigned,
+	 * not given a signature and lacks the api_secret to sign it. The parameters signed along
+	 * with it are added to the params.
+	 */
+	Map provideSignature(Map<String, Object> params, Map options) throws IOException {
+		SignatureProvider provider = (SignatureProvider) options.get("signature_provider");
+		if (provider == null) {
+			provider = cloudinary.config.signatureProvider;
+		}
+		if (provider == null || Boolean.TRUE.equals(options.get("unsigned")) || (options.containsKey("signature") && options.containsKey("timestamp"))
+				|| Cloudinary.asString(options.get("api_secret"), cloudinary.config.apiSecret) != null) {
+			return options;
+		}
+		List<Map<String, Object>> signatures = provider.fetchSignatures(1);
+		if (signatures == null || signatures.isEmpty())
+			throw new IOException("Signature provider returned no signatures");
+		Map<String, Object> signed = signatures.get(0);
+		if (signed.get("signature") == null || signed.get("timestamp") == null)
+			throw new IllegalArgumentException("Signature provider must supply a signature and timestamp");
+		Map<String, Object> signedOptions = new HashMap<String, Object>(options);
+		for (Map.Entry<String, Object> param : signed.entrySet()) {
+			String name = param.getKey();
+			if (name.equals("signature") || name.equals("timestamp") || name.equals("api_key")) {
+				signedOptions.put(name, Cloudinary.asString(param.getValue()));
+			} else {
+				params.put(name, param.getValue());
+			}
+		}
+		return signedOptions;
+	}
 
-		// Remove blank parameters
+	/**
+	 * The name/value pairs to send for the params, skipping blank ones and expanding collections
+	 */
+	static List<String[]> formFields(Map<String, Object> params) {
+		List<String[]> fields = new ArrayList<String[]>(params.size());
 		for (Map.Entry<String, Object> param : params.entrySet()) {
 			if (param.getValue() instanceof String || param.getValue() instanceof Integer) { 
 				String value = Cloudinary.asString(param.getValue());
 				if (!TextUtils.isEmpty(value)) {
-					multipart.addFormField(param.getKey(), value);
+					fields.add(new String[] { param.getKey(), value });
 				}
 			} else if (param.getValue() instanceof Collection) {
 				for (Object value : (Collection) param.getValue()) {
-					multipart.addFormField(param.getKey()+"[]", Cloudinary.asString(value));					
+					fields.add(new String[] { param.getKey() + "[]", Cloudinary.asString(value) });
 				}
 			}
 		}
+		return fields;
+	}
 
-		if (file instanceof String && !((String) file).matches("https?:.*|s3:.*|data:[^;]*;base64,([a-zA-Z0-9/+\n=]+)")) {
-			file = new File((String) file);
+	/**
+	 * Strings which aren't remote urls or data uris are local file paths
+	 */
+	static Object resolveSource(Object file) {
+		if (file instanceof String && !isRemote((String) file)) {
+			return new File((String) file);
 		}
-		if (file instanceof File) {
-			multipart.addFilePart("file", (File) file);
-		} else if (file instanceof String) {
-			multipart.addFormField("file", (String) file);
-		} else if (file instanceof InputStream) {
-			multipart.addFilePart("file", (InputStream) file);
+		return file;
+	}
+
+	/**
+	 * Whether the source is a remote url or a base64 data uri, looking at its scheme and the data
+	 * uri header only, whatever the length of the payload
+	 */
+	static boolean isRemote(String source) {
+		if (source.startsWith("http:") || source.startsWith("https:") || source.startsWith("s3:"))
+			return true;
+		int payload = DataUri.payloadStart(source);
+		return payload > 0 && payload < source.length();
+	}
+
+	/**
+	 * Reads a response body of at most <code>maxResponseSize</code> bytes, parsing it straight
+	 * from the stream if the status carries JSON, or keeping its bytes for raw responses
+	 */
+	static Response readResponse(int code, InputStream in, long maxResponseSize, boolean raw) throws IOException {
+		if (code != 200 && code != 400 && code != 500) {
+			return new Response(code, null, readFully(in, maxResponseSize));
 		}
-		HttpURLConnection connection = multipart.execute();
-		int code; 
-		try {
-			code = connection.getResponseCode();
-		} catch (IOException e) {
-			if (e.getMessage().equals("No authentication challenges found")) {
-				// Android trying to be clever...
-				code = 401;
-			} else {
-				throw e;
+		if (raw) {
+			byte[] body = new byte[4096];
+			int length = 0;
+			int read;
+			while ((read = in.read(body, length, body.length - length)) != -1) {
+				length += read;
+				if (length > maxResponseSize)
+					throw new ProtocolException("Response exceeds the maximum size of " + maxResponseSize + " bytes");
+				if (length == body.length) {
+					body = Arrays.copyOf(body, body.length * 2);
+				}
 			}
+			return new Response(code, body, length);
 		}
-		InputStream responseStream = code >= 400 ? connection.getErrorStream() : connection.getInputStream(); 
-		String responseData = readFully(responseStream);
-		connection.disconnect();
+		try {
+			return new Response(code, JsonParser.parseObject(in, maxResponseSize), null);
+		} catch (JSONException e) {
+			throw new RuntimeException("Invalid JSON response from server " + e.getMessage());
+		}
+	}
 
+	/**
+	 * Decodes a response whose body is already held in <code>data</code> between
+	 * <code>offset</code> and <code>end</code>, parsing it in place
+	 */
+	static Response readResponse(int code, byte[] data, int offset, int end) throws IOException {
 		if (code != 200 && code != 400 && code != 500) {
-			throw new RuntimeException("Server returned unexpected status code - " + code + " - " + responseData);
+			return new Response(code, null, new String(data, offset, end - offset, "UTF-8"));
+		}
+		try {
+			return new Response(code, JsonParser.parseObject(data, offset, end), null);
+		} catch (JSONException e) {
+			throw new RuntimeException("Invalid JSON response from server " + e.getMessage());
+		}
+	}
+
+	static JSONObject parseResponse(Response response, boolean returnError) {
+		if (response.result == null) {
+			throw new RuntimeException("Server returned unexpected status code - " + response.code + " - " + response.data);
 		}
 
-		JSONObject result;
+		JSONObject result = response.result;
 		try {
-			result = new JSONObject(responseData);
 			if (result.has("error")) {
 				JSONObject error = result.getJSONObject("error");
 				if (returnError) {
-					error.put("http_code", code);
+					error.put("http_code", response.code);
 				} else {
 					throw new RuntimeException(error.getString("message"));
 				}
@@ -303,18 +803,31 @@ public class Uploader {
 			throw new RuntimeException("Invalid JSON response from server " + e.getMessage());
 		}
 	}
-	
+
 	protected static String readFully(InputStream in) throws IOException {
+		return readFully(in, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads a UTF-8 text of at most <code>maxBytes</code> bytes
+	 */
+	static String readFully(InputStream in, long maxBytes) throws IOException {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		byte[] buffer = new byte[1024];
 		int length = 0;
 		while ((length = in.read(buffer)) != -1) {
 			baos.write(buffer, 0, length);
+			if (baos.size() > maxBytes)
+				throw new ProtocolException("Response exceeds the maximum size of " + maxBytes + " bytes");
 		}
-		return new String(baos.toByteArray());
+		return baos.toString("UTF-8");
 	}
 
 	protected String buildEager(List<? extends Transformation> transformations) {
+		return eager(transformations);
+	}
+
+	static String eager(List<? extends Transformation> transformations) {
 		if (transformations == null) {
 			return null;
 		}
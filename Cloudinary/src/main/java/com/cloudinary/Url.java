@@ -2,10 +2,7 @@ package com.cloudinary;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
-import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
@@ -16,7 +13,11 @@ import android.text.TextUtils;
 import android.util.Base64;
 
 public class Url {
-	private final Configuration.Builder configBuilder;
+	private Configuration config;
+	// Copy of the configuration for settings of this url, made on the first one
+	private Configuration.Builder configBuilder;
+	// Start of the url for the configuration, one per cdn subdomain when they are used
+	private String[] prefixes;
 
 	String publicId = null;
 	String type = "upload";
@@ -27,7 +28,7 @@ public class Url {
 	boolean signUrl;
 
 	public Url(Cloudinary cloudinary) {
-		this.configBuilder = new Configuration.Builder().from(cloudinary.config);
+		this.config = cloudinary.config;
 	}
 
 	private static final Pattern IDENTIFIER_PATTERN = Pattern.compile(
@@ -98,17 +99,17 @@ public class Url {
 	}
 
 	public Url cloudName(String cloudName) {
-		this.configBuilder.setCloudName(cloudName);
+		configBuilder().setCloudName(cloudName);
 		return this;
 	}
 
 	public Url secureDistribution(String secureDistribution) {
-		this.configBuilder.setSecureDistribution(secureDistribution);
+		configBuilder().setSecureDistribution(secureDistribution);
 		return this;
 	}
 
 	public Url cname(String cname) {
-		this.configBuilder.setCname(cname);
+		configBuilder().setCname(cname);
 		return this;
 	}
 
@@ -123,22 +124,22 @@ public class Url {
 	}
 
 	public Url secure(boolean secure) {
-		this.configBuilder.setSecure(secure);
+		configBuilder().setSecure(secure);
 		return this;
 	}
 
 	public Url privateCdn(boolean privateCdn) {
-		this.configBuilder.setPrivateCdn(privateCdn);
+		configBuilder().setPrivateCdn(privateCdn);
 		return this;
 	}
 
 	public Url cdnSubdomain(boolean cdnSubdomain) {
-		this.configBuilder.setCdnSubdomain(cdnSubdomain);
+		configBuilder().setCdnSubdomain(cdnSubdomain);
 		return this;
 	}
 
 	public Url shorten(boolean shorten) {
-		this.configBuilder.setShorten(shorten);
+		configBuilder().setShorten(shorten);
 		return this;
 	}
 
@@ -157,9 +158,15 @@ public class Url {
 		return generate(null);
 	}
 
+	/**
+	 * Assembles the url in a single pass, collapsing runs of slashes as they are appended
+	 */
 	public String generate(String source) {
-        Configuration config = this.configBuilder.build();
+		Configuration config = config();
 		if (type.equals("fetch") && !TextUtils.isEmpty(format)) {
+			if (transformation().isFrozen()) {
+				transformation = new Transformation(transformation);
+			}
 			transformation().fetchFormat(format);
 			this.format = null;
 		}
@@ -174,69 +181,215 @@ public class Url {
 			}
 			source = publicId;
 		}
-		String original_source = source;
+		if (prefixes == null) {
+			prefixes = prefixes(config);
+		}
+		return generate(config, prefixes, config.shorten, source, type, resourceType, format, version, transformationStr, signUrl);
+	}
 
-		if (source.toLowerCase(Locale.US).matches("^https?:/.*")) {
+	/**
+	 * Assembles the url of the source from settings which are left as they are, shared with
+	 * {@link UrlFactory}
+	 *
+	 * @param prefixes
+	 *            of the configuration, see {@link #prefixes(Configuration)}
+	 */
+	static String generate(Configuration config, String[] prefixes, boolean shorten, String source, String type, String resourceType,
+			String format, String version, String transformationStr, boolean signUrl) {
+		if (isHttp(source, true) && !hasLineTerminator(source)) {
 			if ("upload".equals(type) || "asset".equals(type)) {
-				return original_source;
+				return source;
 			}
 			source = SmartUrlEncoder.encode(source);
 		} else {
-			try {
-				source = SmartUrlEncoder.encode(URLDecoder.decode(source.replace("+", "%2B"), "UTF-8"));
-			} catch (UnsupportedEncodingException e) {
-				throw new RuntimeException(e);
-			}
+			source = SmartUrlEncoder.encode(decode(source));
 			if (format != null) source = source + "." + format;
 		}
-		String prefix;
+
+		if (shorten && resourceType.equals("image") && type.equals("upload")) {
+			resourceType = "iu";
+			type = "";
+		}
+
+		if (TextUtils.isEmpty(version) && source.indexOf('/') >= 0 && !startsWithVersion(source) && !isHttp(source, false)) {
+			version = "1";
+		}
+
+		StringBuilder url = new StringBuilder(128);
+		url.append(prefix(prefixes, source));
+		append(url, resourceType, -1);
+		appendSlash(url, -1);
+		append(url, type, -1);
+		appendSlash(url, -1);
+		// The path is signed as collapsed, without its leading slashes
+		int path = url.length();
+		append(url, transformationStr, path);
+		appendSlash(url, path);
+		if (version != null) {
+			url.append('v');
+			append(url, version, path);
+		}
+		appendSlash(url, path);
+		append(url, source, path);
+
+		if (signUrl) {
+			byte[] digest = RequestSigner.digest(url.substring(path), config.apiSecret);
+			String signature = Base64.encodeToString(digest, Base64.NO_PADDING | Base64.URL_SAFE);
+			url.insert(path, "--/").insert(path, signature, 0, 8).insert(path, "s--");
+		}
+		return url.toString();
+	}
+
+	private Configuration config() {
+		if (config == null) {
+			config = configBuilder.build();
+		}
+		return config;
+	}
+
+	private Configuration.Builder configBuilder() {
+		if (configBuilder == null) {
+			configBuilder = new Configuration.Builder().from(config);
+		}
+		config = null;
+		prefixes = null;
+		return configBuilder;
+	}
+
+	/**
+	 * The scheme, host and shared domain cloud name followed by a slash
+	 */
+	private static String prefix(String[] prefixes, String source) {
+		if (prefixes.length == 1) {
+			return prefixes[0];
+		}
+		CRC32 crc32 = new CRC32();
+		crc32.update(source.getBytes());
+		return prefixes[(int) (crc32.getValue() % prefixes.length)];
+	}
+
+	static String[] prefixes(Configuration config) {
+		String[] hosts;
 		boolean sharedDomain = !config.privateCdn;
 		if (config.secure) {
-            String secureDist = config.secureDistribution;
+			String secureDist = config.secureDistribution;
 			if (TextUtils.isEmpty(secureDist) || Cloudinary.OLD_AKAMAI_SHARED_CDN.equals(secureDist)) {
 				secureDist = config.privateCdn ? config.cloudName + "-res.cloudinary.com" : Cloudinary.SHARED_CDN;
 			}
-			sharedDomain = sharedDomain || Cloudinary.SHARED_CDN.equals(secureDist) ;
-			prefix = "https://" + secureDist;
+			sharedDomain = sharedDomain || Cloudinary.SHARED_CDN.equals(secureDist);
+			hosts = new String[] { "https://" + secureDist };
 		} else {
-			CRC32 crc32 = new CRC32();
-			crc32.update(source.getBytes());
-			String subdomain = config.cdnSubdomain ? "a" + ((crc32.getValue() % 5 + 5) % 5 + 1) + "." : "";
 			String host = config.cname != null ? config.cname : (config.privateCdn ? config.cloudName + "-" : "") + "res.cloudinary.com";
-			prefix = "http://" + subdomain + host;
+			if (config.cdnSubdomain) {
+				hosts = new String[5];
+				for (int i = 0; i < hosts.length; i++) {
+					hosts[i] = "http://a" + (i + 1) + "." + host;
+				}
+			} else {
+				hosts = new String[] { "http://" + host };
+			}
 		}
-		if (sharedDomain) prefix = prefix + "/" + config.cloudName; 
+		String[] prefixes = new String[hosts.length];
+		for (int i = 0; i < hosts.length; i++) {
+			StringBuilder prefix = new StringBuilder();
+			append(prefix, hosts[i], -1);
+			if (sharedDomain) {
+				appendSlash(prefix, -1);
+				append(prefix, config.cloudName, -1);
+			}
+			appendSlash(prefix, -1);
+			prefixes[i] = prefix.toString();
+		}
+		return prefixes;
+	}
 
-		if (config.shorten && resourceType.equals("image") && type.equals("upload")) {
-			resourceType = "iu";
-			type = "";
+	/**
+	 * Appends the text, dropping slashes which would make a run of more than one, or of more
+	 * than two at the start or after a colon, and those leading the path starting at
+	 * <code>path</code>
+	 */
+	private static void append(StringBuilder url, String text, int path) {
+		if (text == null) {
+			text = "null";
+		}
+		for (int i = 0, n = text.length(); i < n; i++) {
+			char c = text.charAt(i);
+			if (c != '/') {
+				url.append(c);
+			} else {
+				appendSlash(url, path);
+			}
 		}
+	}
 
-		if (source.contains("/") && !source.matches("v[0-9]+.*") && !source.matches("https?:/.*") && TextUtils.isEmpty(version)) {
-			version = "1";
+	private static void appendSlash(StringBuilder url, int path) {
+		int end = url.length();
+		if (end == path) {
+			return;
+		}
+		int slashes = 0;
+		while (slashes < end && url.charAt(end - 1 - slashes) == '/') {
+			slashes++;
+		}
+		if (slashes == 0 || (slashes == 1 && (slashes == end || url.charAt(end - 2) == ':'))) {
+			url.append('/');
+		}
+	}
+
+	/**
+	 * Whether the text starts with http:/ or https:/
+	 */
+	private static boolean isHttp(String text, boolean ignoreCase) {
+		int length = text.length();
+		if (length < 6 || !startsWith(text, 0, "http", ignoreCase))
+			return false;
+		int colon = startsWith(text, 4, "s", ignoreCase) ? 5 : 4;
+		return colon + 1 < length && text.charAt(colon) == ':' && text.charAt(colon + 1) == '/';
+	}
+
+	/**
+	 * Compares ASCII letters only, as lower casing in Locale.US does for these
+	 */
+	private static boolean startsWith(String text, int offset, String lowerCase, boolean ignoreCase) {
+		for (int i = 0; i < lowerCase.length(); i++) {
+			char c = text.charAt(offset + i);
+			if (ignoreCase && c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			if (c != lowerCase.charAt(i))
+				return false;
 		}
+		return true;
+	}
 
-		if (version == null)
-			version = "";
-		else
-			version = "v" + version;
+	/**
+	 * Whether the text holds a character "." doesn't match in a regular expression
+	 */
+	private static boolean hasLineTerminator(String text) {
+		for (int i = 0, n = text.length(); i < n; i++) {
+			char c = text.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+				return true;
+		}
+		return false;
+	}
 
-		String rest = TextUtils.join("/", new String[] {transformationStr, version, source });
-		rest = rest.replaceAll("^/+", "").replaceAll("([^:])\\/+", "$1/");
-		
-		if (signUrl) {
-			MessageDigest md = null;
-	        try {
-	            md = MessageDigest.getInstance("SHA-1");
-	        } catch(NoSuchAlgorithmException e) {
-	            throw new RuntimeException("Unexpected exception", e);
-	        }
-	        byte[] digest = md.digest((rest + config.apiSecret).getBytes());
-	        String signature = Base64.encodeToString(digest, Base64.NO_PADDING | Base64.URL_SAFE);
-			rest = "s--" + signature.substring(0, 8) + "--/" + rest;
+	private static boolean startsWithVersion(String source) {
+		return source.length() > 1 && source.charAt(0) == 'v' && source.charAt(1) >= '0' && source.charAt(1) <= '9';
+	}
+
+	/**
+	 * Decodes the source, which only has to be done if it holds escapes
+	 */
+	private static String decode(String source) {
+		if (source.indexOf('%') < 0) {
+			return source;
+		}
+		try {
+			return URLDecoder.decode(source.replace("+", "%2B"), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
 		}
-		
-		return TextUtils.join("/", new String[] { prefix, resourceType, type, rest }).replaceAll("([^:])\\/+", "$1/");
 	}
 	
 	public String imageTag(String source) { return imageTag(source, Collections.<String, String>emptyMap()); }
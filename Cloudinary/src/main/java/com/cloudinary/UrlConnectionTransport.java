@@ -0,0 +1,90 @@
+package com.cloudinary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link HttpTransport} using {@link HttpURLConnection}, which honours the system proxy settings
+ * and leaves connection reuse to the platform's keep-alive cache.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+	@Override
+	public Exchange open(String url, Map<String, String> headers, long contentLength, int connectTimeout, int readTimeout) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		connection.setDoOutput(true); // indicates POST method
+		connection.setDoInput(true);
+		if (contentLength < 0 || contentLength > Integer.MAX_VALUE) {
+			// Chunked transfer mode to prevent local buffering, lengths beyond 2GB can't be set before API level 19
+			connection.setChunkedStreamingMode(0);
+		} else {
+			connection.setFixedLengthStreamingMode((int) contentLength);
+		}
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			connection.setRequestProperty(header.getKey(), header.getValue());
+		}
+		return new UrlConnectionExchange(connection);
+	}
+
+	static class UrlConnectionExchange implements Exchange {
+		private final HttpURLConnection connection;
+		private InputStream responseStream;
+
+		UrlConnectionExchange(HttpURLConnection connection) {
+			this.connection = connection;
+		}
+
+		HttpURLConnection getConnection() {
+			return connection;
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			return connection.getOutputStream();
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			try {
+				return connection.getResponseCode();
+			} catch (IOException e) {
+				if ("No authentication challenges found".equals(e.getMessage())) {
+					// Android trying to be clever...
+					return 401;
+				}
+				throw e;
+			}
+		}
+
+		@Override
+		public InputStream getResponseStream() throws IOException {
+			if (responseStream == null) {
+				responseStream = getResponseCode() >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			}
+			return responseStream;
+		}
+
+		@Override
+		public void close() {
+			// Closing the fully read stream, rather than disconnecting, returns the connection to the keep-alive cache
+			try {
+				if (responseStream != null) {
+					responseStream.close();
+				}
+			} catch (IOException e) {
+				connection.disconnect();
+			}
+		}
+
+		@Override
+		public void abort() {
+			connection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.cloudinary;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import android.text.TextUtils;
+
+/**
+ * Generates the urls of a configuration, and may be shared by any number of threads. Where
+ * {@link Url} builds one url at a time, the factory keeps no state between calls: the settings
+ * of each url are given as immutable {@link Options}, and the scheme, host and cloud name
+ * starting the urls are made once for each combination of the secure, private cdn, cname and
+ * cdn subdomain settings.
+ *
+ * <pre>
+ * static final UrlFactory.Options THUMBNAIL = new UrlFactory.Options.Builder()
+ *         .setTransformation(new Transformation().width(90).height(90).crop("thumb")).setSecure(true).build();
+ *
+ * cloudinary.urlFactory().generate("sample.jpg", THUMBNAIL);
+ * </pre>
+ */
+public final class UrlFactory {
+	private static final Options DEFAULTS = new Options.Builder().build();
+
+	private final Configuration config;
+	// Prefixes of the configured cname, by variant of the other settings, see #variant
+	private final String[][] prefixes;
+	// Prefixes of the other cnames urls were asked for, made on first use
+	private final ConcurrentMap<String, String[][]> cnamePrefixes = new ConcurrentHashMap<String, String[][]>();
+
+	public UrlFactory(Configuration config) {
+		this.config = config;
+		this.prefixes = prefixes(config.cname);
+	}
+
+	public Configuration getConfig() {
+		return config;
+	}
+
+	/**
+	 * The url of an uploaded image, with the settings of the configuration
+	 */
+	public String generate(String source) {
+		return generate(source, DEFAULTS);
+	}
+
+	/**
+	 * The url of the source, a public id or for fetch urls the remote url
+	 *
+	 * @return the url, or null for a null source
+	 */
+	public String generate(String source, Options options) {
+		if (TextUtils.isEmpty(config.cloudName)) {
+			throw new IllegalArgumentException("Must supply cloud_name in tag or in configuration");
+		}
+		if (source == null) {
+			return null;
+		}
+		boolean shorten = options.shorten != null ? options.shorten : config.shorten;
+		return Url.generate(config, prefixes(options), shorten, source, options.type, options.resourceType, options.format, options.version,
+				options.transformation, options.signed);
+	}
+
+	private String[] prefixes(Options options) {
+		int variant = variant(options.secure != null ? options.secure : config.secure,
+				options.privateCdn != null ? options.privateCdn : config.privateCdn,
+				options.cdnSubdomain != null ? options.cdnSubdomain : config.cdnSubdomain);
+		String cname = options.cname;
+		if (cname == null || cname.equals(config.cname)) {
+			return prefixes[variant];
+		}
+		String[][] prefixes = cnamePrefixes.get(cname);
+		if (prefixes == null) {
+			prefixes = prefixes(cname);
+			String[][] other = cnamePrefixes.putIfAbsent(cname, prefixes);
+			if (other != null) {
+				prefixes = other;
+			}
+		}
+		return prefixes[variant];
+	}
+
+	private static int variant(boolean secure, boolean privateCdn, boolean cdnSubdomain) {
+		return (secure ? 4 : 0) | (privateCdn ? 2 : 0) | (cdnSubdomain ? 1 : 0);
+	}
+
+	private String[][] prefixes(String cname) {
+		String[][] prefixes = new String[8][];
+		for (int i = 0; i < 8; i++) {
+			boolean secure = (i & 4) != 0;
+			boolean privateCdn = (i & 2) != 0;
+			boolean cdnSubdomain = (i & 1) != 0;
+			prefixes[i] = Url.prefixes(new Configuration.Builder().from(config).setCname(cname)
+					.setSecure(secure).setPrivateCdn(privateCdn).setCdnSubdomain(cdnSubdomain).build());
+		}
+		return prefixes;
+	}
+
+	/**
+	 * Settings of urls, those left unset being taken from the configuration. The transformation
+	 * is generated once, as they are built.
+	 */
+	public static final class Options {
+		final String type;
+		final String resourceType;
+		final String format;
+		final String version;
+		// Generated, along with the fetch format of fetch urls
+		final String transformation;
+		final boolean signed;
+		final Boolean secure;
+		final Boolean privateCdn;
+		final Boolean cdnSubdomain;
+		final Boolean shorten;
+		final String cname;
+
+		private Options(Builder builder) {
+			Transformation transformation = builder.transformation != null ? builder.transformation : new Transformation();
+			String format = builder.format;
+			if ("fetch".equals(builder.type) && !TextUtils.isEmpty(format)) {
+				transformation = new Transformation(transformation).fetchFormat(format);
+				format = null;
+			}
+			this.type = builder.type;
+			this.resourceType = builder.resourceType;
+			this.format = format;
+			this.version = builder.version;
+			this.transformation = transformation.generate();
+			this.signed = builder.signed;
+			this.secure = builder.secure;
+			this.privateCdn = builder.privateCdn;
+			this.cdnSubdomain = builder.cdnSubdomain;
+			this.shorten = builder.shorten;
+			this.cname = builder.cname;
+		}
+
+		public static final class Builder {
+			private String type = "upload";
+			private String resourceType = "image";
+			private String format;
+			private String version;
+			private Transformation transformation;
+			private boolean signed;
+			private Boolean secure;
+			private Boolean privateCdn;
+			private Boolean cdnSubdomain;
+			private Boolean shorten;
+			private String cname;
+
+			public Builder setType(String type) {
+				this.type = type;
+				return this;
+			}
+
+			public Builder setResourceType(String resourceType) {
+				this.resourceType = resourceType;
+				return this;
+			}
+
+			public Builder setFormat(String format) {
+				this.format = format;
+				return this;
+			}
+
+			public Builder setVersion(Object version) {
+				this.version = Cloudinary.asString(version);
+				return this;
+			}
+
+			public Builder setTransformation(Transformation transformation) {
+				this.transformation = transformation;
+				return this;
+			}
+
+			public Builder setSigned(boolean signed) {
+				this.signed = signed;
+				return this;
+			}
+
+			public Builder setSecure(boolean secure) {
+				this.secure = secure;
+				return this;
+			}
+
+			public Builder setPrivateCdn(boolean privateCdn) {
+				this.privateCdn = privateCdn;
+				return this;
+			}
+
+			public Builder setCdnSubdomain(boolean cdnSubdomain) {
+				this.cdnSubdomain = cdnSubdomain;
+				return this;
+			}
+
+			public Builder setShorten(boolean shorten) {
+				this.shorten = shorten;
+				return this;
+			}
+
+			public Builder setCname(String cname) {
+				this.cname = cname;
+				return this;
+			}
+
+			public Options build() {
+				return new Options(this);
+			}
+		}
+	}
+}
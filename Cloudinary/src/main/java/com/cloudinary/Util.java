@@ -29,7 +29,7 @@ public class Util {
 			params.put("similarity_search", options.get("similarity_search"));
 		if (options.get("auto_tagging") != null)
 			params.put("auto_tagging",
-					Cloudinary.asFloat(options.get("auto_tagging")));
+					Cloudinary.asString(Cloudinary.asFloat(options.get("auto_tagging"))));
 	}
 
 	protected static final String buildCustomHeaders(Object headers) {